@@ -0,0 +1,114 @@
+package org.unclazz.sample.bench;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.security.web.FilterChainProxy;
+import org.springframework.security.web.csrf.CsrfToken;
+import org.springframework.security.web.csrf.HttpSessionCsrfTokenRepository;
+import org.unclazz.sample.SampleApplication;
+import org.unclazz.sample.audit.SampleAuditEvent;
+import org.unclazz.sample.audit.SampleAuditLog;
+import org.unclazz.sample.metrics.SampleMetrics;
+
+/**
+ * 監査ログがログイン処理の時間に与える影響のベンチマーク.
+ * <p>{@code login}は複数のスレッドから成功するログインを繰り返し、{@code record}は監査ログへの記録のみを繰り返す。
+ * 記録はバッファへの追加だけで終わるため、{@code audit}の有無による{@code login}の処理時間の差は
+ * パスワードの照合の時間に比べて無視できる程度に収まる。
+ * 書き込みが追いつかずに破棄されたイベントの数を各試行の最後に標準出力に表示する。</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Threads(4)
+@Fork(1)
+public class AuditLogBenchmark {
+	@Param({"true", "false"})
+	private boolean audit;
+
+	@Param({"sha256"})
+	private String algorithm;
+
+	private File directory;
+	private ConfigurableApplicationContext context;
+	private FilterChainProxy filterChainProxy;
+	private SampleAuditLog auditLog;
+	private MockHttpSession session;
+	private CsrfToken csrfToken;
+
+	@Setup
+	public void setup() throws Exception {
+		directory = File.createTempFile("audit", "");
+		directory.delete();
+		context = new SpringApplicationBuilder(SampleApplication.class).web(false).properties(
+				"sample.audit.enabled=" + audit,
+				"sample.audit.directory=" + directory.getAbsolutePath(),
+				"sample.login.throttle.enabled=false",
+				"sample.password.algorithm=" + algorithm).run();
+		filterChainProxy = context.getBean(FilterChainProxy.class);
+		auditLog = context.getBean(SampleAuditLog.class);
+
+		// CSRFトークンをセッションに保存しておき、ログインのリクエストに含める
+		session = new MockHttpSession();
+		final MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setSession(session);
+		final HttpSessionCsrfTokenRepository repository = new HttpSessionCsrfTokenRepository();
+		csrfToken = repository.generateToken(request);
+		repository.saveToken(csrfToken, request, new MockHttpServletResponse());
+	}
+
+	@TearDown
+	public void tearDown() {
+		final Object dropped = context.getBean(SampleMetrics.class).snapshot().get("audit.dropped");
+		System.out.println(String.format("audit.dropped: %s", dropped));
+		context.close();
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Benchmark
+	public MockHttpServletResponse login() throws Exception {
+		final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/login");
+		request.setServletPath("/login");
+		request.setSession(session);
+		request.setRemoteAddr("192.0.2.1");
+		request.setParameter("username", "foo");
+		request.setParameter("password", "bar");
+		request.setParameter(csrfToken.getParameterName(), csrfToken.getToken());
+		final MockHttpServletResponse response = new MockHttpServletResponse();
+		filterChainProxy.doFilter(request, response, new MockFilterChain());
+		return response;
+	}
+
+	@Benchmark
+	public void record() {
+		auditLog.record(SampleAuditEvent.Type.LOGIN_SUCCESS, null, "foo", "192.0.2.1", null);
+	}
+}
@@ -0,0 +1,87 @@
+package org.unclazz.sample.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.security.access.expression.ExpressionUtils;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.web.FilterInvocation;
+import org.unclazz.sample.SampleGrantedAuthority;
+import org.unclazz.sample.SampleUserDetails;
+import org.unclazz.sample.mapper.SampleUserMapper;
+import org.unclazz.sample.security.SampleWebSecurityExpressionHandler;
+
+/**
+ * {@code /admin}に対する認可判定のベンチマーク.
+ * <p>従来の{@code hasAuthority('ADMINISTRATOR')}と
+ * ビットマスクによる{@code isGranted('ADMINISTRATOR')}の評価を比較する。
+ * 式の解析はあらかじめ済ませておき、評価コンテキストの生成と評価のみを計測する。</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AuthorizationBenchmark {
+	private SampleWebSecurityExpressionHandler expressionHandler;
+	private Expression hasAuthority;
+	private Expression isGranted;
+	private Authentication admin;
+	private Authentication operator;
+	private FilterInvocation invocation;
+
+	@Setup
+	public void setup() {
+		expressionHandler = new SampleWebSecurityExpressionHandler();
+		hasAuthority = expressionHandler.getExpressionParser().parseExpression(
+				"hasAuthority('" + SampleGrantedAuthority.NAME_ADMINISTRATOR + "')");
+		isGranted = expressionHandler.getExpressionParser().parseExpression(
+				"isGranted('" + SampleGrantedAuthority.NAME_ADMINISTRATOR + "')");
+		final SampleUserMapper userMapper = new SampleUserMapper();
+		admin = authenticationOf(SampleUserDetails.of(userMapper.selectOneByName("foo")));
+		operator = authenticationOf(SampleUserDetails.of(userMapper.selectOneByName("foo2")));
+		invocation = new FilterInvocation("/admin", "GET");
+	}
+
+	private static Authentication authenticationOf(final SampleUserDetails user) {
+		return new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities());
+	}
+
+	private boolean evaluate(final Expression expression, final Authentication authentication) {
+		final EvaluationContext context = expressionHandler.createEvaluationContext(authentication, invocation);
+		return ExpressionUtils.evaluateAsBoolean(expression, context);
+	}
+
+	@Benchmark
+	public boolean hasAuthorityPermitted() {
+		return evaluate(hasAuthority, admin);
+	}
+
+	@Benchmark
+	public boolean hasAuthorityDenied() {
+		return evaluate(hasAuthority, operator);
+	}
+
+	@Benchmark
+	public boolean isGrantedPermitted() {
+		return evaluate(isGranted, admin);
+	}
+
+	@Benchmark
+	public boolean isGrantedDenied() {
+		return evaluate(isGranted, operator);
+	}
+}
@@ -0,0 +1,108 @@
+package org.unclazz.sample.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpSession;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.security.web.FilterChainProxy;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import org.unclazz.sample.SampleApplication;
+import org.unclazz.sample.SampleUserDetails;
+import org.unclazz.sample.mapper.SampleUserMapper;
+
+/**
+ * Spring Securityのフィルタチェーン全体を1回通過する処理のベンチマーク.
+ * <p>組み込みサーバは起動せず、アプリケーション・コンテキストから取り出した{@link FilterChainProxy}に
+ * モックのリクエストを渡す。セッションにはログイン済みのセキュリティ・コンテキストを格納しておく。</p>
+ * <p>{@code stageMetrics}が{@code true}の場合はフィルタごとの処理時間を計測するため、
+ * {@code false}の場合との差が計測のオーバーヘッドとなる。</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FilterChainBenchmark {
+	@Param({"false", "true"})
+	private boolean stageMetrics;
+
+	private ConfigurableApplicationContext context;
+	private FilterChainProxy filterChainProxy;
+	private HttpSession adminSession;
+	private HttpSession operatorSession;
+
+	@Setup
+	public void setup() {
+		context = new SpringApplicationBuilder(SampleApplication.class).web(false)
+				.properties("sample.metrics.stages.enabled=" + stageMetrics).run();
+		filterChainProxy = context.getBean(FilterChainProxy.class);
+		final SampleUserMapper userMapper = context.getBean(SampleUserMapper.class);
+		adminSession = sessionOf(SampleUserDetails.of(userMapper.selectOneByName("foo")));
+		operatorSession = sessionOf(SampleUserDetails.of(userMapper.selectOneByName("foo2")));
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+
+	private static HttpSession sessionOf(final SampleUserDetails user) {
+		final SecurityContext securityContext = new SecurityContextImpl();
+		securityContext.setAuthentication(new UsernamePasswordAuthenticationToken(
+				user, null, user.getAuthorities()));
+		final MockHttpSession session = new MockHttpSession();
+		session.setAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY, securityContext);
+		return session;
+	}
+
+	private MockHttpServletResponse doFilter(final String path, final HttpSession session) throws Exception {
+		final MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+		request.setServletPath(path);
+		request.setSession(session);
+		final MockHttpServletResponse response = new MockHttpServletResponse();
+		filterChainProxy.doFilter(request, response, new MockFilterChain());
+		return response;
+	}
+
+	@Benchmark
+	public MockHttpServletResponse index() throws Exception {
+		return doFilter("/index", operatorSession);
+	}
+
+	@Benchmark
+	public MockHttpServletResponse adminPermitted() throws Exception {
+		return doFilter("/admin", adminSession);
+	}
+
+	@Benchmark
+	public MockHttpServletResponse adminDenied() throws Exception {
+		return doFilter("/admin", operatorSession);
+	}
+
+	@Benchmark
+	public MockHttpServletResponse anonymousRedirect() throws Exception {
+		return doFilter("/index", null);
+	}
+}
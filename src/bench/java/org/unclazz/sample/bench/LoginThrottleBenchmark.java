@@ -0,0 +1,120 @@
+package org.unclazz.sample.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.security.web.FilterChainProxy;
+import org.springframework.security.web.csrf.CsrfToken;
+import org.springframework.security.web.csrf.HttpSessionCsrfTokenRepository;
+import org.unclazz.sample.SampleApplication;
+
+/**
+ * パスワード・リスト攻撃を模した負荷をかけたときのログイン処理のコストのベンチマーク.
+ * <p>1つのクライアントから誤ったパスワードによるログインを繰り返し、1回あたりの処理時間を計測する。
+ * {@code throttle}が{@code true}の場合、上限に達した後の試行はパスワードの照合の前に
+ * {@code 429}で拒否されるため、処理時間（すなわち消費されるCPU時間）は照合のコストに比べて十分小さく抑えられる。
+ * 参考として、各反復で消費されたプロセス全体のCPU時間を標準出力に表示する。</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Threads(4)
+@Fork(1)
+public class LoginThrottleBenchmark {
+	@Param({"true", "false"})
+	private boolean throttle;
+
+	@Param({"bcrypt"})
+	private String algorithm;
+
+	private ConfigurableApplicationContext context;
+	private FilterChainProxy filterChainProxy;
+	private MockHttpSession session;
+	private CsrfToken csrfToken;
+	private long cpuTimeAtStart;
+
+	@Setup
+	public void setup() {
+		context = new SpringApplicationBuilder(SampleApplication.class).web(false).properties(
+				"sample.login.throttle.enabled=" + throttle,
+				"sample.password.algorithm=" + algorithm).run();
+		filterChainProxy = context.getBean(FilterChainProxy.class);
+
+		// CSRFトークンをセッションに保存しておき、ログインのリクエストに含める
+		session = new MockHttpSession();
+		final MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setSession(session);
+		final HttpSessionCsrfTokenRepository repository = new HttpSessionCsrfTokenRepository();
+		csrfToken = repository.generateToken(request);
+		repository.saveToken(csrfToken, request, new MockHttpServletResponse());
+	}
+
+	@Setup(Level.Iteration)
+	public void startIteration() {
+		cpuTimeAtStart = processCpuTime();
+	}
+
+	@TearDown(Level.Iteration)
+	public void endIteration() {
+		System.out.println(String.format("process CPU time: %d ms",
+				TimeUnit.NANOSECONDS.toMillis(processCpuTime() - cpuTimeAtStart)));
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	public MockHttpServletResponse attack() throws Exception {
+		final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/login");
+		request.setServletPath("/login");
+		request.setSession(session);
+		request.setRemoteAddr("192.0.2.1");
+		request.setParameter("username", "foo");
+		request.setParameter("password", "wrong");
+		request.setParameter(csrfToken.getParameterName(), csrfToken.getToken());
+		final MockHttpServletResponse response = new MockHttpServletResponse();
+		filterChainProxy.doFilter(request, response, new MockFilterChain());
+		return response;
+	}
+
+	/**
+	 * 全スレッドの消費したCPU時間の合計を返す.
+	 * @return CPU時間（ナノ秒）
+	 */
+	private static long processCpuTime() {
+		final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long total = 0;
+		for (final long id : threads.getAllThreadIds()) {
+			final long time = threads.getThreadCpuTime(id);
+			if (time > 0) {
+				total += time;
+			}
+		}
+		return total;
+	}
+}
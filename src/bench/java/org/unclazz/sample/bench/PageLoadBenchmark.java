@@ -0,0 +1,134 @@
+package org.unclazz.sample.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.unclazz.sample.SampleApplication;
+import org.unclazz.sample.controller.SampleAssetVersions;
+
+/**
+ * ログイン画面を表示する際のリクエストの処理速度のベンチマーク.
+ * <p>組み込みサーバを起動し、ブラウザと同様にログイン画面とそこから参照される静的リソースを取得する。
+ * {@code assets}が{@code false}の場合は変更前の動作（静的リソースもフィルタチェーンを通り、
+ * キャッシュを許可しない）、{@code true}の場合は{@code sample.assets.enabled}による動作となる。</p>
+ * <p>{@link #coldLoad()}はキャッシュを持たないブラウザによる初回の表示、
+ * {@link #warmLoad()}は同じブラウザによる再表示で、キャッシュが許可されていれば
+ * ログイン画面は{@code If-None-Match}による再検証のみとなり静的リソースは取得しない。
+ * ログイン画面にはセッションごとのCSRFトークンが埋め込まれるため、再表示では初回のセッションを引き継ぐ。</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Threads(4)
+@Fork(1)
+public class PageLoadBenchmark {
+	@Param({"false", "true"})
+	private boolean assets;
+
+	private ConfigurableApplicationContext context;
+	private String baseUrl;
+	private String cssUrl;
+	private String jsUrl;
+	private String etag;
+	private String cookie;
+
+	@Setup
+	public void setup() throws IOException {
+		final int port = freePort();
+		context = new SpringApplicationBuilder(SampleApplication.class)
+				.properties("server.port=" + port, "sample.assets.enabled=" + assets).run();
+		baseUrl = "http://localhost:" + port;
+		final SampleAssetVersions versions = context.getBean(SampleAssetVersions.class);
+		cssUrl = versions.url("/assets/css/login.css");
+		jsUrl = versions.url("/assets/js/login.js");
+		final HttpURLConnection connection = open("/login", null, null);
+		drain(connection);
+		etag = connection.getHeaderField("ETag");
+		final String setCookie = connection.getHeaderField("Set-Cookie");
+		cookie = setCookie == null ? null : setCookie.split(";", 2)[0];
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+
+	private static int freePort() throws IOException {
+		final ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+	private HttpURLConnection open(final String path, final String cookie,
+			final String ifNoneMatch) throws IOException {
+		final HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+		connection.setInstanceFollowRedirects(false);
+		connection.setUseCaches(false);
+		if (cookie != null) {
+			connection.setRequestProperty("Cookie", cookie);
+		}
+		if (ifNoneMatch != null) {
+			connection.setRequestProperty("If-None-Match", ifNoneMatch);
+		}
+		return connection;
+	}
+
+	private static int drain(final HttpURLConnection connection) throws IOException {
+		final int status = connection.getResponseCode();
+		final InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+		int total = 0;
+		if (in != null) {
+			try {
+				final byte[] buffer = new byte[8192];
+				int n;
+				while ((n = in.read(buffer)) != -1) {
+					total += n;
+				}
+			} finally {
+				in.close();
+			}
+		}
+		if (status >= 300 && status != HttpURLConnection.HTTP_NOT_MODIFIED) {
+			throw new IllegalStateException(String.format("Unexpected status %d for %s", status, connection.getURL()));
+		}
+		return total;
+	}
+
+	@Benchmark
+	public int coldLoad() throws IOException {
+		return drain(open("/login", null, null)) + drain(open(cssUrl, null, null)) + drain(open(jsUrl, null, null));
+	}
+
+	@Benchmark
+	public int warmLoad() throws IOException {
+		if (etag == null) {
+			// キャッシュが許可されていないのですべて取得し直す
+			return coldLoad();
+		}
+		return drain(open("/login", cookie, etag));
+	}
+}
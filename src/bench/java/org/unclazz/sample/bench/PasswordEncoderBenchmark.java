@@ -0,0 +1,56 @@
+package org.unclazz.sample.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.unclazz.sample.mapper.SampleUserMapper;
+import org.unclazz.sample.metrics.SampleMetrics;
+import org.unclazz.sample.security.SamplePasswordEncoder;
+
+/**
+ * パスワード照合のベンチマーク.
+ * <p>{@code sha256}では{@link SampleUserMapper}に登録済みのエンコード済みパスワードをそのまま使用する。</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PasswordEncoderBenchmark {
+	@Param({"sha256", "bcrypt"})
+	private String algorithm;
+
+	@Param({"10"})
+	private int bcryptStrength;
+
+	private SamplePasswordEncoder passwordEncoder;
+	private String encodedPassword;
+
+	@Setup
+	public void setup() {
+		passwordEncoder = new SamplePasswordEncoder(algorithm, bcryptStrength, new SampleMetrics());
+		final String stored = new SampleUserMapper().selectOneByName("foo").getPassword();
+		encodedPassword = passwordEncoder.upgradeEncoding(stored) ? passwordEncoder.encode("bar") : stored;
+	}
+
+	@Benchmark
+	public boolean matches() {
+		return passwordEncoder.matches("bar", encodedPassword);
+	}
+
+	@Benchmark
+	public boolean matchesWrongPassword() {
+		return passwordEncoder.matches("baz", encodedPassword);
+	}
+}
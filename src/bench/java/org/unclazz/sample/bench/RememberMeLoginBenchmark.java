@@ -0,0 +1,132 @@
+package org.unclazz.sample.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.Cookie;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.security.web.FilterChainProxy;
+import org.springframework.security.web.csrf.CsrfToken;
+import org.springframework.security.web.csrf.HttpSessionCsrfTokenRepository;
+import org.unclazz.sample.SampleApplication;
+
+/**
+ * セッションを持たずに再訪したユーザを認証するコストのベンチマーク.
+ * <p>{@code password}はフォーム・ログイン（パスワードの照合）を、{@code rememberMe}は永続ログインのクッキーによる認証を
+ * 毎回新しいセッションで行う。永続ログインではシリーズの検索とトークンの置き換えだけでパスワードのハッシュ計算が発生しないため、
+ * その差が1回あたりに節約できるCPU時間となる。各反復の終了時に1回あたりのCPU時間を標準出力に表示する。</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RememberMeLoginBenchmark {
+	@Param({"password", "rememberMe"})
+	private String login;
+
+	@Param({"bcrypt", "sha256"})
+	private String algorithm;
+
+	private ConfigurableApplicationContext context;
+	private FilterChainProxy filterChainProxy;
+	private HttpSessionCsrfTokenRepository csrfTokenRepository;
+	private Cookie rememberMeCookie;
+	private long cpuTimeAtStart;
+	private long operations;
+
+	@Setup
+	public void setup() throws Exception {
+		context = new SpringApplicationBuilder(SampleApplication.class).web(false).properties(
+				"sample.password.algorithm=" + algorithm).run();
+		filterChainProxy = context.getBean(FilterChainProxy.class);
+		csrfTokenRepository = new HttpSessionCsrfTokenRepository();
+
+		// 永続ログインを選択してログインし、クッキーを受け取っておく
+		rememberMeCookie = formLogin(true).getCookie("remember-me");
+		if (rememberMeCookie == null) {
+			throw new IllegalStateException("No remember-me cookie issued");
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void startIteration() {
+		cpuTimeAtStart = threadCpuTime();
+		operations = 0;
+	}
+
+	@TearDown(Level.Iteration)
+	public void endIteration() {
+		System.out.println(String.format("CPU time per login: %d us",
+				TimeUnit.NANOSECONDS.toMicros((threadCpuTime() - cpuTimeAtStart) / Math.max(operations, 1))));
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	public MockHttpServletResponse returningUser() throws Exception {
+		operations++;
+		if ("password".equals(login)) {
+			return formLogin(false);
+		}
+		final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/index");
+		request.setServletPath("/index");
+		request.setCookies(rememberMeCookie);
+		final MockHttpServletResponse response = new MockHttpServletResponse();
+		filterChainProxy.doFilter(request, response, new MockFilterChain());
+		// トークンは使用のたびに置き換えられるので、新しいクッキーを次回に使用する
+		final Cookie rotated = response.getCookie("remember-me");
+		if (rotated == null || response.getStatus() != 200) {
+			throw new IllegalStateException("Remember-me authentication failed");
+		}
+		rememberMeCookie = rotated;
+		return response;
+	}
+
+	private MockHttpServletResponse formLogin(final boolean rememberMe) throws Exception {
+		final MockHttpSession session = new MockHttpSession();
+		final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/login");
+		request.setServletPath("/login");
+		request.setSession(session);
+		final CsrfToken csrfToken = csrfTokenRepository.generateToken(request);
+		csrfTokenRepository.saveToken(csrfToken, request, new MockHttpServletResponse());
+		request.setParameter("username", "foo");
+		request.setParameter("password", "bar");
+		request.setParameter(csrfToken.getParameterName(), csrfToken.getToken());
+		if (rememberMe) {
+			request.setParameter("remember-me", "on");
+		}
+		final MockHttpServletResponse response = new MockHttpServletResponse();
+		filterChainProxy.doFilter(request, response, new MockFilterChain());
+		return response;
+	}
+
+	private static long threadCpuTime() {
+		final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		return threads.getCurrentThreadCpuTime();
+	}
+}
@@ -0,0 +1,98 @@
+package org.unclazz.sample.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.security.web.session.HttpSessionCreatedEvent;
+import org.springframework.security.web.session.HttpSessionDestroyedEvent;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.unclazz.sample.metrics.SampleMetrics;
+import org.unclazz.sample.security.SampleSessionRegistry;
+
+/**
+ * セッションの生成・ログイン・破棄を繰り返す負荷を長時間かけ続けるベンチマーク.
+ * <p>1回の操作でセッションを1つ生成し、{@code loginRatio}の割合でログイン、
+ * {@code logoutRatio}の割合で破棄する。破棄されないセッションは放置されたものとみなされ、
+ * レジストリは{@code maxSessions}を超えた分を無効にしなければならない。
+ * {@code -prof gc}とともに実行し、ヒープの使用量が試行を通じて一定に保たれることを確認する。
+ * 各試行の終了時にレジストリの状態とヒープの使用量を出力する。</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 10, time = 30)
+@Threads(4)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512m")
+public class SessionRegistryChurnBenchmark {
+	@Param({"100000"})
+	private int maxSessions;
+
+	@Param({"0.5"})
+	private double loginRatio;
+
+	@Param({"0.9"})
+	private double logoutRatio;
+
+	@Param({"10000"})
+	private int users;
+
+	private SampleMetrics metrics;
+	private SampleSessionRegistry registry;
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+		private final Random random = new Random();
+	}
+
+	@Setup
+	public void setup() {
+		metrics = new SampleMetrics();
+		registry = new SampleSessionRegistry();
+		ReflectionTestUtils.setField(registry, "metrics", metrics);
+		ReflectionTestUtils.setField(registry, "idleSeconds", 1800);
+		ReflectionTestUtils.setField(registry, "maxSessions", maxSessions);
+		registry.initialize();
+	}
+
+	@TearDown(Level.Iteration)
+	public void report() {
+		final Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		System.out.printf("%n%s heapUsed=%dMB%n", metrics.snapshot(),
+				(runtime.totalMemory() - runtime.freeMemory()) >> 20);
+	}
+
+	@TearDown
+	public void tearDown() {
+		registry.shutdown();
+	}
+
+	@Benchmark
+	public void churn(final ThreadState state) {
+		final MockHttpSession session = new MockHttpSession();
+		registry.onApplicationEvent(new HttpSessionCreatedEvent(session));
+		if (state.random.nextDouble() < loginRatio) {
+			registry.registerNewSession(session.getId(), "user" + state.random.nextInt(users));
+			registry.refreshLastRequest(session.getId());
+		}
+		if (state.random.nextDouble() < logoutRatio) {
+			registry.onApplicationEvent(new HttpSessionDestroyedEvent(session));
+		}
+	}
+}
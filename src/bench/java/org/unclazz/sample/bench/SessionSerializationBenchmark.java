@@ -0,0 +1,106 @@
+package org.unclazz.sample.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.security.web.authentication.WebAuthenticationDetails;
+import org.unclazz.sample.SampleUserDetails;
+import org.unclazz.sample.entity.User;
+import org.unclazz.sample.security.SampleSecurityContext;
+import org.unclazz.sample.security.SampleSecurityContextCodec;
+
+/**
+ * セッションに保存するセキュリティ・コンテキストの直列化のベンチマーク.
+ * <p>ログイン直後と同じ状態（パスワードは消去済み、リクエストの詳細あり）のコンテキストを
+ * 直列化・復元する時間を計測し、1セッションあたりのバイト数を標準出力に表示する。
+ * {@code java}は既定の{@link SecurityContextImpl}、{@code compact}は{@link SampleSecurityContext}を
+ * コンテナと同じく{@link ObjectOutputStream}で書き出し、{@code codec}は
+ * {@link SampleSecurityContextCodec#encode(org.springframework.security.core.Authentication)}で
+ * ストリームのヘッダもクラスの記述子も含まないバイト列に変換する。</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SessionSerializationBenchmark {
+	@Param({"java", "compact", "codec"})
+	private String format;
+
+	private SecurityContext context;
+	private byte[] serialized;
+
+	@Setup
+	public void setup() throws Exception {
+		final User user = new User();
+		user.setId(12345);
+		user.setName("foo");
+		user.setPassword("{sha256}1b6337e4f7dde5e763f0867666a2f421a9f855938ff88ddf8c81a10e16493e8b235e74e5d43d7ae1");
+		user.setAdmin(true);
+		final SampleUserDetails principal = SampleUserDetails.of(user);
+		final UsernamePasswordAuthenticationToken authentication =
+				new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities());
+		final MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setRemoteAddr("192.0.2.1");
+		authentication.setDetails(new WebAuthenticationDetails(request));
+		// ProviderManagerと同じく認証後に資格情報を消去する
+		authentication.eraseCredentials();
+		principal.eraseCredentials();
+
+		if ("java".equals(format)) {
+			context = new SecurityContextImpl();
+			context.setAuthentication(authentication);
+		} else if ("compact".equals(format) || "codec".equals(format)) {
+			context = new SampleSecurityContext(authentication);
+		} else {
+			throw new IllegalArgumentException("Unknown format: " + format);
+		}
+		serialized = serialize();
+		System.out.println(String.format("%s: %d bytes/session", format, serialized.length));
+	}
+
+	@Benchmark
+	public byte[] serialize() throws IOException {
+		if ("codec".equals(format)) {
+			return SampleSecurityContextCodec.encode(context.getAuthentication());
+		}
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		final ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(context);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	@Benchmark
+	public Object deserialize() throws IOException, ClassNotFoundException {
+		if ("codec".equals(format)) {
+			return SampleSecurityContextCodec.decode(serialized);
+		}
+		final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized));
+		try {
+			return in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package org.unclazz.sample.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpSession;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.security.web.FilterChainProxy;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import org.unclazz.sample.SampleApplication;
+import org.unclazz.sample.SampleUserDetails;
+import org.unclazz.sample.mapper.SampleUserMapper;
+import org.unclazz.sample.security.SampleTokenService;
+
+/**
+ * 認証状態の保持方法ごとに、ログイン済みのリクエストがフィルタチェーンを通過する処理を比較するベンチマーク.
+ * <p>{@code session}ではセッションに格納したセキュリティ・コンテキストを、
+ * {@code token}ではクッキーの署名付きトークンを使用する。
+ * {@link #verify()}はトークンの検証処理のみを計測する。</p>
+ * <p>準備の際に{@link #USERS}人分のログイン済みのリクエストをフィルタチェーンに通し、
+ * サーバ側に残る状態（{@code session}ではセッション、{@code token}では生成されたセッションがあればそれ）の
+ * ヒープ使用量を1ユーザあたりのバイト数で標準出力に表示する。
+ * リクエストごとの割り当て量は{@code -prof gc}とともに実行して比較する。</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TokenAuthenticationBenchmark {
+	/**
+	 * ヒープ使用量を計測するログイン済みユーザの数.
+	 */
+	private static final int USERS = 10000;
+
+	@Param({"session", "token"})
+	public String mode;
+
+	private ConfigurableApplicationContext context;
+	private FilterChainProxy filterChainProxy;
+	private SampleTokenService tokenService;
+	private MockHttpSession session;
+	private Cookie cookie;
+	private String token;
+
+	@Setup
+	public void setup() {
+		context = new SpringApplicationBuilder(SampleApplication.class).web(false)
+				.properties("sample.auth.mode=" + mode).run();
+		filterChainProxy = context.getBean(FilterChainProxy.class);
+		tokenService = context.getBean(SampleTokenService.class);
+		final SampleUserDetails user = SampleUserDetails.of(
+				context.getBean(SampleUserMapper.class).selectOneByName("foo2"));
+
+		final SecurityContext securityContext = new SecurityContextImpl();
+		securityContext.setAuthentication(new UsernamePasswordAuthenticationToken(
+				user, null, user.getAuthorities()));
+		session = new MockHttpSession();
+		session.setAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY, securityContext);
+
+		token = tokenService.issue(user, System.currentTimeMillis());
+		cookie = new Cookie("SAMPLE_AUTH", token);
+		System.out.println(String.format("heap: %.1f bytes/user (%s)", retainedBytesPerUser(), mode));
+	}
+
+	/**
+	 * ログイン済みのユーザがそれぞれ1回リクエストした後にサーバ側に残る状態の、1ユーザあたりのヒープ使用量を返す.
+	 * @return バイト数
+	 */
+	private double retainedBytesPerUser() {
+		final SampleUserMapper mapper = context.getBean(SampleUserMapper.class);
+		final List<HttpSession> retained = new ArrayList<HttpSession>(USERS);
+		final long before = usedHeap();
+		for (int i = 0; i < USERS; i++) {
+			// ログインごとに別のプリンシパルが生成されるのと同じく、ユーザごとに別のオブジェクトを使用する
+			final SampleUserDetails user = SampleUserDetails.of(mapper.selectOneByName("foo2"));
+			final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/index");
+			request.setServletPath("/index");
+			if ("token".equals(mode)) {
+				request.setCookies(new Cookie("SAMPLE_AUTH", tokenService.issue(user, System.currentTimeMillis())));
+			} else {
+				final SecurityContext securityContext = new SecurityContextImpl();
+				securityContext.setAuthentication(new UsernamePasswordAuthenticationToken(
+						user, null, user.getAuthorities()));
+				final MockHttpSession userSession = new MockHttpSession();
+				userSession.setAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY,
+						securityContext);
+				request.setSession(userSession);
+			}
+			try {
+				filterChainProxy.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+			} catch (final Exception e) {
+				throw new IllegalStateException(e);
+			}
+			retained.add(request.getSession(false));
+		}
+		final double bytes = (double) (usedHeap() - before) / USERS;
+		retained.clear();
+		return bytes;
+	}
+
+	/**
+	 * GCを行ったうえでヒープの使用量を返す.
+	 * @return 使用量（バイト）
+	 */
+	private static long usedHeap() {
+		final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		for (int i = 0; i < 3; i++) {
+			memory.gc();
+		}
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	public MockHttpServletResponse index() throws Exception {
+		final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/index");
+		request.setServletPath("/index");
+		if ("token".equals(mode)) {
+			request.setCookies(cookie);
+		} else {
+			request.setSession(session);
+		}
+		final MockHttpServletResponse response = new MockHttpServletResponse();
+		filterChainProxy.doFilter(request, response, new MockFilterChain());
+		return response;
+	}
+
+	@Benchmark
+	public SampleTokenService.Claims verify() {
+		return tokenService.verify(token, System.currentTimeMillis());
+	}
+}
@@ -0,0 +1,98 @@
+package org.unclazz.sample.bench;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.access.ConfigAttribute;
+import org.springframework.security.web.FilterInvocation;
+import org.springframework.security.web.access.intercept.DefaultFilterInvocationSecurityMetadataSource;
+import org.springframework.security.web.access.intercept.FilterInvocationSecurityMetadataSource;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.unclazz.sample.SampleGrantedAuthority;
+import org.unclazz.sample.security.SampleAuthorizationRule;
+import org.unclazz.sample.security.SampleTrieSecurityMetadataSource;
+
+/**
+ * URLに対するアクセスの条件を引き当てる処理のベンチマーク.
+ * <p>{@code ant}は{@code antMatchers(...)}で登録した場合と同じく{@link AntPathRequestMatcher}を先頭から順に照合し、
+ * {@code trie}は{@link SampleTrieSecurityMetadataSource}でパスをたどる。
+ * 規則は{@code /section<n>/page/**}の形で{@code rules - 1}個と、最後に{@code /**}を登録する。
+ * {@link #lastRule()}は最後の{@code /section<n>/...}に、{@link #fallThrough()}は{@code /**}に該当するリクエストである。</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UrlAuthorizationBenchmark {
+	@Param({"10", "100", "1000"})
+	private int rules;
+
+	@Param({"ant", "trie"})
+	private String matcher;
+
+	private FilterInvocationSecurityMetadataSource metadataSource;
+	private FilterInvocation lastRule;
+	private FilterInvocation fallThrough;
+
+	@Setup
+	public void setup() {
+		final List<SampleAuthorizationRule> list = new ArrayList<SampleAuthorizationRule>(rules);
+		for (int i = 0; i < rules - 1; i++) {
+			final String pattern = "/section" + i + "/page/**";
+			list.add(i % 2 == 0 ? SampleAuthorizationRule.granted(pattern, SampleGrantedAuthority.ADMINISTRATOR)
+					: SampleAuthorizationRule.authenticated(pattern));
+		}
+		list.add(SampleAuthorizationRule.authenticated("/**"));
+
+		if ("trie".equals(matcher)) {
+			metadataSource = new SampleTrieSecurityMetadataSource(list);
+		} else {
+			final LinkedHashMap<RequestMatcher, Collection<ConfigAttribute>> map =
+					new LinkedHashMap<RequestMatcher, Collection<ConfigAttribute>>();
+			for (final SampleAuthorizationRule rule : list) {
+				map.put(new AntPathRequestMatcher(rule.getPattern(), rule.getMethod()),
+						Collections.<ConfigAttribute>singletonList(rule));
+			}
+			metadataSource = new DefaultFilterInvocationSecurityMetadataSource(map);
+		}
+		lastRule = invocationOf("/section" + (rules - 2) + "/page/1");
+		fallThrough = invocationOf("/index");
+	}
+
+	private static FilterInvocation invocationOf(final String path) {
+		final MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+		request.setServletPath(path);
+		return new FilterInvocation(request, new MockHttpServletResponse(), new MockFilterChain());
+	}
+
+	@Benchmark
+	public Collection<ConfigAttribute> lastRule() {
+		return metadataSource.getAttributes(lastRule);
+	}
+
+	@Benchmark
+	public Collection<ConfigAttribute> fallThrough() {
+		return metadataSource.getAttributes(fallThrough);
+	}
+}
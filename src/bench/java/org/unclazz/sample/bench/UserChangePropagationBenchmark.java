@@ -0,0 +1,133 @@
+package org.unclazz.sample.bench;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.unclazz.sample.SampleApplication;
+import org.unclazz.sample.entity.User;
+import org.unclazz.sample.mapper.SampleUserMapper;
+import org.unclazz.sample.metrics.SampleMetrics;
+
+/**
+ * ユーザ情報の変更が他のノードに届くまでの時間のベンチマーク.
+ * <p>同じJVM内で2つのノード（アプリケーション・コンテキスト）を起動し、一方で{@code bulk}人のユーザを更新してから
+ * もう一方がそのすべての変更通知を受け取るまでの時間を計測する。
+ * 各試行の終了時に送信した通知の数を出力し、大量の更新がまとめて送られていることを確認する。</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UserChangePropagationBenchmark {
+	@Param({"jvm", "udp"})
+	private String transport;
+
+	@Param({"1", "1000", "10000"})
+	private int bulk;
+
+	@Param({"10"})
+	private long flushMillis;
+
+	private ConfigurableApplicationContext sender;
+	private ConfigurableApplicationContext receiver;
+	private SampleUserMapper senderMapper;
+	private SampleMetrics senderMetrics;
+	private SampleMetrics receiverMetrics;
+	private List<User> users;
+
+	@Setup
+	public void setup() throws IOException {
+		final int senderPort = freePort();
+		final int receiverPort = freePort();
+		sender = node(senderPort, receiverPort);
+		receiver = node(receiverPort, senderPort);
+		senderMapper = sender.getBean(SampleUserMapper.class);
+		senderMetrics = sender.getBean(SampleMetrics.class);
+		receiverMetrics = receiver.getBean(SampleMetrics.class);
+
+		users = new ArrayList<User>(bulk);
+		final int firstId = senderMapper.selectNextVals(bulk);
+		for (int i = 0; i < bulk; i++) {
+			final User user = new User();
+			user.setId(firstId + i);
+			user.setName("user" + i);
+			user.setPassword("1b6337e4f7dde5e763f0867666a2f421a9f855938ff88ddf8c81a10e16493e8b235e74e5d43d7ae1");
+			users.add(user);
+		}
+		senderMapper.insertAll(users, null);
+	}
+
+	@TearDown(Level.Iteration)
+	public void report() {
+		final Map<String, Object> snapshot = senderMetrics.snapshot();
+		System.out.println(String.format("%nsent batches=%s users=%s coalesced=%s",
+				snapshot.get("cluster.sent.batches"), snapshot.get("cluster.sent.users"),
+				snapshot.get("cluster.sent.coalesced")));
+	}
+
+	@TearDown
+	public void tearDown() {
+		sender.close();
+		receiver.close();
+	}
+
+	@Benchmark
+	public long propagate() throws InterruptedException {
+		final long before = received();
+		for (final User user : users) {
+			user.setAdmin(!user.isAdmin());
+			senderMapper.update(user, null);
+		}
+		// UDPでは取りこぼしがありうるので一定時間で打ち切る
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+		long received;
+		while ((received = received()) - before < bulk && System.nanoTime() < deadline) {
+			Thread.sleep(0, 100000);
+		}
+		return received;
+	}
+
+	private long received() {
+		final Object value = receiverMetrics.snapshot().get("cluster.received.users");
+		return value == null ? 0 : (Long) value;
+	}
+
+	private ConfigurableApplicationContext node(final int port, final int peerPort) {
+		return new SpringApplicationBuilder(SampleApplication.class).web(false).properties(
+				"sample.cluster.transport=" + transport,
+				"sample.cluster.group=bench",
+				"sample.cluster.bind=127.0.0.1:" + port,
+				"sample.cluster.peers=127.0.0.1:" + peerPort,
+				"sample.cluster.flushMillis=" + flushMillis).run();
+	}
+
+	private static int freePort() throws IOException {
+		final DatagramSocket socket = new DatagramSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package org.unclazz.sample.bench;
+
+import java.security.Principal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.unclazz.sample.SampleGrantedAuthority;
+import org.unclazz.sample.SampleUserDetails;
+import org.unclazz.sample.entity.User;
+import org.unclazz.sample.mapper.SampleUserMapper;
+import org.unclazz.sample.metrics.SampleMetrics;
+import org.unclazz.sample.service.CachingSampleUserDetailsService;
+import org.unclazz.sample.service.SampleUserDetailsService;
+
+/**
+ * 認証のたびに呼び出されるユーザ情報まわりの処理のベンチマーク.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UserDetailsBenchmark {
+	private SampleUserDetailsService userDetailsService;
+	private CachingSampleUserDetailsService cachingUserDetailsService;
+	private User user;
+	private Principal principal;
+
+	@Setup
+	public void setup() {
+		final SampleUserMapper userMapper = new SampleUserMapper();
+		
+		userDetailsService = new SampleUserDetailsService();
+		ReflectionTestUtils.setField(userDetailsService, "userMapper", userMapper);
+		
+		cachingUserDetailsService = new CachingSampleUserDetailsService();
+		ReflectionTestUtils.setField(cachingUserDetailsService, "delegate", userDetailsService);
+		ReflectionTestUtils.setField(cachingUserDetailsService, "userMapper", userMapper);
+		ReflectionTestUtils.setField(cachingUserDetailsService, "metrics", new SampleMetrics());
+		ReflectionTestUtils.setField(cachingUserDetailsService, "enabled", true);
+		ReflectionTestUtils.setField(cachingUserDetailsService, "maxSize", 10000);
+		ReflectionTestUtils.setField(cachingUserDetailsService, "ttlSeconds", 300);
+		ReflectionTestUtils.setField(cachingUserDetailsService, "negativeTtlSeconds", 5);
+		cachingUserDetailsService.initialize();
+		
+		user = userMapper.selectOneByName("foo");
+		final SampleUserDetails details = SampleUserDetails.of(user);
+		principal = new UsernamePasswordAuthenticationToken(details, null, details.getAuthorities());
+	}
+
+	@Benchmark
+	public UserDetails loadUserByUsername() {
+		return userDetailsService.loadUserByUsername("foo");
+	}
+
+	@Benchmark
+	public UserDetails loadUserByUsernameCached() {
+		return cachingUserDetailsService.loadUserByUsername("foo");
+	}
+
+	@Benchmark
+	public SampleUserDetails userDetailsOfUser() {
+		return SampleUserDetails.of(user);
+	}
+
+	@Benchmark
+	public SampleUserDetails userDetailsOfPrincipal() {
+		return SampleUserDetails.of(principal);
+	}
+
+	@Benchmark
+	public SampleGrantedAuthority grantedAuthorityOf() {
+		return SampleGrantedAuthority.of(SampleGrantedAuthority.NAME_ADMINISTRATOR);
+	}
+}
@@ -0,0 +1,171 @@
+package org.unclazz.sample.bench;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.unclazz.sample.entity.User;
+import org.unclazz.sample.mapper.SampleUserIdSequence;
+import org.unclazz.sample.mapper.SampleUserMapper;
+
+/**
+ * {@link SampleUserMapper}による採番・登録・検索のスループットを、{@link HashMap}に格納していた以前の実装と比較するベンチマーク.
+ * <p>以前の実装（{@link BaselineUserMapper}）は複数のスレッドから登録するとマップが壊れたり同じIDが採番されたりするため、
+ * そのままの形では1スレッドでのみ登録を計測する（{@code baselineRegister}）。8スレッドでの比較には、
+ * 採番と登録を1つのロックで囲んで正しく動くようにしたもの（{@code baselineSynchronizedRegister}）を使用する。
+ * 書き込みのない状態での検索は以前の実装でも安全なので、8スレッドでそのまま比較する。</p>
+ * <p>{@code nextVal}はシーケンス単体の採番で、{@code blockSize}が1の場合はHi/Loの効果がなく、
+ * すべてのスレッドが1つのカウンタを奪い合う。</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Threads(8)
+@Fork(1)
+public class UserIdSequenceBenchmark {
+	/**
+	 * 検索の対象としてあらかじめ登録しておくユーザの数.
+	 */
+	private static final int PRELOADED_USERS = 100000;
+
+	private static final String PASSWORD = "1b6337e4f7dde5e763f0867666a2f421a9f855938ff88ddf8c81a10e16493e8b235e74e5d43d7ae1";
+
+	/**
+	 * 以前の{@link SampleUserMapper}と同じく、ユーザを{@link HashMap}に格納し、IDを件数から求めるORマッパー.
+	 */
+	static final class BaselineUserMapper {
+		private final Map<String, User> databaseDummy = new HashMap<String, User>();
+
+		User selectOneByName(final String name) {
+			return databaseDummy.get(name);
+		}
+
+		int selectNextVal() {
+			return databaseDummy.size() + 1;
+		}
+
+		void insert(final User user) {
+			final String username = user.getName();
+			if (databaseDummy.containsKey(username)) {
+				throw new RuntimeException(String.format("Duplicated username \"%s\".", username));
+			}
+			databaseDummy.put(username, user);
+		}
+	}
+
+	/**
+	 * シーケンス単体の採番のための状態.
+	 */
+	@State(Scope.Benchmark)
+	public static class SequenceState {
+		@Param({"1", "64", "1024"})
+		private int blockSize;
+
+		private SampleUserIdSequence sequence;
+
+		/**
+		 * IDが{@code int}の範囲を使い切らないよう、イテレーションごとにシーケンスを作り直す.
+		 */
+		@Setup(Level.Iteration)
+		public void setup() {
+			sequence = new SampleUserIdSequence(1, blockSize);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+		private final Random random = new Random();
+	}
+
+	private SampleUserMapper mapper;
+	private BaselineUserMapper baseline;
+	private BaselineUserMapper synchronizedBaseline;
+
+	/**
+	 * 登録したユーザでヒープが埋まらないよう、イテレーションごとに格納先を作り直す.
+	 */
+	@Setup(Level.Iteration)
+	public void setup() {
+		mapper = new SampleUserMapper();
+		baseline = new BaselineUserMapper();
+		synchronizedBaseline = new BaselineUserMapper();
+		for (int i = 0; i < PRELOADED_USERS; i++) {
+			mapper.insert(user(mapper.selectNextVal()), null);
+			baseline.insert(user(baseline.selectNextVal()));
+			synchronizedBaseline.insert(user(synchronizedBaseline.selectNextVal()));
+		}
+	}
+
+	@Benchmark
+	public int nextVal(final SequenceState state) {
+		return state.sequence.nextVal();
+	}
+
+	@Benchmark
+	public User register() {
+		final User user = user(mapper.selectNextVal());
+		mapper.insert(user, null);
+		return user;
+	}
+
+	@Benchmark
+	@Threads(1)
+	public User registerSingleThread() {
+		return register();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public User baselineRegister() {
+		final User user = user(baseline.selectNextVal());
+		baseline.insert(user);
+		return user;
+	}
+
+	@Benchmark
+	public User baselineSynchronizedRegister() {
+		synchronized (synchronizedBaseline) {
+			final User user = user(synchronizedBaseline.selectNextVal());
+			synchronizedBaseline.insert(user);
+			return user;
+		}
+	}
+
+	@Benchmark
+	public User lookup(final ThreadState state) {
+		return mapper.selectOneByName(nameOf(1 + state.random.nextInt(PRELOADED_USERS)));
+	}
+
+	@Benchmark
+	public User baselineLookup(final ThreadState state) {
+		return baseline.selectOneByName(nameOf(1 + state.random.nextInt(PRELOADED_USERS)));
+	}
+
+	private static User user(final int id) {
+		final User user = new User();
+		user.setId(id);
+		user.setName(nameOf(id));
+		user.setPassword(PASSWORD);
+		return user;
+	}
+
+	private static String nameOf(final int id) {
+		return "user" + id;
+	}
+}
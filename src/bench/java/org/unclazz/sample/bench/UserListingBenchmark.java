@@ -0,0 +1,70 @@
+package org.unclazz.sample.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.unclazz.sample.entity.User;
+import org.unclazz.sample.mapper.SampleUserMapper;
+import org.unclazz.sample.store.SampleInMemoryUserStore;
+
+/**
+ * ユーザの一覧の1ページを取得する処理のベンチマーク.
+ * <p>{@code users}人のユーザを登録したうえで、一覧の先頭・中間・末尾のページを取得する。
+ * キーセット・ページングではページの位置によらず処理時間がほぼ一定となる。</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class UserListingBenchmark {
+	@Param({"10000", "1000000"})
+	private int users;
+
+	@Param({"0.0", "0.5", "0.999"})
+	private double position;
+
+	@Param({"50"})
+	private int pageSize;
+
+	private SampleUserMapper mapper;
+	private int cursor;
+
+	@Setup
+	public void setup() {
+		mapper = new SampleUserMapper(new SampleInMemoryUserStore());
+		final int firstId = mapper.selectNextVals(users);
+		final List<User> batch = new ArrayList<User>(10000);
+		for (int i = 0; i < users; i++) {
+			final User user = new User();
+			user.setId(firstId + i);
+			user.setName("user" + i);
+			user.setPassword("1b6337e4f7dde5e763f0867666a2f421a9f855938ff88ddf8c81a10e16493e8b235e74e5d43d7ae1");
+			batch.add(user);
+			if (batch.size() == 10000) {
+				mapper.insertAll(batch, null);
+				batch.clear();
+			}
+		}
+		mapper.insertAll(batch, null);
+		cursor = firstId + (int) (users * position) - 1;
+	}
+
+	@Benchmark
+	public List<User> page() {
+		return mapper.selectAfterId(cursor, pageSize);
+	}
+}
@@ -0,0 +1,101 @@
+package org.unclazz.sample.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.unclazz.sample.entity.User;
+import org.unclazz.sample.store.SampleCompactUserStore;
+import org.unclazz.sample.store.SampleInMemoryUserStore;
+import org.unclazz.sample.store.SampleUserStore;
+
+/**
+ * ユーザ情報の格納先のヒープ使用量とユーザ名による検索時間のベンチマーク.
+ * <p>指定された数のユーザを登録し、登録の前後のヒープ使用量の差をユーザ数で割った値を標準出力に表示する。
+ * {@code compact}（{@link SampleCompactUserStore}）は{@code memory}（{@link SampleInMemoryUserStore}）に比べて
+ * ユーザあたりの使用量が数分の一になる。検索は{@link User}の生成を含めた時間を計測する。</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class UserStoreFootprintBenchmark {
+	private static final int NAMES = 1 << 16;
+
+	@Param({"100000", "1000000", "10000000"})
+	private int users;
+
+	@Param({"memory", "compact"})
+	private String type;
+
+	private SampleUserStore store;
+	private String[] names;
+	private int next;
+
+	@Setup
+	public void setup() {
+		final long before = usedHeap();
+		store = "compact".equals(type) ? new SampleCompactUserStore() : new SampleInMemoryUserStore();
+		final List<User> chunk = new ArrayList<User>(10000);
+		for (int id = 1; id <= users; id++) {
+			final User user = new User();
+			user.setId(id);
+			user.setName("user" + id);
+			user.setPassword(String.format("{sha256}%08x%s", id,
+					"e4f7dde5e763f0867666a2f421a9f855938ff88ddf8c81a10e16493e8b235e74e5d43d7ae1"));
+			chunk.add(user);
+			if (chunk.size() == 10000) {
+				store.putAllIfAbsent(chunk);
+				chunk.clear();
+			}
+		}
+		store.putAllIfAbsent(chunk);
+		chunk.clear();
+		System.out.println(String.format("heap: %.1f bytes/user", (double) (usedHeap() - before) / users));
+
+		final Random random = new Random(0);
+		names = new String[NAMES];
+		for (int i = 0; i < NAMES; i++) {
+			names[i] = "user" + (1 + random.nextInt(users));
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		store.close();
+	}
+
+	@Benchmark
+	public User get() {
+		return store.get(names[next++ & NAMES - 1]);
+	}
+
+	/**
+	 * GCを行ったうえでヒープの使用量を返す.
+	 * @return 使用量（バイト）
+	 */
+	private static long usedHeap() {
+		final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		for (int i = 0; i < 3; i++) {
+			memory.gc();
+		}
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+}
@@ -0,0 +1,108 @@
+package org.unclazz.sample.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.unclazz.sample.entity.User;
+import org.unclazz.sample.store.SampleFileUserStore;
+
+/**
+ * {@link SampleFileUserStore}の起動時の読み込み時間のベンチマーク.
+ * <p>指定された数のユーザをスナップショットに、さらにスナップショット作成の間隔の半分だけの
+ * ユーザをログの末尾に残した状態を作り、格納先を開き直す時間を計測する。
+ * スナップショットの読み込みはユーザ数に比例するが、再生するログの長さは一定である。</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UserStoreStartupBenchmark {
+	private static final int SNAPSHOT_EVERY_RECORDS = 100000;
+
+	@Param({"100000", "1000000"})
+	private int users;
+
+	private File directory;
+
+	@Setup
+	public void setup() throws IOException {
+		directory = createTempDirectory();
+		// 指定された数のユーザを登録して閉じる（close()でスナップショットが作成される）
+		final SampleFileUserStore store = new SampleFileUserStore(
+				directory, 64 << 20, 1000L, false, SNAPSHOT_EVERY_RECORDS);
+		insert(store, 1, users);
+		store.close();
+		// 続けて登録したレコードはスナップショットに反映させずログの末尾に残す
+		// ＊close()を呼ばずに放棄することでプロセスの異常終了を模している
+		final SampleFileUserStore tail = new SampleFileUserStore(
+				directory, 64 << 20, 1000L, false, Integer.MAX_VALUE);
+		insert(tail, users + 1, users + SNAPSHOT_EVERY_RECORDS / 2);
+	}
+
+	private static void insert(final SampleFileUserStore store, final int from, final int to) {
+		final List<User> chunk = new ArrayList<User>(10000);
+		for (int id = from; id <= to; id++) {
+			final User user = new User();
+			user.setId(id);
+			user.setName("user" + id);
+			user.setPassword("1b6337e4f7dde5e763f0867666a2f421a9f855938ff88ddf8c81a10e16493e8b235e74e5d43d7ae1");
+			chunk.add(user);
+			if (chunk.size() == 10000) {
+				store.putAllIfAbsent(chunk);
+				chunk.clear();
+			}
+		}
+		store.putAllIfAbsent(chunk);
+	}
+
+	@TearDown
+	public void tearDown() {
+		delete(directory);
+	}
+
+	@Benchmark
+	public int open() throws IOException {
+		final SampleFileUserStore store = new SampleFileUserStore(
+				directory, 64 << 20, 1000L, false, SNAPSHOT_EVERY_RECORDS);
+		try {
+			return store.maxId();
+		} finally {
+			store.close();
+		}
+	}
+
+	static File createTempDirectory() throws IOException {
+		final File file = File.createTempFile("sample-store", "");
+		if (!file.delete() || !file.mkdir()) {
+			throw new IOException(String.format("Cannot create directory \"%s\".", file));
+		}
+		return file;
+	}
+
+	static void delete(final File file) {
+		final File[] children = file.listFiles();
+		if (children != null) {
+			for (final File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
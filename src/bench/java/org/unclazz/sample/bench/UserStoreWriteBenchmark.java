@@ -0,0 +1,65 @@
+package org.unclazz.sample.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.unclazz.sample.entity.User;
+import org.unclazz.sample.store.SampleFileUserStore;
+
+/**
+ * {@link SampleFileUserStore}への登録のスループットのベンチマーク.
+ * <p>{@code syncOnWrite}が{@code true}の場合は各登録がディスクへの同期を待つが、
+ * 複数のスレッドの同期はグループ・コミットにより1回にまとめられる。</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Threads(8)
+@Fork(1)
+public class UserStoreWriteBenchmark {
+	@Param({"true", "false"})
+	private boolean syncOnWrite;
+
+	private File directory;
+	private SampleFileUserStore store;
+	private final AtomicInteger ids = new AtomicInteger();
+
+	@Setup
+	public void setup() throws IOException {
+		directory = UserStoreStartupBenchmark.createTempDirectory();
+		store = new SampleFileUserStore(directory, 64 << 20, 1000L, syncOnWrite, 100000);
+	}
+
+	@TearDown
+	public void tearDown() {
+		store.close();
+		UserStoreStartupBenchmark.delete(directory);
+	}
+
+	@Benchmark
+	public boolean insert() {
+		final int id = ids.incrementAndGet();
+		final User user = new User();
+		user.setId(id);
+		user.setName("user" + id);
+		user.setPassword("1b6337e4f7dde5e763f0867666a2f421a9f855938ff88ddf8c81a10e16493e8b235e74e5d43d7ae1");
+		return store.putIfAbsent(user);
+	}
+}
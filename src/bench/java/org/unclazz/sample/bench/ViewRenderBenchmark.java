@@ -0,0 +1,154 @@
+package org.unclazz.sample.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.web.context.support.GenericWebApplicationContext;
+import org.springframework.web.servlet.DispatcherServlet;
+import org.springframework.web.servlet.View;
+import org.thymeleaf.spring4.SpringTemplateEngine;
+import org.thymeleaf.spring4.view.ThymeleafViewResolver;
+import org.thymeleaf.templateresolver.FileTemplateResolver;
+import org.unclazz.sample.SampleApplication;
+import org.unclazz.sample.SampleUserDetails;
+import org.unclazz.sample.controller.SampleViewCache;
+import org.unclazz.sample.entity.User;
+import org.unclazz.sample.mapper.SampleUserMapper;
+
+/**
+ * 画面のレンダリングの処理速度のベンチマーク.
+ * <p>管理画面と同じ形のテンプレートを一時ディレクトリに生成し、{@code rows}行のユーザの一覧を
+ * {@link SampleViewCache}のビューでレンダリングする。{@code cache}が{@code false}の場合は毎回テンプレートを
+ * レンダリングし、{@code true}の場合は初回にキャッシュした結果を書き出すだけになる。
+ * テンプレートの解析結果はいずれの場合もキャッシュする（本番環境の{@code spring.thymeleaf.cache=true}と同じ）。
+ * 1画面あたりのバイト数は標準出力に表示する。</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ViewRenderBenchmark {
+	@Param({"10", "100", "1000"})
+	private int rows;
+
+	@Param({"false", "true"})
+	private boolean cache;
+
+	private ConfigurableApplicationContext context;
+	private GenericWebApplicationContext webContext;
+	private File templates;
+	private View view;
+	private Map<String, Object> model;
+	private MockHttpServletRequest request;
+
+	@Setup
+	public void setup() throws Exception {
+		context = new SpringApplicationBuilder(SampleApplication.class).web(false)
+				.properties("sample.viewCache.enabled=" + cache).run();
+		final SampleUserDetails principal = SampleUserDetails.of(
+				context.getBean(SampleUserMapper.class).selectOneByName("foo"));
+
+		templates = File.createTempFile("templates", "");
+		templates.delete();
+		templates.mkdirs();
+		writeTemplate(new File(templates, "users.html"));
+
+		final MockServletContext servletContext = new MockServletContext();
+		webContext = new GenericWebApplicationContext(servletContext);
+		webContext.refresh();
+		final FileTemplateResolver templateResolver = new FileTemplateResolver();
+		templateResolver.setPrefix(templates.getAbsolutePath() + File.separator);
+		templateResolver.setSuffix(".html");
+		templateResolver.setTemplateMode("HTML5");
+		templateResolver.setCharacterEncoding("UTF-8");
+		templateResolver.setCacheable(true);
+		final SpringTemplateEngine templateEngine = new SpringTemplateEngine();
+		templateEngine.setTemplateResolver(templateResolver);
+		final ThymeleafViewResolver viewResolver = new ThymeleafViewResolver();
+		viewResolver.setTemplateEngine(templateEngine);
+		viewResolver.setCharacterEncoding("UTF-8");
+		viewResolver.setApplicationContext(webContext);
+
+		final SampleViewCache viewCache = context.getBean(SampleViewCache.class);
+		viewCache.setViewResolver(viewResolver);
+		view = viewCache.userListView("users", principal, "");
+
+		final List<User> users = new ArrayList<User>(rows);
+		for (int id = 1; id <= rows; id++) {
+			final User user = new User();
+			user.setId(id);
+			user.setName("user" + id);
+			user.setAdmin(id % 10 == 0);
+			users.add(user);
+		}
+		model = new HashMap<String, Object>();
+		model.put("username", principal.getUsername());
+		model.put("users", users);
+		request = new MockHttpServletRequest(servletContext);
+		request.setAttribute(DispatcherServlet.WEB_APPLICATION_CONTEXT_ATTRIBUTE, webContext);
+		System.out.println(String.format("rows=%d: %d bytes/page", rows, render()));
+	}
+
+	@TearDown
+	public void tearDown() {
+		webContext.close();
+		context.close();
+		new File(templates, "users.html").delete();
+		templates.delete();
+	}
+
+	@Benchmark
+	public int render() throws Exception {
+		final MockHttpServletResponse response = new MockHttpServletResponse();
+		view.render(model, request, response);
+		return response.getContentAsByteArray().length;
+	}
+
+	private static void writeTemplate(final File file) throws IOException {
+		final OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(("<!DOCTYPE html>\n"
+					+ "<html xmlns=\"http://www.w3.org/1999/xhtml\" xmlns:th=\"http://www.thymeleaf.org\">\n"
+					+ "<head><meta charset=\"utf-8\" /><title>users</title></head>\n"
+					+ "<body>\n"
+					+ "<p>こんにちは <span th:text=\"${username}\">ユーザ名</span> さん.</p>\n"
+					+ "<table><tbody>\n"
+					+ "<tr th:each=\"user : ${users}\">"
+					+ "<td th:text=\"${user.id}\">1</td>"
+					+ "<td th:text=\"${user.name}\">foo</td>"
+					+ "<td th:text=\"${user.admin} ? 'アドミニストレータ' : 'オペレータ'\">アドミニストレータ</td>"
+					+ "</tr>\n"
+					+ "</tbody></table>\n"
+					+ "</body>\n"
+					+ "</html>\n").getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+}
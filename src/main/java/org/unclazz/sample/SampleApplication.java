@@ -2,17 +2,31 @@ package org.unclazz.sample;
 
 import org.springframework.boot.*;
 import org.springframework.boot.autoconfigure.*;
+import org.springframework.boot.autoconfigure.jmx.JmxAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.MultipartAutoConfiguration;
+import org.springframework.boot.autoconfigure.websocket.WebSocketAutoConfiguration;
 import org.springframework.context.annotation.ComponentScan;
+import org.unclazz.sample.security.SampleSecurityContextStrategyInitializer;
 
 /**
  * このサンプル・アプリケーションのエントリーポイントとなるオブジェクト.
  * <p>{@link EnableAutoConfiguration}や{@link ComponentScan}といったアノテーションにより
  * Spring Bootアプリケーションの起動方法を規定する。</p>
+ * <p>このアプリケーションが使用しない自動構成（JMXへのビーンの公開、WebSocket、マルチパートのアップロード）は
+ * 起動時間を短くするため除外している。除外の候補は{@code --sample.startup.report=true}で起動すると
+ * ログに出力されるパッケージごとの初期化時間から判断できる。</p>
+ * <p>{@link org.springframework.security.core.context.SecurityContextHolder}の戦略はJVM全体で共有されるため、
+ * 起動時に一度だけ{@link SampleSecurityContextStrategyInitializer}で設定する。</p>
  */
-@EnableAutoConfiguration
+@EnableAutoConfiguration(exclude = {
+		JmxAutoConfiguration.class,
+		WebSocketAutoConfiguration.class,
+		MultipartAutoConfiguration.class})
 @ComponentScan
 public class SampleApplication {
     public static void main(String[] args) throws Exception {
-        SpringApplication.run(SampleApplication.class, args);
+        final SpringApplication application = new SpringApplication(SampleApplication.class);
+        application.addListeners(new SampleSecurityContextStrategyInitializer());
+        application.run(args);
     }
 }
\ No newline at end of file
@@ -0,0 +1,157 @@
+package org.unclazz.sample;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.springframework.security.core.GrantedAuthority;
+
+/**
+ * {@link SampleGrantedAuthority}の集合.
+ * <p>各権限の序数をビット位置とするビットマスクで要素を保持する。
+ * 要素の有無の判定はビット演算1回で済み、不変オブジェクトなので
+ * 同じ権限の組み合わせを持つユーザ間で1つのインスタンスを共有する。
+ * インスタンスは{@link #of(long)}もしくは定数から取得する。</p>
+ */
+public final class SampleAuthoritySet extends AbstractSet<GrantedAuthority> implements Serializable {
+	private static final long serialVersionUID = 6541275317093546120L;
+
+	/**
+	 * ビットマスクを添字とするインスタンスの一覧.
+	 */
+	private static final SampleAuthoritySet[] instances;
+
+	static {
+		instances = new SampleAuthoritySet[1 << SampleGrantedAuthority.count()];
+		for (int mask = 0; mask < instances.length; mask++) {
+			instances[mask] = new SampleAuthoritySet(mask);
+		}
+	}
+
+	/**
+	 * 権限を持たない集合.
+	 */
+	public static final SampleAuthoritySet EMPTY = of(0L);
+
+	/**
+	 * オペレータ権限のみを要素とする集合.
+	 */
+	public static final SampleAuthoritySet OPERATOR = of(SampleGrantedAuthority.OPERATOR.getBit());
+
+	/**
+	 * オペレータおよびアドミニストレータ権限を要素とする集合.
+	 */
+	public static final SampleAuthoritySet ADMINISTRATOR = of(
+			SampleGrantedAuthority.OPERATOR.getBit() | SampleGrantedAuthority.ADMINISTRATOR.getBit());
+
+	/**
+	 * ビットマスクに対応する集合を返す.
+	 * @param mask ビットマスク
+	 * @return 集合
+	 */
+	public static SampleAuthoritySet of(final long mask) {
+		if (mask < 0 || mask >= instances.length) {
+			throw new IllegalArgumentException(String.format("Unknown authority mask %d", mask));
+		}
+		return instances[(int) mask];
+	}
+
+	/**
+	 * 権限の集合に対応する集合を返す.
+	 * 未知の権限は無視する。
+	 * @param authorities 権限の集合
+	 * @return 集合
+	 */
+	public static SampleAuthoritySet of(final Iterable<? extends GrantedAuthority> authorities) {
+		if (authorities instanceof SampleAuthoritySet) {
+			return (SampleAuthoritySet) authorities;
+		}
+		long mask = 0L;
+		for (final GrantedAuthority authority : authorities) {
+			final SampleGrantedAuthority known = SampleGrantedAuthority.find(authority.getAuthority());
+			if (known != null) {
+				mask |= known.getBit();
+			}
+		}
+		return of(mask);
+	}
+
+	/**
+	 * ビットマスク.
+	 */
+	private final long mask;
+
+	/**
+	 * 非公開のコンストラクタ.
+	 * @param mask ビットマスク
+	 */
+	private SampleAuthoritySet(final long mask) {
+		this.mask = mask;
+	}
+
+	/**
+	 * デシリアライズされたオブジェクトを共有のインスタンスに置き換える.
+	 * @return 集合
+	 */
+	private Object readResolve() {
+		return of(mask);
+	}
+
+	public long getMask() {
+		return mask;
+	}
+
+	/**
+	 * 権限を持つかどうかを判定する.
+	 * @param authority 権限
+	 * @return 権限を持つ場合は{@code true}
+	 */
+	public boolean contains(final SampleGrantedAuthority authority) {
+		return (mask & authority.getBit()) != 0;
+	}
+
+	@Override
+	public boolean contains(final Object o) {
+		if (o instanceof SampleGrantedAuthority) {
+			return contains((SampleGrantedAuthority) o);
+		}
+		if (o instanceof GrantedAuthority) {
+			final SampleGrantedAuthority known = SampleGrantedAuthority.find(((GrantedAuthority) o).getAuthority());
+			return known != null && contains(known);
+		}
+		return false;
+	}
+
+	@Override
+	public int size() {
+		return Long.bitCount(mask);
+	}
+
+	@Override
+	public Iterator<GrantedAuthority> iterator() {
+		return new Iterator<GrantedAuthority>() {
+			private long remaining = mask;
+
+			@Override
+			public boolean hasNext() {
+				return remaining != 0;
+			}
+
+			@Override
+			public GrantedAuthority next() {
+				if (remaining == 0) {
+					throw new NoSuchElementException();
+				}
+				final int ordinal = Long.numberOfTrailingZeros(remaining);
+				remaining &= remaining - 1;
+				return SampleGrantedAuthority.ofOrdinal(ordinal);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -1,5 +1,9 @@
 package org.unclazz.sample;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 import org.springframework.security.core.GrantedAuthority;
 
 /**
@@ -8,6 +12,8 @@ import org.springframework.security.core.GrantedAuthority;
  * <p>{@link SampleSecurityConfiguration}でユーザがアクセスするURLと権限との紐付けに利用するため、
  * 権限名を文字列型の{@code static final}フィールドとして公開している。
  * Spring Securityのメカニズムに即して言えばこの権現名こそ権限情報の本体である。</p>
+ * <p>権限オブジェクトは権限ごとに1つしか存在しない（インターンされている）。
+ * またそれぞれが0から始まる序数を持ち、{@link SampleAuthoritySet}ではこの序数をビット位置として利用する。</p>
  */
 public class SampleGrantedAuthority implements GrantedAuthority {
 	private static final long serialVersionUID = -4297213634794564411L;
@@ -27,18 +33,32 @@ public class SampleGrantedAuthority implements GrantedAuthority {
 	/**
 	 * オペレータの権限オブジェクト.
 	 */
-	public static final SampleGrantedAuthority OPERATOR = new SampleGrantedAuthority(NAME_OPERATOR); 
+	public static final SampleGrantedAuthority OPERATOR = new SampleGrantedAuthority(NAME_OPERATOR, 0); 
 	
 	/**
 	 * アドミニストレータの権限オブジェクト.
 	 */
-	public static final SampleGrantedAuthority ADMINISTRATOR = new SampleGrantedAuthority(NAME_ADMINISTRATOR); 
+	public static final SampleGrantedAuthority ADMINISTRATOR = new SampleGrantedAuthority(NAME_ADMINISTRATOR, 1); 
 	
 	/**
 	 * 内的に利用する権限オブジェクトの一覧.
+	 * 添字は権限オブジェクトの序数と一致する。
 	 */
 	private static final SampleGrantedAuthority[] knownAuthorities = {OPERATOR, ADMINISTRATOR};
 	
+	/**
+	 * 権限名をキーにした権限オブジェクトのマップ.
+	 */
+	private static final Map<String, SampleGrantedAuthority> knownAuthoritiesByName;
+	
+	static {
+		final Map<String, SampleGrantedAuthority> byName = new HashMap<String, SampleGrantedAuthority>();
+		for (final SampleGrantedAuthority auth : knownAuthorities) {
+			byName.put(auth.getName(), auth);
+		}
+		knownAuthoritiesByName = Collections.unmodifiableMap(byName);
+	}
+	
 	/**
 	 * 権限オブジェクトを得るためのファクトリ・メソッド.
 	 * @param name 権限名
@@ -46,14 +66,41 @@ public class SampleGrantedAuthority implements GrantedAuthority {
 	 */
 	public static SampleGrantedAuthority of(final String name) {
 		// 既知の権限一覧から該当するものを探す
-		for (final SampleGrantedAuthority auth : knownAuthorities) {
-			if (auth.equals(name)) {
-				// 見つかったらその場で処理を終える
-				return auth;
-			}
+		final SampleGrantedAuthority auth = find(name);
+		if (auth == null) {
+			// 見つからなかった場合は実行時例外をスロー
+			throw new IllegalArgumentException(String.format("Unknown authority \"%s\"", name));
+		}
+		return auth;
+	}
+	
+	/**
+	 * 権限名に対応する権限オブジェクトを返す.
+	 * @param name 権限名
+	 * @return 権限オブジェクト（未知の権限名の場合は{@code null}）
+	 */
+	public static SampleGrantedAuthority find(final String name) {
+		return name == null ? null : knownAuthoritiesByName.get(name);
+	}
+	
+	/**
+	 * 序数に対応する権限オブジェクトを返す.
+	 * @param ordinal 序数
+	 * @return 権限オブジェクト
+	 */
+	public static SampleGrantedAuthority ofOrdinal(final int ordinal) {
+		if (ordinal < 0 || ordinal >= knownAuthorities.length) {
+			throw new IllegalArgumentException(String.format("Unknown authority ordinal %d", ordinal));
 		}
-		// 見つからなかった場合は実行時例外をスロー
-		throw new IllegalArgumentException(String.format("Unknown authority \"%s\"", name));
+		return knownAuthorities[ordinal];
+	}
+	
+	/**
+	 * 既知の権限の数を返す.
+	 * @return 権限の数
+	 */
+	public static int count() {
+		return knownAuthorities.length;
 	}
 	
 	/**
@@ -66,13 +113,29 @@ public class SampleGrantedAuthority implements GrantedAuthority {
 	 */
 	private final boolean admin;
 	
+	/**
+	 * 序数.
+	 */
+	private final int ordinal;
+	
 	/**
 	 * 非公開のコンストラクタ.
 	 * @param name 権限名
+	 * @param ordinal 序数
 	 */
-	private SampleGrantedAuthority(String name) {
+	private SampleGrantedAuthority(String name, int ordinal) {
 		this.name = name;
 		this.admin = name.equals(NAME_ADMINISTRATOR);
+		this.ordinal = ordinal;
+	}
+	
+	/**
+	 * デシリアライズされたオブジェクトをインターンされた権限オブジェクトに置き換える.
+	 * @return 権限オブジェクト
+	 */
+	private Object readResolve() {
+		final SampleGrantedAuthority known = find(name);
+		return known == null ? this : known;
 	}
 	
 	public boolean isAdmin() {
@@ -81,6 +144,16 @@ public class SampleGrantedAuthority implements GrantedAuthority {
 	public String getName() {
 		return name;
 	}
+	public int getOrdinal() {
+		return ordinal;
+	}
+	/**
+	 * {@link SampleAuthoritySet}においてこの権限を表すビットを返す.
+	 * @return ビット
+	 */
+	public long getBit() {
+		return 1L << ordinal;
+	}
 	
 	@Override
 	public String getAuthority() {
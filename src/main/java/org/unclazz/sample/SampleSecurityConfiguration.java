@@ -1,17 +1,49 @@
 package org.unclazz.sample;
 
+import java.util.Arrays;
+import java.util.List;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.security.access.AccessDecisionVoter;
+import org.springframework.security.access.vote.AffirmativeBased;
+import org.springframework.security.config.annotation.ObjectPostProcessor;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.config.annotation.web.builders.WebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
+import org.springframework.security.config.annotation.web.configurers.ExpressionUrlAuthorizationConfigurer;
 import org.springframework.security.config.annotation.web.servlet.configuration.EnableWebMvcSecurity;
+import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetailsService;
-import org.springframework.security.crypto.password.PasswordEncoder;
-import org.springframework.security.crypto.password.StandardPasswordEncoder;
+import org.springframework.security.web.access.intercept.FilterSecurityInterceptor;
+import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
+import org.springframework.security.web.session.HttpSessionEventPublisher;
 import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.unclazz.sample.audit.SampleAuditLog;
+import org.unclazz.sample.mapper.SampleUserMapper;
+import org.unclazz.sample.metrics.SampleMetrics;
+import org.unclazz.sample.security.SampleAsyncLoginFilter;
+import org.unclazz.sample.security.SampleAuthenticationProvider;
+import org.unclazz.sample.security.SampleAuthorizationRule;
+import org.unclazz.sample.security.SampleAuthorizationVoter;
+import org.unclazz.sample.security.SampleCacheControlHeaderWriter;
+import org.unclazz.sample.security.SampleCookieCsrfTokenRepository;
+import org.unclazz.sample.security.SampleHashingExecutor;
+import org.unclazz.sample.security.SampleLoginFailureHandler;
+import org.unclazz.sample.security.SampleLoginThrottle;
+import org.unclazz.sample.security.SampleLoginThrottleFilter;
+import org.unclazz.sample.security.SamplePasswordEncoder;
+import org.unclazz.sample.security.SampleSessionRegistry;
+import org.unclazz.sample.security.SampleTokenAuthenticationFilter;
+import org.unclazz.sample.security.SampleTokenAuthenticationSuccessHandler;
+import org.unclazz.sample.security.SampleTokenService;
+import org.unclazz.sample.security.SampleTrieSecurityMetadataSource;
+import org.unclazz.sample.security.SampleWebSecurityExpressionHandler;
+import org.unclazz.sample.store.SampleRememberMeTokenRepository;
 
 /**
  * Spring Securityのための設定情報を初期化するためのオブジェクト.
@@ -25,15 +57,156 @@ import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
 @EnableWebMvcSecurity
 public class SampleSecurityConfiguration extends WebSecurityConfigurerAdapter {
 	/**
-	 * パスワードのエンコードを行うオブジェクト.
+	 * URLへのアクセスの条件の一覧.
+	 * <p>複数の条件に該当するURLには先にある条件が適用される。</p>
+	 */
+	private static final List<SampleAuthorizationRule> authorizationRules = Arrays.asList(
+			// ログイン画面とログアウトには誰でもアクセスできるよう設定
+			SampleAuthorizationRule.permitAll("/login"),
+			SampleAuthorizationRule.permitAll("/logout"),
+			// ロードバランサが起動後のウォームアップの完了を確認するURLにも誰でもアクセスできるよう設定
+			SampleAuthorizationRule.permitAll("/ready"),
+			// 静的リソースには誰でもアクセスできるよう設定
+			// ＊sample.assets.enabledがtrueの場合はそもそもフィルタチェーンを通らない
+			SampleAuthorizationRule.permitAll("/assets/**"),
+			// "/admin"および"/admin/"以下のURLへのアクセスにはアドミニストレータ権限を必要とするよう設定
+			// ＊hasAuthority('...')と同じ意味だが判定はビット演算1回で行われる
+			SampleAuthorizationRule.granted("/admin/**", SampleGrantedAuthority.ADMINISTRATOR),
+			// その他のURLについてはいずれにせよ認証をパスすることがアクセスの条件であると設定
+			SampleAuthorizationRule.authenticated("/**"));
+	
+	/**
+	 * 新たにパスワードをエンコードする際に使用するアルゴリズム.
+	 * <p>{@code sha256}もしくは{@code bcrypt}。</p>
+	 */
+	@Value("${sample.password.algorithm:sha256}")
+	private String passwordAlgorithm;
+	
+	/**
+	 * BCryptでエンコードする際の強度.
+	 */
+	@Value("${sample.password.bcrypt.strength:10}")
+	private int bcryptStrength;
+	
+	/**
+	 * ログイン処理をリクエスト・スレッドとは別のスレッドプールで行うかどうか.
+	 */
+	@Value("${sample.login.async.enabled:false}")
+	private boolean asyncLogin;
+	
+	/**
+	 * ログイン処理を別スレッドで行う場合に待ち行列で待つ時間の上限（ミリ秒）.
+	 * <p>コンテナの非同期処理のタイムアウトはこの2倍になる。</p>
+	 */
+	@Value("${sample.login.async.timeoutMillis:30000}")
+	private long asyncLoginTimeoutMillis;
+	
+	/**
+	 * URLへのアクセスの判定に規則の一覧から構築したトライ木を使用するかどうか.
+	 * <p>{@code true}（既定）の場合はトライ木で、{@code false}の場合は従来どおり
+	 * {@code antMatchers(...).access(...)}の連鎖で判定する。</p>
+	 */
+	@Value("${sample.authorization.compiled:true}")
+	private boolean compiledAuthorization;
+	
+	/**
+	 * 認証状態の保持方法.
+	 * <p>{@code session}（既定）はHTTPセッションに、{@code token}は署名付きのクッキーに保持する。</p>
+	 */
+	@Value("${sample.auth.mode:session}")
+	private String authMode;
+	
+	/**
+	 * 静的リソースをフィルタチェーンの対象外とし、ログイン画面のキャッシュの再検証を許可するかどうか.
 	 */
-    private final PasswordEncoder passwordEncoder = new StandardPasswordEncoder();
+	@Value("${sample.assets.enabled:true}")
+	private boolean staticAssets;
+	
+	/**
+	 * ユーザごとのセッション数の上限.
+	 * <p>上限を超えてログインした場合はそのユーザの最も古いセッションが無効になる。</p>
+	 */
+	@Value("${sample.session.maxPerUser:5}")
+	private int maxSessionsPerUser;
+	
+	/**
+	 * ログイン画面で「ログインしたままにする」を選択できるようにするかどうか.
+	 */
+	@Value("${sample.rememberMe.enabled:true}")
+	private boolean rememberMe;
+	
+	/**
+	 * 永続ログインのトークンの有効期間（秒）.
+	 */
+	@Value("${sample.rememberMe.validitySeconds:1209600}")
+	private int rememberMeValiditySeconds;
     
     /**
      * Spring Securityの認証メカニズムのためのVOを処理するサービス.
      */
 	@Autowired
 	private UserDetailsService userDetailsService;
+	
+	/**
+	 * ユーザのリレーションを処理するためのORマッパー.
+	 */
+	@Autowired
+	private SampleUserMapper userMapper;
+	
+	/**
+	 * 計測値のレジストリ.
+	 */
+	@Autowired
+	private SampleMetrics metrics;
+	
+	/**
+	 * パスワードの照合を行うためのスレッドプール.
+	 */
+	@Autowired
+	private SampleHashingExecutor hashingExecutor;
+	
+	/**
+	 * 認証トークンのサービス.
+	 */
+	@Autowired
+	private SampleTokenService tokenService;
+	
+	/**
+	 * ログインの試行を制限するコンポーネント.
+	 */
+	@Autowired
+	private SampleLoginThrottle loginThrottle;
+	
+	/**
+	 * セッションのレジストリ.
+	 */
+	@Autowired
+	private SampleSessionRegistry sessionRegistry;
+	
+	/**
+	 * 永続ログインのトークンの格納先.
+	 */
+	@Autowired
+	private SampleRememberMeTokenRepository rememberMeTokenRepository;
+	
+	/**
+	 * 認証の成否を記録する監査ログ.
+	 */
+	@Autowired
+	private SampleAuditLog auditLog;
+
+	/**
+	 * フィルタチェーンを通さないURLの設定を行う.
+	 * <p>静的リソースへのリクエストはセッションの読み込みや認証・認可の判定を一切行わずに処理される。
+	 * これらのリクエストにはSpring Securityによるセキュリティ関連のヘッダも付与されないため、
+	 * 認証情報に依存しない公開のリソースに限ること。</p>
+	 */
+	@Override
+	public void configure(final WebSecurity web) throws Exception {
+		if (staticAssets) {
+			web.ignoring().antMatchers("/assets/**", "/favicon.ico");
+		}
+	}
 
 	/**
 	 * ユーザ認証とユーザ権限をユーザのアクセスURLと紐付けるための設定を行う.
@@ -44,19 +217,38 @@ public class SampleSecurityConfiguration extends WebSecurityConfigurerAdapter {
     @Override
     protected void configure(final HttpSecurity http) throws Exception {
         
-    	http.authorizeRequests()
-    		// "/admin"というURLへのアクセスにはアドミニストレータ権限を必要とするよう設定
-        	// ＊メソッド名から推測ができるようにAntっぽいワイルドカード表記が可能
-        	.antMatchers("/admin").hasAuthority(SampleGrantedAuthority.NAME_ADMINISTRATOR)
-        	// その他のURLについてはいずれにせよ認証をパスすることがアクセスの条件であると設定
-            .anyRequest().authenticated()
-            .and()
+    	final ExpressionUrlAuthorizationConfigurer<HttpSecurity>.ExpressionInterceptUrlRegistry registry = 
+    			http.authorizeRequests()
+    		// 権限の判定にisGranted('...')を使えるよう式の評価方法を設定
+    		.expressionHandler(new SampleWebSecurityExpressionHandler());
+    	// URLへのアクセスの条件を一覧の先頭から順に登録
+    	// ＊メソッド名から推測ができるようにAntっぽいワイルドカード表記が可能
+    	for (final SampleAuthorizationRule rule : authorizationRules) {
+    		registry.requestMatchers(new AntPathRequestMatcher(rule.getPattern(), rule.getMethod()))
+    			.access(rule.toExpression());
+    	}
+    	// 同じ一覧から構築したトライ木で判定するよう、FilterSecurityInterceptorの設定を差し替える
+    	// ＊リクエストごとに全規則のパターン照合とSpEL式の評価を行う代わりに、パスを1回たどるだけで済む
+    	if (compiledAuthorization) {
+    		registry.withObjectPostProcessor(new ObjectPostProcessor<FilterSecurityInterceptor>() {
+    			@Override
+    			@SuppressWarnings("rawtypes")
+    			public <O extends FilterSecurityInterceptor> O postProcess(final O interceptor) {
+    				interceptor.setSecurityMetadataSource(new SampleTrieSecurityMetadataSource(authorizationRules));
+    				interceptor.setAccessDecisionManager(new AffirmativeBased(
+    						Arrays.<AccessDecisionVoter>asList(new SampleAuthorizationVoter())));
+    				return interceptor;
+    			}
+    		});
+    	}
+        
+        http
             // フォーム・ログインについての設定
             .formLogin()
             // 認証が必要なURLアクセスが行われた時は"/login"を表示するよう設定
             .loginPage("/login")
-            // ログイン失敗時は"/login"を再表示するよう設定
-            .failureUrl("/login")
+            // ログイン失敗時は失敗を記録したうえで"/login"を再表示するよう設定
+            .failureHandler(new SampleLoginFailureHandler(loginThrottle, "/login"))
             // ログイン成功後は"/index"に遷移するよう設定
             // ＊第2引数を省略するかfalseにすると、ログイン成功時
             // ログイン画面が表示される前そもそもユーザがアクセスを要求したURLへ遷移する
@@ -71,25 +263,96 @@ public class SampleSecurityConfiguration extends WebSecurityConfigurerAdapter {
             // ログアウト成功後のリダイレクト先を設定
             .logoutSuccessUrl("/login")
             .permitAll();
+        
+        // ログイン画面に限りブラウザがレスポンスを保存して再検証できるよう、キャッシュを制御するヘッダを差し替える
+        // ＊いずれかのヘッダを指定すると既定のヘッダはすべて無効になるため、その他の既定のヘッダも改めて指定する
+        if (staticAssets) {
+        	http.headers()
+        		.contentTypeOptions()
+        		.xssProtection()
+        		.frameOptions()
+        		.httpStrictTransportSecurity()
+        		.addHeaderWriter(new SampleCacheControlHeaderWriter(new AntPathRequestMatcher("/login", "GET")));
+        }
+        
+        // 失敗回数が上限を超えたユーザ名やクライアントからのログインをパスワードの照合の前に拒否するよう設定
+        // ＊同じフィルタの直前に追加したフィルタは追加した順に配置されるので、非同期化のフィルタより先に追加する
+        http.addFilterBefore(new SampleLoginThrottleFilter(loginThrottle,
+        		new AntPathRequestMatcher("/login", "POST")), UsernamePasswordAuthenticationFilter.class);
+        
+        // ログイン処理（パスワードの照合）をリクエスト・スレッドではなく専用のスレッドプールで行うよう設定
+        // ＊フォーム・ログインの処理を行うフィルタの直前に配置する
+        if (asyncLogin) {
+        	http.addFilterBefore(new SampleAsyncLoginFilter(hashingExecutor,
+        			new AntPathRequestMatcher("/login", "POST"), asyncLoginTimeoutMillis),
+        			UsernamePasswordAuthenticationFilter.class);
+        }
+        
+        // 認証状態をセッションではなく署名付きトークンで保持するよう設定
+        // ＊セッションを一切生成しないためCSRFトークンもクッキーに保存する
+        if ("token".equals(authMode)) {
+        	http.sessionManagement().sessionCreationPolicy(SessionCreationPolicy.STATELESS);
+        	http.csrf().csrfTokenRepository(new SampleCookieCsrfTokenRepository());
+        	http.formLogin().successHandler(new SampleTokenAuthenticationSuccessHandler(tokenService, "/index"));
+        	http.logout().addLogoutHandler(tokenService);
+        	http.addFilterBefore(new SampleTokenAuthenticationFilter(tokenService, userMapper, metrics),
+        			UsernamePasswordAuthenticationFilter.class);
+        } else if ("session".equals(authMode)) {
+        	// ユーザごとのセッション数を制限し、無効になったセッションでのアクセスはログイン画面に誘導する
+        	http.sessionManagement().maximumSessions(maxSessionsPerUser)
+        		.sessionRegistry(sessionRegistry).expiredUrl("/login?expired");
+        	
+        	// 永続ログインのクッキーを持って再訪したユーザはシリーズの検索だけで認証するよう設定
+        	// ＊パスワードの照合は行わず、トークンはその都度新しい値に置き換えられる
+        	// ＊パスワードや権限が変更されたユーザのトークンはすべて無効にする
+        	if (rememberMe) {
+        		userMapper.addChangeListener(rememberMeTokenRepository);
+        		http.rememberMe()
+        			.tokenRepository(rememberMeTokenRepository)
+        			.userDetailsService(userDetailsService)
+        			.tokenValiditySeconds(rememberMeValiditySeconds);
+        	}
+        } else {
+        	throw new IllegalArgumentException(String.format("Unknown authentication mode \"%s\"", authMode));
+        }
     }
     
     /**
      * このアプリケーションの認証メカニズムの設定を行う.
+     * <p>認証には{@link SampleAuthenticationProvider}を使用する。
+     * ログイン成功時に古い設定でエンコードされたパスワードを再エンコードする点を除けば
+     * {@link AuthenticationManagerBuilder#userDetailsService(UserDetailsService)}による設定と同じである。
+     * 認証の成否は{@link SampleAuditLog}に記録する。</p>
      * @param auth Spring Securityフレームワークから渡される認証管理ビルダー
-     * @throws Exception {@link AuthenticationManagerBuilder#userDetailsService(UserDetailsService)}が例外をスローした場合
+     * @throws Exception {@link AuthenticationManagerBuilder#authenticationProvider(org.springframework.security.authentication.AuthenticationProvider)}が例外をスローした場合
      */
     @Autowired
     public void configureGlobal(final AuthenticationManagerBuilder auth) throws Exception {
-        auth.userDetailsService(userDetailsService)
-            .passwordEncoder(passwordEncoder);
+    	final SampleAuthenticationProvider provider = 
+    			new SampleAuthenticationProvider(passwordEncorder(), userMapper);
+    	provider.setUserDetailsService(userDetailsService);
+    	provider.setAuditLog(auditLog);
+        auth.authenticationProvider(provider);
     }
     
     /**
      * パスワード・エンコーダを返す.
+     * <p>エンコードに使用するアルゴリズムと強度は{@code sample.password.*}プロパティで指定する。
+     * 照合はエンコード済みパスワードに付与された識別子に従って行われる。</p>
      * @return パスワード・エンコーダ
      */
     @Bean
-    public PasswordEncoder passwordEncorder() {
-    	return passwordEncoder;
+    public SamplePasswordEncoder passwordEncorder() {
+    	return new SamplePasswordEncoder(passwordAlgorithm, bcryptStrength, metrics);
+    }
+    
+    /**
+     * HTTPセッションの生成・破棄をアプリケーション・イベントとして発行するリスナーを返す.
+     * <p>{@link SampleSessionRegistry}はこのイベントによりセッションを追跡する。</p>
+     * @return リスナー
+     */
+    @Bean
+    public HttpSessionEventPublisher httpSessionEventPublisher() {
+    	return new HttpSessionEventPublisher();
     }
 }
@@ -2,13 +2,17 @@ package org.unclazz.sample;
 
 import org.springframework.boot.builder.SpringApplicationBuilder;
 import org.springframework.boot.context.web.SpringBootServletInitializer;
+import org.unclazz.sample.security.SampleSecurityContextStrategyInitializer;
 
 /**
  * {@code web.xml}の代わりを努めるオブジェクト.
+ * <p>WARとして配備した場合も{@link SampleApplication#main(String[])}と同じく、
+ * {@link SampleSecurityContextStrategyInitializer}でセキュリティ・コンテキストの戦略を設定する。</p>
  */
 public class SampleServletInitializer extends SpringBootServletInitializer {
     @Override
     protected SpringApplicationBuilder configure(SpringApplicationBuilder application) {
-        return application.sources(SampleApplication.class);
+        return application.sources(SampleApplication.class)
+        		.listeners(new SampleSecurityContextStrategyInitializer());
     }
 }
\ No newline at end of file
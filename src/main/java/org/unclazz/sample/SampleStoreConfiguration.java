@@ -0,0 +1,145 @@
+package org.unclazz.sample;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.unclazz.sample.metrics.SampleMetrics;
+import org.unclazz.sample.store.SampleCompactUserStore;
+import org.unclazz.sample.store.SampleFileUserStore;
+import org.unclazz.sample.store.SampleInMemoryUserStore;
+import org.unclazz.sample.store.SampleRememberMeTokenRepository;
+import org.unclazz.sample.store.SampleUserStore;
+
+/**
+ * ユーザ情報の格納先を初期化するためのオブジェクト.
+ * <p>{@code sample.store.type}が{@code memory}（既定）の場合はメモリ上のみの格納先を、
+ * {@code compact}の場合はメモリ上のみでヒープの使用量を抑えた格納先を、
+ * {@code file}の場合は{@code sample.store.directory}にログとスナップショットを書き込む格納先を使用する。
+ * 永続ログインのトークンの格納先も同じ設定に従う。</p>
+ */
+@Configuration
+public class SampleStoreConfiguration {
+	/**
+	 * 格納先の種類.
+	 */
+	@Value("${sample.store.type:memory}")
+	private String type;
+	
+	/**
+	 * ログとスナップショットを格納するディレクトリ.
+	 */
+	@Value("${sample.store.directory:data}")
+	private String directory;
+	
+	/**
+	 * ログのセグメントの長さ（メガバイト）.
+	 */
+	@Value("${sample.store.segmentSizeMegabytes:64}")
+	private int segmentSizeMegabytes;
+	
+	/**
+	 * ログを定期的に同期する間隔（ミリ秒）.
+	 */
+	@Value("${sample.store.syncIntervalMillis:1000}")
+	private long syncIntervalMillis;
+	
+	/**
+	 * 登録・更新のたびにログの同期を待つかどうか.
+	 */
+	@Value("${sample.store.syncOnWrite:true}")
+	private boolean syncOnWrite;
+	
+	/**
+	 * スナップショットを作成する間隔（レコード数）.
+	 */
+	@Value("${sample.store.snapshotEveryRecords:100000}")
+	private int snapshotEveryRecords;
+	
+	/**
+	 * 永続ログインのトークンの有効期間（秒）.
+	 */
+	@Value("${sample.rememberMe.validitySeconds:1209600}")
+	private int rememberMeValiditySeconds;
+	
+	/**
+	 * 有効期間を過ぎた永続ログインのトークンを削除する間隔（秒）.
+	 */
+	@Value("${sample.rememberMe.purgeIntervalSeconds:3600}")
+	private int rememberMePurgeIntervalSeconds;
+	
+	/**
+	 * 永続ログインのトークンの総数の上限.
+	 */
+	@Value("${sample.rememberMe.maxTokens:100000}")
+	private int rememberMeMaxTokens;
+	
+	/**
+	 * ユーザごとの永続ログインのトークンの数の上限.
+	 */
+	@Value("${sample.rememberMe.maxPerUser:10}")
+	private int rememberMeMaxPerUser;
+	
+	/**
+	 * 計測値のレジストリ.
+	 */
+	@Autowired
+	private SampleMetrics metrics;
+	
+	/**
+	 * ユーザ情報の格納先を返す.
+	 * @return 格納先
+	 * @throws IOException ファイルの格納先の読み込みに失敗した場合
+	 */
+	@Bean(destroyMethod = "close")
+	public SampleUserStore userStore() throws IOException {
+		if ("file".equals(type)) {
+			return new SampleFileUserStore(new File(directory), segmentSizeMegabytes << 20,
+					syncIntervalMillis, syncOnWrite, snapshotEveryRecords);
+		} else if ("memory".equals(type)) {
+			return new SampleInMemoryUserStore();
+		} else if ("compact".equals(type)) {
+			return new SampleCompactUserStore();
+		}
+		throw new IllegalArgumentException(String.format("Unknown store type \"%s\"", type));
+	}
+	
+	/**
+	 * 永続ログインのトークンの格納先を返す.
+	 * <p>{@code sample.store.type}が{@code file}の場合はユーザ情報と同じディレクトリに永続化する。</p>
+	 * @return 格納先
+	 * @throws IOException ファイルの格納先の読み込みに失敗した場合
+	 */
+	@Bean(destroyMethod = "close")
+	public SampleRememberMeTokenRepository rememberMeTokenRepository() throws IOException {
+		final SampleRememberMeTokenRepository repository = new SampleRememberMeTokenRepository(
+				"file".equals(type) ? new File(directory) : null, segmentSizeMegabytes << 20,
+				syncIntervalMillis, syncOnWrite, snapshotEveryRecords,
+				TimeUnit.SECONDS.toMillis(rememberMeValiditySeconds),
+				TimeUnit.SECONDS.toMillis(rememberMePurgeIntervalSeconds),
+				rememberMeMaxTokens, rememberMeMaxPerUser);
+		metrics.gauge("rememberMe.tokens", new SampleMetrics.Gauge() {
+			@Override
+			public long value() {
+				return repository.size();
+			}
+		});
+		metrics.gauge("rememberMe.evictions", new SampleMetrics.Gauge() {
+			@Override
+			public long value() {
+				return repository.getEvictions();
+			}
+		});
+		metrics.gauge("rememberMe.expirations", new SampleMetrics.Gauge() {
+			@Override
+			public long value() {
+				return repository.getExpirations();
+			}
+		});
+		return repository;
+	}
+}
@@ -1,7 +1,6 @@
 package org.unclazz.sample;
 
 import java.security.Principal;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -16,6 +15,9 @@ import org.unclazz.sample.entity.User;
  * また継承元オブジェクトでは権限をコレクションとして保持しているが、サンプル・アプリケーションでは
  * オペレータかアドミニストレータかの区別が重要でそれ以外の権限を用意する想定がないため、
  * 2値を識別するためのフラグを追加している。</p>
+ * <p>権限は継承元オブジェクトには渡さず、共有の{@link SampleAuthoritySet}として保持する。
+ * これにより{@link #getAuthorities()}はユーザごとにリストを生成することなく同じインスタンスを返し、
+ * 権限の有無の判定もビット演算で済む。</p>
  */
 public class SampleUserDetails extends org.springframework.security.core.userdetails.User {
 	private static final long serialVersionUID = 2213449577870703888L;
@@ -28,25 +30,6 @@ public class SampleUserDetails extends org.springframework.security.core.userdet
 		return Collections.emptyList();
 	}
 	
-	/**
-	 * オペレータ権限のみを要素とするリストを返す.
-	 * @return 権限リスト
-	 */
-	private static List<GrantedAuthority> operatorAuthorities() {
-		return Arrays.asList(new GrantedAuthority[]{
-				SampleGrantedAuthority.OPERATOR});
-	}
-	
-	/**
-	 * オペレータおよびアドミニストレータ権限を要素とするリストを返す.
-	 * @return 権限リスト
-	 */
-	private static List<GrantedAuthority> administratorAuthorities() {
-		return Arrays.asList(new GrantedAuthority[]{
-				SampleGrantedAuthority.OPERATOR,
-				SampleGrantedAuthority.ADMINISTRATOR});
-	}
-	
 	/**
 	 * リクエスト・パラメータおよびリレーションのためのVOから
 	 * Spring Securityの認証メカニズムのためのVOを生成して返す.
@@ -57,6 +40,18 @@ public class SampleUserDetails extends org.springframework.security.core.userdet
 		return new SampleUserDetails(user.getId(), user.getName(), user.getPassword(), user.isAdmin());
 	}
 	
+	/**
+	 * パスワードを持たないSpring Securityの認証メカニズムのためのVOを生成して返す.
+	 * <p>署名付きトークンのように認証済みであることが別の手段で保証されている場合に使用する。</p>
+	 * @param id ユーザID
+	 * @param username ユーザ名
+	 * @param admin アドミニストレータ権限を持つかどうか
+	 * @return Spring Securityの認証メカニズムのためのVO
+	 */
+	public static SampleUserDetails withoutCredentials(final int id, final String username, final boolean admin) {
+		return new SampleUserDetails(id, username, "", admin);
+	}
+
 	/**
 	 * {@link Principal}オブジェクトから{@link SampleUserDetails}を取り出して返す.
 	 * @param principal ユーザ・プリンシパル
@@ -71,6 +66,7 @@ public class SampleUserDetails extends org.springframework.security.core.userdet
 	 */
 	public SampleUserDetails() {
         super("INVALID", "INVALID", false, false, false, false, emptyAuthorities());
+        this.authorities = SampleAuthoritySet.EMPTY;
     }
 	
 	/**
@@ -81,9 +77,10 @@ public class SampleUserDetails extends org.springframework.security.core.userdet
 	 * @param admin アドミニストレータ権限を持つかどうか
 	 */
 	private SampleUserDetails(final int id, final String username, final String passeord, final boolean admin) {
-		super(username, passeord, true, true, true, true, admin 
-				? administratorAuthorities() : operatorAuthorities());
+		super(username, passeord, true, true, true, true, emptyAuthorities());
+		this.id = id;
 		this.admin = admin;
+		this.authorities = admin ? SampleAuthoritySet.ADMINISTRATOR : SampleAuthoritySet.OPERATOR;
 	}
 	
 	/**
@@ -93,12 +90,21 @@ public class SampleUserDetails extends org.springframework.security.core.userdet
 	private int id;
 	private boolean admin;
 	
+	/**
+	 * 権限の集合.
+	 */
+	private SampleAuthoritySet authorities;
+	
 	public int getId() {
 		return id;
 	}
 	public boolean isAdmin() {
 		return admin;
 	}
+	@Override
+	public SampleAuthoritySet getAuthorities() {
+		return authorities;
+	}
 	public User toUser() {
 		final User user = new User();
 		user.setId(id);
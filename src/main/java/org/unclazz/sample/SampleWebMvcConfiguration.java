@@ -0,0 +1,82 @@
+package org.unclazz.sample;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.embedded.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+import org.unclazz.sample.metrics.SampleHandlerMetricsInterceptor;
+import org.unclazz.sample.metrics.SampleMetrics;
+
+/**
+ * Spring MVCのための設定情報を初期化するためのオブジェクト.
+ * <p>Spring Bootによる自動設定に対して、このアプリケーションに固有の設定を追加する。</p>
+ */
+@Configuration
+public class SampleWebMvcConfiguration extends WebMvcConfigurerAdapter {
+	/**
+	 * 段階ごとの処理時間を計測するかどうか.
+	 */
+	@Value("${sample.metrics.stages.enabled:true}")
+	private boolean stageMetrics;
+	
+	/**
+	 * 静的リソースのURLにバージョンを付与し、長期間のキャッシュを許可するかどうか.
+	 */
+	@Value("${sample.assets.enabled:true}")
+	private boolean staticAssets;
+	
+	/**
+	 * 静的リソースのキャッシュを許可する期間（秒）.
+	 */
+	@Value("${sample.assets.cacheSeconds:31536000}")
+	private int assetsCacheSeconds;
+	
+	/**
+	 * 計測値のレジストリ.
+	 */
+	@Autowired
+	private SampleMetrics metrics;
+	
+	/**
+	 * コントローラとビューのレンダリングの処理時間を計測するインターセプタを登録する.
+	 */
+	@Override
+	public void addInterceptors(final InterceptorRegistry registry) {
+		if (stageMetrics) {
+			registry.addInterceptor(new SampleHandlerMetricsInterceptor(metrics));
+		}
+	}
+	
+	/**
+	 * 静的リソースのURLを登録する.
+	 * <p>{@code /assets/}以下のURLは{@link org.unclazz.sample.controller.SampleAssetVersions}により
+	 * 内容のハッシュ値をバージョンとして付与して参照されるので、ブラウザに長期間のキャッシュを許可する。</p>
+	 */
+	@Override
+	public void addResourceHandlers(final ResourceHandlerRegistry registry) {
+		if (staticAssets) {
+			registry.addResourceHandler("/assets/**")
+				.addResourceLocations("classpath:/static/assets/")
+				.setCachePeriod(assetsCacheSeconds);
+		}
+	}
+	
+	/**
+	 * ログイン画面のレスポンスに{@code ETag}を付与するフィルタを登録する.
+	 * <p>レスポンスの内容のハッシュ値を{@code ETag}とし、リクエストの{@code If-None-Match}と一致する場合は
+	 * 本文を送らずに{@code 304 Not Modified}を返す。レンダリングの処理は省略されないが、転送量を削減できる。</p>
+	 * @return フィルタの登録情報
+	 */
+	@Bean
+	public FilterRegistrationBean loginEtagFilter() {
+		final FilterRegistrationBean registration = new FilterRegistrationBean(new ShallowEtagHeaderFilter());
+		registration.addUrlPatterns("/login");
+		registration.setEnabled(staticAssets);
+		return registration;
+	}
+}
@@ -0,0 +1,92 @@
+package org.unclazz.sample.audit;
+
+/**
+ * 監査ログに記録するイベント.
+ */
+public final class SampleAuditEvent {
+	/**
+	 * イベントの種類.
+	 */
+	public static enum Type {
+		/**
+		 * ログインの成功.
+		 */
+		LOGIN_SUCCESS,
+		/**
+		 * ログインの失敗.
+		 */
+		LOGIN_FAILURE,
+		/**
+		 * ユーザの登録.
+		 */
+		USER_CREATED,
+		/**
+		 * ユーザの更新.
+		 */
+		USER_UPDATED,
+		/**
+		 * ログイン時のパスワードの再エンコード.
+		 * <p>平文のパスワードは変わらず、エンコードの方式やパラメータだけが変わったことを表す。</p>
+		 */
+		PASSWORD_REHASHED
+	}
+
+	private final long timestamp;
+	private final Type type;
+	private final String actor;
+	private final String subject;
+	private final String remoteAddress;
+	private final String detail;
+
+	/**
+	 * コンストラクタ.
+	 * @param timestamp 発生時刻（ミリ秒）
+	 * @param type 種類
+	 * @param actor 操作を行ったユーザのユーザ名（不明な場合は{@code null}）
+	 * @param subject 対象のユーザのユーザ名
+	 * @param remoteAddress クライアントのアドレス（不明な場合は{@code null}）
+	 * @param detail 補足情報（ない場合は{@code null}）
+	 */
+	public SampleAuditEvent(final long timestamp, final Type type, final String actor,
+			final String subject, final String remoteAddress, final String detail) {
+		this.timestamp = timestamp;
+		this.type = type;
+		this.actor = actor;
+		this.subject = subject;
+		this.remoteAddress = remoteAddress;
+		this.detail = detail;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getActor() {
+		return actor;
+	}
+
+	public String getSubject() {
+		return subject;
+	}
+
+	public String getRemoteAddress() {
+		return remoteAddress;
+	}
+
+	public String getDetail() {
+		return detail;
+	}
+
+	/**
+	 * 操作を行ったユーザもしくは対象のユーザが指定のユーザであるかどうかを返す.
+	 * @param username ユーザ名
+	 * @return 該当する場合は{@code true}
+	 */
+	public boolean involves(final String username) {
+		return username.equals(actor) || username.equals(subject);
+	}
+}
@@ -0,0 +1,205 @@
+package org.unclazz.sample.audit;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * 監査ログのファイル名と行の形式.
+ * <p>ファイル名は{@code audit-<作成時刻>.log}で、作成時刻は{@code yyyyMMdd-HHmmss-SSS}（UTC）とする。
+ * 名前の順がそのまま作成の順になるので、あるファイルには作成時刻から次のファイルの作成時刻までの
+ * イベントが含まれていることがファイルを開かずにわかる。</p>
+ * <p>1行が1つのイベントで、発生時刻（ISO 8601、UTC）、種類、操作を行ったユーザ、対象のユーザ、
+ * クライアントのアドレス、補足情報をタブで区切って並べる。値がない項目は{@code -}とし、
+ * 値に含まれるバックスラッシュ、タブ、改行はエスケープする。</p>
+ */
+final class SampleAuditFormat {
+	static final String PREFIX = "audit-";
+	static final String SUFFIX = ".log";
+	private static final String FILE_TIME_PATTERN = "yyyyMMdd-HHmmss-SSS";
+	private static final String TIMESTAMP_PATTERN = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+	private static final String NULL = "-";
+
+	/**
+	 * インスタンス化させない.
+	 */
+	private SampleAuditFormat() {}
+
+	/**
+	 * 発生時刻の書式を返す.
+	 * <p>{@link SimpleDateFormat}はスレッド・セーフではないため、呼び出し側のスレッドに閉じて使用すること。</p>
+	 * @return 書式
+	 */
+	static DateFormat timestampFormat() {
+		return utc(TIMESTAMP_PATTERN);
+	}
+
+	/**
+	 * 作成時刻に対応するファイル名を返す.
+	 * @param createdMillis 作成時刻（ミリ秒）
+	 * @return ファイル名
+	 */
+	static String fileName(final long createdMillis) {
+		return PREFIX + utc(FILE_TIME_PATTERN).format(new Date(createdMillis)) + SUFFIX;
+	}
+
+	/**
+	 * ファイル名から作成時刻を取り出す.
+	 * @param file ファイル
+	 * @return 作成時刻（ミリ秒、ファイル名の形式が正しくない場合は{@code -1}）
+	 */
+	static long createdMillis(final File file) {
+		final String name = file.getName();
+		try {
+			return utc(FILE_TIME_PATTERN).parse(
+					name.substring(PREFIX.length(), name.length() - SUFFIX.length())).getTime();
+		} catch (final ParseException e) {
+			return -1;
+		} catch (final IndexOutOfBoundsException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * ディレクトリ内の監査ログのファイルを作成の順に返す.
+	 * @param directory ディレクトリ
+	 * @return ファイルの配列（ディレクトリがない場合は空）
+	 */
+	static File[] list(final File directory) {
+		final File[] files = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(final File dir, final String name) {
+				return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+			}
+		});
+		if (files == null) {
+			return new File[0];
+		}
+		Arrays.sort(files);
+		return files;
+	}
+
+	/**
+	 * イベントを1行に変換する.
+	 * @param event イベント
+	 * @param format 発生時刻の書式
+	 * @param out 行を追加するバッファ（改行を含む）
+	 */
+	static void format(final SampleAuditEvent event, final DateFormat format, final StringBuilder out) {
+		out.append(format.format(new Date(event.getTimestamp()))).append('\t')
+			.append(event.getType().name()).append('\t');
+		escape(event.getActor(), out);
+		out.append('\t');
+		escape(event.getSubject(), out);
+		out.append('\t');
+		escape(event.getRemoteAddress(), out);
+		out.append('\t');
+		escape(event.getDetail(), out);
+		out.append('\n');
+	}
+
+	/**
+	 * 1行をイベントに変換する.
+	 * @param line 行（改行を含まない）
+	 * @param format 発生時刻の書式
+	 * @return イベント（形式が正しくない場合は{@code null}）
+	 */
+	static SampleAuditEvent parse(final String line, final DateFormat format) {
+		final String[] fields = line.split("\t", -1);
+		if (fields.length != 6) {
+			return null;
+		}
+		try {
+			return new SampleAuditEvent(format.parse(fields[0]).getTime(),
+					SampleAuditEvent.Type.valueOf(fields[1]), unescape(fields[2]),
+					unescape(fields[3]), unescape(fields[4]), unescape(fields[5]));
+		} catch (final ParseException e) {
+			return null;
+		} catch (final IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * 行の発生時刻だけを取り出す.
+	 * @param line 行
+	 * @param format 発生時刻の書式
+	 * @return 発生時刻（ミリ秒、形式が正しくない場合は{@code -1}）
+	 */
+	static long timestamp(final String line, final DateFormat format) {
+		final int tab = line.indexOf('\t');
+		if (tab < 0) {
+			return -1;
+		}
+		try {
+			return format.parse(line.substring(0, tab)).getTime();
+		} catch (final ParseException e) {
+			return -1;
+		}
+	}
+
+	private static void escape(final String value, final StringBuilder out) {
+		if (value == null) {
+			out.append(NULL);
+			return;
+		}
+		if (value.equals(NULL)) {
+			out.append('\\').append(NULL);
+			return;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c == '\\') {
+				out.append("\\\\");
+			} else if (c == '\t') {
+				out.append("\\t");
+			} else if (c == '\n') {
+				out.append("\\n");
+			} else if (c == '\r') {
+				out.append("\\r");
+			} else {
+				out.append(c);
+			}
+		}
+	}
+
+	private static String unescape(final String value) {
+		if (value.equals(NULL)) {
+			return null;
+		}
+		if (value.indexOf('\\') < 0) {
+			return value;
+		}
+		final StringBuilder out = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c != '\\' || i + 1 == value.length()) {
+				out.append(c);
+				continue;
+			}
+			final char next = value.charAt(++i);
+			if (next == 't') {
+				out.append('\t');
+			} else if (next == 'n') {
+				out.append('\n');
+			} else if (next == 'r') {
+				out.append('\r');
+			} else {
+				out.append(next);
+			}
+		}
+		return out.toString();
+	}
+
+	private static DateFormat utc(final String pattern) {
+		final SimpleDateFormat format = new SimpleDateFormat(pattern);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		format.setLenient(false);
+		return format;
+	}
+}
@@ -0,0 +1,274 @@
+package org.unclazz.sample.audit;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.web.authentication.WebAuthenticationDetails;
+import org.springframework.stereotype.Component;
+import org.unclazz.sample.metrics.SampleMetrics;
+
+/**
+ * 認証とユーザ管理のイベントを非同期にファイルへ記録する監査ログ.
+ * <p>イベントを記録するスレッドは{@link SampleAuditRingBuffer}にイベントを追加するだけで、
+ * ロックの取得やファイルへの書き込みは行わない。バッファが一杯の場合はイベントを破棄して数を数え、
+ * リクエスト・スレッドを待たせることはない。</p>
+ * <p>専用の1つのスレッドがバッファからまとめてイベントを取り出し、{@code sample.audit.directory}の
+ * 追記専用のファイルに書き込む（形式は{@link SampleAuditFormat}を参照）。ファイルが
+ * {@code sample.audit.maxFileMegabytes}に達すると新しいファイルに切り替え、
+ * {@code sample.audit.maxFiles}を超えた古いファイルは削除する。
+ * 記録したイベントは{@link SampleAuditQuery}で検索できる。</p>
+ */
+@Component
+public class SampleAuditLog {
+	private static final Log logger = LogFactory.getLog(SampleAuditLog.class);
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * 1回に取り出すイベントの最大数.
+	 */
+	private static final int BATCH_SIZE = 1024;
+
+	/**
+	 * 監査ログを記録するかどうか.
+	 */
+	@Value("${sample.audit.enabled:true}")
+	private boolean enabled;
+
+	/**
+	 * ファイルを格納するディレクトリ.
+	 */
+	@Value("${sample.audit.directory:data/audit}")
+	private String directory;
+
+	/**
+	 * バッファの容量.
+	 */
+	@Value("${sample.audit.bufferSize:65536}")
+	private int bufferSize;
+
+	/**
+	 * バッファが空のときに書き込みのスレッドが待つ時間（ミリ秒）.
+	 */
+	@Value("${sample.audit.flushMillis:50}")
+	private long flushMillis;
+
+	/**
+	 * 1つのファイルの長さの上限（メガバイト）.
+	 */
+	@Value("${sample.audit.maxFileMegabytes:64}")
+	private int maxFileMegabytes;
+
+	/**
+	 * 保持するファイルの数.
+	 */
+	@Value("${sample.audit.maxFiles:30}")
+	private int maxFiles;
+
+	/**
+	 * 計測値のレジストリ.
+	 */
+	@Autowired
+	private SampleMetrics metrics;
+
+	private SampleAuditRingBuffer<SampleAuditEvent> buffer;
+	private AtomicLong dropped;
+	private AtomicLong written;
+	private Thread writer;
+	private volatile boolean running;
+
+	/**
+	 * 書き込み中のファイルのストリーム. 書き込みのスレッドのみが使用する。
+	 */
+	private OutputStream out;
+
+	/**
+	 * 書き込み中のファイルに書き込んだバイト数. 書き込みのスレッドのみが使用する。
+	 */
+	private long fileBytes;
+
+	/**
+	 * バッファと書き込みのスレッドを準備する.
+	 */
+	@PostConstruct
+	public void initialize() {
+		if (!enabled) {
+			return;
+		}
+		buffer = new SampleAuditRingBuffer<SampleAuditEvent>(bufferSize);
+		dropped = metrics.counter("audit.dropped");
+		written = metrics.counter("audit.written");
+		metrics.gauge("audit.queued", new SampleMetrics.Gauge() {
+			@Override
+			public long value() {
+				return buffer.size();
+			}
+		});
+		running = true;
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "sample-audit-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * バッファに残っているイベントを書き込んでから停止する.
+	 */
+	@PreDestroy
+	public void shutdown() {
+		if (writer == null) {
+			return;
+		}
+		running = false;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(10));
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * ファイルを格納するディレクトリを返す.
+	 * @return ディレクトリ
+	 */
+	public File getDirectory() {
+		return new File(directory);
+	}
+
+	/**
+	 * イベントを記録する.
+	 * <p>バッファが一杯の場合はイベントを破棄する。</p>
+	 * @param type 種類
+	 * @param actor 操作を行ったユーザのユーザ名（不明な場合は{@code null}）
+	 * @param subject 対象のユーザのユーザ名
+	 * @param remoteAddress クライアントのアドレス（不明な場合は{@code null}）
+	 * @param detail 補足情報（ない場合は{@code null}）
+	 */
+	public void record(final SampleAuditEvent.Type type, final String actor,
+			final String subject, final String remoteAddress, final String detail) {
+		if (buffer == null) {
+			return;
+		}
+		if (!buffer.offer(new SampleAuditEvent(System.currentTimeMillis(),
+				type, actor, subject, remoteAddress, detail))) {
+			dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * 認証の成否を記録する.
+	 * @param type {@link SampleAuditEvent.Type#LOGIN_SUCCESS}もしくは{@link SampleAuditEvent.Type#LOGIN_FAILURE}
+	 * @param authentication 認証の要求
+	 * @param detail 補足情報（失敗の理由など、ない場合は{@code null}）
+	 */
+	public void recordLogin(final SampleAuditEvent.Type type,
+			final Authentication authentication, final String detail) {
+		final Object details = authentication.getDetails();
+		record(type, null, authentication.getName(), details instanceof WebAuthenticationDetails
+				? ((WebAuthenticationDetails) details).getRemoteAddress() : null, detail);
+	}
+
+	/**
+	 * 書き込みのスレッドの本体.
+	 */
+	private void writeLoop() {
+		final List<SampleAuditEvent> batch = new ArrayList<SampleAuditEvent>(BATCH_SIZE);
+		final StringBuilder text = new StringBuilder(BATCH_SIZE * 128);
+		final DateFormat format = SampleAuditFormat.timestampFormat();
+		final long maxFileBytes = (long) maxFileMegabytes << 20;
+		try {
+			for (;;) {
+				// 停止の指示を先に読んでおくことで、指示の前に追加されたイベントを取りこぼさない
+				final boolean stopping = !running;
+				batch.clear();
+				if (buffer.drain(batch, BATCH_SIZE) == 0) {
+					if (out != null) {
+						out.flush();
+					}
+					if (stopping) {
+						break;
+					}
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(flushMillis));
+					continue;
+				}
+				text.setLength(0);
+				for (final SampleAuditEvent event : batch) {
+					SampleAuditFormat.format(event, format, text);
+				}
+				final byte[] bytes = text.toString().getBytes(UTF_8);
+				if (out == null || fileBytes + bytes.length > maxFileBytes) {
+					rotate();
+				}
+				out.write(bytes);
+				fileBytes += bytes.length;
+				written.addAndGet(batch.size());
+			}
+		} catch (final IOException e) {
+			logger.error("Audit log writer stopped; subsequent events will be dropped.", e);
+		} finally {
+			closeQuietly();
+		}
+	}
+
+	/**
+	 * 新しいファイルに切り替え、保持する数を超えた古いファイルを削除する.
+	 * @throws IOException ファイルの作成に失敗した場合
+	 */
+	private void rotate() throws IOException {
+		closeQuietly();
+		final File dir = getDirectory();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException(String.format("Cannot create directory \"%s\".", dir));
+		}
+		// 同じミリ秒に切り替えた場合も名前の順が作成の順になるようにする
+		long created = System.currentTimeMillis();
+		File file = new File(dir, SampleAuditFormat.fileName(created));
+		while (file.exists()) {
+			file = new File(dir, SampleAuditFormat.fileName(++created));
+		}
+		out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+		fileBytes = 0;
+
+		final File[] files = SampleAuditFormat.list(dir);
+		for (int i = 0; i < files.length - maxFiles; i++) {
+			if (!files[i].delete()) {
+				logger.warn(String.format("Failed to delete audit log \"%s\".", files[i]));
+			}
+		}
+	}
+
+	private void closeQuietly() {
+		if (out == null) {
+			return;
+		}
+		try {
+			out.close();
+		} catch (final IOException e) {
+			logger.warn("Failed to close audit log.", e);
+		}
+		out = null;
+	}
+}
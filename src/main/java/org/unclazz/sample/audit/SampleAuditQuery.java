@@ -0,0 +1,152 @@
+package org.unclazz.sample.audit;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * 監査ログのファイルからイベントを検索する.
+ * <p>ファイル名から各ファイルに含まれる期間がわかるため、期間が検索の範囲と重ならないファイルは開かない。
+ * 新しいファイルから順に読み、条件に合う最も新しいイベントを指定の数まで返す。</p>
+ * <p>コマンドラインからも使用できる:</p>
+ * <pre>
+ * java -cp ... org.unclazz.sample.audit.SampleAuditQuery data/audit \
+ *     [--user ユーザ名] [--from 2015-01-01T00:00:00.000Z] [--to ...] [--limit 100]
+ * </pre>
+ */
+public final class SampleAuditQuery {
+	private final File directory;
+
+	/**
+	 * コンストラクタ.
+	 * @param directory 監査ログのファイルを格納するディレクトリ
+	 */
+	public SampleAuditQuery(final File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * イベントを検索する.
+	 * @param username 操作を行ったユーザもしくは対象のユーザのユーザ名（すべてのユーザの場合は{@code null}）
+	 * @param fromMillis 発生時刻の下限（ミリ秒、この時刻を含む）
+	 * @param toMillis 発生時刻の上限（ミリ秒、この時刻を含まない）
+	 * @param limit 返すイベントの最大数
+	 * @return 発生時刻の順に並べたイベントのリスト
+	 * @throws IOException ファイルの読み込みに失敗した場合
+	 */
+	public List<SampleAuditEvent> find(final String username, final long fromMillis,
+			final long toMillis, final int limit) throws IOException {
+		final DateFormat format = SampleAuditFormat.timestampFormat();
+		final File[] files = SampleAuditFormat.list(directory);
+		final List<SampleAuditEvent> result = new ArrayList<SampleAuditEvent>();
+		long nextCreated = Long.MAX_VALUE;
+		for (int i = files.length - 1; i >= 0 && result.size() < limit; i--) {
+			final long created = SampleAuditFormat.createdMillis(files[i]);
+			final boolean overlaps = created < toMillis && fromMillis < nextCreated;
+			if (created >= 0) {
+				nextCreated = created;
+			}
+			if (!overlaps) {
+				continue;
+			}
+			final List<SampleAuditEvent> matched = scan(files[i], username,
+					fromMillis, toMillis, limit - result.size(), format);
+			// 新しいファイルの結果ほど前に並べておき、最後に全体を反転する
+			Collections.reverse(matched);
+			result.addAll(matched);
+		}
+		Collections.reverse(result);
+		return result;
+	}
+
+	/**
+	 * 1つのファイルから条件に合う最も新しいイベントを指定の数まで取り出す.
+	 * @return ファイル内の順に並べたイベントのリスト
+	 */
+	private List<SampleAuditEvent> scan(final File file, final String username,
+			final long fromMillis, final long toMillis, final int limit,
+			final DateFormat format) throws IOException {
+		final LinkedList<SampleAuditEvent> matched = new LinkedList<SampleAuditEvent>();
+		final BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				// 大半の行は解析せずに読み飛ばせる
+				if (username != null && !line.contains(username)) {
+					continue;
+				}
+				final long timestamp = SampleAuditFormat.timestamp(line, format);
+				if (timestamp < fromMillis || timestamp >= toMillis) {
+					continue;
+				}
+				final SampleAuditEvent event = SampleAuditFormat.parse(line, format);
+				if (event == null || (username != null && !event.involves(username))) {
+					continue;
+				}
+				matched.addLast(event);
+				if (matched.size() > limit) {
+					matched.removeFirst();
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return matched;
+	}
+
+	/**
+	 * コマンドラインから検索し、結果を標準出力に書き出す.
+	 * @param args ディレクトリと検索の条件
+	 * @throws Exception 検索に失敗した場合
+	 */
+	public static void main(final String[] args) throws Exception {
+		if (args.length == 0) {
+			System.err.println("Usage: SampleAuditQuery <directory> "
+					+ "[--user name] [--from time] [--to time] [--limit n]");
+			System.exit(2);
+		}
+		final DateFormat format = SampleAuditFormat.timestampFormat();
+		String username = null;
+		long from = 0;
+		long to = Long.MAX_VALUE;
+		int limit = 100;
+		for (int i = 1; i + 1 < args.length; i += 2) {
+			final String name = args[i];
+			final String value = args[i + 1];
+			if (name.equals("--user")) {
+				username = value;
+			} else if (name.equals("--from")) {
+				from = parseTime(value, format);
+			} else if (name.equals("--to")) {
+				to = parseTime(value, format);
+			} else if (name.equals("--limit")) {
+				limit = Integer.parseInt(value);
+			} else {
+				throw new IllegalArgumentException("Unknown option: " + name);
+			}
+		}
+		final StringBuilder out = new StringBuilder();
+		for (final SampleAuditEvent event : new SampleAuditQuery(
+				new File(args[0])).find(username, from, to, limit)) {
+			SampleAuditFormat.format(event, format, out);
+		}
+		System.out.print(out);
+	}
+
+	private static long parseTime(final String value, final DateFormat format) {
+		try {
+			return format.parse(value).getTime();
+		} catch (final ParseException e) {
+			throw new IllegalArgumentException("Invalid time: " + value, e);
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package org.unclazz.sample.audit;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 複数のスレッドが追加し、1つのスレッドが取り出す固定長のリング・バッファ.
+ * <p>各スロットに通し番号を持たせ、追加するスレッドは末尾の位置をCASで確保してから要素を書き込み、
+ * 最後にスロットの通し番号を進めて取り出し可能であることを示す。ロックを使用しないので、
+ * 追加するスレッドが待たされることはなく、バッファが一杯の場合は{@link #offer(Object)}が
+ * ただちに{@code false}を返す。</p>
+ * <p>{@link #drain(List, int)}は常に同じ1つのスレッドから呼び出すこと。</p>
+ * @param <E> 要素の型
+ */
+final class SampleAuditRingBuffer<E> {
+	private final AtomicReferenceArray<E> elements;
+
+	/**
+	 * スロットごとの通し番号.
+	 * <p>位置{@code p}のスロットの値が{@code p}なら追加可能、{@code p + 1}なら取り出し可能であることを表す。</p>
+	 */
+	private final AtomicLongArray sequences;
+
+	private final int mask;
+
+	/**
+	 * 次に追加する位置.
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * 次に取り出す位置.
+	 * <p>更新するのは取り出すスレッドのみで、他のスレッドは{@link #size()}のためにだけ参照する。</p>
+	 */
+	private final AtomicLong head = new AtomicLong();
+
+	/**
+	 * コンストラクタ.
+	 * @param capacity 容量（2の累乗に切り上げる）
+	 */
+	SampleAuditRingBuffer(final int capacity) {
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		elements = new AtomicReferenceArray<E>(size);
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+		mask = size - 1;
+	}
+
+	/**
+	 * 要素を追加する.
+	 * @param element 要素
+	 * @return 追加した場合は{@code true}、バッファが一杯の場合は{@code false}
+	 */
+	boolean offer(final E element) {
+		for (;;) {
+			final long position = tail.get();
+			final int index = (int) (position & mask);
+			final long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					elements.lazySet(index, element);
+					sequences.lazySet(index, position + 1);
+					return true;
+				}
+			} else if (difference < 0) {
+				// 一周前の要素がまだ取り出されていない
+				return false;
+			}
+			// 他のスレッドが先に位置を確保したので読み直す
+		}
+	}
+
+	/**
+	 * 取り出し可能な要素を順に取り出してリストに追加する.
+	 * @param to 要素を追加するリスト
+	 * @param max 取り出す要素の最大数
+	 * @return 取り出した要素の数
+	 */
+	int drain(final List<E> to, final int max) {
+		long position = head.get();
+		int count = 0;
+		while (count < max) {
+			final int index = (int) (position & mask);
+			if (sequences.get(index) != position + 1) {
+				// 空であるか、位置を確保したスレッドがまだ書き込みを終えていない
+				break;
+			}
+			to.add(elements.get(index));
+			elements.lazySet(index, null);
+			sequences.lazySet(index, position + mask + 1);
+			position++;
+			count++;
+		}
+		head.lazySet(position);
+		return count;
+	}
+
+	/**
+	 * バッファ内の要素のおおよその数を返す.
+	 * @return 要素の数
+	 */
+	int size() {
+		return (int) Math.max(0, tail.get() - head.get());
+	}
+
+	/**
+	 * 容量を返す.
+	 * @return 容量
+	 */
+	int capacity() {
+		return mask + 1;
+	}
+}
@@ -0,0 +1,247 @@
+package org.unclazz.sample.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 要素数の上限と有効期限を持つLRUキャッシュ.
+ * <p>キーのハッシュ値によって複数のセグメントに分割し、セグメントごとにロックを取る。
+ * 各セグメントはアクセス順の{@link LinkedHashMap}で、上限を超えた場合は最も長く参照されていない要素から破棄する。</p>
+ * <p>値の読み込み中に同じキーが無効化された場合に古い値をキャッシュしてしまわないよう、
+ * {@link #generation(Object)}で読み込み前の世代を取得しておき{@link #put(Object, Object, long, long)}に渡す。
+ * 世代が変わっていれば値は格納されない。</p>
+ * @param <K> キーの型
+ * @param <V> 値の型
+ */
+public class SampleCache<K, V> {
+	/**
+	 * キャッシュのエントリ.
+	 * @param <V> 値の型
+	 */
+	private static final class CacheEntry<V> {
+		private final V value;
+		private final long expiresAt;
+		private CacheEntry(final V value, final long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/**
+	 * キャッシュのセグメント.
+	 * このオブジェクト自身をロックとして使用する。
+	 * @param <K> キーの型
+	 * @param <V> 値の型
+	 */
+	private static final class Segment<K, V> extends LinkedHashMap<K, CacheEntry<V>> {
+		private static final long serialVersionUID = 1L;
+		private final int capacity;
+		private final AtomicLong evictions;
+		private long generation;
+
+		private Segment(final int capacity, final AtomicLong evictions) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+			this.evictions = evictions;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<K, CacheEntry<V>> eldest) {
+			if (size() > capacity) {
+				evictions.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * セグメントの配列.
+	 */
+	private final Segment<K, V>[] segments;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong expirations = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	/**
+	 * コンストラクタ.
+	 * @param maxSize キャッシュ全体の要素数の上限
+	 * @param concurrency セグメント数（2のべき乗に切り上げられる）
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public SampleCache(final int maxSize, final int concurrency) {
+		if (maxSize < 1 || concurrency < 1) {
+			throw new IllegalArgumentException(String.format(
+					"Invalid cache size %d or concurrency %d", maxSize, concurrency));
+		}
+		int n = 1;
+		while (n < concurrency && n < maxSize) {
+			n <<= 1;
+		}
+		final int capacity = Math.max(1, maxSize / n);
+		segments = new Segment[n];
+		for (int i = 0; i < n; i++) {
+			segments[i] = new Segment<K, V>(capacity, evictions);
+		}
+	}
+
+	/**
+	 * キーに対応するセグメントを返す.
+	 * @param key キー
+	 * @return セグメント
+	 */
+	private Segment<K, V> segmentFor(final Object key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segments[h & (segments.length - 1)];
+	}
+
+	/**
+	 * キーに対応する値を返す.
+	 * 値が存在しないか有効期限が切れている場合は{@code null}を返す。
+	 * @param key キー
+	 * @return 値
+	 */
+	public V get(final K key) {
+		final Segment<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			final CacheEntry<V> entry = segment.get(key);
+			if (entry == null) {
+				misses.incrementAndGet();
+				return null;
+			}
+			if (entry.expiresAt <= System.currentTimeMillis()) {
+				segment.remove(key);
+				expirations.incrementAndGet();
+				misses.incrementAndGet();
+				return null;
+			}
+			hits.incrementAndGet();
+			return entry.value;
+		}
+	}
+
+	/**
+	 * キーが属するセグメントの現在の世代を返す.
+	 * @param key キー
+	 * @return 世代
+	 */
+	public long generation(final K key) {
+		final Segment<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.generation;
+		}
+	}
+
+	/**
+	 * 値を格納する.
+	 * セグメントの世代が{@code generation}から変わっている場合は何もしない。
+	 * @param key キー
+	 * @param value 値
+	 * @param ttlMillis 有効期間（ミリ秒）
+	 * @param generation 値を読み込む前に{@link #generation(Object)}で取得した世代
+	 */
+	public void put(final K key, final V value, final long ttlMillis, final long generation) {
+		final Segment<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			if (segment.generation == generation) {
+				segment.put(key, new CacheEntry<V>(value, System.currentTimeMillis() + ttlMillis));
+			}
+		}
+	}
+
+	/**
+	 * キーに対応する値を破棄する.
+	 * @param key キー
+	 */
+	public void invalidate(final K key) {
+		final Segment<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			segment.generation++;
+			if (segment.remove(key) != null) {
+				invalidations.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * 条件に合致するキーの値をすべて破棄する.
+	 * @param filter 破棄対象のキーを判定するフィルタ
+	 */
+	public void invalidateIf(final KeyFilter<? super K> filter) {
+		for (final Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				segment.generation++;
+				final Iterator<K> keys = segment.keySet().iterator();
+				while (keys.hasNext()) {
+					if (filter.accept(keys.next())) {
+						keys.remove();
+						invalidations.incrementAndGet();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * すべての値を破棄する.
+	 */
+	public void clear() {
+		for (final Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				segment.generation++;
+				invalidations.addAndGet(segment.size());
+				segment.clear();
+			}
+		}
+	}
+
+	/**
+	 * キャッシュされている要素の数を返す.
+	 * 有効期限切れで未破棄の要素も含む。
+	 * @return 要素数
+	 */
+	public int size() {
+		int size = 0;
+		for (final Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+	public long getMisses() {
+		return misses.get();
+	}
+	public long getEvictions() {
+		return evictions.get();
+	}
+	public long getExpirations() {
+		return expirations.get();
+	}
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+
+	/**
+	 * {@link SampleCache#invalidateIf(KeyFilter)}で破棄対象を判定するフィルタ.
+	 * @param <K> キーの型
+	 */
+	public static interface KeyFilter<K> {
+		/**
+		 * キーが破棄対象かどうかを判定する.
+		 * @param key キー
+		 * @return 破棄対象の場合は{@code true}
+		 */
+		boolean accept(K key);
+	}
+}
@@ -0,0 +1,83 @@
+package org.unclazz.sample.cluster;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 同じJVM内のノードどうしで変更通知をやり取りする通信手段.
+ * <p>1つのJVMで複数のアプリケーション・コンテキストを起動して動作を確認するためのもので、
+ * 同じグループ名で開始したインスタンスの間で、送信したスレッドから直接受信側のコールバックを呼び出す。</p>
+ */
+public class SampleInJvmUserChangeTransport implements SampleUserChangeTransport {
+	/**
+	 * グループ名をキーとする参加中のインスタンスのリスト.
+	 */
+	private static final ConcurrentMap<String, List<SampleInJvmUserChangeTransport>> groups =
+			new ConcurrentHashMap<String, List<SampleInJvmUserChangeTransport>>();
+
+	/**
+	 * グループ名.
+	 */
+	private final String group;
+
+	/**
+	 * コールバック.
+	 */
+	private volatile Receiver receiver;
+
+	/**
+	 * コンストラクタ.
+	 * @param group グループ名
+	 */
+	public SampleInJvmUserChangeTransport(final String group) {
+		this.group = group;
+	}
+
+	@Override
+	public void start(final Receiver receiver) {
+		this.receiver = receiver;
+		List<SampleInJvmUserChangeTransport> members = groups.get(group);
+		if (members == null) {
+			final List<SampleInJvmUserChangeTransport> created =
+					new CopyOnWriteArrayList<SampleInJvmUserChangeTransport>();
+			members = groups.putIfAbsent(group, created);
+			if (members == null) {
+				members = created;
+			}
+		}
+		members.add(this);
+	}
+
+	/**
+	 * バイト列に変換せずに渡すので上限はない.
+	 */
+	@Override
+	public int getMaxBatchBytes() {
+		return Integer.MAX_VALUE;
+	}
+
+	@Override
+	public void send(final SampleUserChangeBatch batch) {
+		final List<SampleInJvmUserChangeTransport> members = groups.get(group);
+		if (members == null) {
+			return;
+		}
+		for (final SampleInJvmUserChangeTransport member : members) {
+			final Receiver r = member.receiver;
+			if (member != this && r != null) {
+				r.received(batch);
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		final List<SampleInJvmUserChangeTransport> members = groups.get(group);
+		if (members != null) {
+			members.remove(this);
+		}
+		receiver = null;
+	}
+}
@@ -0,0 +1,141 @@
+package org.unclazz.sample.cluster;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * UDPのデータグラムで変更通知をやり取りする通信手段.
+ * <p>自ノードの受信用アドレスで待ち受け、あらかじめ設定したすべてのピアに同じデータグラムを送る。
+ * ループバック・アドレス上でポート番号を変えて複数のノードを起動し、動作を確認する用途を想定している。
+ * 1つのデータグラムが{@value #MAX_DATAGRAM_BYTES}バイトを超えないよう、通知は送信側で分割される。</p>
+ * <p>設定したピアのアドレス以外から届いたデータグラムは破棄する。ピアは受信用アドレスから送信するので、
+ * 各ノードのピアの一覧には相手の{@code sample.cluster.bind}と同じアドレスを指定する。
+ * 送信元アドレスの確認は偽装を防ぐものではないため、信頼できるネットワークの内側でのみ使用すること。</p>
+ * <p>UDPは配送を保証しないため、取りこぼしはキャッシュの有効期間により補われる。</p>
+ */
+public class SampleUdpUserChangeTransport implements SampleUserChangeTransport {
+	private static final Log logger = LogFactory.getLog(SampleUdpUserChangeTransport.class);
+
+	/**
+	 * 1つのデータグラムの長さの上限（一般的なMTUに収まる値）.
+	 */
+	static final int MAX_DATAGRAM_BYTES = 1400;
+
+	/**
+	 * 受信用アドレス.
+	 */
+	private final InetSocketAddress bindAddress;
+
+	/**
+	 * 送信先のピアのアドレス.
+	 */
+	private final List<InetSocketAddress> peers;
+
+	/**
+	 * 受信を受け付ける送信元アドレス.
+	 */
+	private final Set<SocketAddress> acceptedSenders;
+
+	/**
+	 * 送受信に使用するソケット.
+	 */
+	private DatagramSocket socket;
+
+	/**
+	 * 受信スレッド.
+	 */
+	private Thread receiverThread;
+
+	/**
+	 * コンストラクタ.
+	 * @param bindAddress 受信用アドレス
+	 * @param peers 送信先のピアのアドレス
+	 */
+	public SampleUdpUserChangeTransport(final InetSocketAddress bindAddress, final List<InetSocketAddress> peers) {
+		this.bindAddress = bindAddress;
+		this.peers = new ArrayList<InetSocketAddress>(peers);
+		this.acceptedSenders = new HashSet<SocketAddress>(peers);
+	}
+
+	/**
+	 * 受信用のポート番号を返す.
+	 * <p>ポート番号{@code 0}で開始した場合に実際に割り当てられた番号を知るために使用する。</p>
+	 * @return ポート番号
+	 */
+	public int getLocalPort() {
+		return socket.getLocalPort();
+	}
+
+	@Override
+	public void start(final Receiver receiver) throws SocketException {
+		socket = new DatagramSocket(bindAddress);
+		receiverThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				receive(receiver);
+			}
+		}, "sample-cluster-udp-" + socket.getLocalPort());
+		receiverThread.setDaemon(true);
+		receiverThread.start();
+	}
+
+	@Override
+	public int getMaxBatchBytes() {
+		return MAX_DATAGRAM_BYTES;
+	}
+
+	@Override
+	public void send(final SampleUserChangeBatch batch) throws IOException {
+		final byte[] bytes = batch.toBytes();
+		for (final InetSocketAddress peer : peers) {
+			socket.send(new DatagramPacket(bytes, bytes.length, peer));
+		}
+	}
+
+	@Override
+	public void close() {
+		if (socket != null) {
+			// ブロックしている受信スレッドはSocketExceptionにより終了する
+			socket.close();
+		}
+	}
+
+	/**
+	 * ソケットが閉じられるまでデータグラムを受信し続ける.
+	 * @param receiver コールバック
+	 */
+	private void receive(final Receiver receiver) {
+		final byte[] buffer = new byte[65536];
+		final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		while (!socket.isClosed()) {
+			try {
+				packet.setLength(buffer.length);
+				socket.receive(packet);
+				if (!acceptedSenders.contains(packet.getSocketAddress())) {
+					logger.debug(String.format("Discarded datagram from unknown sender %s", packet.getSocketAddress()));
+					continue;
+				}
+				receiver.received(SampleUserChangeBatch.fromBytes(
+						packet.getData(), packet.getOffset(), packet.getLength()));
+			} catch (final SocketException e) {
+				// 停止された
+				break;
+			} catch (final IOException e) {
+				logger.warn(String.format("Discarded malformed datagram from %s", packet.getSocketAddress()), e);
+			} catch (final RuntimeException e) {
+				logger.error("Failed to apply user change batch", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package org.unclazz.sample.cluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ノード間で送受信するユーザ情報の変更通知.
+ * <p>一定時間内に変更のあったユーザのユーザ名をまとめたもので、同じユーザの変更は1件にまとめられている。
+ * 変更が多すぎる場合は個々のユーザ名の代わりに「すべてのユーザ」を表す通知を送る。</p>
+ * <p>ネットワーク越しに送る場合は{@link #toBytes()}でバイト列に変換する。形式は次のとおり
+ * （{@link DataOutputStream}による）。</p>
+ * <pre>
+ * int     マジックナンバー
+ * UTF     送信元ノードID
+ * long    送信元での通し番号
+ * boolean すべてのユーザかどうか
+ * int     ユーザ名の数
+ * UTF...  ユーザ名
+ * </pre>
+ * <p>通し番号は送信元が実際に送る単位（{@link #split(int)}で分割した後の通知）ごとに振る。
+ * 受信側は通し番号の欠落から通知の取りこぼしを検出する。</p>
+ */
+public final class SampleUserChangeBatch {
+	/**
+	 * バイト列の先頭に置くマジックナンバー.
+	 */
+	private static final int MAGIC = 0x53554331;
+
+	/**
+	 * ユーザ名を除いたバイト列の長さの概算（送信元ノードIDを除く）.
+	 */
+	private static final int HEADER_BYTES = 4 + 2 + 8 + 1 + 4;
+
+	private final String origin;
+	private final long sequence;
+	private final boolean all;
+	private final List<String> usernames;
+
+	/**
+	 * コンストラクタ.
+	 * @param origin 送信元ノードID
+	 * @param sequence 送信元での通し番号
+	 * @param all すべてのユーザを対象とする場合は{@code true}
+	 * @param usernames 変更のあったユーザのユーザ名
+	 */
+	public SampleUserChangeBatch(final String origin, final long sequence,
+			final boolean all, final Collection<String> usernames) {
+		this.origin = origin;
+		this.sequence = sequence;
+		this.all = all;
+		this.usernames = Collections.unmodifiableList(new ArrayList<String>(usernames));
+	}
+
+	public String getOrigin() {
+		return origin;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * すべてのユーザを対象とするかどうかを返す.
+	 * @return すべてのユーザを対象とする場合は{@code true}
+	 */
+	public boolean isAll() {
+		return all;
+	}
+
+	public List<String> getUsernames() {
+		return usernames;
+	}
+
+	/**
+	 * 通し番号だけを置き換えた通知を返す.
+	 * @param sequence 送信元での通し番号
+	 * @return 通知
+	 */
+	public SampleUserChangeBatch withSequence(final long sequence) {
+		return new SampleUserChangeBatch(origin, sequence, all, usernames);
+	}
+
+	/**
+	 * バイト列に変換した際の長さが指定の値を超えないように分割する.
+	 * <p>1つのユーザ名だけで長さを超える場合はそのユーザ名だけの通知とする。
+	 * 分割した通知の通し番号はこの通知のものと同じなので、送信の前に{@link #withSequence(long)}で振り直す。</p>
+	 * @param maxBytes バイト列の長さの上限
+	 * @return 分割した通知のリスト（分割の必要がない場合はこの通知のみ）
+	 */
+	public List<SampleUserChangeBatch> split(final int maxBytes) {
+		final int header = HEADER_BYTES + utfLength(origin);
+		final List<SampleUserChangeBatch> result = new ArrayList<SampleUserChangeBatch>();
+		final List<String> chunk = new ArrayList<String>();
+		int bytes = header;
+		for (final String username : usernames) {
+			final int length = 2 + utfLength(username);
+			if (!chunk.isEmpty() && bytes + length > maxBytes) {
+				result.add(new SampleUserChangeBatch(origin, sequence, false, chunk));
+				chunk.clear();
+				bytes = header;
+			}
+			chunk.add(username);
+			bytes += length;
+		}
+		if (result.isEmpty()) {
+			result.add(this);
+		} else if (!chunk.isEmpty()) {
+			result.add(new SampleUserChangeBatch(origin, sequence, false, chunk));
+		}
+		return result;
+	}
+
+	/**
+	 * バイト列に変換する.
+	 * @return バイト列
+	 */
+	public byte[] toBytes() {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		final DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(MAGIC);
+			out.writeUTF(origin);
+			out.writeLong(sequence);
+			out.writeBoolean(all);
+			out.writeInt(usernames.size());
+			for (final String username : usernames) {
+				out.writeUTF(username);
+			}
+			out.flush();
+		} catch (final IOException e) {
+			// ByteArrayOutputStreamへの書き込みでは発生しない
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * バイト列から変換する.
+	 * @param bytes バイト列
+	 * @param offset 開始位置
+	 * @param length 長さ
+	 * @return 変更通知
+	 * @throws IOException バイト列の形式が正しくない場合
+	 */
+	public static SampleUserChangeBatch fromBytes(final byte[] bytes,
+			final int offset, final int length) throws IOException {
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, offset, length));
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a user change batch");
+		}
+		final String origin = in.readUTF();
+		final long sequence = in.readLong();
+		final boolean all = in.readBoolean();
+		final int count = in.readInt();
+		if (count < 0 || count > length) {
+			throw new IOException(String.format("Invalid username count %d", count));
+		}
+		final List<String> usernames = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			usernames.add(in.readUTF());
+		}
+		return new SampleUserChangeBatch(origin, sequence, all, usernames);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("SampleUserChangeBatch(origin=%s, sequence=%d, all=%s, usernames=%d)",
+				origin, sequence, all, usernames.size());
+	}
+
+	/**
+	 * 修正UTF-8でエンコードした際の長さを返す.
+	 * @param s 文字列
+	 * @return バイト数
+	 */
+	private static int utfLength(final String s) {
+		int length = 0;
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			if (c >= 0x0001 && c <= 0x007F) {
+				length += 1;
+			} else if (c > 0x07FF) {
+				length += 3;
+			} else {
+				length += 2;
+			}
+		}
+		return length;
+	}
+}
@@ -0,0 +1,397 @@
+package org.unclazz.sample.cluster;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.unclazz.sample.mapper.SampleUserChangeListener;
+import org.unclazz.sample.mapper.SampleUserMapper;
+import org.unclazz.sample.metrics.SampleMetrics;
+import org.unclazz.sample.security.SampleSessionRegistry;
+import org.unclazz.sample.service.CachingSampleUserDetailsService;
+
+/**
+ * {@link SampleUserMapper}によるユーザ情報の変更を他のノードに伝え、他のノードからの変更を反映するコンポーネント.
+ * <p>ロードバランサの背後で複数のノードを動かす場合、あるノードでパスワードや管理者権限を変更しても
+ * 他のノードのキャッシュには古いユーザ情報が残る。このコンポーネントは変更のあったユーザ名を
+ * {@code sample.cluster.flushMillis}ミリ秒ごとにまとめ、{@code sample.cluster.transport}で指定した通信手段で送る。</p>
+ * <ul>
+ * <li>{@code none}（既定） -- 送受信しない</li>
+ * <li>{@code jvm} -- 同じJVM内の同じ{@code sample.cluster.group}のノードに送る（{@link SampleInJvmUserChangeTransport}）</li>
+ * <li>{@code udp} -- {@code sample.cluster.bind}で待ち受け、{@code sample.cluster.peers}
+ * （{@code host:port}のカンマ区切り）に送る（{@link SampleUdpUserChangeTransport}）</li>
+ * </ul>
+ * <p>一括登録などで大量の変更があってもピアに負荷をかけないよう、送信前に同じユーザの変更は1件にまとめ、
+ * 未送信の変更が{@code sample.cluster.maxPending}件を超えた場合は個々のユーザ名の代わりに
+ * 「すべてのユーザ」を対象とする通知1件に置き換える。未送信の変更が{@code sample.cluster.maxBatch}件に達した場合は
+ * 間隔を待たずに送る。</p>
+ * <p>通知を受け取ったノードは該当するユーザのキャッシュを破棄する。通し番号の欠落から通知の取りこぼしを
+ * 検出した場合はキャッシュ全体を破棄する。通し番号は分割して送る通知ごとに振り、受信側ではノードごとに
+ * 前に進む場合にだけ更新する（順序が入れ替わって届いた古い通知も反映はする）。{@code sample.cluster.revokeSessions}が{@code true}の場合は
+ * 該当するユーザのセッションも無効にし、古い権限のままアクセスし続けられないようにする
+ * （自ノードでの変更についても同様）。</p>
+ * <p>ログイン時のパスワードの再エンコード（{@link SampleUserChangeListener#passwordEncodingUpgraded(String)}）は
+ * 権限にもパスワードそのものにも変更がないので、送信もセッションの無効化も行わない。
+ * 他のノードにキャッシュされた古いエンコード済みパスワードでも同じパスワードを照合できる。</p>
+ */
+@Component
+public class SampleUserChangeBus implements SampleUserChangeListener, SampleUserChangeTransport.Receiver {
+	private static final Log logger = LogFactory.getLog(SampleUserChangeBus.class);
+
+	/**
+	 * 通信手段.
+	 */
+	@Value("${sample.cluster.transport:none}")
+	private String transportType;
+
+	/**
+	 * このノードのID. 空の場合は起動のたびに生成する。
+	 */
+	@Value("${sample.cluster.nodeId:}")
+	private String nodeId;
+
+	/**
+	 * {@code jvm}の場合のグループ名.
+	 */
+	@Value("${sample.cluster.group:default}")
+	private String group;
+
+	/**
+	 * {@code udp}の場合の受信用アドレス.
+	 */
+	@Value("${sample.cluster.bind:127.0.0.1:0}")
+	private String bind;
+
+	/**
+	 * {@code udp}の場合の送信先のピアのアドレス.
+	 */
+	@Value("${sample.cluster.peers:}")
+	private String peers;
+
+	/**
+	 * 変更をまとめて送る間隔（ミリ秒）.
+	 */
+	@Value("${sample.cluster.flushMillis:100}")
+	private long flushMillis;
+
+	/**
+	 * 間隔を待たずに送る未送信の変更の数.
+	 */
+	@Value("${sample.cluster.maxBatch:1000}")
+	private int maxBatch;
+
+	/**
+	 * 「すべてのユーザ」に置き換える未送信の変更の数.
+	 */
+	@Value("${sample.cluster.maxPending:10000}")
+	private int maxPending;
+
+	/**
+	 * 変更のあったユーザのセッションを無効にするかどうか.
+	 */
+	@Value("${sample.cluster.revokeSessions:false}")
+	private boolean revokeSessions;
+
+	/**
+	 * ユーザのリレーションを処理するためのORマッパー.
+	 */
+	@Autowired
+	private SampleUserMapper userMapper;
+
+	/**
+	 * ユーザ情報のキャッシュ.
+	 */
+	@Autowired
+	private CachingSampleUserDetailsService userDetailsService;
+
+	/**
+	 * セッションのレジストリ.
+	 */
+	@Autowired
+	private SampleSessionRegistry sessionRegistry;
+
+	/**
+	 * 計測値のレジストリ.
+	 */
+	@Autowired
+	private SampleMetrics metrics;
+
+	/**
+	 * 通信手段（送受信しない場合は{@code null}）.
+	 */
+	private SampleUserChangeTransport transport;
+
+	/**
+	 * 変更をまとめて送るスレッド.
+	 */
+	private ScheduledExecutorService flusher;
+
+	/**
+	 * 未送信の変更のあったユーザ名.
+	 * <p>このオブジェクト自体をロックとして使用する。</p>
+	 */
+	private final Set<String> pending = new LinkedHashSet<String>();
+
+	/**
+	 * 未送信の変更が「すべてのユーザ」に置き換えられているかどうか.
+	 */
+	private boolean pendingAll;
+
+	/**
+	 * 間隔を待たない送信を依頼済みかどうか.
+	 */
+	private boolean flushRequested;
+
+	/**
+	 * 送信した通知の通し番号.
+	 */
+	private final AtomicLong sequence = new AtomicLong();
+
+	/**
+	 * 送信元ノードIDをキーとする最後に受け取った通知の通し番号.
+	 */
+	private final ConcurrentMap<String, Long> receivedSequences = new ConcurrentHashMap<String, Long>();
+
+	private AtomicLong sentBatches;
+	private AtomicLong sentUsers;
+	private AtomicLong coalesced;
+	private AtomicLong receivedBatches;
+	private AtomicLong receivedUsers;
+	private AtomicLong gaps;
+	private AtomicLong sendFailures;
+
+	/**
+	 * 通信手段を準備して送受信を開始する.
+	 * @throws IOException 受信の準備に失敗した場合
+	 */
+	@PostConstruct
+	public void initialize() throws IOException {
+		if ("none".equals(transportType)) {
+			return;
+		} else if ("jvm".equals(transportType)) {
+			transport = new SampleInJvmUserChangeTransport(group);
+		} else if ("udp".equals(transportType)) {
+			final List<InetSocketAddress> peerAddresses = new ArrayList<InetSocketAddress>();
+			for (final String peer : peers.split(",")) {
+				if (!peer.trim().isEmpty()) {
+					peerAddresses.add(parseAddress(peer.trim()));
+				}
+			}
+			transport = new SampleUdpUserChangeTransport(parseAddress(bind), peerAddresses);
+		} else {
+			throw new IllegalArgumentException(String.format("Unknown cluster transport \"%s\"", transportType));
+		}
+		if (nodeId == null || nodeId.isEmpty()) {
+			nodeId = UUID.randomUUID().toString();
+		}
+
+		sentBatches = metrics.counter("cluster.sent.batches");
+		sentUsers = metrics.counter("cluster.sent.users");
+		coalesced = metrics.counter("cluster.sent.coalesced");
+		receivedBatches = metrics.counter("cluster.received.batches");
+		receivedUsers = metrics.counter("cluster.received.users");
+		gaps = metrics.counter("cluster.received.gaps");
+		sendFailures = metrics.counter("cluster.sent.failures");
+
+		flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "sample-cluster-flusher");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		flusher.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		}, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+		transport.start(this);
+		userMapper.addChangeListener(this);
+	}
+
+	/**
+	 * 未送信の変更を送ってから送受信を停止する.
+	 */
+	@PreDestroy
+	public void shutdown() {
+		if (transport == null) {
+			return;
+		}
+		userMapper.removeChangeListener(this);
+		flusher.shutdown();
+		try {
+			flusher.awaitTermination(flushMillis * 10, TimeUnit.MILLISECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
+		transport.close();
+	}
+
+	/**
+	 * このノードのIDを返す.
+	 * @return ノードID
+	 */
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * 自ノードでの変更を未送信の変更に加える.
+	 */
+	@Override
+	public void userChanged(final String username) {
+		boolean requestFlush = false;
+		synchronized (pending) {
+			if (pendingAll || !pending.add(username)) {
+				coalesced.incrementAndGet();
+			} else if (pending.size() > maxPending) {
+				coalesced.addAndGet(pending.size() - 1);
+				pending.clear();
+				pendingAll = true;
+			} else if (pending.size() >= maxBatch && !flushRequested) {
+				flushRequested = true;
+				requestFlush = true;
+			}
+		}
+		if (requestFlush) {
+			flusher.execute(new Runnable() {
+				@Override
+				public void run() {
+					flush();
+				}
+			});
+		}
+		if (revokeSessions) {
+			sessionRegistry.expireSessions(username);
+		}
+	}
+
+	/**
+	 * パスワードの再エンコードは他のノードに伝えない.
+	 */
+	@Override
+	public void passwordEncodingUpgraded(final String username) {}
+
+	/**
+	 * 他のノードでの変更を反映する.
+	 */
+	@Override
+	public void received(final SampleUserChangeBatch batch) {
+		if (nodeId.equals(batch.getOrigin())) {
+			return;
+		}
+		receivedBatches.incrementAndGet();
+		receivedUsers.addAndGet(batch.getUsernames().size());
+
+		// 取りこぼしがあった場合はどのユーザが変更されたかわからないのでキャッシュ全体を破棄する
+		final boolean gap = advance(batch.getOrigin(), batch.getSequence());
+		if (gap) {
+			gaps.incrementAndGet();
+		}
+		if (batch.isAll() || gap) {
+			userDetailsService.invalidateAll();
+		}
+		if (batch.isAll()) {
+			if (revokeSessions) {
+				sessionRegistry.expireAllSessions();
+			}
+			return;
+		}
+		for (final String username : batch.getUsernames()) {
+			userDetailsService.userChanged(username);
+			if (revokeSessions) {
+				sessionRegistry.expireSessions(username);
+			}
+		}
+	}
+
+	/**
+	 * 送信元ノードごとの最後に受け取った通し番号を前に進める.
+	 * <p>順序が入れ替わって届いた古い通し番号では戻さない。</p>
+	 * @param origin 送信元ノードID
+	 * @param sequence 受け取った通知の通し番号
+	 * @return 通し番号に欠落があった場合は{@code true}
+	 */
+	private boolean advance(final String origin, final long sequence) {
+		for (;;) {
+			final Long last = receivedSequences.get(origin);
+			if (last == null) {
+				if (receivedSequences.putIfAbsent(origin, sequence) == null) {
+					return false;
+				}
+			} else if (sequence <= last) {
+				return false;
+			} else if (receivedSequences.replace(origin, last, sequence)) {
+				return sequence > last + 1;
+			}
+		}
+	}
+
+	/**
+	 * 未送信の変更を送る.
+	 * <p>通信手段の上限を超えないように分割し、分割した通知ごとに通し番号を振って送る。</p>
+	 */
+	void flush() {
+		final SampleUserChangeBatch batch;
+		synchronized (pending) {
+			flushRequested = false;
+			if (pending.isEmpty() && !pendingAll) {
+				return;
+			}
+			batch = new SampleUserChangeBatch(nodeId, 0, pendingAll,
+					pendingAll ? Collections.<String>emptyList() : pending);
+			pending.clear();
+			pendingAll = false;
+		}
+		for (final SampleUserChangeBatch part : batch.split(transport.getMaxBatchBytes())) {
+			final SampleUserChangeBatch sequenced = part.withSequence(sequence.incrementAndGet());
+			try {
+				transport.send(sequenced);
+				sentBatches.incrementAndGet();
+				sentUsers.addAndGet(sequenced.getUsernames().size());
+			} catch (final IOException e) {
+				sendFailures.incrementAndGet();
+				logger.warn(String.format("Failed to send %s", sequenced), e);
+			} catch (final RuntimeException e) {
+				sendFailures.incrementAndGet();
+				logger.error(String.format("Failed to send %s", sequenced), e);
+			}
+		}
+	}
+
+	/**
+	 * {@code host:port}形式の文字列をアドレスに変換する.
+	 * @param s 文字列
+	 * @return アドレス
+	 */
+	private static InetSocketAddress parseAddress(final String s) {
+		final int colon = s.lastIndexOf(':');
+		if (colon < 0) {
+			throw new IllegalArgumentException(String.format("Invalid address \"%s\" (host:port expected)", s));
+		}
+		return new InetSocketAddress(s.substring(0, colon), Integer.parseInt(s.substring(colon + 1)));
+	}
+}
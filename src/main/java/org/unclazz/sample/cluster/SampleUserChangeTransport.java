@@ -0,0 +1,49 @@
+package org.unclazz.sample.cluster;
+
+import java.io.IOException;
+
+/**
+ * ユーザ情報の変更通知を他のノードに届けるための通信手段.
+ * <p>配送の保証は求めない。取りこぼした通知はキャッシュの有効期間が切れることで最終的に反映される。</p>
+ * @see SampleInJvmUserChangeTransport
+ * @see SampleUdpUserChangeTransport
+ */
+public interface SampleUserChangeTransport {
+	/**
+	 * 他のノードから通知を受け取るためのコールバック.
+	 */
+	interface Receiver {
+		/**
+		 * 通知を受け取ったときに呼び出される.
+		 * <p>通信手段ごとの受信スレッドから呼び出される。</p>
+		 * @param batch 変更通知
+		 */
+		void received(SampleUserChangeBatch batch);
+	}
+
+	/**
+	 * 通知の受信を開始する.
+	 * @param receiver コールバック
+	 * @throws IOException 受信の準備に失敗した場合
+	 */
+	void start(Receiver receiver) throws IOException;
+
+	/**
+	 * 1回の送信で送れる通知のバイト列の長さの上限を返す.
+	 * <p>送信側はこれを超えないように{@link SampleUserChangeBatch#split(int)}で分割してから送る。</p>
+	 * @return バイト数
+	 */
+	int getMaxBatchBytes();
+
+	/**
+	 * 他のすべてのノードに通知を送る.
+	 * @param batch 変更通知（{@link #getMaxBatchBytes()}以下の長さに分割済み）
+	 * @throws IOException 送信に失敗した場合
+	 */
+	void send(SampleUserChangeBatch batch) throws IOException;
+
+	/**
+	 * 受信を停止して資源を解放する.
+	 */
+	void close();
+}
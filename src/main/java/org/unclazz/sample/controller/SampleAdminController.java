@@ -0,0 +1,233 @@
+package org.unclazz.sample.controller;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.security.Principal;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.unclazz.sample.SampleSecurityConfiguration;
+import org.unclazz.sample.SampleUserDetails;
+import org.unclazz.sample.audit.SampleAuditEvent;
+import org.unclazz.sample.audit.SampleAuditLog;
+import org.unclazz.sample.audit.SampleAuditQuery;
+import org.unclazz.sample.metrics.SampleMetrics;
+import org.unclazz.sample.service.SampleUserExporter;
+import org.unclazz.sample.service.SampleUserImportReader;
+import org.unclazz.sample.service.SampleUserImportResult;
+import org.unclazz.sample.service.SampleUserPage;
+import org.unclazz.sample.service.SampleUserPopulation;
+import org.unclazz.sample.service.SampleUserRegistration;
+import org.unclazz.sample.service.SampleUserService;
+import org.unclazz.sample.startup.SampleStartupTimer;
+import org.unclazz.sample.startup.SampleWarmup;
+
+/**
+ * アドミニストレータ向けのAPIのコントローラ.
+ * <p>{@code /admin/}以下のURLにはアドミニストレータ権限を持つユーザしかアクセスできない。
+ * この紐付けは{@link SampleSecurityConfiguration}で行っている。</p>
+ */
+@Controller
+public class SampleAdminController {
+	/**
+	 * 一括登録で1回にサービスに渡す件数.
+	 */
+	@Value("${sample.import.chunkSize:1000}")
+	private int importChunkSize;
+
+	/**
+	 * ユーザ情報を処理するためのサービス.
+	 */
+	@Autowired
+	private SampleUserService userService;
+
+	/**
+	 * ユーザ情報を書き出すためのサービス.
+	 */
+	@Autowired
+	private SampleUserExporter userExporter;
+
+	/**
+	 * 計測値のレジストリ.
+	 */
+	@Autowired
+	private SampleMetrics metrics;
+
+	/**
+	 * 監査ログ.
+	 */
+	@Autowired
+	private SampleAuditLog auditLog;
+
+	/**
+	 * ビーンごとの初期化の所要時間を計測するポスト・プロセッサ.
+	 */
+	@Autowired
+	private SampleStartupTimer startupTimer;
+
+	/**
+	 * 起動後のウォームアップを行うコンポーネント.
+	 */
+	@Autowired
+	private SampleWarmup warmup;
+
+	/**
+	 * 規模試験のために合成ユーザを投入するサービス.
+	 */
+	@Autowired
+	private SampleUserPopulation population;
+
+	/**
+	 * 計測値を返すAPI.
+	 * <p>カウンタとゲージはその時点の値を、ヒストグラムは記録回数と主要なパーセンタイル（マイクロ秒）を返す。
+	 * {@code stage.}で始まるヒストグラムはリクエスト処理の段階ごとの正味の処理時間である。</p>
+	 * @return 計測値名をキーとするマップ
+	 */
+	@RequestMapping(value = "/admin/metrics", method = RequestMethod.GET)
+	@ResponseBody
+	public Map<String, Object> metrics() {
+		return metrics.snapshot();
+	}
+
+	/**
+	 * 監査ログを検索するAPI.
+	 * <p>条件に合う最も新しいイベントを{@code limit}件まで、発生時刻の順に返す。
+	 * 発生時刻の範囲が指定されていればその範囲を含まないファイルは読まない。
+	 * 記録されてから書き込まれるまでの間（既定で最大50ミリ秒程度）のイベントは含まれない。</p>
+	 * @param user 操作を行ったユーザもしくは対象のユーザのユーザ名（省略した場合はすべてのユーザ）
+	 * @param from 発生時刻の下限（エポックからのミリ秒、この時刻を含む）
+	 * @param to 発生時刻の上限（エポックからのミリ秒、この時刻を含まない）
+	 * @param limit 最大件数
+	 * @return イベントのリスト
+	 * @throws IOException ファイルの読み込みに失敗した場合
+	 */
+	@RequestMapping(value = "/admin/audit", method = RequestMethod.GET)
+	@ResponseBody
+	public List<SampleAuditEvent> audit(@RequestParam(value = "user", required = false) final String user,
+			@RequestParam(value = "from", defaultValue = "0") final long from,
+			@RequestParam(value = "to", defaultValue = "9223372036854775807") final long to,
+			@RequestParam(value = "limit", defaultValue = "100") final int limit) throws IOException {
+		return new SampleAuditQuery(auditLog.getDirectory()).find(user, from, to, limit);
+	}
+
+	/**
+	 * 起動にかかった時間を返すAPI.
+	 * <p>時刻はいずれもJVMの起動からの経過時間（ミリ秒）で、計測していないものは{@code -1}となる。
+	 * ビーンごとの所要時間は{@code sample.startup.report}が{@code true}の場合のみ記録され、
+	 * 正味の時間の長いものから{@code limit}件を返す。</p>
+	 * @param limit ビーンの最大件数
+	 * @return 起動時間のマップ
+	 */
+	@RequestMapping(value = "/admin/startup", method = RequestMethod.GET)
+	@ResponseBody
+	public Map<String, Object> startup(@RequestParam(value = "limit", defaultValue = "50") final int limit) {
+		final Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("refreshMillis", startupTimer.getRefreshMillis());
+		result.put("readyMillis", warmup.getReadyMillis());
+		result.put("warmupMillis", warmup.getWarmupMillis());
+		result.put("warmupLogins", warmup.getLogins());
+		result.put("preloadedClasses", warmup.getPreloadedClasses());
+		if (startupTimer.isEnabled()) {
+			result.put("beans", startupTimer.getTimings(limit));
+		}
+		return result;
+	}
+
+	/**
+	 * 合成ユーザの投入結果を返すAPI.
+	 * <p>格納先のヒープ使用量、ユーザ名による検索のレイテンシのパーセンタイル（ナノ秒）、投入にかかった時間を返す。
+	 * 合成ユーザを投入していない場合は空のマップを返す。</p>
+	 * @return 項目名をキーとするマップ
+	 */
+	@RequestMapping(value = "/admin/population", method = RequestMethod.GET)
+	@ResponseBody
+	public Map<String, Object> population() {
+		return population.getReport();
+	}
+
+	/**
+	 * ユーザの一覧を1ページ分返すAPI.
+	 * <p>ユーザはIDの昇順に並ぶ。レスポンスの{@code next}を{@code after}に指定して次のページを取得し、
+	 * {@code next}が{@code null}になるまで繰り返せば全件を取得できる。
+	 * 何ページ目であってもレスポンスの時間はほぼ一定である。</p>
+	 * @param after カーソル（先頭のページを取得する場合は{@code 0}）
+	 * @param size 1ページあたりの件数
+	 * @return 1ページ分のユーザの一覧
+	 */
+	@RequestMapping(value = "/admin/users", method = RequestMethod.GET)
+	@ResponseBody
+	public SampleUserPage listUsers(@RequestParam(value = "after", defaultValue = "0") final int after,
+			@RequestParam(value = "size", defaultValue = "100") final int size) {
+		return userService.listUsers(after, size);
+	}
+
+	/**
+	 * 全ユーザを書き出すAPI.
+	 * <p>ID・ユーザ名・管理者権限の有無をIDの昇順にNDJSON（既定）もしくはCSVで返す。パスワードは含まない。
+	 * クライアントが{@code Accept-Encoding}で対応を示していればgzipで圧縮する（{@code gzip=false}で無効にできる）。
+	 * 書き出しは{@link SampleUserExporter}のスレッドで行われ、このメソッドはすぐに戻る。</p>
+	 * @param request リクエスト
+	 * @param response レスポンス
+	 * @param format 形式（{@code ndjson}もしくは{@code csv}）
+	 * @param gzip 圧縮を許可するかどうか
+	 * @throws IOException エラーの送信に失敗した場合
+	 */
+	@RequestMapping(value = "/admin/users/export", method = RequestMethod.GET)
+	public void exportUsers(final HttpServletRequest request, final HttpServletResponse response,
+			@RequestParam(value = "format", defaultValue = "ndjson") final String format,
+			@RequestParam(value = "gzip", defaultValue = "true") final boolean gzip) throws IOException {
+		final SampleUserExporter.Format exportFormat;
+		try {
+			exportFormat = SampleUserExporter.Format.of(format);
+		} catch (final IllegalArgumentException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		final String acceptEncoding = request.getHeader("Accept-Encoding");
+		userExporter.export(request, response, exportFormat,
+				gzip && acceptEncoding != null && acceptEncoding.contains("gzip"));
+	}
+
+	/**
+	 * ユーザを一括登録するAPI.
+	 * <p>リクエスト・ボディにCSVもしくはNDJSON（{@code Content-Type}が{@code json}を含む場合）で
+	 * ユーザ情報を送信する。ボディは{@code sample.import.chunkSize}件ずつ読み込んで登録するため、
+	 * 大量のデータでもメモリには一度に全件が載らない。
+	 * 一部の行が失敗しても残りの行の登録は続行され、失敗した行はレスポンスで報告される。</p>
+	 * @param request リクエスト
+	 * @param principal プリンシパル
+	 * @return 登録の結果
+	 * @throws IOException リクエスト・ボディの読み込みに失敗した場合
+	 */
+	@RequestMapping(value = "/admin/users/import", method = RequestMethod.POST)
+	@ResponseBody
+	public SampleUserImportResult importUsers(final HttpServletRequest request,
+			final Principal principal) throws IOException {
+		final String contentType = request.getContentType();
+		final SampleUserImportReader.Format format = contentType != null && contentType.contains("json")
+				? SampleUserImportReader.Format.NDJSON : SampleUserImportReader.Format.CSV;
+		final String encoding = request.getCharacterEncoding();
+		final SampleUserImportReader reader = new SampleUserImportReader(new BufferedReader(
+				new InputStreamReader(request.getInputStream(), encoding == null ? "UTF-8" : encoding)), format);
+
+		final SampleUserDetails auth = SampleUserDetails.of(principal);
+		final SampleUserImportResult result = new SampleUserImportResult();
+		List<SampleUserRegistration> chunk;
+		while (!(chunk = reader.read(importChunkSize, result)).isEmpty()) {
+			result.addAll(userService.registerUsers(chunk, auth));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,109 @@
+package org.unclazz.sample.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.codec.Hex;
+import org.springframework.stereotype.Component;
+
+/**
+ * 静的リソースのURLに内容のハッシュ値をバージョンとして付与するコンポーネント.
+ * <p>テンプレートからは{@code th:src="@{${@assets.url('/assets/js/login.js')}}"}のように使用する。
+ * 返されるURLはリソースの内容が変わるたびに変わるため、レスポンスには長期間のキャッシュを許可できる。</p>
+ * <p>リソースは{@code classpath:/static}以下から読み込む。
+ * ハッシュ値はテンプレートのキャッシュ（{@code spring.thymeleaf.cache}）が有効な場合にのみ保持し、
+ * 無効な場合は開発中の変更を反映するためURLを求めるたびに計算する。</p>
+ */
+@Component("assets")
+public class SampleAssetVersions {
+	/**
+	 * 静的リソースの格納場所（クラスパス上）.
+	 */
+	private static final String LOCATION = "static";
+
+	/**
+	 * URLにバージョンを付与するかどうか.
+	 */
+	@Value("${sample.assets.enabled:true}")
+	private boolean enabled;
+
+	/**
+	 * ハッシュ値を保持するかどうか.
+	 */
+	@Value("${spring.thymeleaf.cache:true}")
+	private boolean cacheVersions;
+
+	/**
+	 * パスをキーとしたバージョンのマップ.
+	 */
+	private final ConcurrentMap<String, String> versions = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * バージョンを付与したURLを返す.
+	 * @param path コンテキスト・パスからの相対パス（{@code /}で始まる）
+	 * @return URL（リソースが存在しない場合やバージョンを付与しない場合は{@code path}）
+	 */
+	public String url(final String path) {
+		final String version = version(path);
+		return version == null ? path : path + "?v=" + version;
+	}
+
+	/**
+	 * リソースのバージョンを返す.
+	 * @param path コンテキスト・パスからの相対パス（{@code /}で始まる）
+	 * @return バージョン（リソースが存在しない場合やバージョンを付与しない場合は{@code null}）
+	 */
+	public String version(final String path) {
+		if (!enabled) {
+			return null;
+		}
+		if (!cacheVersions) {
+			return digest(path);
+		}
+		final String version = versions.get(path);
+		if (version != null) {
+			return version;
+		}
+		final String computed = digest(path);
+		if (computed != null) {
+			versions.putIfAbsent(path, computed);
+		}
+		return computed;
+	}
+
+	/**
+	 * リソースの内容のハッシュ値を計算する.
+	 * @param path コンテキスト・パスからの相対パス
+	 * @return MD5ハッシュ値の先頭8バイトの16進表現（リソースが存在しない場合は{@code null}）
+	 */
+	private String digest(final String path) {
+		final InputStream in = SampleAssetVersions.class.getClassLoader().getResourceAsStream(LOCATION + path);
+		if (in == null) {
+			return null;
+		}
+		try {
+			final MessageDigest md5 = MessageDigest.getInstance("MD5");
+			try {
+				final byte[] buffer = new byte[8192];
+				int n;
+				while ((n = in.read(buffer)) != -1) {
+					md5.update(buffer, 0, n);
+				}
+			} finally {
+				in.close();
+			}
+			final byte[] prefix = new byte[8];
+			System.arraycopy(md5.digest(), 0, prefix, 0, prefix.length);
+			return new String(Hex.encode(prefix));
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (final IOException e) {
+			throw new IllegalStateException(String.format("Cannot read \"%s\"", path), e);
+		}
+	}
+}
@@ -1,13 +1,22 @@
 package org.unclazz.sample.controller;
 
 import java.security.Principal;
+import java.util.Map;
 
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.servlet.View;
 import org.unclazz.sample.SampleSecurityConfiguration;
 import org.unclazz.sample.SampleUserDetails;
 import org.unclazz.sample.service.SampleUserService;
+import org.unclazz.sample.startup.SampleWarmup;
 
 /**
  * サンプル・アプリケーションのコントローラ.
@@ -16,10 +25,25 @@ import org.unclazz.sample.service.SampleUserService;
  */
 @Controller
 public class SampleController {
-//	サンプル・アプリケーションなので省いているが実際のアプリケーションでは
-//	サービスを通じたユーザの登録・更新オペレーションも行えるにようすることになるだろう.
-//	@Autowired
-//	private SampleUserService userService;
+	/**
+	 * ユーザ情報を処理するためのサービス.
+	 * <p>現在のところアドミニストレータ画面のユーザ一覧の取得にのみ使用している。
+	 * 実際のアプリケーションではサービスを通じたユーザの登録・更新オペレーションも行えるにようすることになるだろう。</p>
+	 */
+	@Autowired
+	private SampleUserService userService;
+	
+	/**
+	 * 起動後のウォームアップを行うコンポーネント.
+	 */
+	@Autowired
+	private SampleWarmup warmup;
+	
+	/**
+	 * レンダリング済みの画面をキャッシュするコンポーネント.
+	 */
+	@Autowired
+	private SampleViewCache viewCache;
 	
 	/**
 	 * ログイン画面のレンダリングを制御するためのコントローラ.
@@ -36,14 +60,16 @@ public class SampleController {
      * <p>メソッド・シグネチャに{@link Principal}型の仮引数を指定すると、メソッド実行時に認証情報が設定される。
      * このコントローラが担当するURLとそこにアクセスできる認証状態・権限の組み合わせは
      * {@link SampleSecurityConfiguration}で行っている。</p>
+     * <p>画面の内容はプリンシパルのみによって決まるので、{@link SampleViewCache}でキャッシュする。</p>
      * @param principal プリンシパル
      * @param model モデル
-     * @return ビュー名
+     * @return ビュー
      */
     @RequestMapping("/index")
-    public String index(final Principal principal, final Model model) {
-    	model.addAttribute("username", SampleUserDetails.of(principal).getUsername());
-        return "index";
+    public View index(final Principal principal, final Model model) {
+    	final SampleUserDetails user = SampleUserDetails.of(principal);
+    	model.addAttribute("username", user.getUsername());
+        return viewCache.principalView("index", user);
     }
     
     /**
@@ -51,13 +77,45 @@ public class SampleController {
      * <p>メソッド・シグネチャに{@link Principal}型の仮引数を指定すると、メソッド実行時に認証情報が設定される。
      * このコントローラが担当するURLとそこにアクセスできる認証状態・権限の組み合わせは
      * {@link SampleSecurityConfiguration}で行っている。</p>
+     * <p>画面にはユーザの一覧を1ページ分表示する。次のページへのリンクには
+     * このページの最後のユーザIDがカーソルとして含まれる。
+     * 画面はページごとに{@link SampleViewCache}でキャッシュし、いずれかのユーザが登録・更新されると無効になる。
+     * ユーザの一覧はキャッシュにない場合にだけ取得する。</p>
      * @param principal プリンシパル
+     * @param after カーソル（前のページの最後のユーザID）
+     * @param size 1ページあたりの件数
      * @param model モデル
-     * @return ビュー名
+     * @return ビュー
      */
     @RequestMapping("/admin")
-    public String admin(final Principal principal, final Model model) {
-    	model.addAttribute("username", SampleUserDetails.of(principal).getUsername());
-        return "admin";
+    public View admin(final Principal principal,
+    		@RequestParam(value = "after", defaultValue = "0") final int after,
+    		@RequestParam(value = "size", defaultValue = "50") final int size, final Model model) {
+    	final SampleUserDetails user = SampleUserDetails.of(principal);
+    	model.addAttribute("username", user.getUsername());
+    	model.addAttribute("size", size);
+        return viewCache.userListView("admin", user, after + ":" + size, new SampleViewCache.ModelLoader() {
+        	@Override
+        	public void load(final Map<String, Object> attributes) {
+        		attributes.put("page", userService.listUsers(after, size));
+        	}
+        });
+    }
+    
+    /**
+     * リクエストを受け付ける準備ができているかどうかを返すAPI.
+     * <p>ロードバランサのヘルスチェックに使用する。起動後のウォームアップが終わるまでは503を返す。
+     * このURLには誰でもアクセスできる。</p>
+     * @param response レスポンス
+     * @return 準備ができている場合は{@code READY}、そうでない場合は{@code WARMING_UP}
+     */
+    @RequestMapping(value = "/ready", method = RequestMethod.GET)
+    @ResponseBody
+    public String ready(final HttpServletResponse response) {
+    	if (warmup.isReady()) {
+    		return "READY";
+    	}
+    	response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    	return "WARMING_UP";
     }
 }
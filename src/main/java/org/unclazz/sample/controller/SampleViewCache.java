@@ -0,0 +1,429 @@
+package org.unclazz.sample.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.View;
+import org.springframework.web.servlet.ViewResolver;
+import org.springframework.web.servlet.support.RequestContextUtils;
+import org.unclazz.sample.SampleUserDetails;
+import org.unclazz.sample.cache.SampleCache;
+import org.unclazz.sample.mapper.SampleUserChangeListener;
+import org.unclazz.sample.mapper.SampleUserMapper;
+import org.unclazz.sample.metrics.SampleMetrics;
+
+/**
+ * レンダリング済みの画面をプリンシパルごとにキャッシュするコンポーネント.
+ * <p>コントローラはビュー名の代わりにこのコンポーネントが返す{@link View}を返す。
+ * ビューは初回にテンプレートをレンダリングしてその結果を{@link SampleCache}に格納し、
+ * 2回目以降は格納したバイト列をそのまま書き出す。キャッシュのキーはビュー名とユーザ名で、
+ * 格納した結果はユーザIDと権限のビットマスクが一致するプリンシパルにしか返さない。</p>
+ * <ul>
+ * <li>{@link #principalView(String, SampleUserDetails)} -- 内容がプリンシパルのみによって決まる画面。
+ * {@link SampleUserMapper}でそのユーザが登録・更新されると破棄する</li>
+ * <li>{@link #userListView(String, SampleUserDetails, String)} -- ユーザの一覧を含む画面。
+ * 一覧のページなどの違いを{@code variant}で区別し、いずれかのユーザが登録・更新されるとすべて無効になる。
+ * 一覧の取得は{@link ModelLoader}に渡し、キャッシュにない場合にだけ行う</li>
+ * </ul>
+ * <p>CSRFトークンのようにセッションごとに異なる値を含む画面はキャッシュしてはならない。
+ * レスポンスにはキャッシュの可否によらず{@code Cache-Control: no-store}と{@code Vary: Cookie}を付与し、
+ * ブラウザや途中のプロキシがほかのユーザに内容を返さないようにする。</p>
+ * <p>{@code sample.viewCache.enabled}が{@code false}の場合は毎回レンダリングする。</p>
+ */
+@Component
+public class SampleViewCache implements SampleUserChangeListener {
+	/**
+	 * キャッシュを有効にするかどうか.
+	 */
+	@Value("${sample.viewCache.enabled:true}")
+	private boolean enabled;
+
+	/**
+	 * キャッシュする画面の数の上限.
+	 */
+	@Value("${sample.viewCache.maxSize:10000}")
+	private int maxSize;
+
+	/**
+	 * 画面の有効期間（秒）.
+	 */
+	@Value("${sample.viewCache.ttlSeconds:60}")
+	private int ttlSeconds;
+
+	/**
+	 * ユーザのリレーションを処理するためのORマッパー.
+	 * <p>ユーザ情報の変更通知を受け取るために使用する。</p>
+	 */
+	@Autowired
+	private SampleUserMapper userMapper;
+
+	/**
+	 * 計測値のレジストリ.
+	 */
+	@Autowired
+	private SampleMetrics metrics;
+
+	/**
+	 * ビュー名からテンプレートのビューを解決するリゾルバ.
+	 */
+	private ViewResolver viewResolver;
+
+	/**
+	 * キャッシュ.
+	 */
+	private SampleCache<Key, Page> cache;
+
+	/**
+	 * ユーザの一覧の版. いずれかのユーザが登録・更新されるたびに増やし、ユーザの一覧を含む画面のキーに含める。
+	 */
+	private final AtomicLong userListVersion = new AtomicLong();
+
+	/**
+	 * {@link #principalView(String, SampleUserDetails)}で使用されたビュー名.
+	 */
+	private final Set<String> principalViews = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * キャッシュにない画面をレンダリングする直前にモデルを補うオブジェクト.
+	 * <p>ユーザの一覧の取得のように、キャッシュから返せる場合には不要な処理をここで行う。</p>
+	 */
+	public interface ModelLoader {
+		/**
+		 * モデルに属性を追加する.
+		 * @param model モデル
+		 */
+		void load(Map<String, Object> model);
+	}
+
+	/**
+	 * キャッシュのキー.
+	 */
+	private static final class Key {
+		private final String viewName;
+		private final String username;
+		private final String variant;
+		private final long version;
+
+		private Key(final String viewName, final String username, final String variant, final long version) {
+			this.viewName = viewName;
+			this.username = username;
+			this.variant = variant;
+			this.version = version;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return version == other.version && viewName.equals(other.viewName)
+					&& username.equals(other.username) && variant.equals(other.variant);
+		}
+
+		@Override
+		public int hashCode() {
+			int h = viewName.hashCode();
+			h = 31 * h + username.hashCode();
+			h = 31 * h + variant.hashCode();
+			return 31 * h + (int) (version ^ (version >>> 32));
+		}
+	}
+
+	/**
+	 * レンダリング済みの画面.
+	 */
+	private static final class Page {
+		private final int userId;
+		private final long authorities;
+		private final String contentType;
+		private final byte[] body;
+
+		private Page(final int userId, final long authorities, final String contentType, final byte[] body) {
+			this.userId = userId;
+			this.authorities = authorities;
+			this.contentType = contentType;
+			this.body = body;
+		}
+	}
+
+	/**
+	 * キャッシュを参照し、なければテンプレートをレンダリングしてキャッシュに格納するビュー.
+	 */
+	private final class CachingView implements View {
+		private final String viewName;
+		private final Key key;
+		private final int userId;
+		private final long authorities;
+		private final ModelLoader loader;
+
+		private CachingView(final String viewName, final Key key, final SampleUserDetails user, final ModelLoader loader) {
+			this.viewName = viewName;
+			this.key = key;
+			this.userId = user.getId();
+			this.authorities = user.getAuthorities().getMask();
+			this.loader = loader;
+		}
+
+		@Override
+		public String getContentType() {
+			return null;
+		}
+
+		@Override
+		public void render(final Map<String, ?> model, final HttpServletRequest request,
+				final HttpServletResponse response) throws Exception {
+			response.setHeader("Cache-Control", "no-cache, no-store, max-age=0, must-revalidate");
+			response.setHeader("Pragma", "no-cache");
+			response.setDateHeader("Expires", 0);
+			response.addHeader("Vary", "Cookie");
+			if (!enabled) {
+				resolve(viewName, request).render(load(model), request, response);
+				return;
+			}
+
+			// 同じユーザ名でもIDや権限が異なるプリンシパルには返さない
+			final Page cached = cache.get(key);
+			if (cached != null && cached.userId == userId && cached.authorities == authorities) {
+				write(cached, response);
+				return;
+			}
+
+			// モデルの読み込みより先に世代を取得し、その間に破棄された結果を格納しないようにする
+			final long generation = cache.generation(key);
+			final Map<String, ?> loaded = load(model);
+			final BufferedResponse buffered = new BufferedResponse(response);
+			resolve(viewName, request).render(loaded, request, buffered);
+			final Page page = new Page(userId, authorities, response.getContentType(), buffered.toByteArray());
+			cache.put(key, page, ttlSeconds * 1000L, generation);
+			write(page, response);
+		}
+
+		private Map<String, ?> load(final Map<String, ?> model) {
+			if (loader == null) {
+				return model;
+			}
+			final Map<String, Object> loaded = model == null
+					? new HashMap<String, Object>() : new HashMap<String, Object>(model);
+			loader.load(loaded);
+			return loaded;
+		}
+	}
+
+	/**
+	 * 本文をメモリ上に書き込むレスポンス. ヘッダは元のレスポンスに設定する。
+	 */
+	private static final class BufferedResponse extends HttpServletResponseWrapper {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+		private ServletOutputStream stream;
+		private PrintWriter writer;
+
+		private BufferedResponse(final HttpServletResponse response) {
+			super(response);
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() {
+			if (writer != null) {
+				throw new IllegalStateException("getWriter() has already been called");
+			}
+			if (stream == null) {
+				stream = new ServletOutputStream() {
+					@Override
+					public void write(final int b) {
+						bytes.write(b);
+					}
+
+					@Override
+					public void write(final byte[] b, final int off, final int len) {
+						bytes.write(b, off, len);
+					}
+				};
+			}
+			return stream;
+		}
+
+		@Override
+		public PrintWriter getWriter() throws IOException {
+			if (stream != null) {
+				throw new IllegalStateException("getOutputStream() has already been called");
+			}
+			if (writer == null) {
+				writer = new PrintWriter(new OutputStreamWriter(bytes, getCharacterEncoding()));
+			}
+			return writer;
+		}
+
+		@Override
+		public void setContentLength(final int len) {
+			// 長さは書き出す際に設定する
+		}
+
+		@Override
+		public void flushBuffer() {
+			// 元のレスポンスをコミットさせない
+			if (writer != null) {
+				writer.flush();
+			}
+		}
+
+		private byte[] toByteArray() {
+			if (writer != null) {
+				writer.flush();
+			}
+			return bytes.toByteArray();
+		}
+	}
+
+	/**
+	 * キャッシュを初期化してユーザ情報の変更通知を受け取れるようにする.
+	 */
+	@PostConstruct
+	public void initialize() {
+		cache = new SampleCache<Key, Page>(maxSize, 16);
+		userMapper.addChangeListener(this);
+
+		metrics.gauge("viewCache.size", new SampleMetrics.Gauge() {
+			@Override
+			public long value() {
+				return cache.size();
+			}
+		});
+		metrics.gauge("viewCache.hits", new SampleMetrics.Gauge() {
+			@Override
+			public long value() {
+				return cache.getHits();
+			}
+		});
+		metrics.gauge("viewCache.misses", new SampleMetrics.Gauge() {
+			@Override
+			public long value() {
+				return cache.getMisses();
+			}
+		});
+		metrics.gauge("viewCache.evictions", new SampleMetrics.Gauge() {
+			@Override
+			public long value() {
+				return cache.getEvictions() + cache.getExpirations();
+			}
+		});
+		metrics.gauge("viewCache.invalidations", new SampleMetrics.Gauge() {
+			@Override
+			public long value() {
+				return cache.getInvalidations();
+			}
+		});
+	}
+
+	/**
+	 * テンプレートのビューを解決するリゾルバを設定する.
+	 * <p>Spring BootがThymeleafのために構成するリゾルバが自動設定される。
+	 * 組み込みサーバを起動しない場合は存在しないので、必要であれば明示的に設定する。</p>
+	 * @param viewResolver リゾルバ
+	 */
+	@Autowired(required = false)
+	@Qualifier("thymeleafViewResolver")
+	public void setViewResolver(final ViewResolver viewResolver) {
+		this.viewResolver = viewResolver;
+	}
+
+	/**
+	 * 内容がプリンシパルのみによって決まる画面のビューを返す.
+	 * @param viewName ビュー名
+	 * @param user プリンシパル
+	 * @return ビュー
+	 */
+	public View principalView(final String viewName, final SampleUserDetails user) {
+		principalViews.add(viewName);
+		return new CachingView(viewName, new Key(viewName, user.getUsername(), "", 0), user, null);
+	}
+
+	/**
+	 * ユーザの一覧を含む画面のビューを返す.
+	 * @param viewName ビュー名
+	 * @param user プリンシパル
+	 * @param variant 一覧のページなど、プリンシパル以外に内容を決める値
+	 * @return ビュー
+	 */
+	public View userListView(final String viewName, final SampleUserDetails user, final String variant) {
+		return userListView(viewName, user, variant, null);
+	}
+
+	/**
+	 * ユーザの一覧を含む画面のビューを返す.
+	 * <p>キーに含める一覧の版はこのメソッドを呼び出した時点で決まる。{@code loader}はその後、
+	 * キャッシュにない場合にだけ呼び出されるので、読み込んだ一覧がこの版より古くなることはない。</p>
+	 * @param viewName ビュー名
+	 * @param user プリンシパル
+	 * @param variant 一覧のページなど、プリンシパル以外に内容を決める値
+	 * @param loader レンダリングの直前にユーザの一覧をモデルに追加するオブジェクト（不要な場合は{@code null}）
+	 * @return ビュー
+	 */
+	public View userListView(final String viewName, final SampleUserDetails user, final String variant,
+			final ModelLoader loader) {
+		return new CachingView(viewName, new Key(viewName, user.getUsername(), variant, userListVersion.get()), user, loader);
+	}
+
+	/**
+	 * 変更のあったユーザの画面を破棄し、ユーザの一覧を含む画面を無効にする.
+	 * <p>無効になった画面はキーの版が古くなるため参照されなくなり、上限や有効期限によって破棄される。</p>
+	 */
+	@Override
+	public void userChanged(final String username) {
+		userListVersion.incrementAndGet();
+		for (final String viewName : principalViews) {
+			cache.invalidate(new Key(viewName, username, "", 0));
+		}
+	}
+
+	/**
+	 * 画面にパスワードは含まれないので何もしない.
+	 */
+	@Override
+	public void passwordEncodingUpgraded(final String username) {}
+
+	/**
+	 * キャッシュしているすべての画面を破棄する.
+	 */
+	public void invalidateAll() {
+		userListVersion.incrementAndGet();
+		cache.clear();
+	}
+
+	private View resolve(final String viewName, final HttpServletRequest request) throws Exception {
+		if (viewResolver == null) {
+			throw new IllegalStateException("No view resolver configured");
+		}
+		final View view = viewResolver.resolveViewName(viewName, RequestContextUtils.getLocale(request));
+		if (view == null) {
+			throw new IllegalStateException(String.format("Unknown view \"%s\"", viewName));
+		}
+		return view;
+	}
+
+	private static void write(final Page page, final HttpServletResponse response) throws IOException {
+		if (page.contentType != null) {
+			response.setContentType(page.contentType);
+		}
+		response.setContentLength(page.body.length);
+		response.getOutputStream().write(page.body);
+	}
+}
@@ -0,0 +1,24 @@
+package org.unclazz.sample.mapper;
+
+/**
+ * {@link SampleUserMapper}によるユーザ情報の登録・更新を通知されるリスナー.
+ * <p>ユーザ情報をキャッシュしているオブジェクトはこのインターフェースを実装して
+ * {@link SampleUserMapper#addChangeListener(SampleUserChangeListener)}で登録しておくことで、
+ * 変更のあったユーザのエントリを破棄できる。</p>
+ */
+public interface SampleUserChangeListener {
+	/**
+	 * ユーザ情報が登録もしくは更新されたときに呼び出される.
+	 * <p>DBへの書き込みが完了した後、書き込みを行ったスレッドで呼び出される。</p>
+	 * @param username 変更のあったユーザのユーザ名
+	 */
+	void userChanged(String username);
+
+	/**
+	 * ユーザのパスワードが同じ平文のまま現在の設定で再エンコードされたときに呼び出される.
+	 * <p>権限やパスワードそのものは変わらないので、{@link #userChanged(String)}と異なり
+	 * セッションの無効化などは不要である。エンコード済みパスワードをキャッシュしている場合は破棄する。</p>
+	 * @param username 再エンコードされたユーザのユーザ名
+	 */
+	void passwordEncodingUpgraded(String username);
+}
@@ -0,0 +1,91 @@
+package org.unclazz.sample.mapper;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ユーザIDを採番するためのシーケンス.
+ * <p>いわゆるHi/Loアルゴリズムによる実装。共有されるカウンタ（Hi）からは
+ * {@link #blockSize}ずつまとめてIDのブロックを払い出し、各スレッドは手持ちのブロック（Lo）を
+ * 使い切るまで共有カウンタに触れることなくIDを採番する。
+ * これにより多数のスレッドが同時にユーザ登録を行っても共有カウンタがホットスポットにならない。</p>
+ * <p>ブロックはスレッドごとに保持されるため、採番されるIDは一意ではあるが連番になるとは限らない。</p>
+ */
+public class SampleUserIdSequence {
+	/**
+	 * 次に払い出すブロックの先頭ID.
+	 */
+	private final AtomicInteger hi;
+
+	/**
+	 * 1回の払い出しでまとめて確保するIDの数.
+	 */
+	private final int blockSize;
+
+	/**
+	 * スレッドごとの手持ちブロック.
+	 * 要素0が次に採番するID、要素1がブロックの終端（このIDは含まない）。
+	 */
+	private final ThreadLocal<int[]> blocks = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[2];
+		}
+	};
+
+	/**
+	 * コンストラクタ.
+	 * @param start 最初に採番するID
+	 * @param blockSize 1回の払い出しでまとめて確保するIDの数
+	 */
+	public SampleUserIdSequence(final int start, final int blockSize) {
+		if (blockSize < 1) {
+			throw new IllegalArgumentException(String.format("Invalid block size %d", blockSize));
+		}
+		this.hi = new AtomicInteger(start);
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * 新しいIDを採番する.
+	 * @return ID
+	 */
+	public int nextVal() {
+		final int[] block = blocks.get();
+		if (block[0] >= block[1]) {
+			// 手持ちのブロックを使い切っていれば共有カウンタから新しいブロックを確保する
+			final int start = allocate(blockSize);
+			block[0] = start;
+			block[1] = start + blockSize;
+		}
+		return block[0]++;
+	}
+
+	/**
+	 * 連続したIDのブロックを確保する.
+	 * <p>一括登録のように多数のIDを一度に必要とする場合に利用する。
+	 * 戻り値のIDから{@code size}個のIDは呼び出し側が自由に使ってよい。</p>
+	 * @param size 確保するIDの数
+	 * @return ブロックの先頭ID
+	 */
+	public int allocate(final int size) {
+		final int start = hi.getAndAdd(size);
+		if (start + size < start) {
+			throw new IllegalStateException("User id sequence exhausted");
+		}
+		return start;
+	}
+
+	/**
+	 * 指定されたIDが今後採番されないようにシーケンスを進める.
+	 * <p>既存データの読み込み後など、外部から与えられたIDとの重複を避けるために利用する。</p>
+	 * @param id 使用済みのID
+	 */
+	public void advancePast(final int id) {
+		for (;;) {
+			final int current = hi.get();
+			if (current > id || hi.compareAndSet(current, id + 1)) {
+				return;
+			}
+		}
+	}
+}
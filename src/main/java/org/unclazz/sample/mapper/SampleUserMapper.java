@@ -1,28 +1,60 @@
 package org.unclazz.sample.mapper;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.crypto.password.StandardPasswordEncoder;
 import org.springframework.stereotype.Component;
 import org.unclazz.sample.SampleUserDetails;
+import org.unclazz.sample.audit.SampleAuditEvent;
+import org.unclazz.sample.audit.SampleAuditLog;
 import org.unclazz.sample.entity.User;
+import org.unclazz.sample.store.SampleInMemoryUserStore;
+import org.unclazz.sample.store.SampleUserStore;
 
 /**
  * アプリケーションのユーザ情報をDBから取得するORマッパー.
- * <p>サンプルなので実際にはDBにはアクセスせずあらかじめ決められた名前に対して
- * 決められた{@code User}オブジェクトを返すだけにしてある。</p>
+ * <p>サンプルなので実際にはDBにはアクセスせず、{@link SampleUserStore}に格納されたユーザ情報を返す。
+ * 格納先は{@code sample.store.type}の設定により、メモリ上のみのもの（既定）と
+ * ファイルに永続化するもののいずれかになる。
+ * 格納先に存在しない場合は決められたダミーユーザを登録する。</p>
  * <p>ユーザのパスワードは{@link StandardPasswordEncoder}によりエンコードされた状態で
  * DBに格納されている想定。DBから取得したVOのプロパティにもこのエンコード済みパスワードが設定されている。</p>
+ * <p>複数のリクエスト・スレッドから同時に呼び出されることを前提に、
+ * 登録・更新は格納先のアトミックな操作で行っている。</p>
+ * <p>{@link SampleAuditLog}が利用できる場合は、登録・更新したユーザを監査ログに記録する。</p>
  */
 @Component
 public class SampleUserMapper {
 	/**
-	 * ダミーのユーザ情報を格納するマップ.
+	 * ユーザ情報の格納先.
 	 */
-	private static final Map<String, User> databaseDummy = new HashMap<String, User>();
+	private final SampleUserStore store;
 	
-	static {
+	/**
+	 * ダミーのシーケンス.
+	 */
+	private final SampleUserIdSequence sequenceDummy;
+	
+	/**
+	 * メモリ上のみの格納先を使用するコンストラクタ.
+	 */
+	public SampleUserMapper() {
+		this(new SampleInMemoryUserStore());
+	}
+	
+	/**
+	 * コンストラクタ.
+	 * @param store ユーザ情報の格納先
+	 */
+	@Autowired
+	public SampleUserMapper(SampleUserStore store) {
+		this.store = store;
+		
 		// ダミーユーザ1　ユーザ名はfoo、パスワードはbar
 		// ＊パスワードはStandardPasswordEncorderによりエンコードされている
 		final User foo = new User();
@@ -39,8 +71,48 @@ public class SampleUserMapper {
 		foo2.setPassword("54dac60766b07a02f01eafca7180e3053e69b607535e31f7786eeedccd74fc9feac6235a766f712d");
 		foo2.setAdmin(false);
 		
-		databaseDummy.put("foo", foo);
-		databaseDummy.put("foo2", foo2);
+		// 永続化された格納先ではすでに登録済みの場合がある
+		store.putIfAbsent(foo);
+		store.putIfAbsent(foo2);
+		
+		// 登録済みのIDはシーケンスから採番されないようにする
+		this.sequenceDummy = new SampleUserIdSequence(store.maxId() + 1, 64);
+	}
+	
+	/**
+	 * ユーザ情報の変更を通知するリスナーの一覧.
+	 */
+	private final CopyOnWriteArrayList<SampleUserChangeListener> changeListeners = 
+			new CopyOnWriteArrayList<SampleUserChangeListener>();
+	
+	/**
+	 * ユーザ情報の変更を通知するリスナーを登録する.
+	 * @param listener リスナー
+	 */
+	public void addChangeListener(SampleUserChangeListener listener) {
+		changeListeners.addIfAbsent(listener);
+	}
+	
+	/**
+	 * ユーザ情報の変更を通知するリスナーを登録解除する.
+	 * @param listener リスナー
+	 */
+	public void removeChangeListener(SampleUserChangeListener listener) {
+		changeListeners.remove(listener);
+	}
+	
+	/**
+	 * 登録・更新を記録する監査ログ（記録しない場合は{@code null}）.
+	 */
+	private SampleAuditLog auditLog;
+	
+	/**
+	 * 登録・更新を記録する監査ログを設定する.
+	 * @param auditLog 監査ログ
+	 */
+	@Autowired(required = false)
+	public void setAuditLog(SampleAuditLog auditLog) {
+		this.auditLog = auditLog;
 	}
 	
 	/**
@@ -49,7 +121,19 @@ public class SampleUserMapper {
 	 * @return ユーザ情報VO
 	 */
 	public User selectOneByName(String name) {
-		return databaseDummy.get(name);
+		return store.get(name);
+	}
+	
+	/**
+	 * ユーザIDが指定の値より大きいユーザ情報をIDの昇順でDBから検索し結果をVOのリストで返す.
+	 * <p>{@code WHERE id > #{afterId} ORDER BY id LIMIT #{limit}}に相当するキーセット・ページングで、
+	 * {@code OFFSET}と異なり何ページ目であっても読み飛ばす行は発生しない。</p>
+	 * @param afterId ユーザID（先頭から取得する場合は{@code 0}）
+	 * @param limit 最大件数
+	 * @return ユーザ情報VOのリスト
+	 */
+	public List<User> selectAfterId(int afterId, int limit) {
+		return store.valuesAfter(afterId, limit);
 	}
 	
 	/**
@@ -57,9 +141,51 @@ public class SampleUserMapper {
 	 * @return ID
 	 */
 	public int selectNextVal() {
-		return databaseDummy.size() + 1;
+		return sequenceDummy.nextVal();
 	}
 	
+	/**
+	 * 新しいユーザのための連続したIDをシーケンスを使ってまとめて採番する.
+	 * @param count 採番するIDの数
+	 * @return 先頭のID（{@code count}個のIDが先頭から連続して確保される）
+	 */
+	public int selectNextVals(int count) {
+		return sequenceDummy.allocate(count);
+	}
+	
+	/**
+	 * 新しいユーザをまとめてDBに登録する.
+	 * <p>ユーザ名が重複する行は登録せずに戻り値として返し、残りの行の登録は続行する
+	 * （バッチ・インサートでの一意制約違反を行単位で報告する想定）。</p>
+	 * @param users リレーションのためのVOのリスト
+	 * @param auth 認証メカニズムのためのVO（作成者IDや更新者IDの記録に利用）
+	 * @return ユーザ名が重複していたため登録されなかったVOのリスト
+	 */
+	public List<User> insertAll(List<User> users, SampleUserDetails auth) {
+		final List<User> duplicates = store.putAllIfAbsent(users);
+		final Set<User> rejected = Collections.newSetFromMap(new IdentityHashMap<User, Boolean>());
+		rejected.addAll(duplicates);
+		for (final User user : users) {
+			if (!rejected.contains(user)) {
+				audit(SampleAuditEvent.Type.USER_CREATED, user, auth);
+				fireUserChanged(user.getName());
+			}
+		}
+		return duplicates;
+	}
+	
+	/**
+	 * 用意されたユーザをまとめてDBに取り込む.
+	 * <p>{@link #insertAll(List, SampleUserDetails)}と異なり、監査ログへの記録もリスナーへの通知も行わない。
+	 * 規模試験のための合成ユーザの投入など、起動時の一括投入にのみ使用する。
+	 * IDはあらかじめ{@link #selectNextVals(int)}で採番しておくこと。</p>
+	 * @param users リレーションのためのVOのリスト
+	 * @return ユーザ名が重複していたため登録されなかったVOのリスト
+	 */
+	public List<User> loadAll(List<User> users) {
+		return store.putAllIfAbsent(users);
+	}
+
 	/**
 	 * 新しいユーザをDBに登録する.
 	 * @param user リレーションのためのVO
@@ -67,10 +193,12 @@ public class SampleUserMapper {
 	 */
 	public void insert(User user, SampleUserDetails auth) {
 		final String username = user.getName();
-		if (databaseDummy.containsKey(username)) {
+		// 存在チェックと登録をアトミックに行う
+		if (!store.putIfAbsent(user)) {
 			throw new RuntimeException(String.format("Duplicated username \"%s\".", username));
 		}
-		databaseDummy.put(username, user);
+		audit(SampleAuditEvent.Type.USER_CREATED, user, auth);
+		fireUserChanged(username);
 	}
 	
 	/**
@@ -80,9 +208,59 @@ public class SampleUserMapper {
 	 */
 	public void update(User user, SampleUserDetails auth) {
 		final String username = user.getName();
-		if (!databaseDummy.containsKey(username)) {
+		// 存在チェックと置き換えをアトミックに行う
+		if (!store.replace(user)) {
 			throw new RuntimeException(String.format("Unknown username \"%s\".", username));
 		}
-		databaseDummy.put(username, user);
+		audit(SampleAuditEvent.Type.USER_UPDATED, user, auth);
+		fireUserChanged(username);
+	}
+	
+	/**
+	 * 既存のユーザのエンコード済みパスワードを、同じ平文を現在の設定で再エンコードしたものに更新する.
+	 * <p>{@link #update(User, SampleUserDetails)}と異なり、リスナーには
+	 * {@link SampleUserChangeListener#passwordEncodingUpgraded(String)}で通知し、監査ログには
+	 * {@link SampleAuditEvent.Type#PASSWORD_REHASHED}として記録する。</p>
+	 * <p>再エンコードには時間がかかるので、その間にほかのスレッドがパスワードや権限を変更していることがある。
+	 * その場合は変更を上書きしないよう、何もせずに{@code false}を返す。</p>
+	 * @param current 再エンコードの元にした現在のユーザ情報
+	 * @param user リレーションのためのVO（パスワード以外は現在の値のまま）
+	 * @param auth 認証メカニズムのためのVO（作成者IDや更新者IDの記録に利用）
+	 * @return 更新した場合は{@code true}
+	 */
+	public boolean updatePasswordEncoding(User current, User user, SampleUserDetails auth) {
+		final String username = user.getName();
+		// 比較と置き換えをアトミックに行う
+		if (!store.replace(current, user)) {
+			return false;
+		}
+		audit(SampleAuditEvent.Type.PASSWORD_REHASHED, user, auth);
+		for (final SampleUserChangeListener listener : changeListeners) {
+			listener.passwordEncodingUpgraded(username);
+		}
+		return true;
+	}
+	
+	/**
+	 * 監査ログが設定されている場合は登録・更新を記録する.
+	 * @param type 種類
+	 * @param user 登録・更新したユーザ
+	 * @param auth 操作を行ったユーザ（不明な場合は{@code null}）
+	 */
+	private void audit(SampleAuditEvent.Type type, User user, SampleUserDetails auth) {
+		if (auditLog != null) {
+			auditLog.record(type, auth == null ? null : auth.getUsername(), user.getName(),
+					null, user.isAdmin() ? "admin" : null);
+		}
+	}
+	
+	/**
+	 * 登録済みのリスナーにユーザ情報の変更を通知する.
+	 * @param username 変更のあったユーザのユーザ名
+	 */
+	private void fireUserChanged(String username) {
+		for (final SampleUserChangeListener listener : changeListeners) {
+			listener.userChanged(username);
+		}
 	}
 }
@@ -0,0 +1,164 @@
+package org.unclazz.sample.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 処理時間の分布を記録するヒストグラム.
+ * <p>HdrHistogramと同様の対数−線形のバケットを持ち、2のべき乗ごとの区間をさらに
+ * {@value #SUB_BUCKET_COUNT}個に等分して記録する（相対誤差はおよそ3%）。
+ * 記録はロックなしかつオブジェクトを生成せずに行われるため、リクエスト処理の経路に置いても
+ * オーバーヘッドは{@link AtomicLongArray}に対するいくつかのアトミック操作に留まる。</p>
+ * <p>パーセンタイルの算出は記録と並行して行えるが、その時点の厳密なスナップショットではない。</p>
+ */
+public class LatencyHistogram {
+	/**
+	 * 2のべき乗ごとの区間を分割する数の対数.
+	 */
+	private static final int SUB_BUCKET_BITS = 5;
+
+	/**
+	 * 2のべき乗ごとの区間を分割する数.
+	 */
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * バケットの総数.
+	 * 符号なしの{@code long}値全域をカバーする。
+	 */
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+
+	/**
+	 * バケットごとの記録回数.
+	 */
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+	/**
+	 * 記録回数の合計.
+	 */
+	private final AtomicLong totalCount = new AtomicLong();
+
+	/**
+	 * 記録値の合計（ナノ秒）.
+	 */
+	private final AtomicLong totalNanos = new AtomicLong();
+
+	/**
+	 * 記録値の最大値（ナノ秒）.
+	 */
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * 値に対応するバケットの添字を返す.
+	 * @param value 値
+	 * @return 添字
+	 */
+	static int indexOf(final long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+	}
+
+	/**
+	 * バケットに対応する値の下限を返す.
+	 * @param index 添字
+	 * @return 値の下限
+	 */
+	static long lowerBoundOf(final int index) {
+		if (index < SUB_BUCKET_COUNT * 2) {
+			return index;
+		}
+		final int shift = index / SUB_BUCKET_COUNT - 1;
+		return ((long) (index - shift * SUB_BUCKET_COUNT)) << shift;
+	}
+
+	/**
+	 * 処理時間を記録する.
+	 * @param nanos 処理時間（ナノ秒）
+	 */
+	public void record(final long nanos) {
+		final long value = nanos < 0 ? 0 : nanos;
+		counts.incrementAndGet(indexOf(value));
+		totalCount.incrementAndGet();
+		totalNanos.addAndGet(value);
+		for (;;) {
+			final long max = maxNanos.get();
+			if (value <= max || maxNanos.compareAndSet(max, value)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * {@link System#nanoTime()}で取得した開始時刻から現在までの処理時間を記録する.
+	 * @param startNanos 開始時刻
+	 */
+	public void recordSince(final long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * 記録回数を返す.
+	 * @return 記録回数
+	 */
+	public long getCount() {
+		return totalCount.get();
+	}
+
+	/**
+	 * 指定されたパーセンタイルの値を返す.
+	 * @param percentile パーセンタイル（0〜100）
+	 * @return 値（ナノ秒）
+	 */
+	public long percentile(final double percentile) {
+		final long total = totalCount.get();
+		if (total == 0) {
+			return 0;
+		}
+		final long target = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+		long cumulative = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			cumulative += counts.get(i);
+			if (cumulative >= target) {
+				// バケットの上限を返すが最大値は超えないようにする
+				final long upper = i + 1 < BUCKET_COUNT ? lowerBoundOf(i + 1) - 1 : Long.MAX_VALUE;
+				return Math.min(upper, maxNanos.get());
+			}
+		}
+		return maxNanos.get();
+	}
+
+	/**
+	 * 記録内容をすべて破棄する.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts.set(i, 0);
+		}
+		totalCount.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+	}
+
+	/**
+	 * 記録回数と主要なパーセンタイルをマイクロ秒単位で返す.
+	 * @return 集計値の名前をキーとするマップ
+	 */
+	public Map<String, Long> snapshot() {
+		final long count = totalCount.get();
+		final Map<String, Long> result = new LinkedHashMap<String, Long>();
+		result.put("count", count);
+		result.put("meanMicros", count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos.get() / count));
+		result.put("p50Micros", TimeUnit.NANOSECONDS.toMicros(percentile(50)));
+		result.put("p90Micros", TimeUnit.NANOSECONDS.toMicros(percentile(90)));
+		result.put("p99Micros", TimeUnit.NANOSECONDS.toMicros(percentile(99)));
+		result.put("p999Micros", TimeUnit.NANOSECONDS.toMicros(percentile(99.9)));
+		result.put("maxMicros", TimeUnit.NANOSECONDS.toMicros(maxNanos.get()));
+		return result;
+	}
+}
@@ -0,0 +1,117 @@
+package org.unclazz.sample.metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.security.web.FilterChainProxy;
+import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.stereotype.Component;
+
+/**
+ * Spring Securityのフィルタチェーンを構成する各フィルタの処理時間を計測するよう、
+ * {@link FilterChainProxy}を置き換えるポスト・プロセッサ.
+ * <p>各フィルタを{@link SampleTimedFilter}で包み、{@code stage.filter.<クラス名>}という名前のヒストグラムに
+ * そのフィルタの正味の処理時間を記録する。チェーンの末尾には何もしないフィルタを追加し、
+ * フィルタチェーンを抜けてからサーブレットの処理が終わるまでの時間を{@code stage.servlet}に記録する。
+ * このうちコントローラとビューのレンダリングの時間は{@link SampleHandlerMetricsInterceptor}によって
+ * 別の段階として差し引かれる。リクエスト全体の処理時間は{@code stage.request}に記録する。</p>
+ * <p>{@code sample.metrics.stages.enabled}が{@code false}の場合は何もしない。</p>
+ */
+@Component
+public class SampleFilterChainMetricsPostProcessor implements BeanPostProcessor {
+	/**
+	 * 段階ごとの処理時間を計測するかどうか.
+	 */
+	@Value("${sample.metrics.stages.enabled:true}")
+	private boolean enabled;
+
+	/**
+	 * 計測値のレジストリ.
+	 */
+	@Autowired
+	private SampleMetrics metrics;
+
+	/**
+	 * フィルタチェーンの末尾で後続の処理を呼び出すだけのフィルタ.
+	 */
+	private static final class PassThroughFilter implements Filter {
+		@Override
+		public void init(final FilterConfig filterConfig) {}
+
+		@Override
+		public void doFilter(final ServletRequest request, final ServletResponse response,
+				final FilterChain chain) throws IOException, ServletException {
+			chain.doFilter(request, response);
+		}
+
+		@Override
+		public void destroy() {}
+	}
+
+	/**
+	 * 元のフィルタチェーンに対するリクエストの判定はそのままに、フィルタだけを差し替えたフィルタチェーン.
+	 */
+	private static final class TimedSecurityFilterChain implements SecurityFilterChain {
+		private final SecurityFilterChain delegate;
+		private final List<Filter> filters;
+
+		private TimedSecurityFilterChain(final SecurityFilterChain delegate, final List<Filter> filters) {
+			this.delegate = delegate;
+			this.filters = filters;
+		}
+
+		@Override
+		public boolean matches(final HttpServletRequest request) {
+			return delegate.matches(request);
+		}
+
+		@Override
+		public List<Filter> getFilters() {
+			return filters;
+		}
+	}
+
+	@Override
+	public Object postProcessBeforeInitialization(final Object bean, final String beanName) throws BeansException {
+		return bean;
+	}
+
+	@Override
+	public Object postProcessAfterInitialization(final Object bean, final String beanName) throws BeansException {
+		if (!enabled || !(bean instanceof FilterChainProxy)) {
+			return bean;
+		}
+		final LatencyHistogram total = metrics.histogram("stage.request");
+		final LatencyHistogram servlet = metrics.histogram("stage.servlet");
+		final List<SecurityFilterChain> chains = new ArrayList<SecurityFilterChain>();
+		for (final SecurityFilterChain chain : ((FilterChainProxy) bean).getFilterChains()) {
+			final List<Filter> filters = new ArrayList<Filter>(chain.getFilters().size() + 1);
+			for (final Filter filter : chain.getFilters()) {
+				filters.add(new SampleTimedFilter(filter,
+						metrics.histogram("stage.filter." + filter.getClass().getSimpleName()), total));
+			}
+			filters.add(new SampleTimedFilter(new PassThroughFilter(), servlet, total));
+			chains.add(new TimedSecurityFilterChain(chain, filters));
+		}
+		final FilterChainProxy proxy = new FilterChainProxy(chains);
+		try {
+			proxy.afterPropertiesSet();
+		} catch (final Exception e) {
+			throw new IllegalStateException(e);
+		}
+		return proxy;
+	}
+}
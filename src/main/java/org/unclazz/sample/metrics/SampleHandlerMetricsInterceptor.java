@@ -0,0 +1,107 @@
+package org.unclazz.sample.metrics;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+/**
+ * コントローラのメソッドとビューのレンダリングの処理時間を計測するインターセプタ.
+ * <p>コントローラのメソッドの処理時間は{@code stage.handler.<クラス名>.<メソッド名>}に、
+ * ビューのレンダリングの処理時間は{@code stage.render}に記録する。
+ * 計測には{@link SampleStageClock}を使用するので、これらの時間はフィルタチェーンの
+ * 段階の時間からは差し引かれる。</p>
+ */
+public class SampleHandlerMetricsInterceptor extends HandlerInterceptorAdapter {
+	/**
+	 * 計測値のレジストリ.
+	 */
+	private final SampleMetrics metrics;
+
+	/**
+	 * ビューのレンダリングの処理時間のヒストグラム.
+	 */
+	private final LatencyHistogram render;
+
+	/**
+	 * コントローラのメソッド以外のハンドラの処理時間のヒストグラム.
+	 */
+	private final LatencyHistogram otherHandlers;
+
+	/**
+	 * コントローラのメソッドをキーとしたヒストグラムのマップ.
+	 * <p>リクエストのたびにヒストグラム名の文字列を組み立てないよう、メソッドごとに保持しておく。</p>
+	 */
+	private final ConcurrentMap<Method, LatencyHistogram> handlers = new ConcurrentHashMap<Method, LatencyHistogram>();
+
+	/**
+	 * コンストラクタ.
+	 * @param metrics 計測値のレジストリ
+	 */
+	public SampleHandlerMetricsInterceptor(final SampleMetrics metrics) {
+		this.metrics = metrics;
+		this.render = metrics.histogram("stage.render");
+		this.otherHandlers = metrics.histogram("stage.handler.other");
+	}
+
+	@Override
+	public boolean preHandle(final HttpServletRequest request, final HttpServletResponse response,
+			final Object handler) throws Exception {
+		SampleStageClock.current().enter(histogramOf(handler));
+		return true;
+	}
+
+	@Override
+	public void postHandle(final HttpServletRequest request, final HttpServletResponse response,
+			final Object handler, final ModelAndView modelAndView) throws Exception {
+		final SampleStageClock clock = SampleStageClock.current();
+		// コントローラのメソッドの段階を閉じてレンダリングの段階を開始する
+		if (clock.depth() > 0) {
+			clock.exit(clock.depth() - 1);
+		}
+		clock.enter(render);
+	}
+
+	@Override
+	public void afterCompletion(final HttpServletRequest request, final HttpServletResponse response,
+			final Object handler, final Exception ex) throws Exception {
+		// 例外によりpostHandleが呼ばれなかった場合はコントローラのメソッドの段階を閉じる
+		final SampleStageClock clock = SampleStageClock.current();
+		if (clock.depth() > 0) {
+			clock.exit(clock.depth() - 1);
+		}
+	}
+
+	@Override
+	public void afterConcurrentHandlingStarted(final HttpServletRequest request, final HttpServletResponse response,
+			final Object handler) throws Exception {
+		// 非同期処理に移った場合は別のスレッドで処理が続くため、この時点で段階を閉じる
+		afterCompletion(request, response, handler, null);
+	}
+
+	/**
+	 * ハンドラに対応するヒストグラムを返す.
+	 * @param handler ハンドラ
+	 * @return ヒストグラム
+	 */
+	private LatencyHistogram histogramOf(final Object handler) {
+		if (!(handler instanceof HandlerMethod)) {
+			return otherHandlers;
+		}
+		final HandlerMethod handlerMethod = (HandlerMethod) handler;
+		final LatencyHistogram histogram = handlers.get(handlerMethod.getMethod());
+		if (histogram != null) {
+			return histogram;
+		}
+		final LatencyHistogram created = metrics.histogram("stage.handler."
+				+ handlerMethod.getBeanType().getSimpleName() + "." + handlerMethod.getMethod().getName());
+		final LatencyHistogram existing = handlers.putIfAbsent(handlerMethod.getMethod(), created);
+		return existing == null ? created : existing;
+	}
+}
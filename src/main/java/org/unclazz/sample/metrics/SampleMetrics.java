@@ -0,0 +1,104 @@
+package org.unclazz.sample.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * アプリケーションの各コンポーネントが計測値を登録するためのレジストリ.
+ * <p>カウンタ（{@link AtomicLong}）、ゲージ（{@link Gauge}）、ヒストグラム（{@link LatencyHistogram}）を名前で管理する。
+ * 名前はドット区切りで{@code "コンポーネント名.計測値名"}の形式とする想定。
+ * {@link #snapshot()}で全計測値のその時点の値を取得できる。</p>
+ */
+@Component
+public class SampleMetrics {
+	/**
+	 * 任意の値をその都度読み出すためのゲージ.
+	 */
+	public static interface Gauge {
+		/**
+		 * 現在の値を返す.
+		 * @return 現在の値
+		 */
+		long value();
+	}
+
+	/**
+	 * 名前をキーにしたカウンタのマップ.
+	 */
+	private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+	/**
+	 * 名前をキーにしたゲージのマップ.
+	 */
+	private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+	/**
+	 * 名前をキーにしたヒストグラムのマップ.
+	 */
+	private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+	/**
+	 * 名前に対応するカウンタを返す.
+	 * 未登録の場合は新たに作成して登録する。
+	 * @param name カウンタ名
+	 * @return カウンタ
+	 */
+	public AtomicLong counter(final String name) {
+		final AtomicLong counter = counters.get(name);
+		if (counter != null) {
+			return counter;
+		}
+		final AtomicLong created = new AtomicLong();
+		final AtomicLong existing = counters.putIfAbsent(name, created);
+		return existing == null ? created : existing;
+	}
+
+	/**
+	 * 名前に対応するヒストグラムを返す.
+	 * 未登録の場合は新たに作成して登録する。
+	 * @param name ヒストグラム名
+	 * @return ヒストグラム
+	 */
+	public LatencyHistogram histogram(final String name) {
+		final LatencyHistogram histogram = histograms.get(name);
+		if (histogram != null) {
+			return histogram;
+		}
+		final LatencyHistogram created = new LatencyHistogram();
+		final LatencyHistogram existing = histograms.putIfAbsent(name, created);
+		return existing == null ? created : existing;
+	}
+
+	/**
+	 * ゲージを登録する.
+	 * 同名のゲージがすでに登録されている場合は置き換える。
+	 * @param name ゲージ名
+	 * @param gauge ゲージ
+	 */
+	public void gauge(final String name, final Gauge gauge) {
+		gauges.put(name, gauge);
+	}
+
+	/**
+	 * 登録されているすべての計測値のその時点の値を名前順に返す.
+	 * @return 計測値名をキーとするマップ
+	 */
+	public Map<String, Object> snapshot() {
+		final Map<String, Object> result = new TreeMap<String, Object>();
+		for (final Map.Entry<String, AtomicLong> e : counters.entrySet()) {
+			result.put(e.getKey(), e.getValue().get());
+		}
+		for (final Map.Entry<String, Gauge> e : gauges.entrySet()) {
+			result.put(e.getKey(), e.getValue().value());
+		}
+		for (final Map.Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+			result.put(e.getKey(), e.getValue().snapshot());
+		}
+		return result;
+	}
+}
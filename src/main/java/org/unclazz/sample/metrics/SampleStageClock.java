@@ -0,0 +1,100 @@
+package org.unclazz.sample.metrics;
+
+/**
+ * リクエスト処理の入れ子になった段階ごとの処理時間を、スレッドごとに計測するための時計.
+ * <p>フィルタのように内側の段階を呼び出す段階の時間には内側の段階の時間が含まれてしまうため、
+ * 段階を抜けるときに内側の段階の時間を差し引いた正味の時間を{@link LatencyHistogram}に記録する。
+ * 段階の情報はスレッドごとの配列に保持し、配列が足りなくなった場合を除いてオブジェクトを生成しない。</p>
+ * <p>段階はスタックとして扱われ、{@link #enter(LatencyHistogram)}が返した深さを{@link #exit(int)}に渡すと
+ * その深さより内側で閉じられていない段階はまとめて破棄される。</p>
+ */
+final class SampleStageClock {
+	/**
+	 * スレッドごとの時計.
+	 */
+	private static final ThreadLocal<SampleStageClock> clocks = new ThreadLocal<SampleStageClock>() {
+		@Override
+		protected SampleStageClock initialValue() {
+			return new SampleStageClock();
+		}
+	};
+
+	/**
+	 * 現在のスレッドの時計を返す.
+	 * @return 時計
+	 */
+	static SampleStageClock current() {
+		return clocks.get();
+	}
+
+	/**
+	 * 段階ごとのヒストグラム.
+	 */
+	private LatencyHistogram[] stages = new LatencyHistogram[16];
+
+	/**
+	 * 段階ごとの開始時刻（ナノ秒）.
+	 */
+	private long[] startNanos = new long[16];
+
+	/**
+	 * 段階ごとの内側の段階の時間の合計（ナノ秒）.
+	 */
+	private long[] innerNanos = new long[16];
+
+	/**
+	 * 現在の深さ（開いている段階の数）.
+	 */
+	private int depth;
+
+	private SampleStageClock() {}
+
+	/**
+	 * 段階を開始する.
+	 * @param stage 段階の時間を記録するヒストグラム
+	 * @return 開始した段階の深さ
+	 */
+	int enter(final LatencyHistogram stage) {
+		if (depth == stages.length) {
+			final int length = depth * 2;
+			final LatencyHistogram[] newStages = new LatencyHistogram[length];
+			final long[] newStartNanos = new long[length];
+			final long[] newInnerNanos = new long[length];
+			System.arraycopy(stages, 0, newStages, 0, depth);
+			System.arraycopy(startNanos, 0, newStartNanos, 0, depth);
+			System.arraycopy(innerNanos, 0, newInnerNanos, 0, depth);
+			stages = newStages;
+			startNanos = newStartNanos;
+			innerNanos = newInnerNanos;
+		}
+		final int level = depth++;
+		stages[level] = stage;
+		innerNanos[level] = 0;
+		startNanos[level] = System.nanoTime();
+		return level;
+	}
+
+	/**
+	 * 段階を終了し、正味の時間を記録する.
+	 * @param level {@link #enter(LatencyHistogram)}が返した深さ
+	 * @return 内側の段階の時間を含む、段階の開始からの経過時間（ナノ秒）
+	 */
+	long exit(final int level) {
+		final long elapsed = System.nanoTime() - startNanos[level];
+		stages[level].record(elapsed - innerNanos[level]);
+		stages[level] = null;
+		depth = level;
+		if (level > 0) {
+			innerNanos[level - 1] += elapsed;
+		}
+		return elapsed;
+	}
+
+	/**
+	 * 現在の深さを返す.
+	 * @return 開いている段階の数
+	 */
+	int depth() {
+		return depth;
+	}
+}
@@ -0,0 +1,120 @@
+package org.unclazz.sample.metrics;
+
+import java.io.IOException;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+/**
+ * 元のフィルタの正味の処理時間を{@link SampleStageClock}で計測するフィルタ.
+ * <p>後続のフィルタやサーブレットの処理時間は含まない。
+ * 最も外側のフィルタでは、後続の処理を含むリクエスト全体の処理時間もあわせて記録する。</p>
+ * <p>リクエストが非同期処理に移った場合、リクエスト全体の処理時間は非同期処理が完了した時点で記録する。
+ * 非同期処理を引き継いだスレッド（{@link org.unclazz.sample.security.SampleAsyncLoginFilter}のワーカーなど）で
+ * 実行されるフィルタは、そのスレッドでは最も外側であってもリクエストの途中から計測していることになるので、
+ * リクエスト全体の処理時間は記録しない。</p>
+ */
+final class SampleTimedFilter implements Filter {
+	/**
+	 * 元のフィルタ.
+	 */
+	private final Filter delegate;
+
+	/**
+	 * 正味の処理時間のヒストグラム.
+	 */
+	private final LatencyHistogram stage;
+
+	/**
+	 * リクエスト全体の処理時間のヒストグラム.
+	 */
+	private final LatencyHistogram total;
+
+	/**
+	 * コンストラクタ.
+	 * @param delegate 元のフィルタ
+	 * @param stage 正味の処理時間のヒストグラム
+	 * @param total リクエスト全体の処理時間のヒストグラム
+	 */
+	SampleTimedFilter(final Filter delegate, final LatencyHistogram stage, final LatencyHistogram total) {
+		this.delegate = delegate;
+		this.stage = stage;
+		this.total = total;
+	}
+
+	/**
+	 * 元のフィルタを返す.
+	 * @return 元のフィルタ
+	 */
+	Filter getDelegate() {
+		return delegate;
+	}
+
+	@Override
+	public void init(final FilterConfig filterConfig) throws ServletException {
+		delegate.init(filterConfig);
+	}
+
+	@Override
+	public void doFilter(final ServletRequest request, final ServletResponse response,
+			final FilterChain chain) throws IOException, ServletException {
+		final SampleStageClock clock = SampleStageClock.current();
+		// 非同期処理を引き継いだスレッドでは、開始の時点ですでに非同期処理が始まっている
+		final boolean continuation = request.isAsyncStarted();
+		final long start = System.nanoTime();
+		final int level = clock.enter(stage);
+		try {
+			delegate.doFilter(request, response, chain);
+		} finally {
+			final long elapsed = clock.exit(level);
+			if (level == 0 && !continuation) {
+				if (request.isAsyncStarted()) {
+					request.getAsyncContext().addListener(new TotalListener(start));
+				} else {
+					total.record(elapsed);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 非同期処理が完了した時点でリクエスト全体の処理時間を記録するリスナー.
+	 */
+	private final class TotalListener implements AsyncListener {
+		private final long start;
+
+		private TotalListener(final long start) {
+			this.start = start;
+		}
+
+		@Override
+		public void onComplete(final AsyncEvent event) {
+			total.recordSince(start);
+		}
+
+		@Override
+		public void onTimeout(final AsyncEvent event) {}
+
+		@Override
+		public void onError(final AsyncEvent event) {}
+
+		@Override
+		public void onStartAsync(final AsyncEvent event) {}
+	}
+
+	@Override
+	public void destroy() {
+		delegate.destroy();
+	}
+
+	@Override
+	public String toString() {
+		return delegate.toString();
+	}
+}
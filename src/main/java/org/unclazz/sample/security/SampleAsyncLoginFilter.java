@@ -0,0 +1,165 @@
+package org.unclazz.sample.security;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * ログイン処理をリクエスト・スレッドから{@link SampleHashingExecutor}に移すフィルタ.
+ * <p>{@link UsernamePasswordAuthenticationFilter}の直前に配置する。
+ * ログイン処理のリクエストを受け取るとServlet 3.0の非同期処理を開始し、
+ * 以降のフィルタチェーン（つまりパスワードの照合を含む認証処理そのもの）を
+ * {@link SampleHashingExecutor}のスレッドで実行する。
+ * これによりログインが集中してもTomcatのリクエスト・スレッドが占有されず、
+ * {@code /index}や{@code /admin}へのアクセスは影響を受けない。</p>
+ * <p>{@link SampleHashingExecutor}の待ち行列が一杯の場合は待たずに503を返す。</p>
+ * <p>{@code timeoutMillis}は待ち行列で待つ時間の上限で、ワーカー・スレッドが処理を始める際に確認し、
+ * 過ぎていれば認証を行わずに503を返す。処理を始めた後の認証はパスワードの照合1回分で終わるので、
+ * コンテナのタイムアウトはその2倍とし、処理中のワーカーが完了させるための余裕とする。</p>
+ * <p>レスポンスを書き込んで非同期処理を完了させるのは、タイムアウトの通知とワーカーのうち
+ * 先に権利を取得した一方だけである。コンテナのタイムアウトまでワーカーが処理を始めなかった場合は
+ * 通知を受けたスレッドが503を返し、ワーカーは何もしない。ワーカーが処理中の場合、通知を受けたスレッドは
+ * 待たずに戻り、完了はワーカーに任せる。</p>
+ * <p>認証処理は設定済みの{@link UsernamePasswordAuthenticationFilter}がそのまま行うので、
+ * 成功・失敗時の遷移先やセッションの扱いは同期的に処理する場合と変わらない。
+ * ただしこのフィルタと同じリクエストを{@link UsernamePasswordAuthenticationFilter}が必ず処理する
+ * （つまり後続のサーブレットまでチェーンが進まない）ことが前提である。</p>
+ */
+public class SampleAsyncLoginFilter extends OncePerRequestFilter {
+	private static final Log logger = LogFactory.getLog(SampleAsyncLoginFilter.class);
+
+	/**
+	 * 処理を実行するスレッドプール.
+	 */
+	private final SampleHashingExecutor executor;
+
+	/**
+	 * ログイン処理のリクエストを判定するマッチャー.
+	 */
+	private final RequestMatcher loginRequestMatcher;
+
+	/**
+	 * 待ち行列で待つ時間の上限（ミリ秒）.
+	 */
+	private final long timeoutMillis;
+
+	/**
+	 * コンストラクタ.
+	 * @param executor 処理を実行するスレッドプール
+	 * @param loginRequestMatcher ログイン処理のリクエストを判定するマッチャー
+	 * @param timeoutMillis 待ち行列で待つ時間の上限（ミリ秒）
+	 */
+	public SampleAsyncLoginFilter(final SampleHashingExecutor executor,
+			final RequestMatcher loginRequestMatcher, final long timeoutMillis) {
+		this.executor = executor;
+		this.loginRequestMatcher = loginRequestMatcher;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	@Override
+	protected boolean shouldNotFilter(final HttpServletRequest request) throws ServletException {
+		return !loginRequestMatcher.matches(request) || !request.isAsyncSupported();
+	}
+
+	@Override
+	protected void doFilterInternal(final HttpServletRequest request, final HttpServletResponse response,
+			final FilterChain chain) throws ServletException, IOException {
+		// 後続のフィルタが参照するセキュリティ・コンテキストを別スレッドに引き継ぐ
+		final SecurityContext context = SecurityContextHolder.getContext();
+		final AsyncContext asyncContext = request.startAsync(request, response);
+		// レスポンスを書き込んで完了させる権利. タイムアウトの通知とワーカーのうち先に取得した方だけが持つ
+		final AtomicBoolean claimed = new AtomicBoolean();
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		asyncContext.setTimeout(timeoutMillis * 2);
+		asyncContext.addListener(new AsyncListener() {
+			@Override
+			public void onTimeout(final AsyncEvent event) throws IOException {
+				if (claimed.compareAndSet(false, true)) {
+					sendErrorQuietly(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+					asyncContext.complete();
+					return;
+				}
+				// ワーカーが処理中. コンテナのスレッドは待たせず、完了はワーカーに任せる
+				logger.warn("Asynchronous login still running at container timeout");
+			}
+			@Override
+			public void onStartAsync(final AsyncEvent event) {}
+			@Override
+			public void onError(final AsyncEvent event) {}
+			@Override
+			public void onComplete(final AsyncEvent event) {}
+		});
+
+		try {
+			executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					if (!claimed.compareAndSet(false, true)) {
+						// 待ち行列にいる間にタイムアウトし、すでに503が返されている
+						return;
+					}
+					if (System.nanoTime() - deadline > 0) {
+						// 待ち行列で待ちすぎた場合は照合を始めない
+						sendErrorQuietly(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+						asyncContext.complete();
+						return;
+					}
+					SecurityContextHolder.setContext(context);
+					try {
+						chain.doFilter(request, response);
+					} catch (final Exception e) {
+						logger.error("Asynchronous login failed", e);
+						sendErrorQuietly(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+					} finally {
+						SecurityContextHolder.clearContext();
+						try {
+							asyncContext.complete();
+						} catch (final IllegalStateException e) {
+							// コンテナのタイムアウトの後にコンテナ自身が完了させていた
+							logger.debug("Asynchronous login already completed by the container", e);
+						}
+					}
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			// 待ち行列が一杯の場合は待たせずにエラーとする
+			if (claimed.compareAndSet(false, true)) {
+				sendErrorQuietly(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				asyncContext.complete();
+			}
+		}
+	}
+
+	/**
+	 * レスポンスがまだ送信されていなければエラーを返す.
+	 * @param response レスポンス
+	 * @param status ステータス・コード
+	 */
+	private static void sendErrorQuietly(final HttpServletResponse response, final int status) {
+		if (response.isCommitted()) {
+			return;
+		}
+		try {
+			response.sendError(status);
+		} catch (final IOException e) {
+			logger.debug("Failed to send error response", e);
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package org.unclazz.sample.security;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.unclazz.sample.SampleUserDetails;
+import org.unclazz.sample.audit.SampleAuditEvent;
+import org.unclazz.sample.audit.SampleAuditLog;
+import org.unclazz.sample.entity.User;
+import org.unclazz.sample.mapper.SampleUserMapper;
+
+/**
+ * ユーザ名とパスワードによる認証を行うプロバイダ.
+ * <p>{@link DaoAuthenticationProvider}の処理に加えて、認証に成功したユーザのパスワードが
+ * 古いアルゴリズムや強度でエンコードされていた場合には、入力されたパスワードを
+ * 現在の設定で再エンコードして{@link SampleUserMapper#updatePasswordEncoding(User, User, SampleUserDetails)}で保存する。
+ * 平文のパスワードが手に入るのはログイン時だけなので、このタイミングで移行を行う。</p>
+ * <p>{@link #setAuditLog(SampleAuditLog)}で監査ログが設定されている場合は、認証の成否を記録する。</p>
+ */
+public class SampleAuthenticationProvider extends DaoAuthenticationProvider {
+	private static final Log logger = LogFactory.getLog(SampleAuthenticationProvider.class);
+
+	/**
+	 * パスワードのエンコーダ.
+	 */
+	private final SamplePasswordEncoder passwordEncoder;
+
+	/**
+	 * ユーザのリレーションを処理するためのORマッパー.
+	 */
+	private final SampleUserMapper userMapper;
+
+	/**
+	 * コンストラクタ.
+	 * @param passwordEncoder パスワードのエンコーダ
+	 * @param userMapper ユーザのリレーションを処理するためのORマッパー
+	 */
+	public SampleAuthenticationProvider(final SamplePasswordEncoder passwordEncoder, final SampleUserMapper userMapper) {
+		this.passwordEncoder = passwordEncoder;
+		this.userMapper = userMapper;
+		setPasswordEncoder(passwordEncoder);
+	}
+	
+	/**
+	 * 監査ログ（記録しない場合は{@code null}）.
+	 */
+	private SampleAuditLog auditLog;
+	
+	/**
+	 * 認証の成否を記録する監査ログを設定する.
+	 * @param auditLog 監査ログ
+	 */
+	public void setAuditLog(final SampleAuditLog auditLog) {
+		this.auditLog = auditLog;
+	}
+	
+	/**
+	 * 認証を行い、監査ログが設定されている場合はその成否を記録する.
+	 */
+	@Override
+	public Authentication authenticate(final Authentication authentication) throws AuthenticationException {
+		if (auditLog == null) {
+			return super.authenticate(authentication);
+		}
+		try {
+			final Authentication result = super.authenticate(authentication);
+			auditLog.recordLogin(SampleAuditEvent.Type.LOGIN_SUCCESS, authentication, null);
+			return result;
+		} catch (final AuthenticationException e) {
+			auditLog.recordLogin(SampleAuditEvent.Type.LOGIN_FAILURE, authentication,
+					e.getClass().getSimpleName());
+			throw e;
+		}
+	}
+
+	/**
+	 * 必要に応じてパスワードを再エンコードしたうえで認証済みの{@link Authentication}を生成する.
+	 */
+	@Override
+	protected Authentication createSuccessAuthentication(final Object principal,
+			final Authentication authentication, final UserDetails user) {
+		if (user instanceof SampleUserDetails && passwordEncoder.upgradeEncoding(user.getPassword())) {
+			upgradePassword((SampleUserDetails) user, authentication.getCredentials());
+		}
+		return super.createSuccessAuthentication(principal, authentication, user);
+	}
+
+	/**
+	 * パスワードを現在の設定で再エンコードして保存する.
+	 * <p>失敗してもログインそのものは成功させるため、例外はログに記録するだけにしている。</p>
+	 * @param user 認証に成功したユーザ
+	 * @param credentials 入力されたパスワード
+	 */
+	private void upgradePassword(final SampleUserDetails user, final Object credentials) {
+		if (credentials == null) {
+			return;
+		}
+		try {
+			final User current = userMapper.selectOneByName(user.getUsername());
+			// 認証中にパスワードが変更されていた場合は何もしない
+			if (current == null || !user.getPassword().equals(current.getPassword())) {
+				return;
+			}
+			final User upgraded = new User();
+			upgraded.setId(current.getId());
+			upgraded.setName(current.getName());
+			upgraded.setPassword(passwordEncoder.encode(credentials.toString()));
+			upgraded.setAdmin(current.isAdmin());
+			// 再エンコードの間にパスワードや権限が変更された場合は上書きしない
+			if (!userMapper.updatePasswordEncoding(current, upgraded, user)) {
+				logger.debug(String.format("Skipped password upgrade for \"%s\" changed concurrently", user.getUsername()));
+			}
+		} catch (final RuntimeException e) {
+			logger.warn(String.format("Failed to upgrade password encoding for \"%s\"", user.getUsername()), e);
+		}
+	}
+}
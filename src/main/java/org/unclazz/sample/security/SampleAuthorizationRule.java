@@ -0,0 +1,157 @@
+package org.unclazz.sample.security;
+
+import org.springframework.security.access.ConfigAttribute;
+import org.springframework.security.authentication.AuthenticationTrustResolver;
+import org.springframework.security.authentication.AuthenticationTrustResolverImpl;
+import org.springframework.security.core.Authentication;
+import org.unclazz.sample.SampleAuthoritySet;
+import org.unclazz.sample.SampleGrantedAuthority;
+import org.unclazz.sample.SampleUserDetails;
+
+/**
+ * URLのパターンとそのURLへのアクセスの条件の組.
+ * <p>パターンはAnt形式のうち、{@code /}で区切られた各部分がリテラルか{@code *}（任意の1階層）、
+ * もしくは末尾の{@code **}（任意の0階層以上）であるものに限る。</p>
+ * <p>同じ規則の一覧から{@link #toExpression()}によるSpEL式を使って
+ * {@code antMatchers(...).access(...)}の連鎖を組み立てることも、
+ * {@link SampleTrieSecurityMetadataSource}によるトライ木を組み立てることもできる。
+ * 後者の場合、このオブジェクト自体が{@link ConfigAttribute}として{@link SampleAuthorizationVoter}に渡され、
+ * 式を評価することなく{@link #isGranted(Authentication)}で判定される。</p>
+ */
+public final class SampleAuthorizationRule implements ConfigAttribute {
+	private static final long serialVersionUID = -4373287462207137092L;
+
+	/**
+	 * 匿名ユーザを判定するためのオブジェクト.
+	 */
+	private static final AuthenticationTrustResolver trustResolver = new AuthenticationTrustResolverImpl();
+
+	/**
+	 * アクセスの条件の種類.
+	 */
+	private static enum Access {
+		PERMIT_ALL, AUTHENTICATED, GRANTED
+	}
+
+	/**
+	 * 誰でもアクセスできる規則を返す.
+	 * @param pattern URLのパターン
+	 * @return 規則
+	 */
+	public static SampleAuthorizationRule permitAll(final String pattern) {
+		return new SampleAuthorizationRule(pattern, null, Access.PERMIT_ALL, null);
+	}
+
+	/**
+	 * 認証済みのユーザだけがアクセスできる規則を返す.
+	 * @param pattern URLのパターン
+	 * @return 規則
+	 */
+	public static SampleAuthorizationRule authenticated(final String pattern) {
+		return new SampleAuthorizationRule(pattern, null, Access.AUTHENTICATED, null);
+	}
+
+	/**
+	 * 権限を持つユーザだけがアクセスできる規則を返す.
+	 * @param pattern URLのパターン
+	 * @param authority 権限
+	 * @return 規則
+	 */
+	public static SampleAuthorizationRule granted(final String pattern, final SampleGrantedAuthority authority) {
+		return new SampleAuthorizationRule(pattern, null, Access.GRANTED, authority);
+	}
+
+	private final String pattern;
+	private final String method;
+	private final Access access;
+	private final SampleGrantedAuthority authority;
+
+	/**
+	 * 非公開のコンストラクタ.
+	 * @param pattern URLのパターン
+	 * @param method HTTPメソッド（すべてのメソッドが対象の場合は{@code null}）
+	 * @param access アクセスの条件の種類
+	 * @param authority 必要な権限
+	 */
+	private SampleAuthorizationRule(final String pattern, final String method,
+			final Access access, final SampleGrantedAuthority authority) {
+		this.pattern = pattern;
+		this.method = method;
+		this.access = access;
+		this.authority = authority;
+	}
+
+	/**
+	 * 対象のHTTPメソッドを限定した規則を返す.
+	 * @param method HTTPメソッド
+	 * @return 規則
+	 */
+	public SampleAuthorizationRule forMethod(final String method) {
+		return new SampleAuthorizationRule(pattern, method, access, authority);
+	}
+
+	/**
+	 * アクセスを許可するかどうかを判定する.
+	 * @param authentication 認証情報
+	 * @return 許可する場合は{@code true}
+	 */
+	public boolean isGranted(final Authentication authentication) {
+		if (access == Access.PERMIT_ALL) {
+			return true;
+		}
+		if (authentication == null || !authentication.isAuthenticated()
+				|| trustResolver.isAnonymous(authentication)) {
+			return false;
+		}
+		if (access == Access.AUTHENTICATED) {
+			return true;
+		}
+		final Object principal = authentication.getPrincipal();
+		if (principal instanceof SampleUserDetails) {
+			// プリンシパルが保持する権限のビットマスクで判定する
+			return ((SampleUserDetails) principal).getAuthorities().contains(authority);
+		}
+		return SampleAuthoritySet.of(authentication.getAuthorities()).contains(authority);
+	}
+
+	/**
+	 * HTTPメソッドが規則の対象かどうかを判定する.
+	 * @param method HTTPメソッド
+	 * @return 対象の場合は{@code true}
+	 */
+	public boolean matchesMethod(final String method) {
+		return this.method == null || this.method.equals(method);
+	}
+
+	/**
+	 * 同じ条件を表すSpEL式を返す.
+	 * @return {@link SampleWebSecurityExpressionHandler}で評価できる式
+	 */
+	public String toExpression() {
+		switch (access) {
+		case PERMIT_ALL:
+			return "permitAll";
+		case AUTHENTICATED:
+			return "authenticated";
+		default:
+			return String.format("isGranted('%s')", authority.getAuthority());
+		}
+	}
+
+	public String getPattern() {
+		return pattern;
+	}
+	public String getMethod() {
+		return method;
+	}
+
+	@Override
+	public String getAttribute() {
+		return toExpression();
+	}
+
+	@Override
+	public String toString() {
+		return (method == null ? "" : method + " ") + pattern + " -> " + toExpression();
+	}
+}
@@ -0,0 +1,36 @@
+package org.unclazz.sample.security;
+
+import java.util.Collection;
+
+import org.springframework.security.access.AccessDecisionVoter;
+import org.springframework.security.access.ConfigAttribute;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.web.FilterInvocation;
+
+/**
+ * {@link SampleAuthorizationRule}にもとづいてアクセスの可否を判定するボーター.
+ * <p>{@link SampleTrieSecurityMetadataSource}と組み合わせて使用する。
+ * SpEL式の評価は行わず、{@link SampleAuthorizationRule#isGranted(Authentication)}で直接判定する。</p>
+ */
+public class SampleAuthorizationVoter implements AccessDecisionVoter<FilterInvocation> {
+	@Override
+	public boolean supports(final ConfigAttribute attribute) {
+		return attribute instanceof SampleAuthorizationRule;
+	}
+
+	@Override
+	public boolean supports(final Class<?> clazz) {
+		return FilterInvocation.class.isAssignableFrom(clazz);
+	}
+
+	@Override
+	public int vote(final Authentication authentication, final FilterInvocation object,
+			final Collection<ConfigAttribute> attributes) {
+		for (final ConfigAttribute attribute : attributes) {
+			if (attribute instanceof SampleAuthorizationRule) {
+				return ((SampleAuthorizationRule) attribute).isGranted(authentication) ? ACCESS_GRANTED : ACCESS_DENIED;
+			}
+		}
+		return ACCESS_ABSTAIN;
+	}
+}
@@ -0,0 +1,40 @@
+package org.unclazz.sample.security;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.security.web.header.HeaderWriter;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+
+/**
+ * キャッシュを制御するヘッダを書き込むライタ.
+ * <p>Spring Securityの既定（{@code cacheControl()}）と同じくレスポンスをキャッシュさせないヘッダを書き込むが、
+ * 指定されたリクエストに対しては、ブラウザがレスポンスを保存したうえで毎回サーバに再検証するよう
+ * {@code Cache-Control: private, no-cache}を書き込む。
+ * {@code ETag}と組み合わせれば、内容が変わっていない画面の再表示は{@code 304 Not Modified}で済む。</p>
+ */
+public class SampleCacheControlHeaderWriter implements HeaderWriter {
+	/**
+	 * 再検証を許可するリクエスト.
+	 */
+	private final RequestMatcher revalidated;
+
+	/**
+	 * コンストラクタ.
+	 * @param revalidated 再検証を許可するリクエスト
+	 */
+	public SampleCacheControlHeaderWriter(final RequestMatcher revalidated) {
+		this.revalidated = revalidated;
+	}
+
+	@Override
+	public void writeHeaders(final HttpServletRequest request, final HttpServletResponse response) {
+		if (revalidated.matches(request)) {
+			response.setHeader("Cache-Control", "private, no-cache");
+		} else {
+			response.setHeader("Cache-Control", "no-cache, no-store, max-age=0, must-revalidate");
+			response.setHeader("Pragma", "no-cache");
+			response.setDateHeader("Expires", 0);
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package org.unclazz.sample.security;
+
+import java.util.UUID;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.security.web.csrf.CsrfToken;
+import org.springframework.security.web.csrf.CsrfTokenRepository;
+import org.springframework.security.web.csrf.DefaultCsrfToken;
+
+/**
+ * CSRFトークンをセッションではなくクッキーに保存するリポジトリ.
+ * <p>ステートレス・モードでセッションを生成しないために使用する。
+ * フォームのパラメータとクッキーの値が一致することを確認する（いわゆるダブル・サブミット・クッキー）。</p>
+ */
+public class SampleCookieCsrfTokenRepository implements CsrfTokenRepository {
+	/**
+	 * CSRFトークンを格納するクッキーの名前.
+	 */
+	private static final String COOKIE_NAME = "XSRF-TOKEN";
+
+	/**
+	 * CSRFトークンを格納するリクエスト・パラメータの名前.
+	 */
+	private static final String PARAMETER_NAME = "_csrf";
+
+	/**
+	 * CSRFトークンを格納するリクエスト・ヘッダの名前.
+	 */
+	private static final String HEADER_NAME = "X-CSRF-TOKEN";
+
+	@Override
+	public CsrfToken generateToken(final HttpServletRequest request) {
+		return new DefaultCsrfToken(HEADER_NAME, PARAMETER_NAME, UUID.randomUUID().toString());
+	}
+
+	@Override
+	public void saveToken(final CsrfToken token, final HttpServletRequest request, final HttpServletResponse response) {
+		final Cookie cookie = new Cookie(COOKIE_NAME, token == null ? "" : token.getToken());
+		final String contextPath = request.getContextPath();
+		cookie.setPath(contextPath == null || contextPath.isEmpty() ? "/" : contextPath);
+		cookie.setHttpOnly(true);
+		cookie.setSecure(request.isSecure());
+		cookie.setMaxAge(token == null ? 0 : -1);
+		response.addCookie(cookie);
+	}
+
+	@Override
+	public CsrfToken loadToken(final HttpServletRequest request) {
+		final Cookie[] cookies = request.getCookies();
+		if (cookies == null) {
+			return null;
+		}
+		for (final Cookie cookie : cookies) {
+			if (COOKIE_NAME.equals(cookie.getName()) && !cookie.getValue().isEmpty()) {
+				return new DefaultCsrfToken(HEADER_NAME, PARAMETER_NAME, cookie.getValue());
+			}
+		}
+		return null;
+	}
+}
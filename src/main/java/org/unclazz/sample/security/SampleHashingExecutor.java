@@ -0,0 +1,132 @@
+package org.unclazz.sample.security;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.unclazz.sample.metrics.LatencyHistogram;
+import org.unclazz.sample.metrics.SampleMetrics;
+
+/**
+ * パスワードのハッシュ計算のような重いCPU処理を実行するための専用スレッドプール.
+ * <p>スレッド数はCPUコア数、待ち行列は固定長で、待ち行列が一杯の場合は
+ * {@link #submit(Runnable)}が{@link RejectedExecutionException}をスローする。
+ * 呼び出し側はこれを受けて処理を早々に打ち切ることで、負荷が集中した場合にも
+ * 待ち行列が際限なく伸びることを防ぐ。</p>
+ * <p>待ち行列の長さ、待ち時間、拒否された回数は{@link SampleMetrics}で参照できる。</p>
+ */
+@Component
+public class SampleHashingExecutor {
+	/**
+	 * スレッド数. 0以下の場合はCPUコア数とする。
+	 */
+	@Value("${sample.hashing.threads:0}")
+	private int threads;
+	
+	/**
+	 * 待ち行列の長さの上限.
+	 */
+	@Value("${sample.hashing.queueCapacity:64}")
+	private int queueCapacity;
+	
+	/**
+	 * 計測値のレジストリ.
+	 */
+	@Autowired
+	private SampleMetrics metrics;
+	
+	/**
+	 * 処理を実行するスレッドプール.
+	 */
+	private ThreadPoolExecutor executor;
+	
+	/**
+	 * 待ち行列に入ってから実行が開始されるまでの時間.
+	 */
+	private LatencyHistogram waitTime;
+	
+	/**
+	 * 実行を拒否された回数.
+	 */
+	private AtomicLong rejected;
+	
+	/**
+	 * スレッドプールを初期化する.
+	 */
+	@PostConstruct
+	public void initialize() {
+		final int size = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+		executor = new ThreadPoolExecutor(size, size, 60L, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+					@Override
+					public Thread newThread(final Runnable r) {
+						final Thread t = new Thread(r, "sample-hashing-" + count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				}, new ThreadPoolExecutor.AbortPolicy());
+		
+		waitTime = metrics.histogram("hashing.wait");
+		rejected = metrics.counter("hashing.rejected");
+		metrics.gauge("hashing.queueDepth", new SampleMetrics.Gauge() {
+			@Override
+			public long value() {
+				return executor.getQueue().size();
+			}
+		});
+		metrics.gauge("hashing.active", new SampleMetrics.Gauge() {
+			@Override
+			public long value() {
+				return executor.getActiveCount();
+			}
+		});
+	}
+	
+	/**
+	 * スレッドプールを停止する.
+	 */
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+	
+	/**
+	 * 処理を待ち行列に追加する.
+	 * @param task 処理
+	 * @throws RejectedExecutionException 待ち行列が一杯の場合
+	 */
+	public void submit(final Runnable task) {
+		final long submitted = System.nanoTime();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					waitTime.recordSince(submitted);
+					task.run();
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			rejected.incrementAndGet();
+			throw e;
+		}
+	}
+	
+	/**
+	 * スレッド数を返す.
+	 * @return スレッド数
+	 */
+	public int getPoolSize() {
+		return executor.getCorePoolSize();
+	}
+}
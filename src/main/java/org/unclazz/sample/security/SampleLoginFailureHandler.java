@@ -0,0 +1,38 @@
+package org.unclazz.sample.security;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.web.authentication.SimpleUrlAuthenticationFailureHandler;
+
+/**
+ * ログインの失敗を{@link SampleLoginThrottle}に記録してから指定のURLにリダイレクトするハンドラ.
+ */
+public class SampleLoginFailureHandler extends SimpleUrlAuthenticationFailureHandler {
+	/**
+	 * ログインの試行を制限するコンポーネント.
+	 */
+	private final SampleLoginThrottle throttle;
+
+	/**
+	 * コンストラクタ.
+	 * @param throttle ログインの試行を制限するコンポーネント
+	 * @param defaultFailureUrl ログイン失敗時の遷移先
+	 */
+	public SampleLoginFailureHandler(final SampleLoginThrottle throttle, final String defaultFailureUrl) {
+		super(defaultFailureUrl);
+		this.throttle = throttle;
+	}
+
+	@Override
+	public void onAuthenticationFailure(final HttpServletRequest request, final HttpServletResponse response,
+			final AuthenticationException exception) throws IOException, ServletException {
+		throttle.recordFailure(request.getParameter(SampleLoginThrottle.USERNAME_PARAMETER),
+				request.getRemoteAddr());
+		super.onAuthenticationFailure(request, response, exception);
+	}
+}
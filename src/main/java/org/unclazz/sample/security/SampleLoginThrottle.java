@@ -0,0 +1,150 @@
+package org.unclazz.sample.security;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.unclazz.sample.metrics.SampleMetrics;
+
+/**
+ * ログインの失敗回数をユーザ名ごと・クライアントのアドレスごとに数え、
+ * 上限を超えたログインの試行を拒否するかどうかを判定するコンポーネント.
+ * <p>回数は{@link SampleSlidingWindowCounter}で直近{@code windowSeconds}秒について数える。
+ * 判定は{@link SampleLoginThrottleFilter}がパスワードの照合より前に行うため、
+ * 総当たり攻撃やパスワード・リスト攻撃の最中でもハッシュ計算のためにCPUが消費されることはない。</p>
+ * <p>ログインに成功しても失敗回数は減らないため、上限は正規のユーザの入力ミスでは
+ * 達しない程度に設定する。</p>
+ * <p>スケッチの列数は、時間窓内に想定される失敗回数{@code expectedFailures}のもとで見積もりの誤差が
+ * それぞれの上限の半分以下となるように決める。分散したパスワード・リスト攻撃などで失敗が想定を超え、
+ * ユーザ名ごとの見積もりの誤差の上限（{@link SampleSlidingWindowCounter#errorBound(long)}）が
+ * 上限の半分に達した場合は、正規のユーザを巻き込んで拒否しないよう、ユーザ名ごとの制限を停止し
+ * アドレスごとの制限だけを行う。停止している間は{@code login.throttle.usernameSaturated}が1になる。</p>
+ */
+@Component
+public class SampleLoginThrottle {
+	/**
+	 * ログイン・フォームのユーザ名のパラメータ名（{@code formLogin()}の既定値）.
+	 */
+	public static final String USERNAME_PARAMETER = "username";
+
+	/**
+	 * ログインの試行を制限するかどうか.
+	 */
+	@Value("${sample.login.throttle.enabled:true}")
+	private boolean enabled;
+
+	/**
+	 * ユーザ名ごとの失敗回数の上限.
+	 */
+	@Value("${sample.login.throttle.perUsername:10}")
+	private int maxFailuresPerUsername;
+
+	/**
+	 * クライアントのアドレスごとの失敗回数の上限.
+	 */
+	@Value("${sample.login.throttle.perAddress:100}")
+	private int maxFailuresPerAddress;
+
+	/**
+	 * 失敗回数を数える時間窓の長さ（秒）.
+	 */
+	@Value("${sample.login.throttle.windowSeconds:300}")
+	private int windowSeconds;
+
+	/**
+	 * 時間窓内に想定される失敗回数（すべてのユーザ名・アドレスの合計）.
+	 */
+	@Value("${sample.login.throttle.expectedFailures:50000}")
+	private int expectedFailures;
+
+	/**
+	 * 計測値のレジストリ.
+	 */
+	@Autowired
+	private SampleMetrics metrics;
+
+	private SampleSlidingWindowCounter failuresByUsername;
+	private SampleSlidingWindowCounter failuresByAddress;
+	private AtomicLong admitted;
+	private AtomicLong rejected;
+	private AtomicLong failures;
+
+	/**
+	 * カウンタを初期化する.
+	 */
+	@PostConstruct
+	public void initialize() {
+		failuresByUsername = new SampleSlidingWindowCounter(windowSeconds * 1000L, 6,
+				SampleSlidingWindowCounter.widthFor(expectedFailures, Math.max(1, maxFailuresPerUsername / 2)));
+		failuresByAddress = new SampleSlidingWindowCounter(windowSeconds * 1000L, 6,
+				SampleSlidingWindowCounter.widthFor(expectedFailures, Math.max(1, maxFailuresPerAddress / 2)));
+		admitted = metrics.counter("login.throttle.admitted");
+		rejected = metrics.counter("login.throttle.rejected");
+		failures = metrics.counter("login.failures");
+		metrics.gauge("login.throttle.usernameSaturated", new SampleMetrics.Gauge() {
+			@Override
+			public long value() {
+				return isUsernameSaturated(System.currentTimeMillis()) ? 1 : 0;
+			}
+		});
+	}
+
+	/**
+	 * ログインの試行を受け付けるかどうかを判定する.
+	 * @param username ユーザ名（不明な場合は{@code null}）
+	 * @param address クライアントのアドレス
+	 * @return 受け付ける場合は{@code true}
+	 */
+	public boolean tryAcquire(final String username, final String address) {
+		if (!enabled) {
+			return true;
+		}
+		final long now = System.currentTimeMillis();
+		if (failuresByAddress.estimate(address, now) >= maxFailuresPerAddress
+				|| (username != null && !isUsernameSaturated(now)
+						&& failuresByUsername.estimate(username, now) >= maxFailuresPerUsername)) {
+			rejected.incrementAndGet();
+			return false;
+		}
+		admitted.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * ログインの失敗を記録する.
+	 * @param username ユーザ名（不明な場合は{@code null}）
+	 * @param address クライアントのアドレス
+	 */
+	public void recordFailure(final String username, final String address) {
+		failures.incrementAndGet();
+		if (!enabled) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		failuresByAddress.increment(address, now);
+		if (username != null) {
+			failuresByUsername.increment(username, now);
+		}
+	}
+
+	/**
+	 * ユーザ名ごとの見積もりの誤差が大きくなりすぎ、ユーザ名ごとの制限を停止すべきかどうかを判定する.
+	 * @param nowMillis 現在時刻
+	 * @return 停止すべき場合は{@code true}
+	 */
+	private boolean isUsernameSaturated(final long nowMillis) {
+		return failuresByUsername.errorBound(nowMillis) * 2 > maxFailuresPerUsername;
+	}
+
+	/**
+	 * 拒否したクライアントに再試行までの待ち時間として返す秒数.
+	 * @return 秒数
+	 */
+	public int getRetryAfterSeconds() {
+		// 区間1つ分が経過すれば最も古い失敗が時間窓から外れる
+		return Math.max(1, windowSeconds / 6);
+	}
+}
@@ -0,0 +1,62 @@
+package org.unclazz.sample.security;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * 失敗回数が上限を超えたユーザ名やクライアントからのログインの試行を拒否するフィルタ.
+ * <p>{@link UsernamePasswordAuthenticationFilter}（および{@link SampleAsyncLoginFilter}）より前に配置し、
+ * 拒否した試行には{@code 429 Too Many Requests}を返す。拒否された試行は
+ * {@link org.springframework.security.core.userdetails.UserDetailsService}やパスワードの照合に到達しない。</p>
+ */
+public class SampleLoginThrottleFilter extends OncePerRequestFilter {
+	/**
+	 * {@code 429 Too Many Requests}（Servlet 3.0の{@link HttpServletResponse}には定数がない）.
+	 */
+	private static final int SC_TOO_MANY_REQUESTS = 429;
+
+	/**
+	 * ログインの試行を制限するコンポーネント.
+	 */
+	private final SampleLoginThrottle throttle;
+
+	/**
+	 * ログイン処理のリクエストを判定するマッチャー.
+	 */
+	private final RequestMatcher loginRequestMatcher;
+
+	/**
+	 * コンストラクタ.
+	 * @param throttle ログインの試行を制限するコンポーネント
+	 * @param loginRequestMatcher ログイン処理のリクエストを判定するマッチャー
+	 */
+	public SampleLoginThrottleFilter(final SampleLoginThrottle throttle, final RequestMatcher loginRequestMatcher) {
+		this.throttle = throttle;
+		this.loginRequestMatcher = loginRequestMatcher;
+	}
+
+	@Override
+	protected boolean shouldNotFilter(final HttpServletRequest request) throws ServletException {
+		return !loginRequestMatcher.matches(request);
+	}
+
+	@Override
+	protected void doFilterInternal(final HttpServletRequest request, final HttpServletResponse response,
+			final FilterChain chain) throws ServletException, IOException {
+		final String username = request.getParameter(SampleLoginThrottle.USERNAME_PARAMETER);
+		if (!throttle.tryAcquire(username, request.getRemoteAddr())) {
+			response.setHeader("Retry-After", Integer.toString(throttle.getRetryAfterSeconds()));
+			response.sendError(SC_TOO_MANY_REQUESTS);
+			return;
+		}
+		chain.doFilter(request, response);
+	}
+}
@@ -0,0 +1,187 @@
+package org.unclazz.sample.security;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.crypto.password.StandardPasswordEncoder;
+import org.unclazz.sample.metrics.LatencyHistogram;
+import org.unclazz.sample.metrics.SampleMetrics;
+
+/**
+ * アルゴリズムを切り替え可能なパスワード・エンコーダ.
+ * <p>エンコード済みパスワードの先頭には{@code "{bcrypt}"}のようにアルゴリズムの識別子が付与される。
+ * 照合の際はこの識別子を見て実際の処理を行うエンコーダを選択するため、
+ * 設定でアルゴリズムや強度を変更しても既存のエンコード済みパスワードはそのまま照合できる。
+ * 識別子のないエンコード済みパスワードは従来どおり{@link StandardPasswordEncoder}によるものとみなす。</p>
+ * <p>{@link #upgradeEncoding(String)}はエンコード済みパスワードが現在の設定と異なる
+ * アルゴリズムや強度で作られたものかどうかを判定する。
+ * {@link SampleAuthenticationProvider}はログイン成功時にこれを利用してパスワードを再エンコードする。</p>
+ * <p>エンコードと照合の処理時間はアルゴリズムごとに{@link SampleMetrics}のヒストグラムに記録される。</p>
+ */
+public class SamplePasswordEncoder implements PasswordEncoder {
+	/**
+	 * {@link StandardPasswordEncoder}（SHA-256）の識別子.
+	 */
+	public static final String ID_SHA256 = "sha256";
+
+	/**
+	 * {@link BCryptPasswordEncoder}の識別子.
+	 */
+	public static final String ID_BCRYPT = "bcrypt";
+
+	/**
+	 * どの平文とも一致しないエンコード済みパスワード.
+	 * <p>識別子に対応するエンコーダがないため{@link #matches(CharSequence, String)}は常に{@code false}を返す。
+	 * ログインさせないアカウントのパスワードとして使用する。</p>
+	 */
+	public static final String DISABLED = "{disabled}";
+
+	/**
+	 * 識別子の開始を示す文字.
+	 */
+	private static final char PREFIX = '{';
+
+	/**
+	 * 識別子の終了を示す文字.
+	 */
+	private static final char SUFFIX = '}';
+
+	/**
+	 * 識別子をキーにしたエンコーダのマップ.
+	 */
+	private final Map<String, PasswordEncoder> encoders = new HashMap<String, PasswordEncoder>();
+
+	/**
+	 * 識別子をキーにしたエンコード処理時間のヒストグラムのマップ.
+	 */
+	private final Map<String, LatencyHistogram> encodeLatencies = new HashMap<String, LatencyHistogram>();
+
+	/**
+	 * 識別子をキーにした照合処理時間のヒストグラムのマップ.
+	 */
+	private final Map<String, LatencyHistogram> matchesLatencies = new HashMap<String, LatencyHistogram>();
+
+	/**
+	 * 新たにエンコードする際に使用するアルゴリズムの識別子.
+	 */
+	private final String algorithm;
+
+	/**
+	 * BCryptの強度（log2ラウンド数）.
+	 */
+	private final int bcryptStrength;
+
+	/**
+	 * コンストラクタ.
+	 * @param algorithm 新たにエンコードする際に使用するアルゴリズムの識別子
+	 * @param bcryptStrength BCryptの強度（4〜31）
+	 * @param metrics 処理時間を記録するレジストリ
+	 */
+	public SamplePasswordEncoder(final String algorithm, final int bcryptStrength, final SampleMetrics metrics) {
+		this.encoders.put(ID_SHA256, new StandardPasswordEncoder());
+		this.encoders.put(ID_BCRYPT, new BCryptPasswordEncoder(bcryptStrength));
+		if (!encoders.containsKey(algorithm)) {
+			throw new IllegalArgumentException(String.format("Unknown password algorithm \"%s\"", algorithm));
+		}
+		for (final String id : encoders.keySet()) {
+			encodeLatencies.put(id, metrics.histogram("password." + id + ".encode"));
+			matchesLatencies.put(id, metrics.histogram("password." + id + ".matches"));
+		}
+		this.algorithm = algorithm;
+		this.bcryptStrength = bcryptStrength;
+	}
+
+	/**
+	 * 現在の設定のアルゴリズムでパスワードをエンコードし、識別子を付与して返す.
+	 */
+	@Override
+	public String encode(final CharSequence rawPassword) {
+		final long start = System.nanoTime();
+		try {
+			return PREFIX + algorithm + SUFFIX + encoders.get(algorithm).encode(rawPassword);
+		} finally {
+			encodeLatencies.get(algorithm).recordSince(start);
+		}
+	}
+
+	/**
+	 * エンコード済みパスワードの識別子に対応するアルゴリズムで照合を行う.
+	 * 未知の識別子の場合は{@code false}を返す。
+	 */
+	@Override
+	public boolean matches(final CharSequence rawPassword, final String encodedPassword) {
+		if (encodedPassword == null) {
+			return false;
+		}
+		final String id = idOf(encodedPassword);
+		final PasswordEncoder encoder = encoders.get(id);
+		if (encoder == null) {
+			return false;
+		}
+		final long start = System.nanoTime();
+		try {
+			return encoder.matches(rawPassword, stripId(encodedPassword));
+		} finally {
+			matchesLatencies.get(id).recordSince(start);
+		}
+	}
+
+	/**
+	 * エンコード済みパスワードを現在の設定で再エンコードすべきかどうかを判定する.
+	 * @param encodedPassword エンコード済みパスワード
+	 * @return 再エンコードすべき場合は{@code true}
+	 */
+	public boolean upgradeEncoding(final String encodedPassword) {
+		if (encodedPassword == null) {
+			return false;
+		}
+		final String id = idOf(encodedPassword);
+		if (!algorithm.equals(id)) {
+			return true;
+		}
+		if (ID_BCRYPT.equals(id)) {
+			// BCryptのハッシュは"$2a$10$..."の形式で強度を含んでいる
+			final String hash = stripId(encodedPassword);
+			if (hash.length() < 7 || hash.charAt(3) != '$' || hash.charAt(6) != '$') {
+				return true;
+			}
+			try {
+				return Integer.parseInt(hash.substring(4, 6)) != bcryptStrength;
+			} catch (final NumberFormatException e) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * エンコード済みパスワードからアルゴリズムの識別子を取り出す.
+	 * @param encodedPassword エンコード済みパスワード
+	 * @return 識別子
+	 */
+	private static String idOf(final String encodedPassword) {
+		if (encodedPassword.isEmpty() || encodedPassword.charAt(0) != PREFIX) {
+			return ID_SHA256;
+		}
+		final int end = encodedPassword.indexOf(SUFFIX);
+		return end < 0 ? "" : encodedPassword.substring(1, end);
+	}
+
+	/**
+	 * エンコード済みパスワードから識別子を取り除く.
+	 * @param encodedPassword エンコード済みパスワード
+	 * @return 識別子を除いたエンコード済みパスワード
+	 */
+	private static String stripId(final String encodedPassword) {
+		if (encodedPassword.isEmpty() || encodedPassword.charAt(0) != PREFIX) {
+			return encodedPassword;
+		}
+		return encodedPassword.substring(encodedPassword.indexOf(SUFFIX) + 1);
+	}
+}
@@ -0,0 +1,75 @@
+package org.unclazz.sample.security;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextImpl;
+
+/**
+ * 直列化の形式を{@link SampleSecurityContextCodec}で置き換えたセキュリティ・コンテキスト.
+ * <p>振る舞いは{@link SecurityContextImpl}と同じ。HTTPセッションの属性として保存されるので、
+ * コンテナがセッションを永続化・複製する際には{@link Externalizable}によってコンパクトな形式で書き出される。
+ * {@link SampleSecurityContextHolderStrategy}を使用すると、新しいコンテキストはこのクラスで生成される。</p>
+ */
+public final class SampleSecurityContext implements SecurityContext, Externalizable {
+	private static final long serialVersionUID = -3185423405390617346L;
+
+	private Authentication authentication;
+
+	/**
+	 * 空のコンテキストを生成するコンストラクタ. 直列化からの復元にも使用される。
+	 */
+	public SampleSecurityContext() {}
+
+	/**
+	 * コンストラクタ.
+	 * @param authentication 認証情報
+	 */
+	public SampleSecurityContext(final Authentication authentication) {
+		this.authentication = authentication;
+	}
+
+	@Override
+	public Authentication getAuthentication() {
+		return authentication;
+	}
+
+	@Override
+	public void setAuthentication(final Authentication authentication) {
+		this.authentication = authentication;
+	}
+
+	@Override
+	public void writeExternal(final ObjectOutput out) throws IOException {
+		SampleSecurityContextCodec.write(authentication, out);
+	}
+
+	@Override
+	public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
+		authentication = SampleSecurityContextCodec.read(in);
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (!(obj instanceof SecurityContext)) {
+			return false;
+		}
+		final Authentication other = ((SecurityContext) obj).getAuthentication();
+		return authentication == null ? other == null : authentication.equals(other);
+	}
+
+	@Override
+	public int hashCode() {
+		return authentication == null ? -1 : authentication.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return authentication == null ? "SampleSecurityContext: Null authentication"
+				: "SampleSecurityContext: Authentication: " + authentication;
+	}
+}
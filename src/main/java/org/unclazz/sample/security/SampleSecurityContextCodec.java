@@ -0,0 +1,223 @@
+package org.unclazz.sample.security;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+
+import org.springframework.security.authentication.RememberMeAuthenticationToken;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.unclazz.sample.SampleAuthoritySet;
+import org.unclazz.sample.SampleGrantedAuthority;
+import org.unclazz.sample.SampleUserDetails;
+
+/**
+ * セッションに保存する認証情報のコンパクトな直列化形式.
+ * <p>{@link SampleUserDetails}をプリンシパルとする認証済みの{@link UsernamePasswordAuthenticationToken}と
+ * {@link RememberMeAuthenticationToken}は、ユーザID・ユーザ名・権限のビットマスクだけを書き出す。
+ * 既定の直列化と異なり、クラスの記述子やエンコード済みパスワード、権限のリストは含まない。
+ * 読み込んだ認証情報のプリンシパルは{@link SampleUserDetails#withoutCredentials(int, String, boolean)}で生成し、
+ * リクエストの詳細（{@link Authentication#getDetails()}）は復元しない。</p>
+ * <p>それ以外の認証情報は既定の直列化にそのまま委ねる。</p>
+ * <p>形式は先頭の1バイトの上位4ビットが版、下位4ビットが種類で、続けて種類ごとの内容を書き出す:</p>
+ * <pre>
+ * 空         : なし
+ * パスワード  : ユーザID(可変長) ユーザ名(修正UTF-8) 権限のビットマスク(可変長)
+ * 永続ログイン: 同上
+ * 既定の直列化: 認証情報のオブジェクト
+ * </pre>
+ */
+public final class SampleSecurityContextCodec {
+	private static final int VERSION = 1;
+
+	private static final int KIND_EMPTY = 0;
+	private static final int KIND_PASSWORD = 1;
+	private static final int KIND_REMEMBER_ME = 2;
+	private static final int KIND_SERIALIZED = 3;
+
+	/**
+	 * 復元した{@link RememberMeAuthenticationToken}に与えるキー.
+	 * <p>キーは永続ログインのクッキーを認証する時点でのみ照合されるため、認証済みのトークンでは意味を持たない。</p>
+	 */
+	private static final String REMEMBER_ME_KEY = SampleSecurityContextCodec.class.getName();
+
+	/**
+	 * インスタンス化させない.
+	 */
+	private SampleSecurityContextCodec() {}
+
+	/**
+	 * 認証情報をバイト列に変換する.
+	 * <p>コンパクトな形式で書き出せる場合はストリームのヘッダも含まない。
+	 * 外部のセッション・ストアに格納する場合などに使用する。</p>
+	 * @param authentication 認証情報（未認証の場合は{@code null}）
+	 * @return バイト列
+	 * @throws IOException 既定の直列化に失敗した場合
+	 */
+	public static byte[] encode(final Authentication authentication) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+		final int kind = kindOf(authentication);
+		if (kind == KIND_SERIALIZED) {
+			bytes.write(VERSION << 4 | kind);
+			final ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(authentication);
+			out.close();
+		} else {
+			writeCompact(kind, authentication, new DataOutputStream(bytes));
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * {@link #encode(Authentication)}で変換したバイト列から認証情報を復元する.
+	 * @param bytes バイト列
+	 * @return 認証情報（未認証の場合は{@code null}）
+	 * @throws IOException 形式が正しくない場合
+	 * @throws ClassNotFoundException 既定の直列化で書き出されたクラスが見つからない場合
+	 */
+	public static Authentication decode(final byte[] bytes) throws IOException, ClassNotFoundException {
+		final ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+		final int kind = readHeader(in.read());
+		if (kind == KIND_SERIALIZED) {
+			final ObjectInputStream objects = new ObjectInputStream(in);
+			try {
+				return (Authentication) objects.readObject();
+			} finally {
+				objects.close();
+			}
+		}
+		return readCompact(kind, new DataInputStream(in));
+	}
+
+	/**
+	 * 認証情報をオブジェクト・ストリームに書き出す.
+	 * <p>{@link SampleSecurityContext#writeExternal(ObjectOutput)}から呼び出す。</p>
+	 * @param authentication 認証情報（未認証の場合は{@code null}）
+	 * @param out 出力先
+	 * @throws IOException 書き出しに失敗した場合
+	 */
+	public static void write(final Authentication authentication, final ObjectOutput out) throws IOException {
+		final int kind = kindOf(authentication);
+		if (kind == KIND_SERIALIZED) {
+			out.writeByte(VERSION << 4 | kind);
+			out.writeObject(authentication);
+		} else {
+			writeCompact(kind, authentication, out);
+		}
+	}
+
+	/**
+	 * {@link #write(Authentication, ObjectOutput)}で書き出した認証情報を読み込む.
+	 * @param in 入力元
+	 * @return 認証情報（未認証の場合は{@code null}）
+	 * @throws IOException 形式が正しくない場合
+	 * @throws ClassNotFoundException 既定の直列化で書き出されたクラスが見つからない場合
+	 */
+	public static Authentication read(final ObjectInput in) throws IOException, ClassNotFoundException {
+		final int kind = readHeader(in.readUnsignedByte());
+		if (kind == KIND_SERIALIZED) {
+			return (Authentication) in.readObject();
+		}
+		return readCompact(kind, in);
+	}
+
+	/**
+	 * 認証情報の書き出し方を判定する.
+	 * @param authentication 認証情報
+	 * @return 種類
+	 */
+	private static int kindOf(final Authentication authentication) {
+		if (authentication == null) {
+			return KIND_EMPTY;
+		}
+		if (!authentication.isAuthenticated() || !(authentication.getPrincipal() instanceof SampleUserDetails)) {
+			return KIND_SERIALIZED;
+		}
+		// 未知の権限はビットマスクで表せないので既定の直列化に委ねる
+		if (SampleAuthoritySet.of(authentication.getAuthorities()).size() != authentication.getAuthorities().size()) {
+			return KIND_SERIALIZED;
+		}
+		if (authentication.getClass() == UsernamePasswordAuthenticationToken.class) {
+			return KIND_PASSWORD;
+		} else if (authentication.getClass() == RememberMeAuthenticationToken.class) {
+			return KIND_REMEMBER_ME;
+		}
+		return KIND_SERIALIZED;
+	}
+
+	private static void writeCompact(final int kind, final Authentication authentication,
+			final DataOutput out) throws IOException {
+		out.writeByte(VERSION << 4 | kind);
+		if (kind == KIND_EMPTY) {
+			return;
+		}
+		final SampleUserDetails user = (SampleUserDetails) authentication.getPrincipal();
+		writeVarLong(user.getId() & 0xffffffffL, out);
+		out.writeUTF(user.getUsername());
+		writeVarLong(SampleAuthoritySet.of(authentication.getAuthorities()).getMask(), out);
+	}
+
+	private static Authentication readCompact(final int kind, final DataInput in) throws IOException {
+		if (kind == KIND_EMPTY) {
+			return null;
+		}
+		final int id = (int) readVarLong(in);
+		final String username = in.readUTF();
+		final SampleAuthoritySet authorities;
+		try {
+			authorities = SampleAuthoritySet.of(readVarLong(in));
+		} catch (final IllegalArgumentException e) {
+			throw new InvalidObjectException(e.getMessage());
+		}
+		final SampleUserDetails user = SampleUserDetails.withoutCredentials(id, username,
+				authorities.contains(SampleGrantedAuthority.ADMINISTRATOR));
+		if (kind == KIND_PASSWORD) {
+			return new UsernamePasswordAuthenticationToken(user, null, authorities);
+		} else if (kind == KIND_REMEMBER_ME) {
+			return new RememberMeAuthenticationToken(REMEMBER_ME_KEY, user, authorities);
+		}
+		throw new InvalidObjectException(String.format("Unknown security context kind %d", kind));
+	}
+
+	private static int readHeader(final int header) throws IOException {
+		if (header < 0) {
+			throw new InvalidObjectException("Empty security context");
+		}
+		if (header >>> 4 != VERSION) {
+			throw new InvalidObjectException(String.format("Unsupported security context version %d", header >>> 4));
+		}
+		return header & 0xf;
+	}
+
+	/**
+	 * 負でない値を下位から7ビットずつ書き出す.
+	 */
+	private static void writeVarLong(long value, final DataOutput out) throws IOException {
+		while ((value & ~0x7fL) != 0) {
+			out.writeByte((int) (value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long readVarLong(final DataInput in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			final int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new InvalidObjectException("Malformed variable-length value");
+	}
+}
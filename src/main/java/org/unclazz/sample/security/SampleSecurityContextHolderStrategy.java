@@ -0,0 +1,43 @@
+package org.unclazz.sample.security;
+
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.context.SecurityContextHolderStrategy;
+
+/**
+ * 新しいコンテキストを{@link SampleSecurityContext}で生成する{@link SecurityContextHolderStrategy}.
+ * <p>コンテキストはSpring Securityの既定と同じくスレッドごとに保持する。
+ * {@link SecurityContextHolder#setStrategyName(String)}にこのクラスの名前を渡して使用する。
+ * アプリケーションでは起動時に{@link SampleSecurityContextStrategyInitializer}が設定する。</p>
+ */
+public class SampleSecurityContextHolderStrategy implements SecurityContextHolderStrategy {
+	private static final ThreadLocal<SecurityContext> contextHolder = new ThreadLocal<SecurityContext>();
+
+	@Override
+	public void clearContext() {
+		contextHolder.remove();
+	}
+
+	@Override
+	public SecurityContext getContext() {
+		SecurityContext context = contextHolder.get();
+		if (context == null) {
+			context = createEmptyContext();
+			contextHolder.set(context);
+		}
+		return context;
+	}
+
+	@Override
+	public void setContext(final SecurityContext context) {
+		if (context == null) {
+			throw new IllegalArgumentException("Only non-null SecurityContext instances are permitted");
+		}
+		contextHolder.set(context);
+	}
+
+	@Override
+	public SecurityContext createEmptyContext() {
+		return new SampleSecurityContext();
+	}
+}
@@ -0,0 +1,55 @@
+package org.unclazz.sample.security;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.boot.context.event.ApplicationEnvironmentPreparedEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.env.Environment;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * 起動時に一度だけ{@link SecurityContextHolder}の戦略を設定するリスナー.
+ * <p>戦略はJVM全体で共有されるため、構成クラスの中ではなくアプリケーションの環境が準備された時点で
+ * {@code sample.session.contextCodec}に従って設定する。{@code compact}（既定）は
+ * {@link SampleSecurityContextHolderStrategy}を、{@code java}はSpring Securityの既定の戦略を使用する。
+ * 認証状態をトークンで保持する場合（{@code sample.auth.mode=token}）はセッションにコンテキストを保存しないので設定しない。</p>
+ * <p>システム・プロパティ{@code spring.security.strategy}が指定されている場合はそちらを優先し、何もしない。</p>
+ */
+public class SampleSecurityContextStrategyInitializer implements ApplicationListener<ApplicationEnvironmentPreparedEvent> {
+	private static final String STRATEGY_PROPERTY = "spring.security.strategy";
+
+	private final Log logger = LogFactory.getLog(getClass());
+
+	@Override
+	public void onApplicationEvent(final ApplicationEnvironmentPreparedEvent event) {
+		final String strategyName = strategyNameFor(event.getEnvironment());
+		if (strategyName == null) {
+			return;
+		}
+		if (System.getProperty(STRATEGY_PROPERTY) != null) {
+			logger.info(String.format("Security context strategy is given by -D%s; ignoring sample.session.contextCodec",
+					STRATEGY_PROPERTY));
+			return;
+		}
+		SecurityContextHolder.setStrategyName(strategyName);
+	}
+
+	/**
+	 * 環境のプロパティから使用する戦略の名前を決定する.
+	 * @param environment 環境
+	 * @return 戦略の名前、設定の必要がない場合は{@code null}
+	 */
+	static String strategyNameFor(final Environment environment) {
+		if (!"session".equals(environment.getProperty("sample.auth.mode", "session"))) {
+			return null;
+		}
+		final String codec = environment.getProperty("sample.session.contextCodec", "compact");
+		if ("compact".equals(codec)) {
+			return SampleSecurityContextHolderStrategy.class.getName();
+		} else if ("java".equals(codec)) {
+			return SecurityContextHolder.MODE_THREADLOCAL;
+		} else {
+			throw new IllegalArgumentException(String.format("Unknown session context codec \"%s\"", codec));
+		}
+	}
+}
@@ -0,0 +1,465 @@
+package org.unclazz.sample.security;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpSession;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.security.core.session.SessionDestroyedEvent;
+import org.springframework.security.core.session.SessionInformation;
+import org.springframework.security.core.session.SessionRegistry;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.web.session.HttpSessionCreatedEvent;
+import org.springframework.stereotype.Component;
+import org.unclazz.sample.SampleUserDetails;
+import org.unclazz.sample.metrics.SampleMetrics;
+
+/**
+ * HTTPセッションとログイン済みのユーザの対応を管理し、セッション数を制限するレジストリ.
+ * <p>{@code sessionManagement().maximumSessions(...)}に設定すると、ユーザごとのセッション数の上限を
+ * 超えたログインではそのユーザの最も古いセッションが無効になる（この判定はSpring Securityが行う）。
+ * ユーザは{@link SampleUserDetails}のユーザ名で識別する。</p>
+ * <p>{@link org.springframework.security.web.session.HttpSessionEventPublisher}が発行するイベントにより、
+ * ログイン前のものを含むすべてのHTTPセッションを追跡し、次の2つの方法でメモリの使用量を抑える。</p>
+ * <ul>
+ * <li>{@code sample.session.idleSeconds}秒アクセスのないセッションを無効にする。
+ * 期限は{@link SampleTimerWheel}で管理するので、全セッションを定期的に走査することはない。
+ * リクエストのたびに期限を登録し直すことも避け、期限を迎えた時点で最終アクセス時刻を確認して
+ * まだ期限に達していなければ登録し直す。</li>
+ * <li>セッションの総数が{@code sample.session.maxSessions}を超えた場合は、
+ * 期限が最も近い（つまり最もアクセスの古い）セッションから無効にする。</li>
+ * </ul>
+ */
+@Component
+public class SampleSessionRegistry implements SessionRegistry, ApplicationListener<ApplicationEvent> {
+	private static final Log logger = LogFactory.getLog(SampleSessionRegistry.class);
+
+	/**
+	 * 期限切れの判定の刻み（ミリ秒）.
+	 */
+	private static final long TICK_MILLIS = 1000L;
+
+	/**
+	 * 無効にする際に最終アクセス時刻を確認し直すセッションの最大数.
+	 * <p>これを超えた場合は最終アクセス時刻にかかわらず無効にする。</p>
+	 */
+	private static final int MAX_EVICTION_PROBES = 16;
+
+	/**
+	 * セッションの情報.
+	 */
+	private static final class Entry {
+		private final String sessionId;
+		private final HttpSession session;
+		private volatile SessionInformation information;
+		private SampleTimerWheel.Timer<Entry> timer;
+
+		private Entry(final String sessionId, final HttpSession session) {
+			this.sessionId = sessionId;
+			this.session = session;
+		}
+
+		/**
+		 * 最終アクセス時刻を返す.
+		 * @return 最終アクセス時刻（ミリ秒）
+		 */
+		private long lastAccessedTime() {
+			long last = 0;
+			final SessionInformation info = information;
+			if (info != null) {
+				last = info.getLastRequest().getTime();
+			}
+			if (session != null) {
+				try {
+					last = Math.max(last, session.getLastAccessedTime());
+				} catch (final IllegalStateException e) {
+					// すでに無効になっている
+				}
+			}
+			return last;
+		}
+	}
+
+	/**
+	 * ユーザごとのセッションIDの集合とプリンシパル.
+	 * <p>最後のセッションが外されると破棄済みとなり、以降は追加できない。
+	 * 破棄済みの集合はマップから取り除かれ、次のログインでは新しい集合が作られる。
+	 * 追加と破棄はこのオブジェクトをロックとして行うので、マップから取り除かれる集合に
+	 * セッションが追加されて失われることはない。</p>
+	 */
+	private static final class UserSessions {
+		private final Set<String> sessionIds = new CopyOnWriteArraySet<String>();
+		private volatile Object principal;
+		private boolean retired;
+
+		/**
+		 * セッションを追加する.
+		 * @param sessionId セッションID
+		 * @param principal プリンシパル
+		 * @return 破棄済みのため追加できなかった場合は{@code false}
+		 */
+		private synchronized boolean add(final String sessionId, final Object principal) {
+			if (retired) {
+				return false;
+			}
+			sessionIds.add(sessionId);
+			this.principal = principal;
+			return true;
+		}
+
+		/**
+		 * セッションを外し、最後のセッションであれば破棄済みにする.
+		 * @param sessionId セッションID
+		 * @return 破棄済みにした場合は{@code true}
+		 */
+		private synchronized boolean remove(final String sessionId) {
+			sessionIds.remove(sessionId);
+			if (sessionIds.isEmpty()) {
+				retired = true;
+			}
+			return retired;
+		}
+	}
+
+	/**
+	 * アクセスのないセッションを無効にするまでの時間（秒）.
+	 */
+	@Value("${sample.session.idleSeconds:1800}")
+	private int idleSeconds;
+
+	/**
+	 * セッションの総数の上限.
+	 */
+	@Value("${sample.session.maxSessions:100000}")
+	private int maxSessions;
+
+	/**
+	 * 計測値のレジストリ.
+	 */
+	@Autowired
+	private SampleMetrics metrics;
+
+	/**
+	 * セッションIDをキーとするセッションの情報のマップ.
+	 */
+	private final ConcurrentMap<String, Entry> sessions = new ConcurrentHashMap<String, Entry>();
+
+	/**
+	 * ユーザ名をキーとするセッションIDの集合とプリンシパルのマップ.
+	 */
+	private final ConcurrentMap<String, UserSessions> sessionsByUser = new ConcurrentHashMap<String, UserSessions>();
+
+	/**
+	 * 期限の管理.
+	 * <p>このオブジェクト自体をロックとして使用する。</p>
+	 */
+	private final SampleTimerWheel<Entry> wheel = new SampleTimerWheel<Entry>(TICK_MILLIS, System.currentTimeMillis());
+
+	/**
+	 * 期限切れの判定を定期的に行うスレッド.
+	 */
+	private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread t = new Thread(r, "sample-session-ticker");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private AtomicLong created;
+	private AtomicLong expired;
+	private AtomicLong evicted;
+
+	/**
+	 * カウンタを初期化し、期限切れの判定を開始する.
+	 */
+	@PostConstruct
+	public void initialize() {
+		created = metrics.counter("sessions.created");
+		expired = metrics.counter("sessions.expired");
+		evicted = metrics.counter("sessions.evicted");
+		metrics.gauge("sessions.active", new SampleMetrics.Gauge() {
+			@Override
+			public long value() {
+				return sessions.size();
+			}
+		});
+		metrics.gauge("sessions.users", new SampleMetrics.Gauge() {
+			@Override
+			public long value() {
+				return sessionsByUser.size();
+			}
+		});
+		ticker.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					expireIdleSessions(System.currentTimeMillis());
+				} catch (final RuntimeException e) {
+					logger.error("Failed to expire idle sessions", e);
+				}
+			}
+		}, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 期限切れの判定を停止する.
+	 */
+	@PreDestroy
+	public void shutdown() {
+		ticker.shutdownNow();
+	}
+
+	@Override
+	public void onApplicationEvent(final ApplicationEvent event) {
+		if (event instanceof HttpSessionCreatedEvent) {
+			final HttpSession session = ((HttpSessionCreatedEvent) event).getSession();
+			track(session.getId(), session);
+		} else if (event instanceof SessionDestroyedEvent) {
+			remove(((SessionDestroyedEvent) event).getId());
+		}
+	}
+
+	@Override
+	public List<Object> getAllPrincipals() {
+		final List<Object> result = new ArrayList<Object>(sessionsByUser.size());
+		for (final UserSessions userSessions : sessionsByUser.values()) {
+			final Object principal = userSessions.principal;
+			if (principal != null) {
+				result.add(principal);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public List<SessionInformation> getAllSessions(final Object principal, final boolean includeExpiredSessions) {
+		final UserSessions userSessions = sessionsByUser.get(keyOf(principal));
+		final List<SessionInformation> result = new ArrayList<SessionInformation>();
+		if (userSessions == null) {
+			return result;
+		}
+		for (final String sessionId : userSessions.sessionIds) {
+			final SessionInformation info = getSessionInformation(sessionId);
+			if (info != null && (includeExpiredSessions || !info.isExpired())) {
+				result.add(info);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public SessionInformation getSessionInformation(final String sessionId) {
+		final Entry entry = sessions.get(sessionId);
+		return entry == null ? null : entry.information;
+	}
+
+	/**
+	 * セッションの最終アクセス時刻を更新する.
+	 * <p>リクエストのたびに呼び出されるため、期限の登録し直しは行わない。</p>
+	 */
+	@Override
+	public void refreshLastRequest(final String sessionId) {
+		final SessionInformation info = getSessionInformation(sessionId);
+		if (info != null) {
+			info.refreshLastRequest();
+		}
+	}
+
+	@Override
+	public void registerNewSession(final String sessionId, final Object principal) {
+		final String key = keyOf(principal);
+		final Entry entry = track(sessionId, null);
+		entry.information = new SessionInformation(principal, sessionId, new Date());
+		for (;;) {
+			UserSessions userSessions = sessionsByUser.get(key);
+			if (userSessions == null) {
+				final UserSessions created = new UserSessions();
+				userSessions = sessionsByUser.putIfAbsent(key, created);
+				if (userSessions == null) {
+					userSessions = created;
+				}
+			}
+			if (userSessions.add(sessionId, principal)) {
+				return;
+			}
+			// 最後のセッションが外されて破棄済みになった集合. まだマップに残っていれば取り除いて作り直す
+			sessionsByUser.remove(key, userSessions);
+		}
+	}
+
+	@Override
+	public void removeSessionInformation(final String sessionId) {
+		remove(sessionId);
+	}
+
+	/**
+	 * ユーザのすべてのセッションを期限切れにする.
+	 * <p>期限切れになったセッションでの次のリクエストは
+	 * {@link org.springframework.security.web.session.ConcurrentSessionFilter}によりログイン画面に誘導される。</p>
+	 * @param username ユーザ名
+	 * @return 期限切れにしたセッションの数
+	 */
+	public int expireSessions(final String username) {
+		final UserSessions userSessions = sessionsByUser.get(username);
+		if (userSessions == null) {
+			return 0;
+		}
+		int count = 0;
+		for (final String sessionId : userSessions.sessionIds) {
+			final SessionInformation info = getSessionInformation(sessionId);
+			if (info != null && !info.isExpired()) {
+				info.expireNow();
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * ログイン済みのすべてのセッションを期限切れにする.
+	 * @return 期限切れにしたセッションの数
+	 */
+	public int expireAllSessions() {
+		int count = 0;
+		for (final String username : sessionsByUser.keySet()) {
+			count += expireSessions(username);
+		}
+		return count;
+	}
+
+	/**
+	 * アクセスのないセッションを無効にする.
+	 * @param now 現在時刻（ミリ秒）
+	 */
+	void expireIdleSessions(final long now) {
+		final long idleMillis = TimeUnit.SECONDS.toMillis(idleSeconds);
+		final List<Entry> due = new ArrayList<Entry>();
+		final List<Entry> expiring = new ArrayList<Entry>();
+		synchronized (wheel) {
+			wheel.advance(now, due);
+			for (final Entry entry : due) {
+				// 期限の登録後にアクセスがあった場合は新しい期限で登録し直す
+				final long deadline = entry.lastAccessedTime() + idleMillis;
+				if (deadline > now) {
+					wheel.reschedule(entry.timer, deadline);
+				} else {
+					expiring.add(entry);
+				}
+			}
+		}
+		for (final Entry entry : expiring) {
+			expired.incrementAndGet();
+			invalidate(entry);
+		}
+	}
+
+	/**
+	 * セッションを追跡の対象にする.
+	 * <p>セッションの総数が上限を超えた場合は、最もアクセスの古いセッションを無効にする。</p>
+	 * @param sessionId セッションID
+	 * @param session セッション（不明な場合は{@code null}）
+	 * @return セッションの情報
+	 */
+	private Entry track(final String sessionId, final HttpSession session) {
+		final Entry entry = new Entry(sessionId, session);
+		final Entry existing = sessions.putIfAbsent(sessionId, entry);
+		if (existing != null) {
+			return existing;
+		}
+		created.incrementAndGet();
+		final long now = System.currentTimeMillis();
+		final List<Entry> evicting = new ArrayList<Entry>();
+		synchronized (wheel) {
+			entry.timer = wheel.schedule(entry, now + TimeUnit.SECONDS.toMillis(idleSeconds));
+			int probes = 0;
+			while (wheel.size() > maxSessions) {
+				final Entry victim = wheel.poll();
+				// 期限の登録後にアクセスがあったセッションは、何度かは登録し直して別のセッションを探す
+				final long deadline = victim.lastAccessedTime() + TimeUnit.SECONDS.toMillis(idleSeconds);
+				if (victim != entry && probes++ < MAX_EVICTION_PROBES && deadline > victim.timer.getDeadlineMillis()) {
+					wheel.reschedule(victim.timer, deadline);
+					continue;
+				}
+				evicting.add(victim);
+			}
+		}
+		for (final Entry victim : evicting) {
+			evicted.incrementAndGet();
+			invalidate(victim);
+		}
+		return entry;
+	}
+
+	/**
+	 * セッションを無効にして追跡の対象から外す.
+	 * @param entry セッションの情報
+	 */
+	private void invalidate(final Entry entry) {
+		final SessionInformation info = entry.information;
+		if (info != null) {
+			info.expireNow();
+		}
+		remove(entry.sessionId);
+		if (entry.session != null) {
+			try {
+				entry.session.invalidate();
+			} catch (final IllegalStateException e) {
+				// すでに無効になっている
+			}
+		}
+	}
+
+	/**
+	 * セッションを追跡の対象から外す.
+	 * @param sessionId セッションID
+	 */
+	private void remove(final String sessionId) {
+		final Entry entry = sessions.remove(sessionId);
+		if (entry == null) {
+			return;
+		}
+		synchronized (wheel) {
+			if (entry.timer != null) {
+				wheel.cancel(entry.timer);
+			}
+		}
+		final SessionInformation info = entry.information;
+		if (info == null) {
+			return;
+		}
+		final String key = keyOf(info.getPrincipal());
+		final UserSessions userSessions = sessionsByUser.get(key);
+		if (userSessions != null && userSessions.remove(sessionId)) {
+			sessionsByUser.remove(key, userSessions);
+		}
+	}
+
+	/**
+	 * プリンシパルに対応するキーを返す.
+	 * @param principal プリンシパル
+	 * @return ユーザ名
+	 */
+	private static String keyOf(final Object principal) {
+		return principal instanceof UserDetails ? ((UserDetails) principal).getUsername() : String.valueOf(principal);
+	}
+}
@@ -0,0 +1,266 @@
+package org.unclazz.sample.security;
+
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * キーごとの発生回数を直近の一定時間について数えるカウンタ.
+ * <p>キーの種類がいくら増えてもメモリ使用量が一定となるよう、
+ * 近似的なデータ構造であるカウント・ミン・スケッチで回数を保持する。
+ * 見積もりはハッシュの衝突により実際の回数を上回ることがある。
+ * 時間窓内の全キーの発生回数の合計を{@code N}、列数を{@code w}とすると、見積もりが実際の回数を
+ * {@code e * N / w}より多く上回る確率はキーごとに{@code e^-4}（約2%）以下である（{@link #errorBound(long)}）。
+ * 加算は見積もりの最小値に等しいカウンタだけを増やす保守的な更新（conservative update）で行い、誤差をさらに抑える。
+ * 列数は{@link #widthFor(int, int)}で想定される発生回数と許容する誤差から求める。</p>
+ * <p>この見積もりは行ごとのハッシュ関数が互いに独立していることを前提とする。そのため各行の列は
+ * {@link String#hashCode()}からではなく、キーのUTF-8のバイト列から行ごとに異なる種でMurmurHash64Aにより求める。
+ * 種はインスタンスごとにランダムに選ぶので、すべての行で衝突するキーを事前に作って
+ * 他のキーの見積もりを押し上げることはできない。</p>
+ * <p>時間窓は{@code slices}個の区間に分割され、区間ごとに独立したスケッチを持つ。
+ * 古くなった区間は次に書き込まれる際に消去して再利用する（スライディング・ウィンドウ）。
+ * カウンタの更新は{@link AtomicIntegerArray}に対する比較と交換で行い、ロックは使用しない。
+ * 区間の消去や同じキーへの加算と同時に行われた加算は失われることがあるが、近似的な計数であるため許容している。</p>
+ */
+public class SampleSlidingWindowCounter {
+	/**
+	 * スケッチの行数（ハッシュ関数の数）.
+	 */
+	private static final int DEPTH = 4;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * 各行のハッシュ関数の種（インスタンスごとにランダムに選ぶ）.
+	 */
+	private final long[] seeds = new long[DEPTH];
+
+	/**
+	 * スケッチの列数（2のべき乗）.
+	 */
+	private final int width;
+
+	/**
+	 * 区間の数.
+	 */
+	private final int slices;
+
+	/**
+	 * 区間の長さ（ミリ秒）.
+	 */
+	private final long sliceMillis;
+
+	/**
+	 * 全区間のスケッチ. 区間{@code s}、行{@code d}、列{@code w}のカウンタは
+	 * {@code (s * DEPTH + d) * width + w}に格納される。
+	 */
+	private final AtomicIntegerArray counters;
+
+	/**
+	 * 各区間が現在保持している時刻の区間番号（{@code 時刻 / sliceMillis}）.
+	 */
+	private final AtomicLongArray epochs;
+
+	/**
+	 * 各区間の全キーの発生回数の合計.
+	 */
+	private final AtomicIntegerArray totals;
+
+	/**
+	 * 列数の上限.
+	 */
+	private static final int MAX_WIDTH = 1 << 20;
+
+	/**
+	 * コンストラクタ.
+	 * @param windowMillis 時間窓の長さ（ミリ秒）
+	 * @param slices 時間窓を分割する区間の数
+	 * @param width スケッチの列数（2のべき乗に切り上げられる）
+	 */
+	public SampleSlidingWindowCounter(final long windowMillis, final int slices, final int width) {
+		if (slices < 1 || width < 1 || width > MAX_WIDTH || windowMillis < slices) {
+			throw new IllegalArgumentException("Invalid sliding window configuration");
+		}
+		int w = 1;
+		while (w < width) {
+			w <<= 1;
+		}
+		this.width = w;
+		this.slices = slices;
+		this.sliceMillis = windowMillis / slices;
+		this.counters = new AtomicIntegerArray(slices * DEPTH * this.width);
+		this.epochs = new AtomicLongArray(slices);
+		this.totals = new AtomicIntegerArray(slices);
+		final SecureRandom random = new SecureRandom();
+		for (int d = 0; d < DEPTH; d++) {
+			seeds[d] = random.nextLong();
+		}
+	}
+
+	/**
+	 * 見積もりの誤差を指定の値に抑えるために必要な列数を返す.
+	 * <p>時間窓内の全キーの発生回数の合計が{@code expectedCount}以下であれば、
+	 * 見積もりが実際の回数を{@code maxError}より多く上回る確率はキーごとに約2%以下となる。</p>
+	 * @param expectedCount 時間窓内に想定される全キーの発生回数の合計
+	 * @param maxError 許容する誤差
+	 * @return 列数
+	 */
+	public static int widthFor(final int expectedCount, final int maxError) {
+		if (expectedCount < 1 || maxError < 1) {
+			throw new IllegalArgumentException("Invalid sliding window error bound");
+		}
+		return (int) Math.min(MAX_WIDTH, Math.ceil(Math.E * expectedCount / maxError));
+	}
+
+	/**
+	 * キーの発生を記録する.
+	 * @param key キー
+	 * @param nowMillis 現在時刻
+	 */
+	public void increment(final String key, final long nowMillis) {
+		final long epoch = nowMillis / sliceMillis;
+		final int slice = (int) (epoch % slices);
+		final long current = epochs.get(slice);
+		if (current != epoch && epochs.compareAndSet(slice, current, epoch)) {
+			// 時間窓から外れた古い区間を消去して再利用する
+			final int from = slice * DEPTH * width;
+			for (int i = from; i < from + DEPTH * width; i++) {
+				counters.set(i, 0);
+			}
+			totals.set(slice, 0);
+		}
+		totals.incrementAndGet(slice);
+		final int[] columns = columns(key);
+		int min = Integer.MAX_VALUE;
+		for (int d = 0; d < DEPTH; d++) {
+			min = Math.min(min, counters.get(index(slice, d, columns[d])));
+		}
+		// 保守的な更新: 見積もりが1増えるのに必要なカウンタだけを増やす
+		final int target = min + 1;
+		for (int d = 0; d < DEPTH; d++) {
+			final int i = index(slice, d, columns[d]);
+			for (;;) {
+				final int value = counters.get(i);
+				if (value >= target || counters.compareAndSet(i, value, target)) {
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * 直近の時間窓におけるキーの発生回数の見積もりを返す.
+	 * @param key キー
+	 * @param nowMillis 現在時刻
+	 * @return 発生回数の見積もり
+	 */
+	public int estimate(final String key, final long nowMillis) {
+		final long epoch = nowMillis / sliceMillis;
+		final int[] columns = columns(key);
+		int total = 0;
+		for (int slice = 0; slice < slices; slice++) {
+			if (epoch - epochs.get(slice) >= slices) {
+				continue;
+			}
+			int min = Integer.MAX_VALUE;
+			for (int d = 0; d < DEPTH; d++) {
+				min = Math.min(min, counters.get(index(slice, d, columns[d])));
+			}
+			total += min;
+		}
+		return total;
+	}
+
+	/**
+	 * 直近の時間窓における全キーの発生回数の合計を返す.
+	 * @param nowMillis 現在時刻
+	 * @return 発生回数の合計
+	 */
+	public int total(final long nowMillis) {
+		final long epoch = nowMillis / sliceMillis;
+		int total = 0;
+		for (int slice = 0; slice < slices; slice++) {
+			if (epoch - epochs.get(slice) < slices) {
+				total += totals.get(slice);
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * 直近の時間窓における見積もりの誤差の上限（{@code e * N / w}）を返す.
+	 * <p>見積もりがこれより多く実際の回数を上回る確率はキーごとに約2%以下である。</p>
+	 * @param nowMillis 現在時刻
+	 * @return 誤差の上限
+	 */
+	public int errorBound(final long nowMillis) {
+		return (int) Math.ceil(Math.E * total(nowMillis) / width);
+	}
+
+	/**
+	 * キーに対応する各行の列を返す.
+	 * @param key キー
+	 * @return 行ごとの列
+	 */
+	private int[] columns(final String key) {
+		final byte[] bytes = key.getBytes(UTF_8);
+		final int[] columns = new int[DEPTH];
+		for (int d = 0; d < DEPTH; d++) {
+			// 列数は2のべき乗なので、よく混ざった上位のビットを使う
+			columns[d] = (int) (murmur64(bytes, seeds[d]) >>> 32) & (width - 1);
+		}
+		return columns;
+	}
+
+	/**
+	 * カウンタの位置を返す.
+	 * @param slice 区間
+	 * @param row 行
+	 * @param column 列
+	 * @return 位置
+	 */
+	private int index(final int slice, final int row, final int column) {
+		return (slice * DEPTH + row) * width + column;
+	}
+
+	/**
+	 * バイト列の64ビットのハッシュ値を返す（MurmurHash64A）.
+	 * @param data バイト列
+	 * @param seed 種
+	 * @return ハッシュ値
+	 */
+	static long murmur64(final byte[] data, final long seed) {
+		final long m = 0xc6a4a7935bd1e995L;
+		final int r = 47;
+		final int length = data.length;
+		long h = seed ^ (length * m);
+		final int blocks = length & ~7;
+		for (int i = 0; i < blocks; i += 8) {
+			long k = (data[i] & 0xffL)
+					| (data[i + 1] & 0xffL) << 8
+					| (data[i + 2] & 0xffL) << 16
+					| (data[i + 3] & 0xffL) << 24
+					| (data[i + 4] & 0xffL) << 32
+					| (data[i + 5] & 0xffL) << 40
+					| (data[i + 6] & 0xffL) << 48
+					| (data[i + 7] & 0xffL) << 56;
+			k *= m;
+			k ^= k >>> r;
+			k *= m;
+			h ^= k;
+			h *= m;
+		}
+		final int remaining = length & 7;
+		if (remaining > 0) {
+			for (int i = remaining - 1; i >= 0; i--) {
+				h ^= (data[blocks + i] & 0xffL) << (8 * i);
+			}
+			h *= m;
+		}
+		h ^= h >>> r;
+		h *= m;
+		h ^= h >>> r;
+		return h;
+	}
+}
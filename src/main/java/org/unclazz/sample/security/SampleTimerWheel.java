@@ -0,0 +1,298 @@
+package org.unclazz.sample.security;
+
+import java.util.List;
+
+/**
+ * 期限つきの要素を期限の順に取り出すための階層型タイマー・ホイール.
+ * <p>時間を{@code tickMillis}ミリ秒単位の刻みで扱い、{@value #SLOTS}個のスロットを持つ輪を{@value #LEVELS}段重ねる。
+ * 1段目の輪は1刻みずつ、2段目の輪は{@value #SLOTS}刻みずつ…というように受け持つ範囲が広がり、
+ * 期限の遠い要素は上の段に置かれて、時間が進むにつれて下の段に移される（カスケード）。
+ * 登録・取り消し・期限切れの取り出しはいずれも要素数によらない時間で行えるため、
+ * 全要素を定期的に走査して期限切れを探す必要がない。</p>
+ * <p>このクラスはスレッド・セーフではない。呼び出し側で排他制御を行うこと。</p>
+ * @param <T> 要素の型
+ */
+public class SampleTimerWheel<T> {
+	/**
+	 * 1段あたりのスロット数の対数.
+	 */
+	private static final int BITS = 6;
+
+	/**
+	 * 1段あたりのスロット数.
+	 */
+	private static final int SLOTS = 1 << BITS;
+
+	/**
+	 * スロットの添字を求めるためのマスク.
+	 */
+	private static final int MASK = SLOTS - 1;
+
+	/**
+	 * 段の数.
+	 */
+	private static final int LEVELS = 4;
+
+	/**
+	 * 登録できる期限の最大の刻み数.
+	 * <p>これより遠い期限の要素はいったん最上段の最も遠いスロットに置き、そこに達した時点で置き直す。</p>
+	 */
+	private static final long MAX_DELTA = (1L << (BITS * LEVELS)) - 1;
+
+	/**
+	 * ホイールに登録された要素（タイマー）.
+	 * <p>スロットごとの双方向リストの節を兼ねる。</p>
+	 * @param <T> 要素の型
+	 */
+	public static final class Timer<T> {
+		private final T item;
+		private long deadline;
+		private long deadlineMillis;
+		private Timer<T> prev;
+		private Timer<T> next;
+
+		private Timer(final T item) {
+			this.item = item;
+		}
+
+		public T getItem() {
+			return item;
+		}
+
+		/**
+		 * 最後に登録した期限を返す.
+		 * @return 期限（ミリ秒）
+		 */
+		public long getDeadlineMillis() {
+			return deadlineMillis;
+		}
+
+		/**
+		 * ホイールに登録されているかどうかを返す.
+		 * @return 登録されている場合は{@code true}
+		 */
+		public boolean isScheduled() {
+			return prev != null;
+		}
+	}
+
+	/**
+	 * 1刻みの長さ（ミリ秒）.
+	 */
+	private final long tickMillis;
+
+	/**
+	 * 段・スロットごとのリストの番兵.
+	 */
+	private final Timer<T>[][] slots;
+
+	/**
+	 * 次に処理する刻み.
+	 */
+	private long current;
+
+	/**
+	 * 登録されている要素の数.
+	 */
+	private int size;
+
+	/**
+	 * コンストラクタ.
+	 * @param tickMillis 1刻みの長さ（ミリ秒）
+	 * @param nowMillis 現在時刻（ミリ秒）
+	 */
+	@SuppressWarnings("unchecked")
+	public SampleTimerWheel(final long tickMillis, final long nowMillis) {
+		this.tickMillis = tickMillis;
+		this.current = nowMillis / tickMillis;
+		this.slots = new Timer[LEVELS][SLOTS];
+		for (int level = 0; level < LEVELS; level++) {
+			for (int i = 0; i < SLOTS; i++) {
+				final Timer<T> head = new Timer<T>(null);
+				head.prev = head;
+				head.next = head;
+				slots[level][i] = head;
+			}
+		}
+	}
+
+	/**
+	 * 要素を登録する.
+	 * @param item 要素
+	 * @param deadlineMillis 期限（ミリ秒）
+	 * @return タイマー（取り消しや登録し直しに使用する）
+	 */
+	public Timer<T> schedule(final T item, final long deadlineMillis) {
+		final Timer<T> timer = new Timer<T>(item);
+		reschedule(timer, deadlineMillis);
+		return timer;
+	}
+
+	/**
+	 * 登録済みもしくは取り消し済みのタイマーを新しい期限で登録し直す.
+	 * @param timer タイマー
+	 * @param deadlineMillis 期限（ミリ秒）
+	 */
+	public void reschedule(final Timer<T> timer, final long deadlineMillis) {
+		cancel(timer);
+		timer.deadlineMillis = deadlineMillis;
+		// 切り上げて期限より前に取り出されないようにする
+		timer.deadline = (deadlineMillis + tickMillis - 1) / tickMillis;
+		add(timer);
+		size++;
+	}
+
+	/**
+	 * タイマーを取り消す.
+	 * 登録されていない場合は何もしない。
+	 * @param timer タイマー
+	 */
+	public void cancel(final Timer<T> timer) {
+		if (unlink(timer)) {
+			size--;
+		}
+	}
+
+	/**
+	 * 現在時刻まで時間を進め、期限を迎えた要素を取り出す.
+	 * <p>取り出した要素のタイマーは登録されていない状態になる。</p>
+	 * @param nowMillis 現在時刻（ミリ秒）
+	 * @param expired 期限を迎えた要素を追加するリスト
+	 */
+	public void advance(final long nowMillis, final List<T> expired) {
+		final long now = nowMillis / tickMillis;
+		while (current <= now) {
+			final int index = (int) (current & MASK);
+			if (index == 0) {
+				cascade(1);
+			}
+			final Timer<T> head = slots[0][index];
+			// 置き直した要素が同じスロットに戻ることがあるので、先にリストを切り離す
+			Timer<T> timer = detach(head);
+			while (timer != null) {
+				final Timer<T> next = timer.next;
+				timer.prev = null;
+				timer.next = null;
+				if (timer.deadline > current) {
+					// 最大の範囲を超えていた要素を置き直す
+					add(timer);
+				} else {
+					size--;
+					expired.add(timer.item);
+				}
+				timer = next;
+			}
+			current++;
+		}
+	}
+
+	/**
+	 * 期限が最も近いと思われる要素を1つ取り出す.
+	 * <p>下の段から順に、次に処理するスロットから走査して最初に見つかった要素を返す。
+	 * 同じスロット内の要素の順序は問わないため、厳密に最も近い期限の要素とは限らない。</p>
+	 * @return 要素（登録されている要素がない場合は{@code null}）
+	 */
+	public T poll() {
+		for (int level = 0; level < LEVELS; level++) {
+			final long base = current >>> (BITS * level);
+			// 上の段の現在のスロットはカスケード済みなので次のスロットから走査する
+			for (int i = level == 0 ? 0 : 1; i < SLOTS + (level == 0 ? 0 : 1); i++) {
+				final Timer<T> head = slots[level][(int) ((base + i) & MASK)];
+				if (head.next != head) {
+					final Timer<T> timer = head.next;
+					cancel(timer);
+					return timer.item;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 登録されている要素の数を返す.
+	 * @return 要素の数
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * 上の段の現在のスロットの要素を下の段に移す.
+	 * <p>その段の添字も一周した場合は、さらに上の段から先に移す。</p>
+	 * @param level 段
+	 */
+	private void cascade(final int level) {
+		if (level >= LEVELS) {
+			return;
+		}
+		final int index = (int) ((current >>> (BITS * level)) & MASK);
+		if (index == 0) {
+			cascade(level + 1);
+		}
+		Timer<T> timer = detach(slots[level][index]);
+		while (timer != null) {
+			final Timer<T> next = timer.next;
+			timer.prev = null;
+			timer.next = null;
+			add(timer);
+			timer = next;
+		}
+	}
+
+	/**
+	 * 期限に応じた段・スロットにタイマーを追加する.
+	 * @param timer タイマー
+	 */
+	private void add(final Timer<T> timer) {
+		final long delta = timer.deadline - current;
+		final Timer<T> head;
+		if (delta < SLOTS) {
+			// 期限を過ぎているものは次に処理するスロットに置く
+			head = slots[0][(int) ((delta < 0 ? current : timer.deadline) & MASK)];
+		} else {
+			final long placed = delta > MAX_DELTA ? current + MAX_DELTA : timer.deadline;
+			final long d = placed - current;
+			int level = 1;
+			while (level < LEVELS - 1 && d >= (1L << (BITS * (level + 1)))) {
+				level++;
+			}
+			head = slots[level][(int) ((placed >>> (BITS * level)) & MASK)];
+		}
+		timer.prev = head.prev;
+		timer.next = head;
+		head.prev.next = timer;
+		head.prev = timer;
+	}
+
+	/**
+	 * タイマーをリストから外す.
+	 * @param timer タイマー
+	 * @return リストに含まれていた場合は{@code true}
+	 */
+	private boolean unlink(final Timer<T> timer) {
+		if (timer.prev == null) {
+			return false;
+		}
+		timer.prev.next = timer.next;
+		timer.next.prev = timer.prev;
+		timer.prev = null;
+		timer.next = null;
+		return true;
+	}
+
+	/**
+	 * スロットのリストを丸ごと切り離す.
+	 * @param head 番兵
+	 * @return 先頭のタイマー（末尾の{@code next}は{@code null}、空の場合は{@code null}）
+	 */
+	private Timer<T> detach(final Timer<T> head) {
+		if (head.next == head) {
+			return null;
+		}
+		final Timer<T> first = head.next;
+		head.prev.next = null;
+		head.next = head;
+		head.prev = head;
+		return first;
+	}
+}
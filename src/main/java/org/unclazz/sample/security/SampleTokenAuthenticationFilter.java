@@ -0,0 +1,101 @@
+package org.unclazz.sample.security;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.unclazz.sample.SampleUserDetails;
+import org.unclazz.sample.entity.User;
+import org.unclazz.sample.mapper.SampleUserMapper;
+import org.unclazz.sample.metrics.LatencyHistogram;
+import org.unclazz.sample.metrics.SampleMetrics;
+
+/**
+ * クッキーの認証トークンを検証してリクエストを認証済みにするフィルタ.
+ * <p>{@link UsernamePasswordAuthenticationFilter}の直前に配置する。
+ * トークンの署名と有効期限だけを確認し、セッションや
+ * {@link org.springframework.security.core.userdetails.UserDetailsService}にはアクセスしない。
+ * 有効期間の半分を過ぎたトークンは新しい有効期限で再発行する。
+ * 再発行の際にだけ{@link SampleUserMapper}でユーザを検索し直し、削除されたユーザ（IDが変わった場合を含む）の
+ * トークンは再発行せずに削除する。権限が変更されていれば現在の権限で再発行する。
+ * したがって降格や削除がトークンに反映されるまでの時間は最長で有効期間の半分である。
+ * 不正なトークンや有効期限切れのトークンはクッキーから削除し、未認証のまま後続の処理に進む。</p>
+ */
+public class SampleTokenAuthenticationFilter extends OncePerRequestFilter {
+	/**
+	 * 認証トークンのサービス.
+	 */
+	private final SampleTokenService tokenService;
+
+	/**
+	 * 再発行の際にユーザ情報を確認するためのORマッパー.
+	 */
+	private final SampleUserMapper userMapper;
+
+	/**
+	 * 検証の処理時間のヒストグラム.
+	 */
+	private final LatencyHistogram verifyLatency;
+
+	/**
+	 * コンストラクタ.
+	 * @param tokenService 認証トークンのサービス
+	 * @param userMapper 再発行の際にユーザ情報を確認するためのORマッパー
+	 * @param metrics 計測値のレジストリ
+	 */
+	public SampleTokenAuthenticationFilter(final SampleTokenService tokenService,
+			final SampleUserMapper userMapper, final SampleMetrics metrics) {
+		this.tokenService = tokenService;
+		this.userMapper = userMapper;
+		this.verifyLatency = metrics.histogram("token.verify");
+	}
+
+	@Override
+	protected void doFilterInternal(final HttpServletRequest request, final HttpServletResponse response,
+			final FilterChain chain) throws ServletException, IOException {
+		final String token = tokenService.readToken(request);
+		if (token != null && SecurityContextHolder.getContext().getAuthentication() == null) {
+			final long start = System.nanoTime();
+			final long now = System.currentTimeMillis();
+			final SampleTokenService.Claims claims = tokenService.verify(token, now);
+			verifyLatency.recordSince(start);
+			final SampleUserDetails user = claims == null ? null
+					: tokenService.shouldRenew(claims, now) ? renew(claims.getUser(), request, response, now)
+					: claims.getUser();
+			if (user == null) {
+				tokenService.writeToken(request, response, null);
+			} else {
+				SecurityContextHolder.getContext().setAuthentication(
+						new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities()));
+			}
+		}
+		chain.doFilter(request, response);
+	}
+
+	/**
+	 * ユーザ情報を検索し直して現在の権限でトークンを再発行する.
+	 * @param claimed トークンに含まれていたユーザ
+	 * @param request リクエスト
+	 * @param response レスポンス
+	 * @param now 現在時刻（ミリ秒）
+	 * @return 現在のユーザ情報（削除されていた場合は{@code null}）
+	 */
+	private SampleUserDetails renew(final SampleUserDetails claimed, final HttpServletRequest request,
+			final HttpServletResponse response, final long now) {
+		final User current = userMapper.selectOneByName(claimed.getUsername());
+		if (current == null || current.getId() != claimed.getId()) {
+			return null;
+		}
+		final SampleUserDetails user = current.isAdmin() == claimed.isAdmin() ? claimed
+				: SampleUserDetails.withoutCredentials(current.getId(), current.getName(), current.isAdmin());
+		tokenService.writeToken(request, response, tokenService.issue(user, now));
+		return user;
+	}
+}
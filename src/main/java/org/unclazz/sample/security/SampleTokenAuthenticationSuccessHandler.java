@@ -0,0 +1,45 @@
+package org.unclazz.sample.security;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.web.authentication.SimpleUrlAuthenticationSuccessHandler;
+import org.unclazz.sample.SampleUserDetails;
+
+/**
+ * ログイン成功時に認証トークンをクッキーに設定してから指定のURLにリダイレクトするハンドラ.
+ * <p>ステートレス・モードではセッションに認証情報を保存しないため、
+ * 以降のリクエストは{@link SampleTokenAuthenticationFilter}がこのトークンで認証する。</p>
+ */
+public class SampleTokenAuthenticationSuccessHandler extends SimpleUrlAuthenticationSuccessHandler {
+	/**
+	 * 認証トークンのサービス.
+	 */
+	private final SampleTokenService tokenService;
+
+	/**
+	 * コンストラクタ.
+	 * @param tokenService 認証トークンのサービス
+	 * @param defaultTargetUrl ログイン成功後の遷移先
+	 */
+	public SampleTokenAuthenticationSuccessHandler(final SampleTokenService tokenService, final String defaultTargetUrl) {
+		super(defaultTargetUrl);
+		setAlwaysUseDefaultTargetUrl(true);
+		this.tokenService = tokenService;
+	}
+
+	@Override
+	public void onAuthenticationSuccess(final HttpServletRequest request, final HttpServletResponse response,
+			final Authentication authentication) throws IOException, ServletException {
+		final Object principal = authentication.getPrincipal();
+		if (principal instanceof SampleUserDetails) {
+			tokenService.writeToken(request, response,
+					tokenService.issue((SampleUserDetails) principal, System.currentTimeMillis()));
+		}
+		super.onAuthenticationSuccess(request, response, authentication);
+	}
+}
@@ -0,0 +1,269 @@
+package org.unclazz.sample.security;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.crypto.codec.Hex;
+import org.springframework.security.web.authentication.logout.LogoutHandler;
+import org.springframework.stereotype.Component;
+import org.unclazz.sample.SampleUserDetails;
+
+/**
+ * ステートレス・モードで使用する認証トークンを発行・検証するサービス.
+ * <p>トークンはユーザID、ユーザ名、アドミニストレータ権限の有無、有効期限をバイナリで詰めたものに
+ * HMAC-SHA256による署名を付けて16進文字列にしたもので、クッキーでやりとりする。
+ * 検証には署名の鍵だけがあればよく、セッションや{@link org.springframework.security.core.userdetails.UserDetailsService}は使用しない。
+ * パスワードはトークンに含まれない。</p>
+ * <p>署名の鍵は{@code sample.token.secret}で指定する。指定がない場合は起動のたびに生成されるため、
+ * 再起動すると発行済みのトークンは無効になり、複数のノードの間でもトークンを共有できない。</p>
+ */
+@Component
+public class SampleTokenService implements LogoutHandler {
+	private static final Log logger = LogFactory.getLog(SampleTokenService.class);
+
+	/**
+	 * トークンのフォーマットのバージョン.
+	 */
+	private static final byte VERSION = 1;
+
+	/**
+	 * アドミニストレータ権限を表すフラグ.
+	 */
+	private static final byte FLAG_ADMIN = 1;
+
+	/**
+	 * 署名のアルゴリズム.
+	 */
+	private static final String ALGORITHM = "HmacSHA256";
+
+	/**
+	 * トークンに含める署名の長さ（バイト）.
+	 */
+	private static final int SIGNATURE_LENGTH = 16;
+
+	/**
+	 * ユーザ名のエンコーディング.
+	 */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * トークンを格納するクッキーの名前.
+	 */
+	@Value("${sample.token.cookieName:SAMPLE_AUTH}")
+	private String cookieName;
+
+	/**
+	 * 署名の鍵.
+	 */
+	@Value("${sample.token.secret:}")
+	private String secret;
+
+	/**
+	 * トークンの有効期間（秒）.
+	 * 有効期間の半分を過ぎたトークンはリクエストのたびに再発行される。
+	 */
+	@Value("${sample.token.ttlSeconds:1800}")
+	private int ttlSeconds;
+
+	/**
+	 * 署名の鍵.
+	 */
+	private SecretKeySpec key;
+
+	/**
+	 * スレッドごとの署名オブジェクト.
+	 */
+	private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+		@Override
+		protected Mac initialValue() {
+			try {
+				final Mac mac = Mac.getInstance(ALGORITHM);
+				mac.init(key);
+				return mac;
+			} catch (final GeneralSecurityException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	/**
+	 * 署名の鍵を初期化する.
+	 */
+	@PostConstruct
+	public void initialize() {
+		final byte[] keyBytes;
+		if (secret == null || secret.isEmpty()) {
+			logger.warn("sample.token.secret is not set; tokens will not survive a restart");
+			keyBytes = new byte[32];
+			new SecureRandom().nextBytes(keyBytes);
+		} else {
+			keyBytes = secret.getBytes(UTF_8);
+		}
+		key = new SecretKeySpec(keyBytes, ALGORITHM);
+	}
+
+	/**
+	 * トークンを発行する.
+	 * @param user ユーザ
+	 * @param nowMillis 現在時刻
+	 * @return トークン
+	 */
+	public String issue(final SampleUserDetails user, final long nowMillis) {
+		final byte[] name = user.getUsername().getBytes(UTF_8);
+		final ByteBuffer payload = ByteBuffer.allocate(1 + 4 + 8 + 1 + name.length);
+		payload.put(VERSION);
+		payload.putInt(user.getId());
+		payload.putLong(nowMillis + ttlSeconds * 1000L);
+		payload.put(user.isAdmin() ? FLAG_ADMIN : 0);
+		payload.put(name);
+		final byte[] bytes = payload.array();
+		return new String(Hex.encode(bytes)) + new String(Hex.encode(sign(bytes)));
+	}
+
+	/**
+	 * トークンを検証する.
+	 * @param token トークン
+	 * @param nowMillis 現在時刻
+	 * @return トークンの内容（不正なトークンや有効期限切れの場合は{@code null}）
+	 */
+	public Claims verify(final String token, final long nowMillis) {
+		if (token == null || token.length() <= SIGNATURE_LENGTH * 2 || token.length() % 2 != 0) {
+			return null;
+		}
+		final byte[] bytes;
+		final byte[] signature;
+		try {
+			final int split = token.length() - SIGNATURE_LENGTH * 2;
+			bytes = Hex.decode(token.substring(0, split));
+			signature = Hex.decode(token.substring(split));
+		} catch (final IllegalArgumentException e) {
+			return null;
+		}
+		if (!MessageDigest.isEqual(signature, sign(bytes))) {
+			return null;
+		}
+		try {
+			final ByteBuffer payload = ByteBuffer.wrap(bytes);
+			if (payload.get() != VERSION) {
+				return null;
+			}
+			final int id = payload.getInt();
+			final long expiresAt = payload.getLong();
+			final byte flags = payload.get();
+			if (expiresAt <= nowMillis) {
+				return null;
+			}
+			final String name = new String(bytes, payload.position(), payload.remaining(), UTF_8);
+			return new Claims(SampleUserDetails.withoutCredentials(id, name, (flags & FLAG_ADMIN) != 0), expiresAt);
+		} catch (final BufferUnderflowException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * 署名を計算する.
+	 * @param bytes 署名対象
+	 * @return 署名（先頭{@value #SIGNATURE_LENGTH}バイト）
+	 */
+	private byte[] sign(final byte[] bytes) {
+		return Arrays.copyOf(macs.get().doFinal(bytes), SIGNATURE_LENGTH);
+	}
+
+	/**
+	 * リクエストのクッキーからトークンを取り出す.
+	 * @param request リクエスト
+	 * @return トークン（存在しない場合は{@code null}）
+	 */
+	public String readToken(final HttpServletRequest request) {
+		final Cookie[] cookies = request.getCookies();
+		if (cookies == null) {
+			return null;
+		}
+		for (final Cookie cookie : cookies) {
+			if (cookieName.equals(cookie.getName())) {
+				return cookie.getValue();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * トークンをクッキーとしてレスポンスに設定する.
+	 * @param request リクエスト
+	 * @param response レスポンス
+	 * @param token トークン（{@code null}の場合はクッキーを削除する）
+	 */
+	public void writeToken(final HttpServletRequest request, final HttpServletResponse response, final String token) {
+		final Cookie cookie = new Cookie(cookieName, token == null ? "" : token);
+		cookie.setPath(cookiePath(request));
+		cookie.setHttpOnly(true);
+		cookie.setSecure(request.isSecure());
+		cookie.setMaxAge(token == null ? 0 : ttlSeconds);
+		response.addCookie(cookie);
+	}
+
+	/**
+	 * トークンを再発行すべきかどうかを判定する.
+	 * @param claims トークンの内容
+	 * @param nowMillis 現在時刻
+	 * @return 有効期間の半分を過ぎている場合は{@code true}
+	 */
+	public boolean shouldRenew(final Claims claims, final long nowMillis) {
+		return claims.getExpiresAt() - nowMillis < ttlSeconds * 500L;
+	}
+
+	/**
+	 * ログアウト時にトークンのクッキーを削除する.
+	 */
+	@Override
+	public void logout(final HttpServletRequest request, final HttpServletResponse response,
+			final Authentication authentication) {
+		writeToken(request, response, null);
+	}
+
+	/**
+	 * クッキーのパスを返す.
+	 * @param request リクエスト
+	 * @return パス
+	 */
+	private static String cookiePath(final HttpServletRequest request) {
+		final String contextPath = request.getContextPath();
+		return contextPath == null || contextPath.isEmpty() ? "/" : contextPath;
+	}
+
+	/**
+	 * 検証済みのトークンの内容.
+	 */
+	public static final class Claims {
+		private final SampleUserDetails user;
+		private final long expiresAt;
+
+		private Claims(final SampleUserDetails user, final long expiresAt) {
+			this.user = user;
+			this.expiresAt = expiresAt;
+		}
+
+		public SampleUserDetails getUser() {
+			return user;
+		}
+		public long getExpiresAt() {
+			return expiresAt;
+		}
+	}
+}
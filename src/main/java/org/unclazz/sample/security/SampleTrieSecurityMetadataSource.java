@@ -0,0 +1,257 @@
+package org.unclazz.sample.security;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.security.access.ConfigAttribute;
+import org.springframework.security.web.FilterInvocation;
+import org.springframework.security.web.access.intercept.FilterInvocationSecurityMetadataSource;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+
+/**
+ * URLのパスを階層ごとにたどるトライ木で{@link SampleAuthorizationRule}を引き当てるメタデータ・ソース.
+ * <p>{@code antMatchers(...)}で登録した規則はリクエストのたびに先頭から順にパターン照合されるため、
+ * 規則の数に比例して時間がかかる。このクラスは起動時に規則の一覧からトライ木を構築しておき、
+ * リクエストのパスを1回たどるだけで該当する規則を見つける。
+ * ワイルドカード{@code *}の分岐がなければ、たどる時間はパスの階層の深さにのみ比例する。</p>
+ * <p>複数の規則に該当する場合は一覧の中で最も前にある規則を返すので、
+ * {@code antMatchers(...)}の連鎖と同じく先に登録した規則が優先される。
+ * {@link AntPathRequestMatcher}と同様、パスの大文字と小文字は区別しない。</p>
+ */
+public class SampleTrieSecurityMetadataSource implements FilterInvocationSecurityMetadataSource {
+	/**
+	 * 任意の1階層に一致するパターンの部分.
+	 */
+	private static final String ANY_SEGMENT = "*";
+
+	/**
+	 * 任意の0階層以上に一致するパターンの部分.
+	 */
+	private static final String ANY_SEGMENTS = "**";
+
+	/**
+	 * トライ木の節.
+	 */
+	private static final class Node {
+		/**
+		 * リテラルの子.
+		 */
+		private final Map<String, Node> children = new HashMap<String, Node>();
+
+		/**
+		 * {@code *}の子.
+		 */
+		private Node wildcard;
+
+		/**
+		 * この節でパスが終わる場合に該当する規則の番号（昇順）.
+		 */
+		private final List<Integer> terminal = new ArrayList<Integer>(1);
+
+		/**
+		 * この節以降の残りのパスにかかわらず該当する規則（{@code **}）の番号（昇順）.
+		 */
+		private final List<Integer> rest = new ArrayList<Integer>(1);
+	}
+
+	/**
+	 * 規則の一覧.
+	 */
+	private final List<SampleAuthorizationRule> rules;
+
+	/**
+	 * 規則ごとの属性.
+	 */
+	private final List<Collection<ConfigAttribute>> attributes;
+
+	/**
+	 * トライ木の根.
+	 */
+	private final Node root = new Node();
+
+	/**
+	 * コンストラクタ.
+	 * @param rules 規則の一覧（先にあるものが優先される）
+	 */
+	public SampleTrieSecurityMetadataSource(final List<SampleAuthorizationRule> rules) {
+		this.rules = new ArrayList<SampleAuthorizationRule>(rules);
+		this.attributes = new ArrayList<Collection<ConfigAttribute>>(rules.size());
+		for (int i = 0; i < this.rules.size(); i++) {
+			final SampleAuthorizationRule rule = this.rules.get(i);
+			attributes.add(Collections.<ConfigAttribute>singletonList(rule));
+			insert(i, rule.getPattern());
+		}
+	}
+
+	/**
+	 * 規則をトライ木に登録する.
+	 * @param index 規則の番号
+	 * @param pattern URLのパターン
+	 */
+	private void insert(final int index, final String pattern) {
+		final List<String> segments = split(pattern.toLowerCase(Locale.ENGLISH));
+		Node node = root;
+		for (int i = 0; i < segments.size(); i++) {
+			final String segment = segments.get(i);
+			if (ANY_SEGMENTS.equals(segment)) {
+				if (i != segments.size() - 1) {
+					throw new IllegalArgumentException(String.format("\"**\" must be the last segment: \"%s\"", pattern));
+				}
+				node.rest.add(index);
+				return;
+			}
+			if (ANY_SEGMENT.equals(segment)) {
+				if (node.wildcard == null) {
+					node.wildcard = new Node();
+				}
+				node = node.wildcard;
+			} else if (segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0 || segment.indexOf('{') >= 0) {
+				throw new IllegalArgumentException(String.format("Unsupported pattern \"%s\"", pattern));
+			} else {
+				Node child = node.children.get(segment);
+				if (child == null) {
+					child = new Node();
+					node.children.put(segment, child);
+				}
+				node = child;
+			}
+		}
+		node.terminal.add(index);
+	}
+
+	/**
+	 * リクエストに該当する規則を返す.
+	 * @param path パス
+	 * @param method HTTPメソッド
+	 * @return 規則（該当するものがない場合は{@code null}）
+	 */
+	public SampleAuthorizationRule lookup(final String path, final String method) {
+		final int index = lookupIndex(path.toLowerCase(Locale.ENGLISH), method);
+		return index == Integer.MAX_VALUE ? null : rules.get(index);
+	}
+
+	@Override
+	public Collection<ConfigAttribute> getAttributes(final Object object) {
+		final HttpServletRequest request = ((FilterInvocation) object).getHttpRequest();
+		final int index = lookupIndex(requestPath(request).toLowerCase(Locale.ENGLISH), request.getMethod());
+		return index == Integer.MAX_VALUE ? null : attributes.get(index);
+	}
+
+	@Override
+	public Collection<ConfigAttribute> getAllConfigAttributes() {
+		return new ArrayList<ConfigAttribute>(rules);
+	}
+
+	@Override
+	public boolean supports(final Class<?> clazz) {
+		return FilterInvocation.class.isAssignableFrom(clazz);
+	}
+
+	/**
+	 * パスをたどって該当する規則のうち最も前にあるものの番号を返す.
+	 * <p>{@code *}の子がある節ではリテラルの子と両方をたどる必要があるため、
+	 * 同時にたどっている節の集合を階層ごとに入れ替えながら進む。</p>
+	 * @param path パス（小文字に変換済み）
+	 * @param method HTTPメソッド
+	 * @return 規則の番号（該当するものがない場合は{@link Integer#MAX_VALUE}）
+	 */
+	private int lookupIndex(final String path, final String method) {
+		int best = Integer.MAX_VALUE;
+		List<Node> current = Collections.singletonList(root);
+		List<Node> next = new ArrayList<Node>(2);
+		int start = path.startsWith("/") ? 1 : 0;
+		for (;;) {
+			for (final Node node : current) {
+				best = first(node.rest, method, best);
+			}
+			if (start > path.length()) {
+				break;
+			}
+			int end = path.indexOf('/', start);
+			if (end < 0) {
+				end = path.length();
+			}
+			final String segment = path.substring(start, end);
+			start = end + 1;
+			next.clear();
+			for (final Node node : current) {
+				final Node child = node.children.get(segment);
+				if (child != null) {
+					next.add(child);
+				}
+				if (node.wildcard != null && !segment.isEmpty()) {
+					next.add(node.wildcard);
+				}
+			}
+			if (next.isEmpty()) {
+				return best;
+			}
+			// 2つのリストを入れ替えて再利用する
+			final List<Node> swap = current instanceof ArrayList ? current : new ArrayList<Node>(2);
+			current = next;
+			next = swap;
+		}
+		for (final Node node : current) {
+			best = first(node.terminal, method, best);
+		}
+		return best;
+	}
+
+	/**
+	 * 規則の番号の一覧のうち、HTTPメソッドが対象となる最初のものを返す.
+	 * @param indexes 規則の番号の一覧（昇順）
+	 * @param method HTTPメソッド
+	 * @param best これまでに見つかった最も前の規則の番号
+	 * @return {@code best}と比べて前にある方の番号
+	 */
+	private int first(final List<Integer> indexes, final String method, final int best) {
+		for (int i = 0; i < indexes.size(); i++) {
+			final int index = indexes.get(i);
+			if (index >= best) {
+				return best;
+			}
+			if (rules.get(index).matchesMethod(method)) {
+				return index;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * パターンを{@code /}で区切る.
+	 * 先頭の{@code /}は無視する。
+	 * @param pattern パターン
+	 * @return 区切られた部分のリスト
+	 */
+	private static List<String> split(final String pattern) {
+		final List<String> segments = new ArrayList<String>();
+		int start = pattern.startsWith("/") ? 1 : 0;
+		while (start <= pattern.length()) {
+			int end = pattern.indexOf('/', start);
+			if (end < 0) {
+				end = pattern.length();
+			}
+			segments.add(pattern.substring(start, end));
+			start = end + 1;
+		}
+		return segments;
+	}
+
+	/**
+	 * {@link AntPathRequestMatcher}と同じ方法でリクエストのパスを求める.
+	 * @param request リクエスト
+	 * @return パス
+	 */
+	private static String requestPath(final HttpServletRequest request) {
+		final String servletPath = request.getServletPath();
+		final String pathInfo = request.getPathInfo();
+		return pathInfo == null ? servletPath : servletPath + pathInfo;
+	}
+}
@@ -0,0 +1,36 @@
+package org.unclazz.sample.security;
+
+import org.springframework.security.access.expression.SecurityExpressionOperations;
+import org.springframework.security.authentication.AuthenticationTrustResolver;
+import org.springframework.security.authentication.AuthenticationTrustResolverImpl;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.web.FilterInvocation;
+import org.springframework.security.web.access.expression.DefaultWebSecurityExpressionHandler;
+
+/**
+ * URLとアクセス条件の紐付けに記述する式を処理するオブジェクト.
+ * <p>式の評価に{@link SampleWebSecurityExpressionRoot}を使用する点を除けば
+ * {@link DefaultWebSecurityExpressionHandler}と同じである。</p>
+ */
+public class SampleWebSecurityExpressionHandler extends DefaultWebSecurityExpressionHandler {
+	/**
+	 * 匿名ユーザなどの判定を行うオブジェクト.
+	 */
+	private AuthenticationTrustResolver trustResolver = new AuthenticationTrustResolverImpl();
+
+	@Override
+	public void setTrustResolver(final AuthenticationTrustResolver trustResolver) {
+		super.setTrustResolver(trustResolver);
+		this.trustResolver = trustResolver;
+	}
+
+	@Override
+	protected SecurityExpressionOperations createSecurityExpressionRoot(final Authentication authentication,
+			final FilterInvocation fi) {
+		final SampleWebSecurityExpressionRoot root = new SampleWebSecurityExpressionRoot(authentication, fi);
+		root.setPermissionEvaluator(getPermissionEvaluator());
+		root.setTrustResolver(trustResolver);
+		root.setRoleHierarchy(getRoleHierarchy());
+		return root;
+	}
+}
@@ -0,0 +1,48 @@
+package org.unclazz.sample.security;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.web.FilterInvocation;
+import org.springframework.security.web.access.expression.WebSecurityExpressionRoot;
+import org.unclazz.sample.SampleAuthoritySet;
+import org.unclazz.sample.SampleGrantedAuthority;
+import org.unclazz.sample.SampleUserDetails;
+
+/**
+ * URLとアクセス条件の紐付けに記述する式の評価に使用されるオブジェクト.
+ * <p>{@link WebSecurityExpressionRoot}の機能に加えて{@link #isGranted(String)}を提供する。
+ * {@code hasAuthority('...')}が評価のたびにユーザの権限名の集合を生成するのに対して、
+ * {@link #isGranted(String)}はプリンシパルが{@link SampleUserDetails}であれば
+ * {@link SampleAuthoritySet}のビット演算1回で判定を行う。</p>
+ */
+public class SampleWebSecurityExpressionRoot extends WebSecurityExpressionRoot {
+	/**
+	 * コンストラクタ.
+	 * @param authentication 認証情報
+	 * @param fi フィルタの呼び出し情報
+	 */
+	public SampleWebSecurityExpressionRoot(final Authentication authentication, final FilterInvocation fi) {
+		super(authentication, fi);
+	}
+
+	/**
+	 * ユーザが権限を持つかどうかを判定する.
+	 * @param authorityName 権限名
+	 * @return 権限を持つ場合は{@code true}
+	 */
+	public boolean isGranted(final String authorityName) {
+		final Authentication authentication = getAuthentication();
+		final Object principal = authentication.getPrincipal();
+		if (principal instanceof SampleUserDetails) {
+			final SampleGrantedAuthority authority = SampleGrantedAuthority.find(authorityName);
+			return authority != null && ((SampleUserDetails) principal).getAuthorities().contains(authority);
+		}
+		// それ以外のプリンシパル（匿名ユーザなど）の場合は権限名を順に比較する
+		for (final GrantedAuthority authority : authentication.getAuthorities()) {
+			if (authorityName.equals(authority.getAuthority())) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,179 @@
+package org.unclazz.sample.service;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Service;
+import org.unclazz.sample.SampleUserDetails;
+import org.unclazz.sample.cache.SampleCache;
+import org.unclazz.sample.entity.User;
+import org.unclazz.sample.mapper.SampleUserChangeListener;
+import org.unclazz.sample.mapper.SampleUserMapper;
+import org.unclazz.sample.metrics.SampleMetrics;
+
+/**
+ * {@link SampleUserDetailsService}の結果をキャッシュするサービス.
+ * <p>{@link Primary}アノテーションを付与しているため、{@link UserDetailsService}型で
+ * インジェクションを要求するとこのサービスが設定される。
+ * ログインのたびにDBへ問い合わせるのを避けるためのもので、
+ * 存在しないユーザ名についても短い期間だけ「存在しない」という結果をキャッシュする。</p>
+ * <p>キャッシュするのは{@link SampleUserDetails}そのものではなくユーザ情報のコピーである。
+ * Spring Securityは認証完了後に{@link SampleUserDetails}のパスワードを消去するため、
+ * 呼び出しのたびに新しい{@link SampleUserDetails}を生成して返している。</p>
+ * <p>{@link SampleUserMapper}でユーザが登録・更新されると該当するエントリは破棄される。</p>
+ */
+@Service
+@Primary
+public class CachingSampleUserDetailsService implements UserDetailsService, SampleUserChangeListener {
+	/**
+	 * 「存在しない」という結果を表すキャッシュの値.
+	 */
+	private static final User NOT_FOUND = new User();
+	
+	/**
+	 * キャッシュ対象のサービス.
+	 */
+	@Autowired
+	private SampleUserDetailsService delegate;
+	
+	/**
+	 * ユーザのリレーションを処理するためのORマッパー.
+	 * <p>ユーザ情報の変更通知を受け取るために使用する。</p>
+	 */
+	@Autowired
+	private SampleUserMapper userMapper;
+	
+	/**
+	 * 計測値のレジストリ.
+	 */
+	@Autowired
+	private SampleMetrics metrics;
+	
+	/**
+	 * キャッシュを有効にするかどうか.
+	 */
+	@Value("${sample.userCache.enabled:true}")
+	private boolean enabled;
+	
+	/**
+	 * キャッシュする要素数の上限.
+	 */
+	@Value("${sample.userCache.maxSize:10000}")
+	private int maxSize;
+	
+	/**
+	 * ユーザ情報の有効期間（秒）.
+	 */
+	@Value("${sample.userCache.ttlSeconds:300}")
+	private int ttlSeconds;
+	
+	/**
+	 * 「存在しない」という結果の有効期間（秒）.
+	 */
+	@Value("${sample.userCache.negativeTtlSeconds:5}")
+	private int negativeTtlSeconds;
+	
+	/**
+	 * ユーザ名をキーとしたキャッシュ.
+	 */
+	private SampleCache<String, User> cache;
+	
+	/**
+	 * キャッシュを初期化してユーザ情報の変更通知を受け取れるようにする.
+	 */
+	@PostConstruct
+	public void initialize() {
+		cache = new SampleCache<String, User>(maxSize, 16);
+		userMapper.addChangeListener(this);
+		
+		metrics.gauge("userCache.size", new SampleMetrics.Gauge() {
+			@Override
+			public long value() {
+				return cache.size();
+			}
+		});
+		metrics.gauge("userCache.hits", new SampleMetrics.Gauge() {
+			@Override
+			public long value() {
+				return cache.getHits();
+			}
+		});
+		metrics.gauge("userCache.misses", new SampleMetrics.Gauge() {
+			@Override
+			public long value() {
+				return cache.getMisses();
+			}
+		});
+		metrics.gauge("userCache.evictions", new SampleMetrics.Gauge() {
+			@Override
+			public long value() {
+				return cache.getEvictions() + cache.getExpirations();
+			}
+		});
+		metrics.gauge("userCache.invalidations", new SampleMetrics.Gauge() {
+			@Override
+			public long value() {
+				return cache.getInvalidations();
+			}
+		});
+	}
+	
+	/**
+	 * キャッシュを参照し、なければ{@link SampleUserDetailsService}に処理を委譲する.
+	 */
+	@Override
+	public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
+		if (!enabled || username == null || username.isEmpty()) {
+			return delegate.loadUserByUsername(username);
+		}
+		
+		// まずはキャッシュを参照する
+		final User cached = cache.get(username);
+		if (cached == NOT_FOUND) {
+			throw new UsernameNotFoundException(String.format("User not found \"%s\"", username));
+		}
+		if (cached != null) {
+			return SampleUserDetails.of(cached);
+		}
+		
+		// キャッシュになければ委譲先から取得してキャッシュに格納する
+		final long generation = cache.generation(username);
+		final SampleUserDetails details;
+		try {
+			details = (SampleUserDetails) delegate.loadUserByUsername(username);
+		} catch (final UsernameNotFoundException e) {
+			cache.put(username, NOT_FOUND, negativeTtlSeconds * 1000L, generation);
+			throw e;
+		}
+		cache.put(username, details.toUser(), ttlSeconds * 1000L, generation);
+		return details;
+	}
+	
+	/**
+	 * 変更のあったユーザのエントリを破棄する.
+	 */
+	@Override
+	public void userChanged(String username) {
+		cache.invalidate(username);
+	}
+	
+	/**
+	 * 再エンコードされたユーザのエントリを破棄する.
+	 */
+	@Override
+	public void passwordEncodingUpgraded(String username) {
+		cache.invalidate(username);
+	}
+	
+	/**
+	 * キャッシュしているすべてのエントリを破棄する.
+	 */
+	public void invalidateAll() {
+		cache.clear();
+	}
+}
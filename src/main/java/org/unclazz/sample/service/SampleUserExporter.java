@@ -0,0 +1,378 @@
+package org.unclazz.sample.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+import org.unclazz.sample.entity.User;
+import org.unclazz.sample.mapper.SampleUserMapper;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * 全ユーザのID・ユーザ名・管理者権限の有無をNDJSONもしくはCSVで書き出すサービス.
+ * <p>ユーザは{@link SampleUserMapper#selectAfterId(int, int)}で{@code sample.export.batchSize}件ずつ取得し、
+ * 取得したそばからレスポンスに書き出す。メモリに載るのは常に1回分のユーザだけなので、
+ * ユーザ数が増えてもヒープの使用量は変わらない。パスワードは書き出さない。</p>
+ * <p>書き出しはServlet 3.0の非同期処理を開始したうえで専用のスレッドプールで行い、
+ * リクエスト・スレッドはすぐに解放する。同時に実行できる書き出しは{@code sample.export.threads}件までで、
+ * それを超える要求には待たせずに503を返す。{@code sample.export.timeoutSeconds}を過ぎても
+ * 終わらない書き出し（受信の遅いクライアントなど）は次の区切りで打ち切る。
+ * タイムアウトを処理するコンテナのスレッドは打ち切りを指示するだけで、書き出しの終了を待たない。</p>
+ */
+@Service
+public class SampleUserExporter {
+	private static final Log logger = LogFactory.getLog(SampleUserExporter.class);
+
+	/**
+	 * 書き出しの形式.
+	 */
+	public static enum Format {
+		NDJSON("application/x-ndjson", "ndjson"),
+		CSV("text/csv", "csv");
+
+		private final String contentType;
+		private final String extension;
+
+		private Format(final String contentType, final String extension) {
+			this.contentType = contentType;
+			this.extension = extension;
+		}
+
+		/**
+		 * 名前に対応する形式を返す.
+		 * @param name 名前（大文字と小文字は区別しない）
+		 * @return 形式
+		 * @throws IllegalArgumentException 未知の名前の場合
+		 */
+		public static Format of(final String name) {
+			for (final Format format : values()) {
+				if (format.extension.equalsIgnoreCase(name)) {
+					return format;
+				}
+			}
+			throw new IllegalArgumentException(String.format("Unknown export format \"%s\"", name));
+		}
+	}
+
+	/**
+	 * ユーザ情報を1件ずつ書き出すオブジェクト.
+	 */
+	private static interface RowWriter {
+		void write(User user) throws IOException;
+		void flush() throws IOException;
+	}
+
+	/**
+	 * NDJSONを生成するファクトリ.
+	 */
+	private static final JsonFactory jsonFactory =
+			new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+	/**
+	 * 同時に実行できる書き出しの数.
+	 */
+	@Value("${sample.export.threads:2}")
+	private int threads;
+
+	/**
+	 * 書き出しのタイムアウト（秒）.
+	 */
+	@Value("${sample.export.timeoutSeconds:600}")
+	private int timeoutSeconds;
+
+	/**
+	 * 1回に取得するユーザの数.
+	 */
+	@Value("${sample.export.batchSize:1000}")
+	private int batchSize;
+
+	/**
+	 * ユーザのリレーションを処理するためのORマッパー.
+	 */
+	@Autowired
+	private SampleUserMapper userMapper;
+
+	/**
+	 * 書き出しを行うスレッドプール.
+	 */
+	private ThreadPoolExecutor executor;
+
+	/**
+	 * スレッドプールを初期化する.
+	 */
+	@PostConstruct
+	public void initialize() {
+		// 待ち行列は持たず、空いているスレッドがなければ直ちに拒否する
+		executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "sample-export-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * スレッドプールを停止する.
+	 */
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * 非同期処理を開始し、全ユーザをレスポンスに書き出す.
+	 * <p>このメソッドは書き出しの完了を待たずに戻る（非同期処理がサポートされていない場合を除く）。
+	 * レスポンスには{@code Content-Length}を設定しないので、チャンク形式で送信される。</p>
+	 * @param request リクエスト
+	 * @param response レスポンス
+	 * @param format 形式
+	 * @param gzip gzipで圧縮するかどうか
+	 * @throws IOException 書き出しもしくはエラーの送信に失敗した場合
+	 */
+	public void export(final HttpServletRequest request, final HttpServletResponse response,
+			final Format format, final boolean gzip) throws IOException {
+		final AtomicBoolean cancelled = new AtomicBoolean();
+		if (!request.isAsyncSupported()) {
+			writeResponse(response, format, gzip, cancelled);
+			return;
+		}
+
+		// レスポンスのコミット時にセッションの認証情報が消されないよう、セキュリティ・コンテキストを引き継ぐ
+		final SecurityContext context = SecurityContextHolder.getContext();
+		final AsyncContext asyncContext = request.startAsync(request, response);
+		asyncContext.setTimeout(TimeUnit.SECONDS.toMillis(timeoutSeconds));
+		asyncContext.addListener(new AsyncListener() {
+			@Override
+			public void onTimeout(final AsyncEvent event) {
+				// 打ち切りを指示するだけで、書き出しの終了は待たない
+				// ＊クライアントの受信が止まっていると書き込みがいつまでも終わらず、コンテナのスレッドを塞いでしまう
+				// ＊完了の通知は書き出しを行うスレッドだけが行う
+				cancelled.set(true);
+				logger.warn(String.format("User export timed out after %d seconds.", timeoutSeconds));
+			}
+			@Override
+			public void onStartAsync(final AsyncEvent event) {}
+			@Override
+			public void onError(final AsyncEvent event) {}
+			@Override
+			public void onComplete(final AsyncEvent event) {}
+		});
+
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					SecurityContextHolder.setContext(context);
+					try {
+						writeResponse(response, format, gzip, cancelled);
+					} catch (final IOException e) {
+						// クライアントが切断した場合などは打ち切る
+						logger.debug("User export aborted", e);
+					} finally {
+						SecurityContextHolder.clearContext();
+						// 実行時例外の場合もタイムアウトまで非同期処理を残さないよう、必ず完了させる
+						completeQuietly(asyncContext);
+					}
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			// 書き出しの数が上限に達している場合は待たせずにエラーとする
+			response.setHeader("Retry-After", "60");
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			asyncContext.complete();
+		}
+	}
+
+	/**
+	 * 非同期処理を完了させる.
+	 * <p>タイムアウトの後にコンテナがすでに完了させていた場合は何もしない。</p>
+	 * @param asyncContext 非同期処理のコンテキスト
+	 */
+	private static void completeQuietly(final AsyncContext asyncContext) {
+		try {
+			asyncContext.complete();
+		} catch (final IllegalStateException e) {
+			logger.debug("User export already completed by the container", e);
+		}
+	}
+
+	/**
+	 * 全ユーザをレスポンスに書き出す.
+	 * <p>バッチごとに打ち切りが指示されていないかを確認し、指示されていれば書き出しを止める。
+	 * 書き出しの最中にロックは保持しない。</p>
+	 * @param response レスポンス
+	 * @param format 形式
+	 * @param gzip gzipで圧縮するかどうか
+	 * @param cancelled タイムアウトにより打ち切りが指示されたかどうか
+	 * @return 最後まで書き出した場合は{@code true}、打ち切られた場合は{@code false}
+	 * @throws IOException 書き出しに失敗した場合
+	 */
+	private boolean writeResponse(final HttpServletResponse response, final Format format, final boolean gzip,
+			final AtomicBoolean cancelled) throws IOException {
+		response.setContentType(format.contentType);
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Content-Disposition", "attachment; filename=\"users." + format.extension + "\"");
+		response.setHeader("Vary", "Accept-Encoding");
+		if (gzip) {
+			response.setHeader("Content-Encoding", "gzip");
+		}
+		final OutputStream out = gzip
+				? new GZIPOutputStream(response.getOutputStream(), 8192) : response.getOutputStream();
+		final RowWriter writer = rowWriter(format, new OutputStreamWriter(out, "UTF-8"));
+		int after = 0;
+		for (;;) {
+			if (cancelled.get()) {
+				return false;
+			}
+			after = writeBatch(writer, after);
+			if (after < 0) {
+				// gzipの場合はトレーラを書き出すために閉じる
+				out.close();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * 全ユーザを書き出す.
+	 * <p>呼び出したスレッドで書き出しを行う。ストリームは閉じない。</p>
+	 * @param format 形式
+	 * @param out 出力先
+	 * @return 書き出したユーザの数
+	 * @throws IOException 書き出しに失敗した場合
+	 */
+	public long export(final Format format, final OutputStream out) throws IOException {
+		final long[] count = new long[1];
+		final RowWriter counting = new RowWriter() {
+			private final RowWriter delegate = rowWriter(format, new OutputStreamWriter(out, "UTF-8"));
+			@Override
+			public void write(final User user) throws IOException {
+				delegate.write(user);
+				count[0]++;
+			}
+			@Override
+			public void flush() throws IOException {
+				delegate.flush();
+			}
+		};
+		int after = 0;
+		do {
+			after = writeBatch(counting, after);
+		} while (after >= 0);
+		return count[0];
+	}
+
+	/**
+	 * ユーザを1回分取得して書き出す.
+	 * @param writer 書き出し先
+	 * @param after カーソル
+	 * @return 次のカーソル（最後まで書き出した場合は{@code -1}）
+	 * @throws IOException 書き出しに失敗した場合
+	 */
+	private int writeBatch(final RowWriter writer, final int after) throws IOException {
+		final List<User> users = userMapper.selectAfterId(after, batchSize);
+		for (final User user : users) {
+			writer.write(user);
+		}
+		writer.flush();
+		return users.size() < batchSize ? -1 : users.get(users.size() - 1).getId();
+	}
+
+	/**
+	 * 形式に応じたライタを返す.
+	 * <p>CSVの場合は最初にヘッダ行を書き出す。</p>
+	 * @param format 形式
+	 * @param out 出力先
+	 * @return ライタ
+	 * @throws IOException 書き出しに失敗した場合
+	 */
+	private static RowWriter rowWriter(final Format format, final Writer out) throws IOException {
+		if (format == Format.CSV) {
+			out.write("id,name,admin\r\n");
+			return new RowWriter() {
+				@Override
+				public void write(final User user) throws IOException {
+					out.write(Integer.toString(user.getId()));
+					out.write(',');
+					writeCsvField(out, user.getName());
+					out.write(user.isAdmin() ? ",true\r\n" : ",false\r\n");
+				}
+				@Override
+				public void flush() throws IOException {
+					out.flush();
+				}
+			};
+		}
+		final JsonGenerator generator = jsonFactory.createGenerator(out);
+		// ルート値の区切りは既定で空白なので、改行のみとなるよう無効にする
+		generator.setRootValueSeparator(null);
+		return new RowWriter() {
+			@Override
+			public void write(final User user) throws IOException {
+				generator.writeStartObject();
+				generator.writeNumberField("id", user.getId());
+				generator.writeStringField("name", user.getName());
+				generator.writeBooleanField("admin", user.isAdmin());
+				generator.writeEndObject();
+				generator.writeRaw('\n');
+			}
+			@Override
+			public void flush() throws IOException {
+				generator.flush();
+			}
+		};
+	}
+
+	/**
+	 * CSVのフィールドを書き出す.
+	 * <p>区切り文字・引用符・改行を含む場合は引用符で囲み、引用符は2つ重ねる（RFC 4180）。</p>
+	 * @param out 出力先
+	 * @param value 値
+	 * @throws IOException 書き出しに失敗した場合
+	 */
+	private static void writeCsvField(final Writer out, final String value) throws IOException {
+		boolean quote = false;
+		for (int i = 0; i < value.length() && !quote; i++) {
+			final char c = value.charAt(i);
+			quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+		}
+		if (!quote) {
+			out.write(value);
+			return;
+		}
+		out.write('"');
+		out.write(value.replace("\"", "\"\""));
+		out.write('"');
+	}
+}
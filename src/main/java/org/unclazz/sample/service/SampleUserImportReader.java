@@ -0,0 +1,131 @@
+package org.unclazz.sample.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * 一括登録のためのユーザ情報を入力ストリームから少しずつ読み込むリーダー.
+ * <p>入力全体をメモリに載せることはせず、{@link #read(int, SampleUserImportResult)}を呼び出すたびに
+ * 指定された行数だけを読み込む。対応する形式は次のとおり：</p>
+ * <ul>
+ * <li>CSV　1行に{@code ユーザ名,パスワード[,管理者権限]}。先頭行が{@code name,}で始まる場合はヘッダとして読み飛ばす。
+ * 引用符によるエスケープには対応しない。</li>
+ * <li>NDJSON　1行に{@code {"name":"...","password":"...","admin":false}}。</li>
+ * </ul>
+ * <p>形式の誤りのある行は結果に失敗として記録し、読み込みは続行する。空行は無視する。</p>
+ */
+public class SampleUserImportReader {
+	/**
+	 * 入力の形式.
+	 */
+	public static enum Format {
+		CSV, NDJSON
+	}
+
+	/**
+	 * NDJSONの各行を解析するためのマッパー.
+	 */
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+
+	private final BufferedReader reader;
+	private final Format format;
+
+	/**
+	 * 読み込み済みの行数.
+	 */
+	private int lineNumber;
+
+	/**
+	 * コンストラクタ.
+	 * @param reader 入力
+	 * @param format 入力の形式
+	 */
+	public SampleUserImportReader(final BufferedReader reader, final Format format) {
+		this.reader = reader;
+		this.format = format;
+	}
+
+	/**
+	 * 最大で指定された件数のユーザ情報を読み込む.
+	 * @param max 最大件数
+	 * @param result 形式の誤りを記録する結果
+	 * @return ユーザ情報のリスト（入力の終わりに達した場合は空のリスト）
+	 * @throws IOException 入力の読み込みに失敗した場合
+	 */
+	public List<SampleUserRegistration> read(final int max, final SampleUserImportResult result) throws IOException {
+		final List<SampleUserRegistration> registrations = new ArrayList<SampleUserRegistration>(max);
+		String line;
+		while (registrations.size() < max && (line = reader.readLine()) != null) {
+			lineNumber++;
+			if (line.trim().isEmpty()) {
+				continue;
+			}
+			final SampleUserRegistration registration = format == Format.CSV
+					? parseCsv(line, result) : parseJson(line, result);
+			if (registration != null) {
+				registrations.add(registration);
+			}
+		}
+		return registrations;
+	}
+
+	/**
+	 * CSVの1行を解析する.
+	 * @param line 行
+	 * @param result 形式の誤りを記録する結果
+	 * @return ユーザ情報（ヘッダ行や形式の誤りがある場合は{@code null}）
+	 */
+	private SampleUserRegistration parseCsv(final String line, final SampleUserImportResult result) {
+		if (lineNumber == 1 && line.startsWith("name,")) {
+			return null;
+		}
+		final String[] fields = line.split(",", -1);
+		if (fields.length != 2 && fields.length != 3) {
+			result.addFailure(lineNumber, null, "Malformed CSV line");
+			return null;
+		}
+		final String admin = fields.length == 3 ? fields[2].trim() : "";
+		return new SampleUserRegistration(lineNumber, fields[0].trim(), fields[1],
+				"true".equalsIgnoreCase(admin) || "1".equals(admin));
+	}
+
+	/**
+	 * NDJSONの1行を解析する.
+	 * @param line 行
+	 * @param result 形式の誤りを記録する結果
+	 * @return ユーザ情報（形式の誤りがある場合は{@code null}）
+	 */
+	private SampleUserRegistration parseJson(final String line, final SampleUserImportResult result) {
+		final JsonNode node;
+		try {
+			node = objectMapper.readTree(line);
+		} catch (final JsonProcessingException e) {
+			result.addFailure(lineNumber, null, "Malformed JSON line: " + e.getOriginalMessage());
+			return null;
+		} catch (final IOException e) {
+			result.addFailure(lineNumber, null, "Malformed JSON line");
+			return null;
+		}
+		if (node == null || !node.isObject()) {
+			result.addFailure(lineNumber, null, "JSON line is not an object");
+			return null;
+		}
+		return new SampleUserRegistration(lineNumber,
+				textOf(node.path("name")), textOf(node.path("password")), node.path("admin").asBoolean());
+	}
+
+	/**
+	 * JSONのノードの文字列値を返す.
+	 * @param node ノード
+	 * @return 文字列値（値が存在しない場合は{@code null}）
+	 */
+	private static String textOf(final JsonNode node) {
+		return node.isMissingNode() || node.isNull() ? null : node.asText();
+	}
+}
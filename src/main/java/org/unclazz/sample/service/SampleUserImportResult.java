@@ -0,0 +1,75 @@
+package org.unclazz.sample.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ユーザの一括登録の結果.
+ * <p>登録できた件数と、登録できなかった行ごとの理由を保持する。
+ * 一部の行が失敗しても残りの行の登録は続行されるため、
+ * 呼び出し側はこのオブジェクトで失敗した行を確認する。</p>
+ */
+public class SampleUserImportResult {
+	private int registered;
+	private final List<Failure> failures = new ArrayList<Failure>();
+
+	/**
+	 * 別の結果を合算する.
+	 * @param other 別の結果
+	 */
+	public void addAll(final SampleUserImportResult other) {
+		registered += other.registered;
+		failures.addAll(other.failures);
+	}
+
+	/**
+	 * 登録できた件数を加算する.
+	 * @param count 件数
+	 */
+	public void addRegistered(final int count) {
+		registered += count;
+	}
+
+	/**
+	 * 登録できなかった行を追加する.
+	 * @param line 行番号
+	 * @param name ユーザ名（不明な場合は{@code null}）
+	 * @param reason 理由
+	 */
+	public void addFailure(final int line, final String name, final String reason) {
+		failures.add(new Failure(line, name, reason));
+	}
+
+	public int getRegistered() {
+		return registered;
+	}
+	public List<Failure> getFailures() {
+		return Collections.unmodifiableList(failures);
+	}
+
+	/**
+	 * 登録できなかった行.
+	 */
+	public static final class Failure {
+		private final int line;
+		private final String name;
+		private final String reason;
+
+		private Failure(final int line, final String name, final String reason) {
+			this.line = line;
+			this.name = name;
+			this.reason = reason;
+		}
+
+		public int getLine() {
+			return line;
+		}
+		public String getName() {
+			return name;
+		}
+		public String getReason() {
+			return reason;
+		}
+	}
+}
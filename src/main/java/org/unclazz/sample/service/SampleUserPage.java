@@ -0,0 +1,67 @@
+package org.unclazz.sample.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.unclazz.sample.entity.User;
+
+/**
+ * ユーザの一覧の1ページ分.
+ * <p>ユーザはIDの昇順に並ぶ。次のページは{@link #getNext()}の値をカーソルとして取得する。
+ * 一覧の表示に不要なパスワードは含めない。</p>
+ */
+public class SampleUserPage {
+	private final List<Summary> users;
+	private final Integer next;
+
+	/**
+	 * コンストラクタ.
+	 * @param users このページのユーザ情報のリスト
+	 * @param hasNext 次のページがあるかどうか
+	 */
+	SampleUserPage(final List<User> users, final boolean hasNext) {
+		final List<Summary> summaries = new ArrayList<Summary>(users.size());
+		for (final User user : users) {
+			summaries.add(new Summary(user.getId(), user.getName(), user.isAdmin()));
+		}
+		this.users = Collections.unmodifiableList(summaries);
+		this.next = hasNext && !users.isEmpty() ? users.get(users.size() - 1).getId() : null;
+	}
+
+	public List<Summary> getUsers() {
+		return users;
+	}
+	/**
+	 * 次のページのカーソルを返す.
+	 * @return このページの最後のユーザID（次のページがない場合は{@code null}）
+	 */
+	public Integer getNext() {
+		return next;
+	}
+
+	/**
+	 * 一覧に表示するユーザの情報.
+	 */
+	public static final class Summary {
+		private final int id;
+		private final String name;
+		private final boolean admin;
+
+		private Summary(final int id, final String name, final boolean admin) {
+			this.id = id;
+			this.name = name;
+			this.admin = admin;
+		}
+
+		public int getId() {
+			return id;
+		}
+		public String getName() {
+			return name;
+		}
+		public boolean isAdmin() {
+			return admin;
+		}
+	}
+}
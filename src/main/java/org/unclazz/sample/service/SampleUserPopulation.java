@@ -0,0 +1,521 @@
+package org.unclazz.sample.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+import org.unclazz.sample.entity.User;
+import org.unclazz.sample.mapper.SampleUserMapper;
+import org.unclazz.sample.metrics.LatencyHistogram;
+import org.unclazz.sample.security.SamplePasswordEncoder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * 規模試験のために合成ユーザを起動時に投入するサービス.
+ * <p>{@code sample.population.users}が1以上の場合、起動時に{@code <namePrefix>1}から
+ * {@code <namePrefix><users>}までのユーザを登録する。パスワードは{@link #passwordOf(long, int)}、
+ * アドミニストレータ権限の有無は{@link #isAdmin(long, int, double)}により、シードと番号から決定的に求まるので、
+ * 負荷試験などからも同じユーザでログインできる。</p>
+ * <p>シードがわかれば誰でもパスワードを求められるので、シード（{@code sample.population.seed}）は既定値を持たず、
+ * 指定しないまま投入しようとすると起動に失敗する。また{@code production}プロファイルが有効な場合は、
+ * アドミニストレータ権限を持つ合成ユーザの投入を拒否する（{@code sample.population.adminRatio=0}とすれば投入できる）。</p>
+ * <p>パスワードのエンコードは重いので、専用のスレッドプールで並行して行い、結果を
+ * {@code sample.population.hashCacheDirectory}のファイルに保存する。次回以降の起動では
+ * アルゴリズムとシードが同じであればこのファイルのエンコード済みパスワードを使用し、足りない分だけをエンコードする。
+ * 最後のユーザがすでに登録されている場合（永続化された格納先を使用している場合）は投入そのものを省略する。</p>
+ * <p>投入の後、格納先のヒープ使用量、ユーザ名による検索のレイテンシのパーセンタイル、投入にかかった時間を
+ * ログに出力し、{@code sample.population.report}にJSON形式で書き出す。同じ内容は{@code /admin/population}でも参照できる。</p>
+ */
+@Service
+public class SampleUserPopulation {
+	private static final Log logger = LogFactory.getLog(SampleUserPopulation.class);
+
+	/**
+	 * アドミニストレータ権限を持つ合成ユーザの投入を拒否するプロファイル.
+	 */
+	private static final String PRODUCTION_PROFILE = "production";
+
+	/**
+	 * エンコード済みパスワードのファイルの先頭に置くマジック・ナンバー.
+	 */
+	private static final int MAGIC = 0x50575331;
+
+	/**
+	 * 1回に登録するユーザの数.
+	 */
+	private static final int CHUNK_SIZE = 10000;
+
+	/**
+	 * 入出力のバッファの長さ.
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * 投入するユーザの数. 0以下の場合は投入しない。
+	 */
+	@Value("${sample.population.users:0}")
+	private int users;
+
+	/**
+	 * ユーザ名の接頭辞.
+	 */
+	@Value("${sample.population.namePrefix:user}")
+	private String namePrefix;
+
+	/**
+	 * アドミニストレータ権限を持つユーザの割合.
+	 */
+	@Value("${sample.population.adminRatio:0.01}")
+	private double adminRatio;
+
+	/**
+	 * パスワードと権限を決めるシード（投入する場合は必須）.
+	 */
+	@Value("${sample.population.seed:}")
+	private String seedProperty;
+
+	/**
+	 * {@link #seedProperty}を解釈したシード.
+	 */
+	private long seed;
+
+	/**
+	 * パスワードのエンコードに使用するスレッド数. 0以下の場合はCPUコア数とする。
+	 */
+	@Value("${sample.population.threads:0}")
+	private int threads;
+
+	/**
+	 * エンコード済みパスワードを保存するディレクトリ.
+	 */
+	@Value("${sample.population.hashCacheDirectory:data/population}")
+	private String hashCacheDirectory;
+
+	/**
+	 * レポートで計測する検索の回数.
+	 */
+	@Value("${sample.population.reportLookups:100000}")
+	private int reportLookups;
+
+	/**
+	 * レポートを書き出すファイル（空の場合は書き出さない）.
+	 */
+	@Value("${sample.population.report:data/population/report.json}")
+	private String reportFile;
+
+	/**
+	 * ユーザのリレーションを処理するためのORマッパー.
+	 */
+	@Autowired
+	private SampleUserMapper userMapper;
+
+	/**
+	 * パスワードのエンコーダ.
+	 */
+	@Autowired
+	private SamplePasswordEncoder passwordEncoder;
+
+	/**
+	 * 有効なプロファイルを確認するための環境.
+	 */
+	@Autowired
+	private Environment environment;
+
+	private Map<String, Object> report = Collections.emptyMap();
+
+	/**
+	 * 合成ユーザを投入し、レポートを作成する.
+	 * @throws IOException レポートの書き出しに失敗した場合
+	 * @throws IllegalStateException シードが指定されていない場合、
+	 * もしくは{@code production}プロファイルが有効な状態でアドミニストレータを投入しようとした場合
+	 */
+	@PostConstruct
+	public void initialize() throws IOException {
+		if (users <= 0) {
+			return;
+		}
+		if (seedProperty == null || seedProperty.trim().isEmpty()) {
+			throw new IllegalStateException("sample.population.seed must be set to populate synthetic users.");
+		}
+		seed = Long.parseLong(seedProperty.trim());
+		if (adminRatio > 0 && environment.acceptsProfiles(PRODUCTION_PROFILE)) {
+			throw new IllegalStateException(String.format(
+					"Refusing to populate synthetic administrators with the \"%s\" profile active"
+					+ " (set sample.population.adminRatio=0).", PRODUCTION_PROFILE));
+		}
+		final Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("users", users);
+		result.put("adminRatio", adminRatio);
+		result.put("seed", seed);
+		result.put("algorithm", passwordEncoder.getAlgorithm());
+
+		final long heapBefore = usedHeap();
+		final long start = System.nanoTime();
+		if (userMapper.selectOneByName(nameOf(namePrefix, users)) != null) {
+			logger.info(String.format("Synthetic users \"%s1\" to \"%s\" already exist",
+					namePrefix, nameOf(namePrefix, users)));
+			result.put("populated", false);
+		} else {
+			populate(result);
+			result.put("populated", true);
+		}
+		result.put("populationMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		final long heap = usedHeap() - heapBefore;
+		result.put("heapBytes", heap);
+		result.put("heapBytesPerUser", (double) heap / users);
+		result.put("lookupNanos", measureLookups());
+
+		report = Collections.unmodifiableMap(result);
+		logger.info(String.format("Synthetic population: %s", report));
+		if (!reportFile.isEmpty()) {
+			final File file = new File(reportFile);
+			if (file.getParentFile() != null) {
+				file.getParentFile().mkdirs();
+			}
+			new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, report);
+		}
+	}
+
+	/**
+	 * 最後に作成したレポートを返す.
+	 * @return 項目名をキーとするマップ（投入していない場合は空）
+	 */
+	public Map<String, Object> getReport() {
+		return report;
+	}
+
+	/**
+	 * 合成ユーザのユーザ名を返す.
+	 * @param prefix ユーザ名の接頭辞
+	 * @param index 番号（1から始まる）
+	 * @return ユーザ名
+	 */
+	public static String nameOf(final String prefix, final int index) {
+		return prefix + index;
+	}
+
+	/**
+	 * 合成ユーザの平文のパスワードを返す.
+	 * @param seed シード
+	 * @param index 番号（1から始まる）
+	 * @return パスワード
+	 */
+	public static String passwordOf(final long seed, final int index) {
+		return Long.toHexString(mix(seed * 0x9e3779b97f4a7c15L + index));
+	}
+
+	/**
+	 * 合成ユーザがアドミニストレータ権限を持つかどうかを返す.
+	 * @param seed シード
+	 * @param index 番号（1から始まる）
+	 * @param adminRatio アドミニストレータ権限を持つユーザの割合
+	 * @return アドミニストレータ権限を持つ場合は{@code true}
+	 */
+	public static boolean isAdmin(final long seed, final int index, final double adminRatio) {
+		// パスワードとは異なる系列の上位53ビットを[0, 1)の値とみなす
+		return (mix(~seed * 0x9e3779b97f4a7c15L + index) >>> 11) * 0x1.0p-53 < adminRatio;
+	}
+
+	/**
+	 * 64ビットの値をかき混ぜる（SplitMix64の最終段）.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * 合成ユーザを登録する.
+	 * <p>ユーザは{@link #CHUNK_SIZE}件ずつ、保存されたエンコード済みパスワードを読み込むか
+	 * 並行してエンコードしたうえで登録する。保存されたものが足りなかった場合は、
+	 * 今回使用したエンコード済みパスワードでファイルを置き換える。</p>
+	 * @param result レポート
+	 * @throws IOException ファイルの書き込みに失敗した場合
+	 */
+	private void populate(final Map<String, Object> result) throws IOException {
+		final File directory = new File(hashCacheDirectory);
+		final File file = new File(directory, String.format("hashes-%s-%d.dat", passwordEncoder.getAlgorithm(), seed));
+		final File temporary = new File(directory, file.getName() + ".tmp");
+		DataInputStream cache = openHashCache(file);
+		DataOutputStream out = null;
+		final int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+		final ExecutorService executor = Executors.newFixedThreadPool(poolSize, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "sample-population-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		int loaded = 0;
+		int encoded = 0;
+		int admins = 0;
+		int duplicates = 0;
+		long encodeNanos = 0;
+		long insertNanos = 0;
+		try {
+			final int firstId = userMapper.selectNextVals(users);
+			for (int from = 1; from <= users; from += CHUNK_SIZE) {
+				final int size = Math.min(CHUNK_SIZE, users - from + 1);
+				final String[] hashes = new String[size];
+				int cached = 0;
+				if (cache != null) {
+					try {
+						while (cached < size) {
+							hashes[cached] = cache.readUTF();
+							cached++;
+						}
+					} catch (final IOException e) {
+						// 途中までしかないファイルは残りをエンコードして置き換える
+						close(cache);
+						cache = null;
+					}
+				}
+				if (cached < size && out == null) {
+					// 置き換えるファイルにはこれまでに読み込んだ分も書き込む
+					out = createHashCache(temporary, file, from - 1 + cached);
+				}
+				final long encodeStart = System.nanoTime();
+				encodeAll(executor, hashes, from, cached);
+				encodeNanos += System.nanoTime() - encodeStart;
+				loaded += cached;
+				encoded += size - cached;
+				if (out != null) {
+					for (final String hash : hashes) {
+						out.writeUTF(hash);
+					}
+				}
+
+				final List<User> chunk = new ArrayList<User>(size);
+				for (int i = 0; i < size; i++) {
+					final int index = from + i;
+					final User user = new User();
+					user.setId(firstId + index - 1);
+					user.setName(nameOf(namePrefix, index));
+					user.setPassword(hashes[i]);
+					user.setAdmin(isAdmin(seed, index, adminRatio));
+					if (user.isAdmin()) {
+						admins++;
+					}
+					chunk.add(user);
+				}
+				final long insertStart = System.nanoTime();
+				duplicates += userMapper.loadAll(chunk).size();
+				insertNanos += System.nanoTime() - insertStart;
+			}
+		} finally {
+			executor.shutdownNow();
+			close(cache);
+			if (out != null) {
+				out.close();
+			}
+		}
+		if (out != null) {
+			replaceHashCache(temporary, file);
+		}
+		result.put("admins", admins);
+		result.put("duplicates", duplicates);
+		result.put("loadedHashes", loaded);
+		result.put("encodedHashes", encoded);
+		result.put("hashMillis", TimeUnit.NANOSECONDS.toMillis(encodeNanos));
+		result.put("insertMillis", TimeUnit.NANOSECONDS.toMillis(insertNanos));
+	}
+
+	/**
+	 * 保存されたエンコード済みパスワードのファイルを開く.
+	 * <p>ファイルが存在しない場合や、アルゴリズム・シードが異なる場合、
+	 * 現在の設定で再エンコードすべきパスワードが含まれている場合は{@code null}を返す。
+	 * 返したストリームは最初のエンコード済みパスワードの位置にある。</p>
+	 * @param file ファイル
+	 * @return ストリーム（使用できない場合は{@code null}）
+	 */
+	private DataInputStream openHashCache(final File file) {
+		if (!file.isFile()) {
+			return null;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+			if (in.readInt() != MAGIC || !passwordEncoder.getAlgorithm().equals(in.readUTF()) || in.readLong() != seed) {
+				close(in);
+				return null;
+			}
+			in.mark(BUFFER_SIZE);
+			if (passwordEncoder.upgradeEncoding(in.readUTF())) {
+				// BCryptの強度が変わった場合など
+				close(in);
+				return null;
+			}
+			in.reset();
+			return in;
+		} catch (final IOException e) {
+			logger.warn(String.format("Ignoring hash cache \"%s\"", file), e);
+			close(in);
+			return null;
+		}
+	}
+
+	/**
+	 * エンコード済みパスワードを保存する一時ファイルを作成し、すでに読み込んだ分を書き込む.
+	 * @param temporary 一時ファイル
+	 * @param file 保存されたファイル（{@code count}件を読み込み済み）
+	 * @param count 保存されたファイルから読み込み済みのエンコード済みパスワードの数
+	 * @return ストリーム
+	 * @throws IOException ファイルの読み書きに失敗した場合
+	 */
+	private DataOutputStream createHashCache(final File temporary, final File file, final int count) throws IOException {
+		temporary.getParentFile().mkdirs();
+		final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temporary), BUFFER_SIZE));
+		out.writeInt(MAGIC);
+		out.writeUTF(passwordEncoder.getAlgorithm());
+		out.writeLong(seed);
+		if (count > 0) {
+			final DataInputStream in = openHashCache(file);
+			try {
+				for (int i = 0; i < count; i++) {
+					out.writeUTF(in.readUTF());
+				}
+			} finally {
+				close(in);
+			}
+		}
+		return out;
+	}
+
+	private static void replaceHashCache(final File temporary, final File file) throws IOException {
+		if (file.exists() && !file.delete()) {
+			throw new IOException(String.format("Failed to delete \"%s\".", file));
+		}
+		if (!temporary.renameTo(file)) {
+			throw new IOException(String.format("Failed to rename \"%s\" to \"%s\".", temporary, file));
+		}
+	}
+
+	/**
+	 * パスワードをスレッドプールで並行してエンコードする.
+	 * @param executor スレッドプール
+	 * @param hashes エンコード済みパスワードの配列（{@code from}番目のユーザが要素0）
+	 * @param from 配列の要素0に対応するユーザの番号
+	 * @param cached 配列の先頭から保存されたものを読み込み済みの要素数
+	 */
+	private void encodeAll(final ExecutorService executor, final String[] hashes, final int from, final int cached) {
+		final int remaining = hashes.length - cached;
+		if (remaining <= 0) {
+			return;
+		}
+		final int slices = Math.min(remaining, threads > 0 ? threads * 4 : Runtime.getRuntime().availableProcessors() * 4);
+		final int sliceSize = (remaining + slices - 1) / slices;
+		final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(slices);
+		for (int start = cached; start < hashes.length; start += sliceSize) {
+			final int lo = start;
+			final int hi = Math.min(start + sliceSize, hashes.length);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (int i = lo; i < hi; i++) {
+						hashes[i] = passwordEncoder.encode(passwordOf(seed, from + i));
+					}
+					return null;
+				}
+			});
+		}
+		try {
+			// invokeAllはすべての区画の完了を待つ（配列への書き込みはFutureの完了により可視になる）
+			executor.invokeAll(tasks);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while encoding passwords.", e);
+		}
+		for (int i = cached; i < hashes.length; i++) {
+			if (hashes[i] == null) {
+				throw new IllegalStateException(String.format("Failed to encode password of \"%s\"",
+						nameOf(namePrefix, from + i)));
+			}
+		}
+	}
+
+	/**
+	 * ランダムに選んだ合成ユーザをユーザ名で検索し、レイテンシのパーセンタイルを返す.
+	 * @return 集計値の名前をキーとするマップ（ナノ秒）
+	 */
+	private Map<String, Long> measureLookups() {
+		final LatencyHistogram latency = new LatencyHistogram();
+		final Random random = new Random(seed);
+		final String[] names = new String[Math.min(reportLookups, 1 << 16)];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = nameOf(namePrefix, 1 + random.nextInt(users));
+		}
+		int misses = 0;
+		for (int i = 0; i < reportLookups; i++) {
+			final long start = System.nanoTime();
+			final User user = userMapper.selectOneByName(names[i % names.length]);
+			latency.recordSince(start);
+			if (user == null) {
+				misses++;
+			}
+		}
+		final Map<String, Long> result = new LinkedHashMap<String, Long>();
+		result.put("count", latency.getCount());
+		result.put("misses", (long) misses);
+		result.put("p50", latency.percentile(50));
+		result.put("p90", latency.percentile(90));
+		result.put("p99", latency.percentile(99));
+		result.put("p999", latency.percentile(99.9));
+		return result;
+	}
+
+	/**
+	 * GCを行ったうえでヒープの使用量を返す.
+	 * @return 使用量（バイト）
+	 */
+	private static long usedHeap() {
+		final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		for (int i = 0; i < 3; i++) {
+			memory.gc();
+		}
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+	private static void close(final DataInputStream in) {
+		if (in == null) {
+			return;
+		}
+		try {
+			in.close();
+		} catch (final IOException e) {
+			// 読み込み専用なので無視する
+		}
+	}
+}
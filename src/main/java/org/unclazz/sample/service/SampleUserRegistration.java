@@ -0,0 +1,41 @@
+package org.unclazz.sample.service;
+
+/**
+ * 一括登録の対象となる1ユーザ分の情報を保持するVO.
+ * <p>パスワードはエンコード前のものを保持する。
+ * 行番号は登録に失敗した場合の報告に使用する。</p>
+ */
+public class SampleUserRegistration {
+	private final int line;
+	private final String name;
+	private final CharSequence rawPassword;
+	private final boolean admin;
+
+	/**
+	 * コンストラクタ.
+	 * @param line 入力データ上の行番号
+	 * @param name ユーザ名
+	 * @param rawPassword エンコード前のパスワード
+	 * @param admin 管理者権限を持つかどうか
+	 */
+	public SampleUserRegistration(final int line, final String name,
+			final CharSequence rawPassword, final boolean admin) {
+		this.line = line;
+		this.name = name;
+		this.rawPassword = rawPassword;
+		this.admin = admin;
+	}
+
+	public int getLine() {
+		return line;
+	}
+	public String getName() {
+		return name;
+	}
+	public CharSequence getRawPassword() {
+		return rawPassword;
+	}
+	public boolean isAdmin() {
+		return admin;
+	}
+}
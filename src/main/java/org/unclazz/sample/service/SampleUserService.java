@@ -1,6 +1,18 @@
 package org.unclazz.sample.service;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.unclazz.sample.SampleSecurityConfiguration;
@@ -10,6 +22,9 @@ import org.unclazz.sample.mapper.SampleUserMapper;
 
 /**
  * リクエスト・パラーメタやリレーションとしてのユーザ情報を処理するためのサービス.
+ * <p>{@link #registerUsers(List, SampleUserDetails)}による一括登録では、
+ * パスワードのエンコードを専用のスレッドプールで並行して行い、
+ * IDはまとめて採番し、ORマッパーにはまとめて登録を依頼する。</p>
  */
 @Service
 public class SampleUserService {
@@ -28,6 +43,51 @@ public class SampleUserService {
 	 */
     @Autowired
 	private SampleUserMapper userMapper;
+    
+    /**
+     * 一括登録でパスワードのエンコードに使用するスレッド数. 0以下の場合はCPUコア数とする。
+     */
+    @Value("${sample.import.threads:0}")
+    private int importThreads;
+    
+    /**
+     * 一括登録でパスワードのエンコードを行うスレッドプール.
+     * <p>ログイン処理の{@link org.unclazz.sample.security.SampleHashingExecutor}とは分けておき、
+     * 大量の登録がログインを待たせないようにしている。</p>
+     */
+    private ExecutorService importExecutor;
+    
+    /**
+     * ユーザの一覧の1ページあたりの件数の上限.
+     */
+    @Value("${sample.users.maxPageSize:1000}")
+    private int maxPageSize;
+    
+    /**
+     * スレッドプールを初期化する.
+     */
+    @PostConstruct
+    public void initialize() {
+    	final int size = importThreads > 0 ? importThreads : Runtime.getRuntime().availableProcessors();
+    	importExecutor = Executors.newFixedThreadPool(size, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "sample-import-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+    	this.importThreads = size;
+    }
+    
+    /**
+     * スレッドプールを停止する.
+     */
+    @PreDestroy
+    public void shutdown() {
+    	importExecutor.shutdownNow();
+    }
 	
     /**
      * 新規ユーザを追加する.
@@ -51,4 +111,123 @@ public class SampleUserService {
 		// ORマッパーのメソッドを呼び出す
 		userMapper.insert(user, auth);
 	}
+	
+	/**
+	 * 新規ユーザを一括で追加する.
+	 * <p>ユーザ名やパスワードが空の行、ユーザ名が既存のユーザや同じ一括登録内の他の行と重複する行は
+	 * 登録せずに結果に記録し、残りの行の登録は続行する。</p>
+	 * @param registrations 登録するユーザの情報のリスト
+	 * @param auth オペレーションを実行しているユーザの情報
+	 * @return 登録の結果
+	 */
+	public SampleUserImportResult registerUsers(List<SampleUserRegistration> registrations,
+			SampleUserDetails auth) {
+		final SampleUserImportResult result = new SampleUserImportResult();
+		final List<SampleUserRegistration> valid = new ArrayList<SampleUserRegistration>(registrations.size());
+		for (final SampleUserRegistration registration : registrations) {
+			if (isEmpty(registration.getName())) {
+				result.addFailure(registration.getLine(), registration.getName(), "Username is empty");
+			} else if (isEmpty(registration.getRawPassword())) {
+				result.addFailure(registration.getLine(), registration.getName(), "Password is empty");
+			} else {
+				valid.add(registration);
+			}
+		}
+		if (valid.isEmpty()) {
+			return result;
+		}
+		
+		// パスワードのエンコードは重いので並行して行う
+		final String[] encoded = encodeAll(valid);
+		
+		// IDはまとめて採番
+		final int firstId = userMapper.selectNextVals(valid.size());
+		final List<User> users = new ArrayList<User>(valid.size());
+		for (int i = 0; i < valid.size(); i++) {
+			final SampleUserRegistration registration = valid.get(i);
+			if (encoded[i] == null) {
+				result.addFailure(registration.getLine(), registration.getName(), "Failed to encode password");
+				continue;
+			}
+			final User user = new User();
+			user.setId(firstId + i);
+			user.setName(registration.getName());
+			user.setPassword(encoded[i]);
+			user.setAdmin(registration.isAdmin());
+			users.add(user);
+		}
+		
+		// 登録もまとめて行い、重複した行だけを失敗として記録する
+		final List<User> duplicates = userMapper.insertAll(users, auth);
+		for (final User duplicate : duplicates) {
+			// IDは採番した先頭IDからの位置で元の行と対応している
+			final SampleUserRegistration registration = valid.get(duplicate.getId() - firstId);
+			result.addFailure(registration.getLine(), registration.getName(),
+					String.format("Duplicated username \"%s\".", registration.getName()));
+		}
+		result.addRegistered(users.size() - duplicates.size());
+		return result;
+	}
+	
+	/**
+	 * パスワードをスレッドプールで並行してエンコードする.
+	 * <p>リストをスレッド数の数倍の区画に分けて各スレッドに割り当てる。</p>
+	 * @param registrations 登録するユーザの情報のリスト
+	 * @return エンコード済みパスワードの配列（エンコードに失敗した要素は{@code null}）
+	 */
+	private String[] encodeAll(final List<SampleUserRegistration> registrations) {
+		final String[] encoded = new String[registrations.size()];
+		final int slices = Math.min(registrations.size(), importThreads * 4);
+		final int sliceSize = (registrations.size() + slices - 1) / slices;
+		final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(slices);
+		for (int start = 0; start < registrations.size(); start += sliceSize) {
+			final int from = start;
+			final int to = Math.min(start + sliceSize, registrations.size());
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (int i = from; i < to; i++) {
+						try {
+							encoded[i] = passwordEncoder.encode(registrations.get(i).getRawPassword());
+						} catch (final RuntimeException e) {
+							encoded[i] = null;
+						}
+					}
+					return null;
+				}
+			});
+		}
+		try {
+			// invokeAllはすべての区画の完了を待つ（配列への書き込みはFutureの完了により可視になる）
+			importExecutor.invokeAll(tasks);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while encoding passwords.", e);
+		}
+		return encoded;
+	}
+	
+	/**
+	 * ユーザの一覧をIDの昇順で1ページ分返す.
+	 * <p>前のページの{@link SampleUserPage#getNext()}を{@code after}に渡すと次のページを取得できる。
+	 * 次のページの有無を判定するため、1件だけ多く取得している。</p>
+	 * @param after カーソル（先頭のページを取得する場合は{@code 0}）
+	 * @param size 1ページあたりの件数（{@code sample.users.maxPageSize}を上限とする）
+	 * @return 1ページ分のユーザの一覧
+	 */
+	public SampleUserPage listUsers(int after, int size) {
+		final int limit = Math.max(1, Math.min(size, maxPageSize));
+		final List<User> users = userMapper.selectAfterId(after, limit + 1);
+		final boolean hasNext = users.size() > limit;
+		return new SampleUserPage(hasNext ? users.subList(0, limit) : users, hasNext);
+	}
+	
+	/**
+	 * 文字列が{@code null}もしくは空であるかどうかを判定する.
+	 * @param s 文字列
+	 * @return {@code null}もしくは空の場合は{@code true}
+	 */
+	private static boolean isEmpty(CharSequence s) {
+		return s == null || s.length() == 0;
+	}
 }
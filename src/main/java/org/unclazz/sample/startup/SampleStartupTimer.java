@@ -0,0 +1,233 @@
+package org.unclazz.sample.startup;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.InstantiationAwareBeanPostProcessorAdapter;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+
+/**
+ * ビーンごとの初期化の所要時間を計測し、アプリケーション・コンテキストの起動後に報告するポスト・プロセッサ.
+ * <p>ビーンのインスタンス化の直前から初期化の完了までを計測する。依存するビーンの生成は呼び出し元の生成の途中で
+ * 入れ子に行われるため、入れ子の時間を含めた時間（total）と差し引いた正味の時間（self）をそれぞれ記録する。
+ * コンテキストの起動が完了すると、正味の時間の長いビーンとパッケージの上位{@code sample.startup.reportTop}件を
+ * ログに出力する。パッケージごとの集計は、使われていない自動構成を{@code SampleApplication}で除外する際の目安になる。
+ * 結果は{@code /admin/startup}でも参照できる。</p>
+ * <p>このポスト・プロセッサより先に生成されるビーン（ほかのポスト・プロセッサなど）は計測されない。
+ * {@code sample.startup.report}が{@code false}（既定）の場合は何もしない。</p>
+ */
+@Component
+public class SampleStartupTimer extends InstantiationAwareBeanPostProcessorAdapter
+		implements Ordered, ApplicationListener<ContextRefreshedEvent> {
+	private static final Log logger = LogFactory.getLog(SampleStartupTimer.class);
+
+	/**
+	 * 初期化の所要時間を計測するかどうか.
+	 */
+	@Value("${sample.startup.report:false}")
+	private boolean enabled;
+
+	/**
+	 * ログに出力するビーンとパッケージの件数.
+	 */
+	@Value("${sample.startup.reportTop:20}")
+	private int reportTop;
+
+	/**
+	 * 生成中のビーン.
+	 */
+	private static final class Frame {
+		private final String name;
+		private final Class<?> type;
+		private final long start;
+		private long childNanos;
+
+		private Frame(final String name, final Class<?> type, final long start) {
+			this.name = name;
+			this.type = type;
+			this.start = start;
+		}
+	}
+
+	/**
+	 * ビーンごとの所要時間.
+	 */
+	public static final class Timing {
+		private final String name;
+		private final String type;
+		private final long totalNanos;
+		private final long selfNanos;
+
+		private Timing(final String name, final String type, final long totalNanos, final long selfNanos) {
+			this.name = name;
+			this.type = type;
+			this.totalNanos = totalNanos;
+			this.selfNanos = selfNanos;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public double getTotalMillis() {
+			return totalNanos / 1e6;
+		}
+
+		public double getSelfMillis() {
+			return selfNanos / 1e6;
+		}
+	}
+
+	/**
+	 * 正味の時間の降順.
+	 */
+	private static final Comparator<Timing> BY_SELF_DESC = new Comparator<Timing>() {
+		@Override
+		public int compare(final Timing o1, final Timing o2) {
+			return o1.selfNanos < o2.selfNanos ? 1 : (o1.selfNanos == o2.selfNanos ? 0 : -1);
+		}
+	};
+
+	/**
+	 * スレッドごとの生成中のビーンのスタック.
+	 */
+	private final ThreadLocal<Deque<Frame>> frames = new ThreadLocal<Deque<Frame>>() {
+		@Override
+		protected Deque<Frame> initialValue() {
+			return new ArrayDeque<Frame>();
+		}
+	};
+
+	private final List<Timing> timings = Collections.synchronizedList(new ArrayList<Timing>());
+	private volatile boolean recording = true;
+	private volatile long refreshMillis = -1;
+
+	@Override
+	public int getOrder() {
+		return Ordered.HIGHEST_PRECEDENCE;
+	}
+
+	@Override
+	public Object postProcessBeforeInstantiation(final Class<?> beanClass, final String beanName) throws BeansException {
+		if (enabled && recording) {
+			frames.get().push(new Frame(beanName, beanClass, System.nanoTime()));
+		}
+		return null;
+	}
+
+	@Override
+	public Object postProcessAfterInitialization(final Object bean, final String beanName) throws BeansException {
+		if (!enabled || !recording) {
+			return bean;
+		}
+		final Deque<Frame> stack = frames.get();
+		final Frame frame = stack.peek();
+		// FactoryBeanが生成したオブジェクトなど、インスタンス化を経ずに渡されたものは対象外
+		if (frame == null || !frame.name.equals(beanName)) {
+			return bean;
+		}
+		stack.pop();
+		final long total = System.nanoTime() - frame.start;
+		if (!stack.isEmpty()) {
+			stack.peek().childNanos += total;
+		}
+		timings.add(new Timing(beanName, frame.type.getName(), total, total - frame.childNanos));
+		return bean;
+	}
+
+	@Override
+	public void onApplicationEvent(final ContextRefreshedEvent event) {
+		if (!enabled || !recording) {
+			return;
+		}
+		recording = false;
+		frames.remove();
+		refreshMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+		report();
+	}
+
+	/**
+	 * 初期化の所要時間を計測しているかどうかを返す.
+	 * @return 計測している場合は{@code true}
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * コンテキストの起動が完了した時刻を返す.
+	 * @return JVMの起動からの経過時間（ミリ秒）、計測していない場合は{@code -1}
+	 */
+	public long getRefreshMillis() {
+		return refreshMillis;
+	}
+
+	/**
+	 * ビーンごとの所要時間を正味の時間の降順で返す.
+	 * @param limit 最大件数
+	 * @return 所要時間のリスト
+	 */
+	public List<Timing> getTimings(final int limit) {
+		final List<Timing> sorted;
+		synchronized (timings) {
+			sorted = new ArrayList<Timing>(timings);
+		}
+		Collections.sort(sorted, BY_SELF_DESC);
+		return sorted.size() > limit ? sorted.subList(0, limit) : sorted;
+	}
+
+	/**
+	 * 正味の時間の長いビーンとパッケージをログに出力する.
+	 */
+	private void report() {
+		final List<Timing> sorted = getTimings(Integer.MAX_VALUE);
+		long totalSelf = 0;
+		final Map<String, Long> packages = new HashMap<String, Long>();
+		for (final Timing timing : sorted) {
+			totalSelf += timing.selfNanos;
+			final int dot = timing.type.lastIndexOf('.');
+			final String pkg = dot < 0 ? "" : timing.type.substring(0, dot);
+			final Long sum = packages.get(pkg);
+			packages.put(pkg, (sum == null ? 0 : sum) + timing.selfNanos);
+		}
+		final List<Map.Entry<String, Long>> byPackage = new ArrayList<Map.Entry<String, Long>>(packages.entrySet());
+		Collections.sort(byPackage, new Comparator<Map.Entry<String, Long>>() {
+			@Override
+			public int compare(final Map.Entry<String, Long> o1, final Map.Entry<String, Long> o2) {
+				return o2.getValue().compareTo(o1.getValue());
+			}
+		});
+
+		final StringBuilder buf = new StringBuilder();
+		buf.append(String.format("Application context refreshed %d ms after JVM start; %d beans took %.1f ms to initialize",
+				refreshMillis, sorted.size(), totalSelf / 1e6));
+		buf.append(String.format("%n%10s %10s  %s", "self(ms)", "total(ms)", "bean"));
+		for (final Timing timing : sorted.subList(0, Math.min(reportTop, sorted.size()))) {
+			buf.append(String.format("%n%10.1f %10.1f  %s (%s)",
+					timing.getSelfMillis(), timing.getTotalMillis(), timing.name, timing.type));
+		}
+		buf.append(String.format("%n%10s  %s", "self(ms)", "package"));
+		for (final Map.Entry<String, Long> e : byPackage.subList(0, Math.min(reportTop, byPackage.size()))) {
+			buf.append(String.format("%n%10.1f  %s", e.getValue() / 1e6, e.getKey()));
+		}
+		logger.info(buf.toString());
+	}
+}
@@ -0,0 +1,439 @@
+package org.unclazz.sample.startup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.embedded.EmbeddedServletContainerInitializedEvent;
+import org.springframework.boot.context.embedded.EmbeddedWebApplicationContext;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.type.classreading.MetadataReaderFactory;
+import org.springframework.core.type.classreading.SimpleMetadataReaderFactory;
+import org.springframework.stereotype.Component;
+import org.unclazz.sample.entity.User;
+import org.unclazz.sample.mapper.SampleUserMapper;
+import org.unclazz.sample.metrics.SampleMetrics;
+import org.unclazz.sample.security.SamplePasswordEncoder;
+
+/**
+ * 組み込みサーバの起動後、リクエストを受け付ける準備ができたと報告する前にウォームアップを行うコンポーネント.
+ * <p>ウォームアップは専用のスレッドで次の順に行う。</p>
+ * <ol>
+ * <li>{@code sample.warmup.preloadPackages}のパッケージ以下のクラスを読み込む（初期化はしない）</li>
+ * <li>予約されたユーザ（{@code sample.warmup.username}）をランダムなパスワードで登録する</li>
+ * <li>組み込みサーバに対してログイン画面の表示、ログイン、トップ画面と管理画面の表示、ログアウトを繰り返す。
+ * これによりパスワード・エンコーダ、セキュリティのフィルタチェーン、テンプレートの解析と描画が
+ * JITコンパイルされ、キャッシュが有効な場合はテンプレートの解析結果もキャッシュされる</li>
+ * <li>予約されたユーザをログインできない状態にし、アドミニストレータ権限も外す</li>
+ * </ol>
+ * <p>繰り返しは{@code sample.warmup.iterations}回、ただし{@code sample.warmup.maxSeconds}秒までとする。
+ * 想定外のレスポンスを受け取った場合はその時点でウォームアップを打ち切る。いずれの場合も最後に
+ * {@link #isReady()}が{@code true}になり、{@code /ready}が200を返すようになる。</p>
+ * <p>{@code sample.warmup.enabled}が{@code false}の場合や、組み込みサーバを使用しない場合（WARとしての配備や
+ * ベンチマーク）はウォームアップを行わず、コンテキストの起動の完了をもって準備ができたものとする。</p>
+ */
+@Component
+public class SampleWarmup implements ApplicationListener<ApplicationEvent> {
+	private static final Log logger = LogFactory.getLog(SampleWarmup.class);
+
+	/**
+	 * ログイン画面からCSRFトークンを取り出すための正規表現.
+	 */
+	private static final Pattern CSRF = Pattern.compile("name=\"_csrf\"\\s+value=\"([^\"]+)\"");
+
+	/**
+	 * クッキーの名前と値を取り出すための正規表現.
+	 */
+	private static final Pattern COOKIE = Pattern.compile("^\\s*([^=;\\s]+)=([^;]*)");
+
+	/**
+	 * 接続と読み込みのタイムアウト（ミリ秒）.
+	 */
+	private static final int TIMEOUT_MILLIS = 10000;
+
+	/**
+	 * ウォームアップを行うかどうか.
+	 */
+	@Value("${sample.warmup.enabled:true}")
+	private boolean enabled;
+
+	/**
+	 * ログインを繰り返す回数.
+	 */
+	@Value("${sample.warmup.iterations:200}")
+	private int iterations;
+
+	/**
+	 * ログインを繰り返す時間の上限（秒）.
+	 */
+	@Value("${sample.warmup.maxSeconds:60}")
+	private int maxSeconds;
+
+	/**
+	 * ウォームアップのために予約されたユーザ名.
+	 */
+	@Value("${sample.warmup.username:__warmup__}")
+	private String username;
+
+	/**
+	 * ウォームアップの間だけ予約されたユーザにアドミニストレータ権限を与え、管理画面も表示するかどうか.
+	 */
+	@Value("${sample.warmup.admin:false}")
+	private boolean admin;
+
+	/**
+	 * クラスを読み込むパッケージ（カンマ区切り）.
+	 */
+	@Value("${sample.warmup.preloadPackages:org.unclazz.sample,org.thymeleaf.standard}")
+	private String preloadPackages;
+
+	/**
+	 * 組み込みサーバが待ち受けるアドレス.
+	 */
+	@Value("${server.address:127.0.0.1}")
+	private String serverAddress;
+
+	/**
+	 * 組み込みサーバのコンテキスト・パス.
+	 */
+	@Value("${server.contextPath:}")
+	private String contextPath;
+
+	/**
+	 * 予約されたユーザを登録するためのORマッパー.
+	 */
+	@Autowired
+	private SampleUserMapper userMapper;
+
+	/**
+	 * 予約されたユーザのパスワードをエンコードするためのエンコーダ.
+	 */
+	@Autowired
+	private SamplePasswordEncoder passwordEncoder;
+
+	/**
+	 * 計測値のレジストリ.
+	 */
+	@Autowired
+	private SampleMetrics metrics;
+
+	private final SecureRandom random = new SecureRandom();
+	private volatile boolean ready;
+	private volatile long readyMillis = -1;
+	private volatile long warmupMillis = -1;
+	private volatile int logins;
+	private volatile int preloadedClasses;
+
+	/**
+	 * レスポンス.
+	 */
+	private static final class Response {
+		private int status;
+		private String location;
+		private String body;
+	}
+
+	/**
+	 * 起動時間の計測値を登録する.
+	 */
+	@PostConstruct
+	public void initialize() {
+		metrics.gauge("startup.readyMillis", new SampleMetrics.Gauge() {
+			@Override
+			public long value() {
+				return readyMillis;
+			}
+		});
+		metrics.gauge("startup.warmupMillis", new SampleMetrics.Gauge() {
+			@Override
+			public long value() {
+				return warmupMillis;
+			}
+		});
+	}
+
+	@Override
+	public void onApplicationEvent(final ApplicationEvent event) {
+		if (event instanceof ContextRefreshedEvent) {
+			if (!enabled || !(((ContextRefreshedEvent) event).getApplicationContext()
+					instanceof EmbeddedWebApplicationContext)) {
+				markReady();
+			}
+		} else if (event instanceof EmbeddedServletContainerInitializedEvent && enabled && !ready) {
+			final int port = ((EmbeddedServletContainerInitializedEvent) event).getEmbeddedServletContainer().getPort();
+			if (port <= 0) {
+				markReady();
+				return;
+			}
+			final Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					warmup(port);
+				}
+			}, "sample-warmup");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * リクエストを受け付ける準備ができているかどうかを返す.
+	 * @return ウォームアップが終わっている場合は{@code true}
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * 準備ができた時刻を返す.
+	 * @return JVMの起動からの経過時間（ミリ秒）、準備ができていない場合は{@code -1}
+	 */
+	public long getReadyMillis() {
+		return readyMillis;
+	}
+
+	/**
+	 * ウォームアップの所要時間を返す.
+	 * @return 所要時間（ミリ秒）、ウォームアップを行っていない場合は{@code -1}
+	 */
+	public long getWarmupMillis() {
+		return warmupMillis;
+	}
+
+	/**
+	 * ウォームアップで成功したログインの回数を返す.
+	 * @return 回数
+	 */
+	public int getLogins() {
+		return logins;
+	}
+
+	/**
+	 * ウォームアップで読み込んだクラスの数を返す.
+	 * @return 数
+	 */
+	public int getPreloadedClasses() {
+		return preloadedClasses;
+	}
+
+	private void markReady() {
+		if (ready) {
+			return;
+		}
+		readyMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+		ready = true;
+		logger.info(String.format("Ready to accept requests %d ms after JVM start "
+				+ "(warm-up: %d ms, %d logins, %d classes preloaded)",
+				readyMillis, warmupMillis, logins, preloadedClasses));
+	}
+
+	/**
+	 * ウォームアップを行い、最後に準備ができたものとする.
+	 * @param port 組み込みサーバのポート
+	 */
+	private void warmup(final int port) {
+		final long start = System.nanoTime();
+		try {
+			preloadClasses();
+			final String host = serverAddress.isEmpty() || "0.0.0.0".equals(serverAddress) ? "127.0.0.1" : serverAddress;
+			final String baseUrl = "http://" + (host.indexOf(':') < 0 ? host : "[" + host + "]") + ":" + port + contextPath;
+			final String password = randomPassword();
+			saveUser(passwordEncoder.encode(password), admin);
+			try {
+				final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(maxSeconds);
+				while (logins < iterations && System.nanoTime() < deadline) {
+					login(baseUrl, password);
+					logins++;
+				}
+			} finally {
+				saveUser(SamplePasswordEncoder.DISABLED, false);
+			}
+		} catch (final Exception e) {
+			logger.warn("Warm-up aborted", e);
+		} finally {
+			warmupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			markReady();
+		}
+	}
+
+	/**
+	 * 指定されたパッケージ以下のクラスを読み込む.
+	 * <p>静的初期化子は実行しない。読み込めないクラスは無視する。</p>
+	 * @throws IOException クラスパスの走査に失敗した場合
+	 */
+	private void preloadClasses() throws IOException {
+		final ClassLoader classLoader = getClass().getClassLoader();
+		final PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver(classLoader);
+		final MetadataReaderFactory readers = new SimpleMetadataReaderFactory(classLoader);
+		for (final String pkg : preloadPackages.split(",")) {
+			if (pkg.trim().isEmpty()) {
+				continue;
+			}
+			for (final Resource resource : resolver.getResources("classpath*:" + pkg.trim().replace('.', '/') + "/**/*.class")) {
+				try {
+					Class.forName(readers.getMetadataReader(resource).getClassMetadata().getClassName(), false, classLoader);
+					preloadedClasses++;
+				} catch (final ClassNotFoundException e) {
+					// 読み込めないクラスは実行時にも使われない
+				} catch (final LinkageError e) {
+					// 同上
+				}
+			}
+		}
+	}
+
+	/**
+	 * 予約されたユーザを登録する. すでに登録されている場合は更新する。
+	 * <p>ウォームアップの後は{@link SamplePasswordEncoder#DISABLED}と権限なしで上書きし、
+	 * 以降はこのユーザでログインできないようにする。</p>
+	 * @param encodedPassword エンコード済みのパスワード
+	 * @param admin アドミニストレータ権限を与えるかどうか
+	 */
+	private void saveUser(final String encodedPassword, final boolean admin) {
+		final User user = new User();
+		user.setName(username);
+		user.setPassword(encodedPassword);
+		user.setAdmin(admin);
+		final User existing = userMapper.selectOneByName(username);
+		if (existing == null) {
+			user.setId(userMapper.selectNextVal());
+			userMapper.insert(user, null);
+		} else {
+			user.setId(existing.getId());
+			userMapper.update(user, null);
+		}
+	}
+
+	private String randomPassword() {
+		return new BigInteger(128, random).toString(32);
+	}
+
+	/**
+	 * ログインからログアウトまでを1回行う.
+	 * @param baseUrl サーバのURL
+	 * @param password 予約されたユーザのパスワード
+	 * @throws IOException 通信に失敗した場合
+	 */
+	private void login(final String baseUrl, final String password) throws IOException {
+		final Map<String, String> cookies = new LinkedHashMap<String, String>();
+		final Response page = execute(baseUrl, "GET", "/login", cookies, null);
+		final Matcher csrf = CSRF.matcher(page.body);
+		expect(page.status == 200 && csrf.find(), "GET /login", page);
+		final String form = "username=" + URLEncoder.encode(username, "UTF-8")
+				+ "&password=" + URLEncoder.encode(password, "UTF-8")
+				+ "&_csrf=" + URLEncoder.encode(csrf.group(1), "UTF-8");
+		final Response login = execute(baseUrl, "POST", "/login", cookies, form);
+		expect(login.status == 302 && login.location != null && login.location.endsWith("/index"), "POST /login", login);
+		final Response index = execute(baseUrl, "GET", "/index", cookies, null);
+		expect(index.status == 200, "GET /index", index);
+		if (admin) {
+			final Response adminPage = execute(baseUrl, "GET", "/admin", cookies, null);
+			expect(adminPage.status == 200, "GET /admin", adminPage);
+		}
+		final Response logout = execute(baseUrl, "GET", "/logout", cookies, null);
+		expect(logout.status == 302, "GET /logout", logout);
+	}
+
+	private static void expect(final boolean ok, final String step, final Response response) {
+		if (!ok) {
+			throw new IllegalStateException(String.format("Unexpected response to %s: %d %s",
+					step, response.status, response.location == null ? "" : response.location));
+		}
+	}
+
+	/**
+	 * リクエストを送る.
+	 * @param baseUrl サーバのURL
+	 * @param method HTTPメソッド
+	 * @param path パス
+	 * @param cookies クッキー（レスポンスで設定されたものを書き加える）
+	 * @param form フォームのパラメータ（ない場合は{@code null}）
+	 * @return レスポンス
+	 * @throws IOException 通信に失敗した場合
+	 */
+	private static Response execute(final String baseUrl, final String method, final String path,
+			final Map<String, String> cookies, final String form) throws IOException {
+		final HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+		connection.setInstanceFollowRedirects(false);
+		connection.setUseCaches(false);
+		connection.setConnectTimeout(TIMEOUT_MILLIS);
+		connection.setReadTimeout(TIMEOUT_MILLIS);
+		connection.setRequestMethod(method);
+		if (!cookies.isEmpty()) {
+			final StringBuilder header = new StringBuilder();
+			for (final Map.Entry<String, String> cookie : cookies.entrySet()) {
+				if (header.length() > 0) {
+					header.append("; ");
+				}
+				header.append(cookie.getKey()).append('=').append(cookie.getValue());
+			}
+			connection.setRequestProperty("Cookie", header.toString());
+		}
+		if (form != null) {
+			final byte[] bytes = form.getBytes("UTF-8");
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+			connection.setFixedLengthStreamingMode(bytes.length);
+			final OutputStream out = connection.getOutputStream();
+			try {
+				out.write(bytes);
+			} finally {
+				out.close();
+			}
+		}
+		final Response response = new Response();
+		response.status = connection.getResponseCode();
+		response.location = connection.getHeaderField("Location");
+		response.body = read(response.status >= 400 ? connection.getErrorStream() : connection.getInputStream());
+		final List<String> setCookies = connection.getHeaderFields().get("Set-Cookie");
+		if (setCookies != null) {
+			for (final String setCookie : setCookies) {
+				final Matcher matcher = COOKIE.matcher(setCookie);
+				if (matcher.find()) {
+					cookies.put(matcher.group(1), matcher.group(2));
+				}
+			}
+		}
+		return response;
+	}
+
+	private static String read(final InputStream in) throws IOException {
+		if (in == null) {
+			return "";
+		}
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			final byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		return out.toString("UTF-8");
+	}
+}
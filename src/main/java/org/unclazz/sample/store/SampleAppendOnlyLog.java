@@ -0,0 +1,396 @@
+package org.unclazz.sample.store;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * メモリマップト・ファイルによる追記専用のログ（ライトアヘッド・ログ）.
+ * <p>ログは固定長のセグメント・ファイル{@code <name>.<セグメント番号>.log}の列からなる。
+ * 各レコードは{@code [長さ(int)][CRC32(int)][ペイロード]}の形式でセグメントに追記され、
+ * セグメントに収まらなくなると次のセグメントに切り替わる。
+ * 長さ0（未使用領域）もしくはCRCの一致しないレコードに達した時点でそのセグメントの終わりとみなすため、
+ * 書き込み途中でプロセスが停止しても最後の不完全なレコードが無視されるだけで済む。</p>
+ * <p>ディスクへの同期（{@link MappedByteBuffer#force()}）は専用のスレッドがまとめて行う。
+ * {@link #sync(long)}を呼び出したスレッドはそのレコードが同期されるまで待たされるが、
+ * 同時に待っている複数のスレッドの要求は1回の同期でまとめて満たされる（グループ・コミット）。
+ * 待つ必要のない書き込みも{@code syncIntervalMillis}ごとに同期される。</p>
+ * <p>スナップショットと組み合わせて使用することを想定しており、{@link #roll()}で新しいセグメントに
+ * 切り替えてから切り替え前の状態のスナップショットを作成し、{@link #deleteSegmentsBefore(long)}で
+ * 不要になった古いセグメントを削除する。</p>
+ */
+public class SampleAppendOnlyLog {
+	private static final Log logger = LogFactory.getLog(SampleAppendOnlyLog.class);
+
+	/**
+	 * レコード・ヘッダ（長さとCRC）の長さ.
+	 */
+	private static final int HEADER_LENGTH = 8;
+
+	/**
+	 * セグメント・ファイルの拡張子.
+	 */
+	private static final String SUFFIX = ".log";
+
+	/**
+	 * レコードを受け取るハンドラ.
+	 */
+	public static interface RecordHandler {
+		/**
+		 * レコードを処理する.
+		 * @param payload ペイロード
+		 * @throws IOException ペイロードの解析に失敗した場合
+		 */
+		void handle(byte[] payload) throws IOException;
+	}
+
+	private final File directory;
+	private final String name;
+	private final int segmentSize;
+	private final long syncIntervalMillis;
+
+	/**
+	 * 書き込み中のセグメントの番号. {@code this}で保護される。
+	 */
+	private long segmentIndex;
+
+	/**
+	 * 書き込み中のセグメント. {@code this}で保護される。
+	 */
+	private MappedByteBuffer segment;
+
+	/**
+	 * 追記したレコードの通し番号. {@code this}で保護される。
+	 */
+	private long appended;
+
+	/**
+	 * 同期処理の待ち合わせに使用するロック.
+	 */
+	private final Object syncLock = new Object();
+
+	/**
+	 * 同期を要求されたレコードの通し番号の最大値. {@link #syncLock}で保護される。
+	 */
+	private long requested;
+
+	/**
+	 * 同期済みのレコードの通し番号の最大値. {@link #syncLock}で保護される。
+	 */
+	private long durable;
+
+	/**
+	 * ログが閉じられたかどうか. {@link #syncLock}で保護される。
+	 */
+	private boolean closed;
+
+	/**
+	 * 同期処理を行うスレッド.
+	 */
+	private Thread syncThread;
+
+	/**
+	 * コンストラクタ.
+	 * @param directory セグメント・ファイルを格納するディレクトリ
+	 * @param name ログの名前（セグメント・ファイル名の接頭辞）
+	 * @param segmentSize セグメントの長さ（バイト）
+	 * @param syncIntervalMillis 同期を要求されていない書き込みを同期する間隔（ミリ秒）
+	 */
+	public SampleAppendOnlyLog(final File directory, final String name,
+			final int segmentSize, final long syncIntervalMillis) {
+		this.directory = directory;
+		this.name = name;
+		this.segmentSize = segmentSize;
+		this.syncIntervalMillis = syncIntervalMillis;
+	}
+
+	/**
+	 * 指定された番号以降のセグメントのレコードを再生したうえで、ログを書き込み可能な状態にする.
+	 * <p>最後のセグメントの有効なレコードの直後から追記を再開する。
+	 * 該当するセグメントがなければ指定された番号のセグメントを新たに作成する。</p>
+	 * @param fromSegment 再生を開始するセグメントの番号（スナップショットの番号）
+	 * @param handler レコードを受け取るハンドラ
+	 * @throws IOException セグメントの読み込みやハンドラの処理に失敗した場合
+	 */
+	public synchronized void open(final long fromSegment, final RecordHandler handler) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException(String.format("Cannot create directory \"%s\".", directory));
+		}
+		long lastIndex = -1;
+		int lastEnd = 0;
+		for (final long index : segmentIndexes()) {
+			if (index < fromSegment) {
+				continue;
+			}
+			lastEnd = replay(index, handler);
+			lastIndex = index;
+		}
+		if (lastIndex < 0) {
+			segmentIndex = fromSegment;
+			segment = map(fromSegment);
+		} else {
+			segmentIndex = lastIndex;
+			segment = map(lastIndex);
+			segment.position(lastEnd);
+			// 不完全なレコードが残っていれば後で有効なレコードと誤認されないよう消去する
+			if (lastEnd + HEADER_LENGTH <= segmentSize && segment.getInt(lastEnd) != 0) {
+				for (int i = lastEnd; i < segmentSize; i++) {
+					segment.put(i, (byte) 0);
+				}
+				segment.force();
+			}
+		}
+
+		syncThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				syncLoop();
+			}
+		}, "sample-log-sync-" + name);
+		syncThread.setDaemon(true);
+		syncThread.start();
+	}
+
+	/**
+	 * レコードを追記する.
+	 * <p>このメソッドはディスクへの同期を待たない。永続化を保証する必要がある場合は
+	 * 戻り値の通し番号を{@link #sync(long)}に渡す。</p>
+	 * @param payload ペイロード
+	 * @return レコードの通し番号
+	 * @throws IOException 新しいセグメントの作成に失敗した場合
+	 */
+	public synchronized long append(final byte[] payload) throws IOException {
+		final int length = HEADER_LENGTH + payload.length;
+		if (length > segmentSize) {
+			throw new IllegalArgumentException(String.format("Record too large (%d bytes)", payload.length));
+		}
+		if (segment.remaining() < length) {
+			roll();
+		}
+		final CRC32 crc = new CRC32();
+		crc.update(payload);
+		segment.putInt(payload.length);
+		segment.putInt((int) crc.getValue());
+		segment.put(payload);
+		return ++appended;
+	}
+
+	/**
+	 * 指定された通し番号までのレコードがディスクに同期されるまで待つ.
+	 * @param sequence レコードの通し番号
+	 * @throws IOException 同期の完了前にログが閉じられた場合
+	 */
+	public void sync(final long sequence) throws IOException {
+		synchronized (syncLock) {
+			if (sequence > requested) {
+				requested = sequence;
+				syncLock.notifyAll();
+			}
+			boolean interrupted = false;
+			while (durable < sequence && !closed) {
+				try {
+					syncLock.wait();
+				} catch (final InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			if (durable < sequence) {
+				throw new IOException("Log closed before sync completed.");
+			}
+		}
+	}
+
+	/**
+	 * 書き込み中のセグメントを同期し、新しいセグメントに切り替える.
+	 * @return 新しいセグメントの番号（これより前のセグメントには以降レコードが追記されない）
+	 * @throws IOException 新しいセグメントの作成に失敗した場合
+	 */
+	public synchronized long roll() throws IOException {
+		segment.force();
+		markDurable(appended);
+		segment = map(segmentIndex + 1);
+		segmentIndex++;
+		return segmentIndex;
+	}
+
+	/**
+	 * 指定された番号より前のセグメント・ファイルを削除する.
+	 * @param index セグメントの番号
+	 */
+	public void deleteSegmentsBefore(final long index) {
+		for (final long i : segmentIndexes()) {
+			if (i < index && !segmentFile(i).delete()) {
+				logger.warn(String.format("Failed to delete log segment \"%s\".", segmentFile(i)));
+			}
+		}
+	}
+
+	/**
+	 * 書き込み中のセグメントを同期し、ログを閉じる.
+	 */
+	public void close() {
+		synchronized (syncLock) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			syncLock.notifyAll();
+		}
+		if (syncThread != null) {
+			try {
+				syncThread.join();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (this) {
+			if (segment != null) {
+				segment.force();
+			}
+		}
+	}
+
+	/**
+	 * 同期処理を行うスレッドの本体.
+	 * <p>同期を要求されるか一定時間が経過するまで待ち、その時点までに追記されたレコードをまとめて同期する。</p>
+	 */
+	private void syncLoop() {
+		for (;;) {
+			synchronized (syncLock) {
+				if (requested <= durable && !closed) {
+					try {
+						syncLock.wait(syncIntervalMillis);
+					} catch (final InterruptedException e) {
+						return;
+					}
+				}
+				if (closed) {
+					return;
+				}
+			}
+			final long target;
+			final MappedByteBuffer buffer;
+			synchronized (this) {
+				target = appended;
+				buffer = segment;
+			}
+			// 切り替え前のセグメントはroll()で同期済みなので、現在のセグメントだけを同期すればよい
+			buffer.force();
+			markDurable(target);
+		}
+	}
+
+	/**
+	 * 同期済みのレコードの通し番号を更新し、待っているスレッドを起こす.
+	 * @param sequence 同期済みのレコードの通し番号
+	 */
+	private void markDurable(final long sequence) {
+		synchronized (syncLock) {
+			if (sequence > durable) {
+				durable = sequence;
+				syncLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * セグメントのレコードを再生する.
+	 * @param index セグメントの番号
+	 * @param handler レコードを受け取るハンドラ
+	 * @return 最後の有効なレコードの直後の位置
+	 * @throws IOException セグメントの読み込みやハンドラの処理に失敗した場合
+	 */
+	private int replay(final long index, final RecordHandler handler) throws IOException {
+		final RandomAccessFile file = new RandomAccessFile(segmentFile(index), "r");
+		final MappedByteBuffer buffer;
+		try {
+			buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+		} finally {
+			file.close();
+		}
+		final CRC32 crc = new CRC32();
+		while (buffer.remaining() >= HEADER_LENGTH) {
+			final int start = buffer.position();
+			final int length = buffer.getInt();
+			final int checksum = buffer.getInt();
+			if (length <= 0 || length > buffer.remaining()) {
+				buffer.position(start);
+				break;
+			}
+			final byte[] payload = new byte[length];
+			buffer.get(payload);
+			crc.reset();
+			crc.update(payload);
+			if ((int) crc.getValue() != checksum) {
+				logger.warn(String.format("Ignoring torn record at %d in \"%s\".", start, segmentFile(index)));
+				buffer.position(start);
+				break;
+			}
+			handler.handle(payload);
+		}
+		return buffer.position();
+	}
+
+	/**
+	 * セグメント・ファイルを読み書き可能な状態でマップする.
+	 * @param index セグメントの番号
+	 * @return マップされたバッファ
+	 * @throws IOException ファイルの作成やマップに失敗した場合
+	 */
+	private MappedByteBuffer map(final long index) throws IOException {
+		final RandomAccessFile file = new RandomAccessFile(segmentFile(index), "rw");
+		try {
+			return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * セグメント・ファイルを返す.
+	 * @param index セグメントの番号
+	 * @return ファイル
+	 */
+	private File segmentFile(final long index) {
+		return new File(directory, String.format("%s.%016d%s", name, index, SUFFIX));
+	}
+
+	/**
+	 * 既存のセグメントの番号を昇順で返す.
+	 * @return セグメントの番号のリスト
+	 */
+	private List<Long> segmentIndexes() {
+		final String prefix = name + ".";
+		final String[] names = directory.list(new FilenameFilter() {
+			@Override
+			public boolean accept(final File dir, final String fileName) {
+				return fileName.startsWith(prefix) && fileName.endsWith(SUFFIX);
+			}
+		});
+		final List<Long> indexes = new ArrayList<Long>();
+		if (names != null) {
+			for (final String fileName : names) {
+				try {
+					indexes.add(Long.parseLong(fileName.substring(prefix.length(), fileName.length() - SUFFIX.length())));
+				} catch (final NumberFormatException e) {
+					// 無関係のファイルは無視する
+				}
+			}
+		}
+		Collections.sort(indexes);
+		return indexes;
+	}
+}
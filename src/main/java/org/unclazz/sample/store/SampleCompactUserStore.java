@@ -0,0 +1,691 @@
+package org.unclazz.sample.store;
+
+import java.nio.charset.Charset;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.unclazz.sample.entity.User;
+
+/**
+ * ユーザ情報をプリミティブ型の配列に詰めて保持する格納先.
+ * <p>{@link SampleInMemoryUserStore}と同じくメモリ上にのみ保持するが、ユーザごとに{@link User}や
+ * {@link String}、マップのエントリを保持する代わりに、次のような構造でヒープの使用量を抑える:</p>
+ * <ul>
+ * <li>ユーザID・ユーザ名のハッシュ値・ユーザ名とパスワードの位置・管理者権限の有無を
+ * レコードとして{@code int}の配列に並べる。</li>
+ * <li>ユーザ名はUTF-8のバイト列としてバイト配列の領域（アリーナ）に1度だけ格納する。
+ * 更新してもユーザ名は変わらないので、新しいレコードも同じ位置を参照する。</li>
+ * <li>パスワードもアリーナに格納する。{@code {sha256}}のような識別子に16進数の文字列が続く
+ * エンコード済みパスワードは16進数の部分を元のバイト列に戻して格納するため、半分の長さで済む。</li>
+ * <li>ユーザ名の索引はレコードの番号を要素とするオープン・アドレス法のハッシュ表で、
+ * ユーザIDの索引はユーザIDをそのまま位置とするページに分割した配列である。</li>
+ * </ul>
+ * <p>{@link User}は{@link #get(String)}などで返すときにその都度生成する。</p>
+ * <p>読み取りはロックなしで行われる。登録・更新は1つのロックのもとでレコードとアリーナの末尾に追記し、
+ * 最後に索引を書き換えることで公開する。公開済みのレコードとアリーナの内容は書き換えないので、
+ * 読み取りの途中の状態が見えることはない。更新で不要になったレコードの数が有効なレコードの数を超えると、
+ * 有効なレコードだけを新しい配列に詰め直す。</p>
+ */
+public class SampleCompactUserStore implements SampleUserStore {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * レコードのページあたりのレコード数（2の累乗）.
+	 */
+	private static final int PAGE_BITS = 10;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int MAX_PAGES = 1 << 16;
+
+	/**
+	 * レコード内の各項目の位置.
+	 */
+	private static final int FIELD_ID = 0;
+	private static final int FIELD_HASH = 1;
+	private static final int FIELD_NAME = 2;
+	private static final int FIELD_PASSWORD = 3;
+	private static final int FIELD_FLAGS = 4;
+	private static final int STRIDE = 5;
+
+	private static final int FLAG_ADMIN = 1;
+
+	/**
+	 * アリーナのチャンクの長さ（2の累乗）.
+	 * <p>1つの値が2つのチャンクにまたがることはない。位置は{@code チャンクの番号 << CHUNK_BITS | オフセット}で表す。</p>
+	 */
+	private static final int CHUNK_BITS = 16;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int MAX_CHUNKS = 1 << (31 - CHUNK_BITS);
+
+	/**
+	 * ユーザIDの索引のページあたりのID数と、ページのディレクトリあたりのページ数.
+	 */
+	private static final int ID_PAGE_BITS = 12;
+	private static final int ID_DIRECTORY_BITS = 10;
+	private static final int ID_DIRECTORY_SHIFT = ID_PAGE_BITS + ID_DIRECTORY_BITS;
+
+	/**
+	 * パスワードの格納形式.
+	 */
+	private static final byte PASSWORD_NULL = 0;
+	private static final byte PASSWORD_RAW = 1;
+	private static final byte PASSWORD_HEX = 2;
+
+	/**
+	 * ユーザ名・パスワードのバイト列の長さの上限.
+	 * <p>パスワードは形式と長さを表す先頭の4バイトまでを含めて1つのチャンクに収まる長さに制限する。</p>
+	 */
+	private static final int MAX_NAME_BYTES = 0x7fff;
+	private static final int MAX_PASSWORD_BYTES = CHUNK_SIZE - 4;
+
+	/**
+	 * ユーザ名の索引の初期の大きさ.
+	 */
+	private static final int INITIAL_SLOTS = 64;
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * レコード・アリーナ・索引の組.
+	 * <p>外側の配列は固定長で、ページやチャンクは必要になった時点で割り当てる。
+	 * 詰め直しの際は新しい組を作って差し替えるので、読み取り中のスレッドは古い組をそのまま読み続けられる。</p>
+	 */
+	private static final class Table {
+		final int[][] records = new int[MAX_PAGES][];
+		final byte[][] chunks = new byte[MAX_CHUNKS][];
+		final AtomicIntegerArray[][] ids = new AtomicIntegerArray[1 << (31 - ID_DIRECTORY_SHIFT)][];
+
+		/**
+		 * ユーザ名の索引. 要素はレコードの番号に1を加えた値で、{@code 0}は空きを表す。
+		 */
+		volatile AtomicIntegerArray slots = new AtomicIntegerArray(INITIAL_SLOTS);
+
+		// 以下は書き込みを行うスレッドのみが使用する
+		int recordCount;
+		int chunkIndex;
+		int chunkOffset;
+	}
+
+	private volatile Table table = new Table();
+
+	/**
+	 * 登録・更新の順序を揃えるためのロック.
+	 */
+	private final Object writeLock = new Object();
+
+	/**
+	 * 有効なレコードの数.
+	 */
+	private volatile int size;
+
+	/**
+	 * 更新により不要になったレコードの数. {@link #writeLock}で保護される。
+	 */
+	private int dead;
+
+	/**
+	 * 登録済みのユーザIDの最大値.
+	 */
+	private volatile int maxId;
+
+	@Override
+	public User get(final String name) {
+		final Table t = table;
+		final AtomicIntegerArray slots = t.slots;
+		final int hash = name.hashCode();
+		final int mask = slots.length() - 1;
+		for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+			final int slot = slots.get(i);
+			if (slot == 0) {
+				return null;
+			}
+			if (matches(t, slot - 1, hash, name)) {
+				return materialize(t, slot - 1);
+			}
+		}
+	}
+
+	@Override
+	public boolean putIfAbsent(final User user) {
+		synchronized (writeLock) {
+			return insertLocked(user);
+		}
+	}
+
+	@Override
+	public List<User> putAllIfAbsent(final List<User> users) {
+		final List<User> rejected = new ArrayList<User>();
+		synchronized (writeLock) {
+			for (final User user : users) {
+				if (!insertLocked(user)) {
+					rejected.add(user);
+				}
+			}
+		}
+		return rejected;
+	}
+
+	@Override
+	public boolean replace(final User user) {
+		return replaceIf(null, user);
+	}
+
+	@Override
+	public boolean replace(final User expected, final User user) {
+		if (expected == null) {
+			throw new IllegalArgumentException("Expected user must not be null.");
+		}
+		return replaceIf(expected, user);
+	}
+
+	/**
+	 * 同じユーザ名のユーザ情報を置き換える.
+	 * @param expected 置き換える前のユーザ情報（確認しない場合は{@code null}）
+	 * @param user ユーザ情報
+	 * @return 置き換えた場合は{@code true}
+	 */
+	private boolean replaceIf(final User expected, final User user) {
+		synchronized (writeLock) {
+			final Table t = table;
+			final AtomicIntegerArray slots = t.slots;
+			final int hash = user.getName().hashCode();
+			final int i = probe(t, slots, hash, user.getName());
+			final int slot = slots.get(i);
+			if (slot == 0) {
+				return false;
+			}
+			final int previous = slot - 1;
+			if (expected != null && !SampleInMemoryUserStore.sameValues(materialize(t, previous), expected)) {
+				return false;
+			}
+			final int record = appendRecord(t, user, hash, field(t, previous, FIELD_NAME));
+			final int previousId = field(t, previous, FIELD_ID);
+			if (previousId != user.getId()) {
+				final AtomicIntegerArray page = idPage(t, previousId, false);
+				page.compareAndSet(previousId & (1 << ID_PAGE_BITS) - 1, slot, 0);
+			}
+			idPage(t, user.getId(), true).set(user.getId() & (1 << ID_PAGE_BITS) - 1, record + 1);
+			slots.set(i, record + 1);
+			updateMaxId(user.getId());
+			if (++dead > size && dead >= PAGE_SIZE) {
+				compactLocked();
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>返されるコレクションはユーザIDの順に{@link User}を生成しながら走査する。</p>
+	 */
+	@Override
+	public Collection<User> values() {
+		return new AbstractCollection<User>() {
+			@Override
+			public Iterator<User> iterator() {
+				return new Iterator<User>() {
+					private List<User> batch = valuesAfter(0, PAGE_SIZE);
+					private int index;
+
+					@Override
+					public boolean hasNext() {
+						if (index < batch.size()) {
+							return true;
+						}
+						if (batch.size() < PAGE_SIZE) {
+							return false;
+						}
+						batch = valuesAfter(batch.get(batch.size() - 1).getId(), PAGE_SIZE);
+						index = 0;
+						return !batch.isEmpty();
+					}
+
+					@Override
+					public User next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						return batch.get(index++);
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	@Override
+	public List<User> valuesAfter(final int afterId, final int limit) {
+		final Table t = table;
+		final List<User> result = new ArrayList<User>(Math.min(limit, 1024));
+		final long last = maxId;
+		long id = Math.max(afterId, -1) + 1L;
+		while (id <= last && result.size() < limit) {
+			final AtomicIntegerArray[] directory = t.ids[(int) (id >>> ID_DIRECTORY_SHIFT)];
+			if (directory == null) {
+				id = ((id >>> ID_DIRECTORY_SHIFT) + 1) << ID_DIRECTORY_SHIFT;
+				continue;
+			}
+			final AtomicIntegerArray page = directory[(int) (id >>> ID_PAGE_BITS) & (1 << ID_DIRECTORY_BITS) - 1];
+			if (page == null) {
+				id = ((id >>> ID_PAGE_BITS) + 1) << ID_PAGE_BITS;
+				continue;
+			}
+			final int slot = page.get((int) id & (1 << ID_PAGE_BITS) - 1);
+			if (slot != 0) {
+				result.add(materialize(t, slot - 1));
+			}
+			id++;
+		}
+		return result;
+	}
+
+	@Override
+	public int maxId() {
+		return maxId;
+	}
+
+	/**
+	 * 格納しているユーザ情報の数を返す.
+	 * @return ユーザ情報の数
+	 */
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void close() {}
+
+	/**
+	 * ユーザ情報を登録する. {@link #writeLock}を保持した状態で呼び出す。
+	 * @param user ユーザ情報
+	 * @return 登録した場合は{@code true}、同じユーザ名のユーザ情報が存在した場合は{@code false}
+	 */
+	private boolean insertLocked(final User user) {
+		if (user.getId() < 0) {
+			throw new IllegalArgumentException(String.format("Negative user id %d.", user.getId()));
+		}
+		final Table t = table;
+		final int hash = user.getName().hashCode();
+		if (slotFor(t, t.slots, hash, user.getName()) != 0) {
+			return false;
+		}
+		final byte[] name = user.getName().getBytes(UTF_8);
+		if (name.length > MAX_NAME_BYTES) {
+			throw new IllegalArgumentException(String.format("Username too long (%d bytes).", name.length));
+		}
+		final int nameAddress = allocate(t, name.length + (name.length < 0x80 ? 1 : 2));
+		int p = nameAddress & CHUNK_SIZE - 1;
+		final byte[] chunk = t.chunks[nameAddress >>> CHUNK_BITS];
+		if (name.length < 0x80) {
+			chunk[p++] = (byte) name.length;
+		} else {
+			chunk[p++] = (byte) (0x80 | name.length >>> 8);
+			chunk[p++] = (byte) name.length;
+		}
+		System.arraycopy(name, 0, chunk, p, name.length);
+
+		final int record = appendRecord(t, user, hash, nameAddress);
+		idPage(t, user.getId(), true).set(user.getId() & (1 << ID_PAGE_BITS) - 1, record + 1);
+		// 索引の大きさを使用率が3/4以下になるよう保つ
+		if ((size + 1) * 4L > t.slots.length() * 3L) {
+			t.slots = rehash(t, t.slots, t.slots.length() * 2);
+		}
+		final AtomicIntegerArray slots = t.slots;
+		slots.set(probe(t, slots, hash, user.getName()), record + 1);
+		size++;
+		updateMaxId(user.getId());
+		return true;
+	}
+
+	/**
+	 * レコードを末尾に追記する. {@link #writeLock}を保持した状態で呼び出す。
+	 * @return レコードの番号
+	 */
+	private int appendRecord(final Table t, final User user, final int hash, final int nameAddress) {
+		if (t.recordCount == MAX_PAGES * PAGE_SIZE) {
+			throw new IllegalStateException("Too many user records.");
+		}
+		final int record = t.recordCount;
+		int[] page = t.records[record >>> PAGE_BITS];
+		if (page == null) {
+			page = new int[PAGE_SIZE * STRIDE];
+			t.records[record >>> PAGE_BITS] = page;
+		}
+		final int base = (record & PAGE_SIZE - 1) * STRIDE;
+		page[base + FIELD_ID] = user.getId();
+		page[base + FIELD_HASH] = hash;
+		page[base + FIELD_NAME] = nameAddress;
+		page[base + FIELD_PASSWORD] = appendPassword(t, user.getPassword());
+		page[base + FIELD_FLAGS] = user.isAdmin() ? FLAG_ADMIN : 0;
+		t.recordCount++;
+		return record;
+	}
+
+	/**
+	 * パスワードをアリーナに追記する. {@link #writeLock}を保持した状態で呼び出す。
+	 * @return 位置
+	 */
+	private static int appendPassword(final Table t, final String password) {
+		if (password == null) {
+			final int address = allocate(t, 1);
+			t.chunks[address >>> CHUNK_BITS][address & CHUNK_SIZE - 1] = PASSWORD_NULL;
+			return address;
+		}
+		final int start = hexStart(password);
+		if (start < 0) {
+			final byte[] bytes = password.getBytes(UTF_8);
+			if (bytes.length > MAX_PASSWORD_BYTES) {
+				throw new IllegalArgumentException(String.format("Password too long (%d bytes).", bytes.length));
+			}
+			final int address = allocate(t, 3 + bytes.length);
+			final byte[] chunk = t.chunks[address >>> CHUNK_BITS];
+			int p = address & CHUNK_SIZE - 1;
+			chunk[p++] = PASSWORD_RAW;
+			chunk[p++] = (byte) (bytes.length >>> 8);
+			chunk[p++] = (byte) bytes.length;
+			System.arraycopy(bytes, 0, chunk, p, bytes.length);
+			return address;
+		}
+		final int length = (password.length() - start) / 2;
+		final int address = allocate(t, 4 + start + length);
+		final byte[] chunk = t.chunks[address >>> CHUNK_BITS];
+		int p = address & CHUNK_SIZE - 1;
+		chunk[p++] = PASSWORD_HEX;
+		chunk[p++] = (byte) start;
+		for (int i = 0; i < start; i++) {
+			chunk[p++] = (byte) password.charAt(i);
+		}
+		chunk[p++] = (byte) (length >>> 8);
+		chunk[p++] = (byte) length;
+		for (int i = start; i < password.length(); i += 2) {
+			chunk[p++] = (byte) (Character.digit(password.charAt(i), 16) << 4
+					| Character.digit(password.charAt(i + 1), 16));
+		}
+		return address;
+	}
+
+	/**
+	 * 16進数の部分を元のバイト列に戻して格納できるパスワードであれば、その部分の開始位置を返す.
+	 * <p>先頭の{@code {...}}（255文字まで）を除いた残りが、空でない偶数の長さの小文字の16進数である場合に限る。</p>
+	 * @param password エンコード済みパスワード
+	 * @return 開始位置（該当しない場合は{@code -1}）
+	 */
+	private static int hexStart(final String password) {
+		int start = 0;
+		if (password.length() > 0 && password.charAt(0) == '{') {
+			start = password.indexOf('}') + 1;
+			if (start > 0xff) {
+				return -1;
+			}
+			for (int i = 0; i < start; i++) {
+				if (password.charAt(i) >= 0x80) {
+					return -1;
+				}
+			}
+		}
+		final int length = password.length() - start;
+		if (length == 0 || length % 2 != 0 || start + length / 2 > MAX_PASSWORD_BYTES) {
+			return -1;
+		}
+		for (int i = start; i < password.length(); i++) {
+			final char c = password.charAt(i);
+			if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+				return -1;
+			}
+		}
+		return start;
+	}
+
+	/**
+	 * アリーナに領域を確保する. {@link #writeLock}を保持した状態で呼び出す。
+	 * @param length 長さ
+	 * @return 位置
+	 */
+	private static int allocate(final Table t, final int length) {
+		if (t.chunkOffset + length > CHUNK_SIZE) {
+			if (t.chunkIndex + 1 == MAX_CHUNKS) {
+				throw new IllegalStateException("User store arena exhausted.");
+			}
+			t.chunkIndex++;
+			t.chunkOffset = 0;
+		}
+		if (t.chunks[t.chunkIndex] == null) {
+			t.chunks[t.chunkIndex] = new byte[CHUNK_SIZE];
+		}
+		final int address = t.chunkIndex << CHUNK_BITS | t.chunkOffset;
+		t.chunkOffset += length;
+		return address;
+	}
+
+	/**
+	 * ユーザIDの索引のページを返す.
+	 * @param create ページが存在しない場合に作成するかどうか（{@link #writeLock}を保持している場合のみ）
+	 * @return ページ（存在しない場合は{@code null}）
+	 */
+	private static AtomicIntegerArray idPage(final Table t, final int id, final boolean create) {
+		AtomicIntegerArray[] directory = t.ids[id >>> ID_DIRECTORY_SHIFT];
+		if (directory == null) {
+			if (!create) {
+				return null;
+			}
+			directory = new AtomicIntegerArray[1 << ID_DIRECTORY_BITS];
+			t.ids[id >>> ID_DIRECTORY_SHIFT] = directory;
+		}
+		final int index = id >>> ID_PAGE_BITS & (1 << ID_DIRECTORY_BITS) - 1;
+		AtomicIntegerArray page = directory[index];
+		if (page == null && create) {
+			page = new AtomicIntegerArray(1 << ID_PAGE_BITS);
+			directory[index] = page;
+		}
+		return page;
+	}
+
+	/**
+	 * ユーザ名の索引で、指定のユーザ名のレコードもしくは空きを指す位置を探す.
+	 * @return 位置
+	 */
+	private static int probe(final Table t, final AtomicIntegerArray slots, final int hash, final String name) {
+		final int mask = slots.length() - 1;
+		for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+			final int slot = slots.get(i);
+			if (slot == 0 || matches(t, slot - 1, hash, name)) {
+				return i;
+			}
+		}
+	}
+
+	/**
+	 * ユーザ名の索引から、指定のユーザ名のレコードの番号に1を加えた値を返す.
+	 * @return 値（存在しない場合は{@code 0}）
+	 */
+	private static int slotFor(final Table t, final AtomicIntegerArray slots, final int hash, final String name) {
+		return slots.get(probe(t, slots, hash, name));
+	}
+
+	/**
+	 * ユーザ名の索引を指定の大きさで作り直す.
+	 * @return 新しい索引
+	 */
+	private static AtomicIntegerArray rehash(final Table t, final AtomicIntegerArray slots, final int length) {
+		final AtomicIntegerArray result = new AtomicIntegerArray(length);
+		final int mask = length - 1;
+		for (int i = 0; i < slots.length(); i++) {
+			final int slot = slots.get(i);
+			if (slot == 0) {
+				continue;
+			}
+			int j = spread(field(t, slot - 1, FIELD_HASH)) & mask;
+			while (result.get(j) != 0) {
+				j = (j + 1) & mask;
+			}
+			result.set(j, slot);
+		}
+		return result;
+	}
+
+	/**
+	 * 有効なレコードだけを新しい組に詰め直して差し替える. {@link #writeLock}を保持した状態で呼び出す。
+	 */
+	private void compactLocked() {
+		final Table from = table;
+		final Table to = new Table();
+		final AtomicIntegerArray slots = from.slots;
+		final AtomicIntegerArray target = new AtomicIntegerArray(slots.length());
+		final User user = new User();
+		for (int i = 0; i < slots.length(); i++) {
+			final int slot = slots.get(i);
+			if (slot == 0) {
+				continue;
+			}
+			final int record = slot - 1;
+			final int nameAddress = copyName(from, to, field(from, record, FIELD_NAME));
+			user.setId(field(from, record, FIELD_ID));
+			user.setPassword(password(from, record));
+			user.setAdmin((field(from, record, FIELD_FLAGS) & FLAG_ADMIN) != 0);
+			final int copied = appendRecord(to, user, field(from, record, FIELD_HASH), nameAddress);
+			idPage(to, user.getId(), true).set(user.getId() & (1 << ID_PAGE_BITS) - 1, copied + 1);
+			// 同じ大きさの索引なので同じ位置に置ける
+			target.set(i, copied + 1);
+		}
+		to.slots = target;
+		table = to;
+		dead = 0;
+	}
+
+	/**
+	 * ユーザ名をアリーナの間でコピーする.
+	 * @return コピー先の位置
+	 */
+	private static int copyName(final Table from, final Table to, final int address) {
+		final byte[] chunk = from.chunks[address >>> CHUNK_BITS];
+		final int offset = address & CHUNK_SIZE - 1;
+		int length = chunk[offset] & 0xff;
+		length = length < 0x80 ? length + 1 : ((length & 0x7f) << 8 | chunk[offset + 1] & 0xff) + 2;
+		final int copied = allocate(to, length);
+		System.arraycopy(chunk, offset, to.chunks[copied >>> CHUNK_BITS], copied & CHUNK_SIZE - 1, length);
+		return copied;
+	}
+
+	/**
+	 * レコードのユーザ名が指定の値と等しいかどうかを返す.
+	 */
+	private static boolean matches(final Table t, final int record, final int hash, final String name) {
+		if (field(t, record, FIELD_HASH) != hash) {
+			return false;
+		}
+		final int address = field(t, record, FIELD_NAME);
+		final byte[] chunk = t.chunks[address >>> CHUNK_BITS];
+		int p = address & CHUNK_SIZE - 1;
+		int length = chunk[p++] & 0xff;
+		if (length >= 0x80) {
+			length = (length & 0x7f) << 8 | chunk[p++] & 0xff;
+		}
+		if (length == name.length()) {
+			// バイト数と文字数が等しければASCIIのみのはずなので、変換せずに比較できる
+			for (int i = 0; i < length; i++) {
+				final char c = name.charAt(i);
+				if (c >= 0x80 || chunk[p + i] != (byte) c) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (length < name.length()) {
+			return false;
+		}
+		final byte[] bytes = name.getBytes(UTF_8);
+		if (bytes.length != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (chunk[p + i] != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * レコードから{@link User}を生成する.
+	 */
+	private static User materialize(final Table t, final int record) {
+		final User user = new User();
+		user.setId(field(t, record, FIELD_ID));
+		final int address = field(t, record, FIELD_NAME);
+		final byte[] chunk = t.chunks[address >>> CHUNK_BITS];
+		int p = address & CHUNK_SIZE - 1;
+		int length = chunk[p++] & 0xff;
+		if (length >= 0x80) {
+			length = (length & 0x7f) << 8 | chunk[p++] & 0xff;
+		}
+		user.setName(new String(chunk, p, length, UTF_8));
+		user.setPassword(password(t, record));
+		user.setAdmin((field(t, record, FIELD_FLAGS) & FLAG_ADMIN) != 0);
+		return user;
+	}
+
+	/**
+	 * レコードのパスワードを元の文字列に戻す.
+	 */
+	private static String password(final Table t, final int record) {
+		final int address = field(t, record, FIELD_PASSWORD);
+		final byte[] chunk = t.chunks[address >>> CHUNK_BITS];
+		int p = address & CHUNK_SIZE - 1;
+		final byte kind = chunk[p++];
+		if (kind == PASSWORD_NULL) {
+			return null;
+		}
+		if (kind == PASSWORD_RAW) {
+			final int length = (chunk[p] & 0xff) << 8 | chunk[p + 1] & 0xff;
+			return new String(chunk, p + 2, length, UTF_8);
+		}
+		final int start = chunk[p++] & 0xff;
+		final int length = (chunk[p + start] & 0xff) << 8 | chunk[p + start + 1] & 0xff;
+		final char[] chars = new char[start + length * 2];
+		for (int i = 0; i < start; i++) {
+			chars[i] = (char) chunk[p++];
+		}
+		p += 2;
+		for (int i = 0; i < length; i++) {
+			final int b = chunk[p++];
+			chars[start + i * 2] = HEX[b >>> 4 & 0xf];
+			chars[start + i * 2 + 1] = HEX[b & 0xf];
+		}
+		return new String(chars);
+	}
+
+	private static int field(final Table t, final int record, final int field) {
+		return t.records[record >>> PAGE_BITS][(record & PAGE_SIZE - 1) * STRIDE + field];
+	}
+
+	/**
+	 * ハッシュ値の上位のビットを下位に混ぜる.
+	 */
+	private static int spread(final int hash) {
+		int h = hash ^ hash >>> 16;
+		h *= 0x85ebca6b;
+		return h ^ h >>> 13;
+	}
+
+	/**
+	 * ユーザIDの最大値を更新する. {@link #writeLock}を保持した状態で呼び出す。
+	 */
+	private void updateMaxId(final int id) {
+		if (id > maxId) {
+			maxId = id;
+		}
+	}
+}
@@ -0,0 +1,386 @@
+package org.unclazz.sample.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unclazz.sample.entity.User;
+
+/**
+ * ユーザ情報をファイルに永続化する格納先.
+ * <p>ユーザ情報はメモリ上のマップに保持し、登録・更新のたびにその内容を
+ * {@link SampleAppendOnlyLog}に追記する。追記したレコードの件数が
+ * {@code snapshotEveryRecords}に達するとバックグラウンドでスナップショットを作成し、
+ * スナップショットに反映済みの古いログは削除する。
+ * 起動時には最新のスナップショットを読み込み、それ以降のログだけを再生するため、
+ * ユーザ数が増えても再生するレコードの数は一定の範囲に収まる。</p>
+ * <p>{@code syncOnWrite}が{@code true}の場合、登録・更新はログがディスクに同期されるまで完了しない。
+ * 同時に行われた複数の登録・更新の同期は1回にまとめられる。</p>
+ */
+public class SampleFileUserStore implements SampleUserStore {
+	private static final Log logger = LogFactory.getLog(SampleFileUserStore.class);
+
+	/**
+	 * ログとスナップショットの名前.
+	 */
+	private static final String NAME = "users";
+
+	/**
+	 * ユーザ情報の登録・更新を表すレコードの種別.
+	 */
+	private static final byte OP_PUT = 1;
+
+	private final File directory;
+	private final SampleAppendOnlyLog log;
+	private final boolean syncOnWrite;
+	private final int snapshotEveryRecords;
+
+	/**
+	 * ユーザ名をキーとするユーザ情報のマップ.
+	 */
+	private final ConcurrentMap<String, User> users = new ConcurrentHashMap<String, User>(16, 0.75f, 64);
+
+	/**
+	 * 登録済みのユーザIDの最大値.
+	 */
+	private final AtomicInteger maxId = new AtomicInteger();
+
+	/**
+	 * ユーザIDをキーとする二次索引.
+	 */
+	private final SampleUserIdIndex ids = new SampleUserIdIndex();
+
+	/**
+	 * マップの更新とログへの追記の順序を揃えるためのロック.
+	 */
+	private final Object writeLock = new Object();
+
+	/**
+	 * 前回のスナップショット以降に追記したレコードの件数. {@link #writeLock}で保護される。
+	 */
+	private int recordsSinceSnapshot;
+
+	/**
+	 * スナップショットを作成中かどうか.
+	 */
+	private final AtomicBoolean snapshotting = new AtomicBoolean();
+
+	/**
+	 * スナップショットを作成するスレッド.
+	 */
+	private final ExecutorService snapshotExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread t = new Thread(r, "sample-user-snapshot");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/**
+	 * コンストラクタ.
+	 * <p>最新のスナップショットとそれ以降のログを読み込む。</p>
+	 * @param directory ログとスナップショットを格納するディレクトリ
+	 * @param segmentSize ログのセグメントの長さ（バイト）
+	 * @param syncIntervalMillis ログを定期的に同期する間隔（ミリ秒）
+	 * @param syncOnWrite 登録・更新のたびにログの同期を待つかどうか
+	 * @param snapshotEveryRecords スナップショットを作成する間隔（レコード数）
+	 * @throws IOException 読み込みに失敗した場合
+	 */
+	public SampleFileUserStore(final File directory, final int segmentSize, final long syncIntervalMillis,
+			final boolean syncOnWrite, final int snapshotEveryRecords) throws IOException {
+		this.directory = directory;
+		this.log = new SampleAppendOnlyLog(directory, NAME, segmentSize, syncIntervalMillis);
+		this.syncOnWrite = syncOnWrite;
+		this.snapshotEveryRecords = snapshotEveryRecords;
+
+		final long start = System.currentTimeMillis();
+		final SampleAppendOnlyLog.RecordHandler handler = new SampleAppendOnlyLog.RecordHandler() {
+			@Override
+			public void handle(final byte[] payload) throws IOException {
+				final User user = decode(payload);
+				ids.put(users.put(user.getName(), user), user);
+				SampleInMemoryUserStore.updateMaxId(maxId, user.getId());
+			}
+		};
+		final long snapshotIndex = SampleSnapshotFile.load(directory, NAME, handler);
+		final int fromSnapshot = users.size();
+		log.open(snapshotIndex, handler);
+		logger.info(String.format("Loaded %d users (%d from snapshot) from \"%s\" in %d ms.",
+				users.size(), fromSnapshot, directory, System.currentTimeMillis() - start));
+	}
+
+	@Override
+	public User get(final String name) {
+		return users.get(name);
+	}
+
+	@Override
+	public boolean putIfAbsent(final User user) {
+		final long sequence;
+		synchronized (writeLock) {
+			if (users.putIfAbsent(user.getName(), user) != null) {
+				return false;
+			}
+			try {
+				sequence = append(user);
+			} catch (final IOException e) {
+				users.remove(user.getName(), user);
+				throw new RuntimeException("Failed to write user log.", e);
+			}
+			ids.put(null, user);
+		}
+		SampleInMemoryUserStore.updateMaxId(maxId, user.getId());
+		afterWrite(sequence);
+		return true;
+	}
+
+	@Override
+	public List<User> putAllIfAbsent(final List<User> users) {
+		final List<User> rejected = new ArrayList<User>();
+		long sequence = 0;
+		synchronized (writeLock) {
+			for (final User user : users) {
+				if (this.users.putIfAbsent(user.getName(), user) != null) {
+					rejected.add(user);
+					continue;
+				}
+				try {
+					sequence = append(user);
+				} catch (final IOException e) {
+					this.users.remove(user.getName(), user);
+					throw new RuntimeException("Failed to write user log.", e);
+				}
+				ids.put(null, user);
+				SampleInMemoryUserStore.updateMaxId(maxId, user.getId());
+			}
+		}
+		// 同期は最後のレコードについて1回だけ待てばよい
+		if (sequence > 0) {
+			afterWrite(sequence);
+		}
+		return rejected;
+	}
+
+	@Override
+	public boolean replace(final User user) {
+		return replaceIf(null, user);
+	}
+
+	@Override
+	public boolean replace(final User expected, final User user) {
+		if (expected == null) {
+			throw new IllegalArgumentException("Expected user must not be null.");
+		}
+		return replaceIf(expected, user);
+	}
+
+	/**
+	 * 同じユーザ名のユーザ情報を置き換える.
+	 * @param expected 置き換える前のユーザ情報（確認しない場合は{@code null}）
+	 * @param user ユーザ情報
+	 * @return 置き換えた場合は{@code true}
+	 */
+	private boolean replaceIf(final User expected, final User user) {
+		final long sequence;
+		synchronized (writeLock) {
+			final User previous = users.get(user.getName());
+			if (previous == null || expected != null && !SampleInMemoryUserStore.sameValues(previous, expected)) {
+				return false;
+			}
+			users.put(user.getName(), user);
+			try {
+				sequence = append(user);
+			} catch (final IOException e) {
+				users.replace(user.getName(), user, previous);
+				throw new RuntimeException("Failed to write user log.", e);
+			}
+			ids.put(previous, user);
+		}
+		afterWrite(sequence);
+		return true;
+	}
+
+	@Override
+	public Collection<User> values() {
+		return Collections.unmodifiableCollection(users.values());
+	}
+
+	@Override
+	public List<User> valuesAfter(final int afterId, final int limit) {
+		return ids.after(afterId, limit);
+	}
+
+	@Override
+	public int maxId() {
+		return maxId.get();
+	}
+
+	/**
+	 * スナップショットを作成してから格納先を閉じる.
+	 * <p>次回の起動時にログの再生が不要になる。バックグラウンドでスナップショットを作成中の場合は、
+	 * 閉じたログのセグメントを切り替えたり削除したりしないよう、その完了を待ってから閉じる。</p>
+	 */
+	@Override
+	public void close() {
+		snapshotExecutor.shutdown();
+		try {
+			snapshotExecutor.awaitTermination(10, TimeUnit.SECONDS);
+			final boolean dirty;
+			synchronized (writeLock) {
+				dirty = recordsSinceSnapshot > 0;
+			}
+			if (dirty && snapshotting.compareAndSet(false, true)) {
+				snapshot();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (final IOException e) {
+			logger.warn("Failed to write user snapshot on close.", e);
+		} finally {
+			log.close();
+		}
+	}
+
+	/**
+	 * ユーザ情報をログに追記する. {@link #writeLock}を保持した状態で呼び出す。
+	 * @param user ユーザ情報
+	 * @return レコードの通し番号
+	 * @throws IOException 追記に失敗した場合
+	 */
+	private long append(final User user) throws IOException {
+		final long sequence = log.append(encode(user));
+		recordsSinceSnapshot++;
+		return sequence;
+	}
+
+	/**
+	 * 必要に応じてログの同期を待ち、スナップショットの作成を開始する.
+	 * @param sequence 最後に追記したレコードの通し番号
+	 */
+	private void afterWrite(final long sequence) {
+		if (syncOnWrite) {
+			try {
+				log.sync(sequence);
+			} catch (final IOException e) {
+				throw new RuntimeException("Failed to sync user log.", e);
+			}
+		}
+		final boolean due;
+		synchronized (writeLock) {
+			due = recordsSinceSnapshot >= snapshotEveryRecords;
+		}
+		if (due && snapshotting.compareAndSet(false, true)) {
+			snapshotExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						snapshot();
+					} catch (final IOException e) {
+						logger.warn("Failed to write user snapshot.", e);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * スナップショットを作成し、不要になったログとスナップショットを削除する.
+	 * <p>ログのセグメントを切り替えるのと同時にユーザ情報の一覧を取得するので、
+	 * スナップショットは切り替え前のセグメントまでのレコードをちょうど反映したものになる。
+	 * ファイルへの書き込みはロックを解放してから行う。</p>
+	 * @throws IOException 書き込みに失敗した場合
+	 */
+	private void snapshot() throws IOException {
+		try {
+			final long index;
+			final List<User> copy;
+			synchronized (writeLock) {
+				index = log.roll();
+				copy = new ArrayList<User>(users.values());
+				recordsSinceSnapshot = 0;
+			}
+			final long start = System.currentTimeMillis();
+			final Iterator<User> iterator = copy.iterator();
+			SampleSnapshotFile.write(directory, NAME, index, new Iterator<byte[]>() {
+				@Override
+				public boolean hasNext() {
+					return iterator.hasNext();
+				}
+				@Override
+				public byte[] next() {
+					return encode(iterator.next());
+				}
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			});
+			SampleSnapshotFile.deleteBefore(directory, NAME, index);
+			log.deleteSegmentsBefore(index);
+			logger.info(String.format("Wrote snapshot of %d users in %d ms.",
+					copy.size(), System.currentTimeMillis() - start));
+		} finally {
+			snapshotting.set(false);
+		}
+	}
+
+	/**
+	 * ユーザ情報をレコードに変換する.
+	 * @param user ユーザ情報
+	 * @return レコード
+	 */
+	private static byte[] encode(final User user) {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		final DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(OP_PUT);
+			out.writeInt(user.getId());
+			out.writeBoolean(user.isAdmin());
+			out.writeUTF(user.getName());
+			out.writeUTF(user.getPassword());
+		} catch (final IOException e) {
+			// ByteArrayOutputStreamへの書き込みでは発生しない
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * レコードをユーザ情報に変換する.
+	 * @param payload レコード
+	 * @return ユーザ情報
+	 * @throws IOException レコードの形式が不正な場合
+	 */
+	private static User decode(final byte[] payload) throws IOException {
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		final byte op = in.readByte();
+		if (op != OP_PUT) {
+			throw new IOException(String.format("Unknown user log record type %d.", op));
+		}
+		final User user = new User();
+		user.setId(in.readInt());
+		user.setAdmin(in.readBoolean());
+		user.setName(in.readUTF());
+		user.setPassword(in.readUTF());
+		return user;
+	}
+}
@@ -0,0 +1,153 @@
+package org.unclazz.sample.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.unclazz.sample.entity.User;
+
+/**
+ * ユーザ情報をメモリ上にのみ保持する格納先.
+ * <p>再起動すると登録・更新した内容は失われる。
+ * 読み取りはロックなし、書き込みはユーザ名のハッシュ値で選んだストライプ単位のロックで行われる。
+ * ユーザIDの順序での一覧のために{@link SampleUserIdIndex}を併せて保持し、マップと索引の更新は
+ * 同じロックのもとで行うので、同じユーザの更新が索引に逆の順序で反映されることはない。</p>
+ */
+public class SampleInMemoryUserStore implements SampleUserStore {
+	/**
+	 * ユーザ名をキーとするユーザ情報のマップ.
+	 */
+	private final ConcurrentMap<String, User> users = new ConcurrentHashMap<String, User>(16, 0.75f, 64);
+
+	/**
+	 * ユーザIDをキーとする二次索引.
+	 */
+	private final SampleUserIdIndex ids = new SampleUserIdIndex();
+
+	/**
+	 * 登録済みのユーザIDの最大値.
+	 */
+	private final AtomicInteger maxId = new AtomicInteger();
+
+	/**
+	 * マップと索引の更新の順序を揃えるためのロック. ユーザ名のハッシュ値で選ぶ。
+	 */
+	private final Object[] locks = new Object[64];
+
+	/**
+	 * コンストラクタ.
+	 */
+	public SampleInMemoryUserStore() {
+		for (int i = 0; i < locks.length; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	@Override
+	public User get(final String name) {
+		return users.get(name);
+	}
+
+	@Override
+	public boolean putIfAbsent(final User user) {
+		synchronized (lockFor(user.getName())) {
+			if (users.putIfAbsent(user.getName(), user) != null) {
+				return false;
+			}
+			ids.put(null, user);
+		}
+		updateMaxId(maxId, user.getId());
+		return true;
+	}
+
+	@Override
+	public List<User> putAllIfAbsent(final List<User> users) {
+		final List<User> rejected = new ArrayList<User>();
+		for (final User user : users) {
+			if (!putIfAbsent(user)) {
+				rejected.add(user);
+			}
+		}
+		return rejected;
+	}
+
+	@Override
+	public boolean replace(final User user) {
+		synchronized (lockFor(user.getName())) {
+			final User previous = users.replace(user.getName(), user);
+			if (previous == null) {
+				return false;
+			}
+			ids.put(previous, user);
+			return true;
+		}
+	}
+
+	@Override
+	public boolean replace(final User expected, final User user) {
+		if (expected == null) {
+			throw new IllegalArgumentException("Expected user must not be null.");
+		}
+		synchronized (lockFor(user.getName())) {
+			final User previous = users.get(user.getName());
+			if (previous == null || !sameValues(previous, expected)) {
+				return false;
+			}
+			users.put(user.getName(), user);
+			ids.put(previous, user);
+			return true;
+		}
+	}
+
+	@Override
+	public Collection<User> values() {
+		return Collections.unmodifiableCollection(users.values());
+	}
+
+	@Override
+	public List<User> valuesAfter(final int afterId, final int limit) {
+		return ids.after(afterId, limit);
+	}
+
+	@Override
+	public int maxId() {
+		return maxId.get();
+	}
+
+	@Override
+	public void close() {}
+
+	private Object lockFor(final String name) {
+		final int h = name.hashCode();
+		return locks[(h ^ h >>> 16) & locks.length - 1];
+	}
+
+	/**
+	 * 2つのユーザ情報のユーザID・エンコード済みパスワード・管理者権限が等しいかどうかを判定する.
+	 * @param a ユーザ情報
+	 * @param b ユーザ情報
+	 * @return 等しい場合は{@code true}
+	 */
+	static boolean sameValues(final User a, final User b) {
+		return a.getId() == b.getId() && a.isAdmin() == b.isAdmin()
+				&& (a.getPassword() == null ? b.getPassword() == null : a.getPassword().equals(b.getPassword()));
+	}
+
+	/**
+	 * ユーザIDの最大値を更新する.
+	 * @param maxId ユーザIDの最大値
+	 * @param id ユーザID
+	 */
+	static void updateMaxId(final AtomicInteger maxId, final int id) {
+		for (;;) {
+			final int current = maxId.get();
+			if (current >= id || maxId.compareAndSet(current, id)) {
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,566 @@
+package org.unclazz.sample.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.security.web.authentication.rememberme.PersistentRememberMeToken;
+import org.springframework.security.web.authentication.rememberme.PersistentTokenRepository;
+import org.unclazz.sample.mapper.SampleUserChangeListener;
+import org.unclazz.sample.mapper.SampleUserMapper;
+
+/**
+ * 永続ログイン（remember-me）のトークンの格納先.
+ * <p>トークンはシリーズをキーとするハッシュ・マップに保持するので、
+ * 再訪したユーザの認証はシリーズによる1回の検索とトークンの比較だけで済み、パスワードのハッシュ計算は発生しない。
+ * トークンの更新（ローテーション）はシリーズごとにアトミックに行われる。</p>
+ * <p>ディレクトリを指定した場合は{@link SampleFileUserStore}と同じく、登録・更新・削除のたびに
+ * その内容を{@link SampleAppendOnlyLog}に追記し、一定件数ごとにスナップショットを作成する。
+ * ディレクトリを指定しない場合はメモリ上にのみ保持する。</p>
+ * <p>メモリの使用量を抑えるため、次のように保持するトークンの数を制限する。</p>
+ * <ul>
+ * <li>有効期間を過ぎたトークンは{@code purgeIntervalMillis}ごとにまとめて削除する。</li>
+ * <li>1人のユーザのトークンが{@code maxPerUser}個を超える場合は、そのユーザの最も古いトークンを削除する。</li>
+ * <li>トークンの総数が{@code maxTokens}を超える場合は、マップの先頭付近のいくつかのトークンのうち
+ * 最も古いものを削除する（近似的なLRU）。</li>
+ * </ul>
+ * <p>{@link SampleUserMapper#addChangeListener(SampleUserChangeListener)}で登録しておくと、
+ * パスワードや権限が変更されたユーザのトークンをすべて削除する。盗まれたクッキーが
+ * パスワードの再設定の後も有効期間いっぱい使えてしまうことを防ぐためである。</p>
+ */
+public class SampleRememberMeTokenRepository implements PersistentTokenRepository, SampleUserChangeListener {
+	private static final Log logger = LogFactory.getLog(SampleRememberMeTokenRepository.class);
+
+	/**
+	 * ログとスナップショットの名前.
+	 */
+	private static final String NAME = "remember-me";
+
+	/**
+	 * トークンの登録・更新を表すレコードの種別.
+	 */
+	private static final byte OP_PUT = 1;
+
+	/**
+	 * トークンの削除を表すレコードの種別.
+	 */
+	private static final byte OP_REMOVE = 2;
+
+	/**
+	 * 総数が上限を超えた場合に削除の候補とするトークンの数.
+	 */
+	private static final int EVICTION_SAMPLES = 16;
+
+	private final File directory;
+	private final SampleAppendOnlyLog log;
+	private final boolean syncOnWrite;
+	private final int snapshotEveryRecords;
+	private final long validityMillis;
+	private final int maxTokens;
+	private final int maxPerUser;
+
+	/**
+	 * シリーズをキーとするトークンのマップ.
+	 */
+	private final ConcurrentMap<String, PersistentRememberMeToken> tokens =
+			new ConcurrentHashMap<String, PersistentRememberMeToken>(16, 0.75f, 64);
+
+	/**
+	 * ユーザ名をキーとするシリーズのリストのマップ. {@link #writeLock}で保護される。
+	 */
+	private final Map<String, List<String>> seriesByUser = new HashMap<String, List<String>>();
+
+	/**
+	 * マップの更新とログへの追記の順序を揃えるためのロック.
+	 */
+	private final Object writeLock = new Object();
+
+	/**
+	 * 前回のスナップショット以降に追記したレコードの件数. {@link #writeLock}で保護される。
+	 */
+	private int recordsSinceSnapshot;
+
+	/**
+	 * 上限を超えたため削除したトークンの数.
+	 */
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * 有効期間を過ぎたため削除したトークンの数.
+	 */
+	private final AtomicLong expirations = new AtomicLong();
+
+	/**
+	 * 期限切れのトークンの削除とスナップショットの作成を行うスレッド.
+	 */
+	private final ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread t = new Thread(r, "sample-remember-me-maintenance");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/**
+	 * コンストラクタ.
+	 * <p>ディレクトリを指定した場合は最新のスナップショットとそれ以降のログを読み込む。</p>
+	 * @param directory ログとスナップショットを格納するディレクトリ（メモリ上にのみ保持する場合は{@code null}）
+	 * @param segmentSize ログのセグメントの長さ（バイト）
+	 * @param syncIntervalMillis ログを定期的に同期する間隔（ミリ秒）
+	 * @param syncOnWrite 登録・更新・削除のたびにログの同期を待つかどうか
+	 * @param snapshotEveryRecords スナップショットを作成する間隔（レコード数）
+	 * @param validityMillis トークンの有効期間（ミリ秒）
+	 * @param purgeIntervalMillis 有効期間を過ぎたトークンを削除する間隔（ミリ秒）
+	 * @param maxTokens トークンの総数の上限
+	 * @param maxPerUser ユーザごとのトークンの数の上限
+	 * @throws IOException 読み込みに失敗した場合
+	 */
+	public SampleRememberMeTokenRepository(final File directory, final int segmentSize,
+			final long syncIntervalMillis, final boolean syncOnWrite, final int snapshotEveryRecords,
+			final long validityMillis, final long purgeIntervalMillis,
+			final int maxTokens, final int maxPerUser) throws IOException {
+		this.directory = directory;
+		this.syncOnWrite = syncOnWrite;
+		this.snapshotEveryRecords = snapshotEveryRecords;
+		this.validityMillis = validityMillis;
+		this.maxTokens = maxTokens;
+		this.maxPerUser = maxPerUser;
+
+		if (directory != null) {
+			this.log = new SampleAppendOnlyLog(directory, NAME, segmentSize, syncIntervalMillis);
+			final long start = System.currentTimeMillis();
+			final SampleAppendOnlyLog.RecordHandler handler = new SampleAppendOnlyLog.RecordHandler() {
+				@Override
+				public void handle(final byte[] payload) throws IOException {
+					replay(payload);
+				}
+			};
+			log.open(SampleSnapshotFile.load(directory, NAME, handler), handler);
+			logger.info(String.format("Loaded %d remember-me tokens from \"%s\" in %d ms.",
+					tokens.size(), directory, System.currentTimeMillis() - start));
+		} else {
+			this.log = null;
+		}
+
+		maintenance.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					purgeExpired(System.currentTimeMillis());
+				} catch (final RuntimeException e) {
+					logger.warn("Failed to purge expired remember-me tokens.", e);
+				}
+			}
+		}, purgeIntervalMillis, purgeIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void createNewToken(final PersistentRememberMeToken token) {
+		long sequence = 0;
+		synchronized (writeLock) {
+			// ユーザごとの上限を超える場合はそのユーザの最も古いトークンを削除する
+			final List<String> userSeries = seriesByUser.get(token.getUsername());
+			while (userSeries != null && userSeries.size() >= maxPerUser) {
+				sequence = removeLocked(oldest(userSeries));
+				evictions.incrementAndGet();
+			}
+			while (tokens.size() >= maxTokens) {
+				sequence = removeLocked(sampleOldest());
+				evictions.incrementAndGet();
+			}
+			index(token);
+			sequence = Math.max(sequence, append(encodePut(token)));
+		}
+		afterWrite(sequence);
+	}
+
+	/**
+	 * トークンを新しい値に置き換える.
+	 * <p>シリーズが削除されていた場合は何もしない。</p>
+	 */
+	@Override
+	public void updateToken(final String series, final String tokenValue, final Date lastUsed) {
+		final long sequence;
+		synchronized (writeLock) {
+			final PersistentRememberMeToken current = tokens.get(series);
+			if (current == null) {
+				return;
+			}
+			final PersistentRememberMeToken updated =
+					new PersistentRememberMeToken(current.getUsername(), series, tokenValue, lastUsed);
+			tokens.put(series, updated);
+			sequence = append(encodePut(updated));
+		}
+		afterWrite(sequence);
+	}
+
+	/**
+	 * シリーズをキーにしてトークンを検索する.
+	 * <p>ロックを取得せずにマップを1回参照するだけである。</p>
+	 */
+	@Override
+	public PersistentRememberMeToken getTokenForSeries(final String seriesId) {
+		return tokens.get(seriesId);
+	}
+
+	@Override
+	public void removeUserTokens(final String username) {
+		long sequence = 0;
+		synchronized (writeLock) {
+			final List<String> series = seriesByUser.get(username);
+			if (series == null) {
+				return;
+			}
+			while (!series.isEmpty()) {
+				sequence = removeLocked(series.get(series.size() - 1));
+			}
+		}
+		afterWrite(sequence);
+	}
+
+	/**
+	 * 変更のあったユーザのトークンをすべて削除する.
+	 */
+	@Override
+	public void userChanged(final String username) {
+		removeUserTokens(username);
+	}
+
+	/**
+	 * 平文のパスワードも権限も変わらないので何もしない.
+	 */
+	@Override
+	public void passwordEncodingUpgraded(final String username) {}
+
+	/**
+	 * 有効期間を過ぎたトークンをまとめて削除する.
+	 * @param now 現在時刻（ミリ秒）
+	 * @return 削除したトークンの数
+	 */
+	public int purgeExpired(final long now) {
+		final long cutoff = now - validityMillis;
+		final List<String> expired = new ArrayList<String>();
+		for (final PersistentRememberMeToken token : tokens.values()) {
+			if (token.getDate().getTime() < cutoff) {
+				expired.add(token.getSeries());
+			}
+		}
+		if (expired.isEmpty()) {
+			return 0;
+		}
+		int count = 0;
+		long sequence = 0;
+		synchronized (writeLock) {
+			for (final String series : expired) {
+				// 走査の後に使用されたトークンは削除しない
+				final PersistentRememberMeToken token = tokens.get(series);
+				if (token != null && token.getDate().getTime() < cutoff) {
+					sequence = removeLocked(series);
+					count++;
+				}
+			}
+		}
+		expirations.addAndGet(count);
+		afterWrite(sequence);
+		return count;
+	}
+
+	/**
+	 * 保持しているトークンの数を返す.
+	 * @return トークンの数
+	 */
+	public int size() {
+		return tokens.size();
+	}
+
+	/**
+	 * 上限を超えたため削除したトークンの数を返す.
+	 * @return トークンの数
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * 有効期間を過ぎたため削除したトークンの数を返す.
+	 * @return トークンの数
+	 */
+	public long getExpirations() {
+		return expirations.get();
+	}
+
+	/**
+	 * スナップショットを作成してから格納先を閉じる.
+	 */
+	public void close() {
+		maintenance.shutdown();
+		if (log == null) {
+			return;
+		}
+		try {
+			maintenance.awaitTermination(10, TimeUnit.SECONDS);
+			final boolean dirty;
+			synchronized (writeLock) {
+				dirty = recordsSinceSnapshot > 0;
+			}
+			if (dirty) {
+				snapshot();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (final IOException e) {
+			logger.warn("Failed to write remember-me token snapshot on close.", e);
+		} finally {
+			log.close();
+		}
+	}
+
+	/**
+	 * トークンをマップに追加する. {@link #writeLock}を保持した状態で呼び出す。
+	 * @param token トークン
+	 */
+	private void index(final PersistentRememberMeToken token) {
+		if (tokens.put(token.getSeries(), token) != null) {
+			return;
+		}
+		List<String> userSeries = seriesByUser.get(token.getUsername());
+		if (userSeries == null) {
+			userSeries = new ArrayList<String>(2);
+			seriesByUser.put(token.getUsername(), userSeries);
+		}
+		userSeries.add(token.getSeries());
+	}
+
+	/**
+	 * トークンをマップから取り除く. {@link #writeLock}を保持した状態で呼び出す。
+	 * @param series シリーズ
+	 * @return 取り除いた場合は{@code true}
+	 */
+	private boolean unindex(final String series) {
+		final PersistentRememberMeToken removed = tokens.remove(series);
+		if (removed == null) {
+			return false;
+		}
+		final List<String> userSeries = seriesByUser.get(removed.getUsername());
+		if (userSeries != null) {
+			userSeries.remove(series);
+			if (userSeries.isEmpty()) {
+				seriesByUser.remove(removed.getUsername());
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * トークンを削除してログに記録する. {@link #writeLock}を保持した状態で呼び出す。
+	 * @param series シリーズ
+	 * @return 追記したレコードの通し番号（追記しなかった場合は{@code 0}）
+	 */
+	private long removeLocked(final String series) {
+		return unindex(series) ? append(encodeRemove(series)) : 0;
+	}
+
+	/**
+	 * シリーズのうち最後に使用された日時が最も古いものを返す. {@link #writeLock}を保持した状態で呼び出す。
+	 * @param series シリーズのリスト
+	 * @return シリーズ
+	 */
+	private String oldest(final List<String> series) {
+		String result = null;
+		long oldest = Long.MAX_VALUE;
+		for (final String s : series) {
+			final long time = tokens.get(s).getDate().getTime();
+			if (time < oldest) {
+				oldest = time;
+				result = s;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * マップの先頭付近のトークンのうち最後に使用された日時が最も古いもののシリーズを返す.
+	 * <p>マップの走査順はシリーズ（乱数）のハッシュ値の順なので、先頭付近のトークンは無作為に選んだものとみなせる。</p>
+	 * @return シリーズ
+	 */
+	private String sampleOldest() {
+		String result = null;
+		long oldest = Long.MAX_VALUE;
+		int samples = 0;
+		for (final PersistentRememberMeToken token : tokens.values()) {
+			if (token.getDate().getTime() < oldest) {
+				oldest = token.getDate().getTime();
+				result = token.getSeries();
+			}
+			if (++samples == EVICTION_SAMPLES) {
+				break;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * ログを使用する場合はレコードを追記する. {@link #writeLock}を保持した状態で呼び出す。
+	 * @param payload レコード
+	 * @return レコードの通し番号（ログを使用しない場合は{@code 0}）
+	 */
+	private long append(final byte[] payload) {
+		if (log == null) {
+			return 0;
+		}
+		try {
+			final long sequence = log.append(payload);
+			recordsSinceSnapshot++;
+			return sequence;
+		} catch (final IOException e) {
+			throw new RuntimeException("Failed to write remember-me token log.", e);
+		}
+	}
+
+	/**
+	 * 必要に応じてログの同期を待ち、スナップショットの作成を開始する.
+	 * @param sequence 最後に追記したレコードの通し番号（追記していない場合は{@code 0}）
+	 */
+	private void afterWrite(final long sequence) {
+		if (log == null || sequence == 0) {
+			return;
+		}
+		if (syncOnWrite) {
+			try {
+				log.sync(sequence);
+			} catch (final IOException e) {
+				throw new RuntimeException("Failed to sync remember-me token log.", e);
+			}
+		}
+		final boolean due;
+		synchronized (writeLock) {
+			due = recordsSinceSnapshot >= snapshotEveryRecords;
+			if (due) {
+				// 作成の完了を待たずに次の要求が来ても重ねて作成しないよう先に数え直す
+				recordsSinceSnapshot = 0;
+			}
+		}
+		if (due) {
+			maintenance.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						snapshot();
+					} catch (final IOException e) {
+						logger.warn("Failed to write remember-me token snapshot.", e);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * スナップショットを作成し、不要になったログとスナップショットを削除する.
+	 * <p>{@link #maintenance}のスレッドもしくは{@link #close()}からのみ呼び出されるため、同時に実行されることはない。</p>
+	 * @throws IOException 書き込みに失敗した場合
+	 */
+	private void snapshot() throws IOException {
+		final long index;
+		final List<PersistentRememberMeToken> copy;
+		synchronized (writeLock) {
+			index = log.roll();
+			copy = new ArrayList<PersistentRememberMeToken>(tokens.values());
+			recordsSinceSnapshot = 0;
+		}
+		final Iterator<PersistentRememberMeToken> iterator = copy.iterator();
+		SampleSnapshotFile.write(directory, NAME, index, new Iterator<byte[]>() {
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+			@Override
+			public byte[] next() {
+				return encodePut(iterator.next());
+			}
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		});
+		SampleSnapshotFile.deleteBefore(directory, NAME, index);
+		log.deleteSegmentsBefore(index);
+	}
+
+	/**
+	 * レコードを再生する.
+	 * @param payload レコード
+	 * @throws IOException レコードの形式が不正な場合
+	 */
+	private void replay(final byte[] payload) throws IOException {
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		final byte op = in.readByte();
+		if (op == OP_PUT) {
+			final String series = in.readUTF();
+			final String username = in.readUTF();
+			final String tokenValue = in.readUTF();
+			index(new PersistentRememberMeToken(username, series, tokenValue, new Date(in.readLong())));
+		} else if (op == OP_REMOVE) {
+			unindex(in.readUTF());
+		} else {
+			throw new IOException(String.format("Unknown remember-me token log record type %d.", op));
+		}
+	}
+
+	/**
+	 * トークンの登録・更新をレコードに変換する.
+	 * @param token トークン
+	 * @return レコード
+	 */
+	private static byte[] encodePut(final PersistentRememberMeToken token) {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		final DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(OP_PUT);
+			out.writeUTF(token.getSeries());
+			out.writeUTF(token.getUsername());
+			out.writeUTF(token.getTokenValue());
+			out.writeLong(token.getDate().getTime());
+		} catch (final IOException e) {
+			// ByteArrayOutputStreamへの書き込みでは発生しない
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * トークンの削除をレコードに変換する.
+	 * @param series シリーズ
+	 * @return レコード
+	 */
+	private static byte[] encodeRemove(final String series) {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+		final DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(OP_REMOVE);
+			out.writeUTF(series);
+		} catch (final IOException e) {
+			// ByteArrayOutputStreamへの書き込みでは発生しない
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+}
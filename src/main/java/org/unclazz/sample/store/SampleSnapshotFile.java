@@ -0,0 +1,213 @@
+package org.unclazz.sample.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * {@link SampleAppendOnlyLog}と組み合わせて使用するスナップショット・ファイルのユーティリティ.
+ * <p>スナップショット・ファイル{@code <name>.<セグメント番号>.snapshot}は、
+ * 番号が示すセグメントより前のすべてのレコードを反映した状態を保持する。
+ * したがって起動時には最新のスナップショットを読み込んだ後、その番号以降のセグメントだけを再生すればよい。</p>
+ * <p>ファイルは{@code [マジック・ナンバー]([長さ][レコード])*[-1][CRC32]}の形式で、
+ * 一時ファイルに書き込んで同期してから名前を変更するため、書き込み途中のファイルが読み込まれることはない。
+ * 名前の変更の後はディレクトリも同期するので、呼び出し側がその後で古いスナップショットやログを削除しても、
+ * 障害の後に新旧どちらも失われていることはない。</p>
+ */
+public final class SampleSnapshotFile {
+	private static final Log logger = LogFactory.getLog(SampleSnapshotFile.class);
+
+	/**
+	 * ファイルの先頭に置くマジック・ナンバー.
+	 */
+	private static final int MAGIC = 0x534e4150;
+
+	/**
+	 * スナップショット・ファイルの拡張子.
+	 */
+	private static final String SUFFIX = ".snapshot";
+
+	/**
+	 * 入出力のバッファの長さ.
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * インスタンス化させない.
+	 */
+	private SampleSnapshotFile() {}
+
+	/**
+	 * 最新のスナップショットを読み込む.
+	 * @param directory スナップショット・ファイルを格納するディレクトリ
+	 * @param name スナップショットの名前
+	 * @param handler レコードを受け取るハンドラ
+	 * @return 読み込んだスナップショットの番号（スナップショットが存在しない場合は0）
+	 * @throws IOException ファイルの読み込みに失敗した場合や、ファイルが壊れていた場合
+	 */
+	public static long load(final File directory, final String name,
+			final SampleAppendOnlyLog.RecordHandler handler) throws IOException {
+		final long index = latestIndex(directory, name);
+		if (index < 0) {
+			return 0;
+		}
+		final File file = snapshotFile(directory, name, index);
+		final CheckedInputStream checked = new CheckedInputStream(
+				new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE), new CRC32());
+		final DataInputStream in = new DataInputStream(checked);
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(String.format("Not a snapshot file \"%s\".", file));
+			}
+			int length;
+			while ((length = in.readInt()) >= 0) {
+				final byte[] payload = new byte[length];
+				in.readFully(payload);
+				handler.handle(payload);
+			}
+			final long expected = checked.getChecksum().getValue();
+			if (in.readLong() != expected) {
+				throw new IOException(String.format("Snapshot file \"%s\" is corrupted.", file));
+			}
+		} finally {
+			in.close();
+		}
+		return index;
+	}
+
+	/**
+	 * スナップショットを書き込む.
+	 * @param directory スナップショット・ファイルを格納するディレクトリ
+	 * @param name スナップショットの名前
+	 * @param index スナップショットの番号（このスナップショットが反映しているセグメントの次の番号）
+	 * @param records レコード
+	 * @throws IOException ファイルの書き込みに失敗した場合
+	 */
+	public static void write(final File directory, final String name, final long index,
+			final Iterator<byte[]> records) throws IOException {
+		final File file = snapshotFile(directory, name, index);
+		final File temporary = new File(directory, file.getName() + ".tmp");
+		final FileOutputStream fileOut = new FileOutputStream(temporary);
+		final CheckedOutputStream checked = new CheckedOutputStream(
+				new BufferedOutputStream(fileOut, BUFFER_SIZE), new CRC32());
+		final DataOutputStream out = new DataOutputStream(checked);
+		try {
+			out.writeInt(MAGIC);
+			while (records.hasNext()) {
+				final byte[] payload = records.next();
+				out.writeInt(payload.length);
+				out.write(payload);
+			}
+			out.writeInt(-1);
+			out.flush();
+			out.writeLong(checked.getChecksum().getValue());
+			out.flush();
+			fileOut.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if (!temporary.renameTo(file)) {
+			throw new IOException(String.format("Failed to rename \"%s\" to \"%s\".", temporary, file));
+		}
+		syncDirectory(directory);
+	}
+
+	/**
+	 * ディレクトリを同期し、ファイルの作成や名前の変更をディスクに反映する.
+	 * <p>Java 6のAPIではディレクトリを開けないため、Java 7以降で実行されている場合に限り
+	 * リフレクションで{@code FileChannel.open(directory.toPath(), READ).force(true)}を呼び出す。
+	 * ディレクトリを開けないプラットフォーム（Windowsなど）では何もしない。</p>
+	 * @param directory ディレクトリ
+	 * @throws IOException 同期に失敗した場合
+	 */
+	static void syncDirectory(final File directory) throws IOException {
+		final FileChannel channel;
+		try {
+			final Class<?> pathClass = Class.forName("java.nio.file.Path");
+			final Class<?> optionClass = Class.forName("java.nio.file.OpenOption");
+			final Object options = Array.newInstance(optionClass, 1);
+			Array.set(options, 0, Class.forName("java.nio.file.StandardOpenOption").getField("READ").get(null));
+			final Method open = FileChannel.class.getMethod("open", pathClass, options.getClass());
+			channel = (FileChannel) open.invoke(null, File.class.getMethod("toPath").invoke(directory), options);
+		} catch (final InvocationTargetException e) {
+			logger.debug(String.format("Cannot open directory \"%s\" to sync.", directory), e.getCause());
+			return;
+		} catch (final Exception e) {
+			// Java 6
+			return;
+		}
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * 指定された番号より前のスナップショット・ファイルを削除する.
+	 * @param directory スナップショット・ファイルを格納するディレクトリ
+	 * @param name スナップショットの名前
+	 * @param index スナップショットの番号
+	 */
+	public static void deleteBefore(final File directory, final String name, final long index) {
+		for (final String fileName : list(directory, name)) {
+			final long i = indexOf(name, fileName);
+			if (i >= 0 && i < index && !new File(directory, fileName).delete()) {
+				logger.warn(String.format("Failed to delete snapshot \"%s\".", fileName));
+			}
+		}
+	}
+
+	/**
+	 * 最新のスナップショットの番号を返す.
+	 * @param directory スナップショット・ファイルを格納するディレクトリ
+	 * @param name スナップショットの名前
+	 * @return 番号（スナップショットが存在しない場合は-1）
+	 */
+	private static long latestIndex(final File directory, final String name) {
+		long latest = -1;
+		for (final String fileName : list(directory, name)) {
+			latest = Math.max(latest, indexOf(name, fileName));
+		}
+		return latest;
+	}
+
+	private static String[] list(final File directory, final String name) {
+		final String[] names = directory.list(new FilenameFilter() {
+			@Override
+			public boolean accept(final File dir, final String fileName) {
+				return fileName.startsWith(name + ".") && fileName.endsWith(SUFFIX);
+			}
+		});
+		return names == null ? new String[0] : names;
+	}
+
+	private static long indexOf(final String name, final String fileName) {
+		try {
+			return Long.parseLong(fileName.substring(name.length() + 1, fileName.length() - SUFFIX.length()));
+		} catch (final NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static File snapshotFile(final File directory, final String name, final long index) {
+		return new File(directory, String.format("%s.%016d%s", name, index, SUFFIX));
+	}
+}
@@ -0,0 +1,60 @@
+package org.unclazz.sample.store;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.unclazz.sample.entity.User;
+
+/**
+ * ユーザIDをキーとするユーザ情報の二次索引.
+ * <p>ユーザ名をキーとする主たるマップとは別に、ユーザIDの順序でユーザ情報を保持する。
+ * {@link #after(int, int)}はIDが指定の値より大きいユーザ情報を先頭から指定の件数だけ返すので、
+ * 一覧の何ページ目であっても、前のページの最後のIDから索引をたどるだけで次のページを取得できる（キーセット・ページング）。
+ * 開始位置を探す時間は件数に対して対数的にしか増えず、それより前のユーザ情報を読み飛ばすことはない。</p>
+ * <p>{@link ConcurrentSkipListMap}にもとづくため、読み取りはロックなしで行われ、
+ * 更新と並行して行っても例外は発生しない（ただし更新の途中の状態が見えることはある）。</p>
+ */
+public class SampleUserIdIndex {
+	/**
+	 * ユーザIDをキーとするユーザ情報のマップ.
+	 */
+	private final ConcurrentNavigableMap<Integer, User> users = new ConcurrentSkipListMap<Integer, User>();
+
+	/**
+	 * ユーザ情報の登録・更新を索引に反映する.
+	 * @param previous 同じユーザ名の更新前のユーザ情報（新規登録の場合は{@code null}）
+	 * @param user 登録・更新後のユーザ情報
+	 */
+	public void put(final User previous, final User user) {
+		if (previous != null && previous.getId() != user.getId()) {
+			users.remove(previous.getId(), previous);
+		}
+		users.put(user.getId(), user);
+	}
+
+	/**
+	 * ユーザ情報の削除を索引に反映する.
+	 * @param user 削除したユーザ情報
+	 */
+	public void remove(final User user) {
+		users.remove(user.getId(), user);
+	}
+
+	/**
+	 * ユーザIDが指定の値より大きいユーザ情報をIDの昇順で返す.
+	 * @param afterId ユーザID（先頭から取得する場合は{@code 0}）
+	 * @param limit 最大件数
+	 * @return ユーザ情報のリスト
+	 */
+	public List<User> after(final int afterId, final int limit) {
+		final List<User> result = new ArrayList<User>(Math.min(limit, 1024));
+		final Iterator<User> iterator = users.tailMap(afterId, false).values().iterator();
+		while (result.size() < limit && iterator.hasNext()) {
+			result.add(iterator.next());
+		}
+		return result;
+	}
+}
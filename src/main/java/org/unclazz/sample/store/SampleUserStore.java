@@ -0,0 +1,79 @@
+package org.unclazz.sample.store;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.unclazz.sample.entity.User;
+import org.unclazz.sample.mapper.SampleUserMapper;
+
+/**
+ * {@link SampleUserMapper}が使用するユーザ情報の格納先.
+ * <p>ユーザ名をキーとしてユーザ情報を保持する。
+ * 複数のスレッドから同時に呼び出されることを前提とし、登録・更新はアトミックに行われる。</p>
+ */
+public interface SampleUserStore {
+	/**
+	 * ユーザ名をキーにしてユーザ情報を取得する.
+	 * @param name ユーザ名
+	 * @return ユーザ情報（存在しない場合は{@code null}）
+	 */
+	User get(String name);
+
+	/**
+	 * 同じユーザ名のユーザ情報が存在しない場合に限り登録する.
+	 * @param user ユーザ情報
+	 * @return 登録した場合は{@code true}
+	 */
+	boolean putIfAbsent(User user);
+
+	/**
+	 * 同じユーザ名のユーザ情報をまとめて登録する.
+	 * @param users ユーザ情報のリスト
+	 * @return 同じユーザ名のユーザ情報が存在したため登録しなかったユーザ情報のリスト
+	 */
+	List<User> putAllIfAbsent(List<User> users);
+
+	/**
+	 * 同じユーザ名のユーザ情報が存在する場合に限り置き換える.
+	 * @param user ユーザ情報
+	 * @return 置き換えた場合は{@code true}
+	 */
+	boolean replace(User user);
+
+	/**
+	 * 同じユーザ名のユーザ情報が{@code expected}と一致する場合に限り置き換える.
+	 * <p>ユーザID・エンコード済みパスワード・管理者権限のいずれかが異なる場合、
+	 * つまり{@code expected}を取得した後にほかのスレッドが更新していた場合は置き換えない。</p>
+	 * @param expected 置き換える前のユーザ情報
+	 * @param user ユーザ情報
+	 * @return 置き換えた場合は{@code true}
+	 */
+	boolean replace(User expected, User user);
+
+	/**
+	 * すべてのユーザ情報を返す.
+	 * @return ユーザ情報のコレクション（変更不可）
+	 */
+	Collection<User> values();
+
+	/**
+	 * ユーザIDが指定の値より大きいユーザ情報をIDの昇順で返す.
+	 * <p>前のページの最後のユーザIDを渡すことで次のページを取得する。
+	 * 何ページ目であっても処理時間はほぼ一定である。</p>
+	 * @param afterId ユーザID（先頭から取得する場合は{@code 0}）
+	 * @param limit 最大件数
+	 * @return ユーザ情報のリスト
+	 */
+	List<User> valuesAfter(int afterId, int limit);
+
+	/**
+	 * 登録済みのユーザIDの最大値を返す.
+	 * @return ユーザIDの最大値（ユーザが存在しない場合は0）
+	 */
+	int maxId();
+
+	/**
+	 * 格納先を閉じる.
+	 */
+	void close();
+}
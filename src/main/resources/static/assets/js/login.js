@@ -0,0 +1,6 @@
+(function () {
+	var username = document.getElementById('username');
+	if (username) {
+		username.focus();
+	}
+})();
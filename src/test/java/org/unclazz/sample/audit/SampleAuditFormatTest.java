@@ -0,0 +1,102 @@
+package org.unclazz.sample.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.text.DateFormat;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * {@link SampleAuditFormat}で1行に変換したイベントが、エスケープが必要な値を含んでいても
+ * 元のとおりに読み戻せることを確認するテスト.
+ */
+public class SampleAuditFormatTest {
+	private static final long TIMESTAMP = 1234567890123L;
+
+	@Test
+	public void escapedValuesRoundTrip() {
+		final List<String> values = Arrays.asList(
+				null,
+				"",
+				"-",
+				"--",
+				"\\-",
+				"alice",
+				"a\tb",
+				"line1\nline2\r\n",
+				"C:\\Users\\alice",
+				"\\t is not a tab",
+				"ends with \\",
+				"\\",
+				"ユーザ\t名");
+		final DateFormat format = SampleAuditFormat.timestampFormat();
+		for (final String value : values) {
+			final SampleAuditEvent event = new SampleAuditEvent(TIMESTAMP, SampleAuditEvent.Type.USER_UPDATED,
+					value, value, value, value);
+			final String line = line(event, format);
+			assertEquals(5, count(line, '\t'));
+			assertEquals(-1, line.indexOf('\n'));
+			assertEquals(-1, line.indexOf('\r'));
+
+			final SampleAuditEvent parsed = SampleAuditFormat.parse(line, format);
+			assertEquals(TIMESTAMP, parsed.getTimestamp());
+			assertEquals(SampleAuditEvent.Type.USER_UPDATED, parsed.getType());
+			assertEquals(value, parsed.getActor());
+			assertEquals(value, parsed.getSubject());
+			assertEquals(value, parsed.getRemoteAddress());
+			assertEquals(value, parsed.getDetail());
+			assertEquals(TIMESTAMP, SampleAuditFormat.timestamp(line, format));
+		}
+	}
+
+	@Test
+	public void everyTypeRoundTrips() {
+		final DateFormat format = SampleAuditFormat.timestampFormat();
+		for (final SampleAuditEvent.Type type : SampleAuditEvent.Type.values()) {
+			final SampleAuditEvent event = new SampleAuditEvent(TIMESTAMP, type, null, "bob", "127.0.0.1", null);
+			assertEquals(type, SampleAuditFormat.parse(line(event, format), format).getType());
+		}
+	}
+
+	@Test
+	public void malformedLinesAreRejected() {
+		final DateFormat format = SampleAuditFormat.timestampFormat();
+		assertNull(SampleAuditFormat.parse("", format));
+		assertNull(SampleAuditFormat.parse("2009-02-13T23:31:30.123Z\tLOGIN_SUCCESS\t-\tbob\t-", format));
+		assertNull(SampleAuditFormat.parse("2009-02-13T23:31:30.123Z\tUNKNOWN\t-\tbob\t-\t-", format));
+		assertNull(SampleAuditFormat.parse("yesterday\tLOGIN_SUCCESS\t-\tbob\t-\t-", format));
+		assertEquals(-1, SampleAuditFormat.timestamp("no tabs", format));
+		assertEquals(-1, SampleAuditFormat.timestamp("yesterday\tLOGIN_SUCCESS", format));
+	}
+
+	@Test
+	public void fileNameRoundTrips() {
+		final String name = SampleAuditFormat.fileName(TIMESTAMP);
+		assertEquals("audit-20090213-233130-123.log", name);
+		assertEquals(TIMESTAMP, SampleAuditFormat.createdMillis(new File(name)));
+		assertEquals(-1, SampleAuditFormat.createdMillis(new File("audit-.log")));
+		assertTrue(SampleAuditFormat.createdMillis(new File("x.log")) < 0);
+	}
+
+	private static String line(final SampleAuditEvent event, final DateFormat format) {
+		final StringBuilder out = new StringBuilder();
+		SampleAuditFormat.format(event, format, out);
+		assertEquals('\n', out.charAt(out.length() - 1));
+		return out.substring(0, out.length() - 1);
+	}
+
+	private static int count(final String s, final char c) {
+		int count = 0;
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) == c) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,154 @@
+package org.unclazz.sample.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * {@link SampleAuditRingBuffer}の一周をまたぐ追加・取り出しと、一杯の場合の破棄、
+ * 複数のスレッドからの追加を確認するテスト.
+ */
+public class SampleAuditRingBufferTest {
+	private static final int PRODUCERS = 4;
+	private static final int ITEMS_PER_PRODUCER = 200000;
+
+	@Test
+	public void capacityIsRoundedUpToPowerOfTwo() {
+		assertEquals(1, new SampleAuditRingBuffer<Integer>(1).capacity());
+		assertEquals(8, new SampleAuditRingBuffer<Integer>(5).capacity());
+		assertEquals(8, new SampleAuditRingBuffer<Integer>(8).capacity());
+		assertEquals(16, new SampleAuditRingBuffer<Integer>(9).capacity());
+	}
+
+	@Test
+	public void wrapsAroundInOrder() {
+		final SampleAuditRingBuffer<Integer> buffer = new SampleAuditRingBuffer<Integer>(8);
+		final List<Integer> drained = new ArrayList<Integer>();
+		int next = 0;
+		int expected = 0;
+		// 追加と取り出しの数をずらしながら何周もさせる
+		for (int round = 0; round < 100; round++) {
+			final int offers = 1 + round % 8;
+			for (int i = 0; i < offers; i++) {
+				if (buffer.offer(next)) {
+					next++;
+				}
+			}
+			drained.clear();
+			buffer.drain(drained, 1 + round % 5);
+			for (final Integer value : drained) {
+				assertEquals(expected++, value.intValue());
+			}
+		}
+		drained.clear();
+		buffer.drain(drained, Integer.MAX_VALUE);
+		for (final Integer value : drained) {
+			assertEquals(expected++, value.intValue());
+		}
+		assertEquals(next, expected);
+		assertTrue(next > 8 * 10);
+		assertEquals(0, buffer.size());
+	}
+
+	@Test
+	public void offerFailsWhenFullAndRecoversAfterDrain() {
+		final SampleAuditRingBuffer<Integer> buffer = new SampleAuditRingBuffer<Integer>(4);
+		for (int i = 0; i < 4; i++) {
+			assertTrue(buffer.offer(i));
+		}
+		assertFalse(buffer.offer(4));
+		assertEquals(4, buffer.size());
+
+		final List<Integer> drained = new ArrayList<Integer>();
+		assertEquals(3, buffer.drain(drained, 3));
+		assertEquals(1, buffer.size());
+		for (int i = 5; i < 8; i++) {
+			assertTrue(buffer.offer(i));
+		}
+		assertFalse(buffer.offer(8));
+
+		assertEquals(4, buffer.drain(drained, 10));
+		assertEquals(0, buffer.drain(drained, 10));
+		final int[] expected = {0, 1, 2, 3, 5, 6, 7};
+		assertEquals(expected.length, drained.size());
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], drained.get(i).intValue());
+		}
+	}
+
+	@Test
+	public void concurrentProducersLoseNothingButDrops() throws Exception {
+		final SampleAuditRingBuffer<Integer> buffer = new SampleAuditRingBuffer<Integer>(1024);
+		final ExecutorService executor = Executors.newFixedThreadPool(PRODUCERS);
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Future<Integer>> futures = new ArrayList<Future<Integer>>(PRODUCERS);
+		final int[] last = new int[PRODUCERS];
+		final int[] received = new int[PRODUCERS];
+		try {
+			for (int p = 0; p < PRODUCERS; p++) {
+				final int producer = p;
+				last[p] = -1;
+				futures.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						start.await();
+						int dropped = 0;
+						for (int i = 0; i < ITEMS_PER_PRODUCER; i++) {
+							// 上位のビットに追加したスレッドを、下位のビットに通し番号を入れる
+							if (!buffer.offer(producer << 24 | i)) {
+								dropped++;
+							}
+						}
+						return dropped;
+					}
+				}));
+			}
+			start.countDown();
+			final List<Integer> drained = new ArrayList<Integer>();
+			for (;;) {
+				// すべてのスレッドが追加を終えたことを確認してから、残りを取り出し切って終える
+				final boolean done = allDone(futures);
+				drained.clear();
+				final int count = buffer.drain(drained, 256);
+				for (final Integer value : drained) {
+					final int producer = value >>> 24;
+					final int sequence = value & (1 << 24) - 1;
+					// 同じスレッドが追加した要素は追加の順に取り出される
+					assertTrue(sequence > last[producer]);
+					last[producer] = sequence;
+					received[producer]++;
+				}
+				if (done && count == 0) {
+					break;
+				}
+			}
+			int total = 0;
+			for (int p = 0; p < PRODUCERS; p++) {
+				total += received[p] + futures.get(p).get();
+			}
+			assertEquals(PRODUCERS * ITEMS_PER_PRODUCER, total);
+			assertEquals(0, buffer.size());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static boolean allDone(final List<Future<Integer>> futures) {
+		for (final Future<Integer> future : futures) {
+			if (!future.isDone()) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,447 @@
+package org.unclazz.sample.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.unclazz.sample.SampleApplication;
+import org.unclazz.sample.entity.User;
+import org.unclazz.sample.mapper.SampleUserMapper;
+import org.unclazz.sample.metrics.LatencyHistogram;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * 組み込みサーバに対してログインから管理画面の表示、ログアウトまでの一連の操作を繰り返す負荷試験.
+ * <p>{@link SampleApplication}を{@code 127.0.0.1}のみで待ち受ける組み込みサーバとして空いているポートで起動し、
+ * {@code loadtest.users}人の仮想ユーザがそれぞれ次の操作を繰り返す。</p>
+ * <ol>
+ * <li>{@code GET /login} -- 新しいセッションでログイン画面を取得し、CSRFトークンを取り出す</li>
+ * <li>{@code POST /login} -- {@code loadtest.invalidRatio}の割合で誤ったパスワードを送り、その場合はここで最初に戻る</li>
+ * <li>{@code GET /index}</li>
+ * <li>{@code GET /admin} -- 管理者でないユーザには403が返ることを確認する</li>
+ * <li>{@code GET /logout}</li>
+ * </ol>
+ * <p>{@code loadtest.warmupSeconds}秒の準備期間の後、{@code loadtest.durationSeconds}秒間の結果を操作ごとに集計し、
+ * スループット、レイテンシのパーセンタイル、エラー率を標準出力に表示するとともに{@code loadtest.result}にJSON形式で書き出す。
+ * 想定外のステータス・コードや通信の失敗はエラーとして数える。</p>
+ * <p>アプリケーションの起動を開始してから{@code /ready}が200を返すまでの時間と、
+ * 最初のログイン画面が返されるまでの時間も計測する。{@code loadtest.appWarmup}を{@code false}にすると
+ * アプリケーションのウォームアップを行わずに計測できる。{@code loadtest.warmupSeconds}を{@code 0}にすれば
+ * 起動直後からの結果（例えば最初の1分間のp99）を比較できる。</p>
+ * <p>{@code loadtest.population}に件数を指定すると、その数の合成ユーザを格納先に投入した状態で試験を行う
+ * （{@link org.unclazz.sample.service.SampleUserPopulation}、シードには{@code loadtest.seed}を使用する）。</p>
+ * <p>ログインの試行の制限とユーザごとのセッション数の上限は、同じクライアントから同じユーザで大量にログインする
+ * この試験の性質上、既定では無効にしてある（{@code loadtest.throttle}と{@code loadtest.maxSessionsPerUser}で変更できる）。</p>
+ * <p>JUnitのテストではなく{@link #main(String[])}から実行するプログラムなので、通常のビルドでは
+ * テスト・クラスとしてコンパイルされるだけで実行されない。{@code loadtest}プロファイルを指定した場合にのみ
+ * {@code integration-test}フェーズで実行される。</p>
+ * <pre>
+ * mvn -Ploadtest verify -Dloadtest.users=100 -Dloadtest.durationSeconds=120
+ * mvn -Ploadtest verify -Dloadtest.appWarmup=false -Dloadtest.warmupSeconds=0 -Dloadtest.durationSeconds=60
+ * mvn -Ploadtest verify -Dloadtest.population=1000000
+ * </pre>
+ */
+public class SampleLoadTest {
+	/**
+	 * {@link SampleUserMapper}に登録されているダミーユーザのユーザ名と平文のパスワード.
+	 */
+	private static final String[][] CREDENTIALS = {{"foo", "bar"}, {"foo2", "bar2"}};
+
+	/**
+	 * ログイン画面からCSRFトークンを取り出すための正規表現.
+	 */
+	private static final Pattern CSRF = Pattern.compile("name=\"_csrf\"\\s+value=\"([^\"]+)\"");
+
+	/**
+	 * セッションIDのクッキーを取り出すための正規表現.
+	 */
+	private static final Pattern SESSION_COOKIE = Pattern.compile("(JSESSIONID=[^;]+)");
+
+	/**
+	 * 操作.
+	 */
+	private static enum Step {
+		LOGIN_PAGE("GET /login"),
+		LOGIN_VALID("POST /login (valid)"),
+		LOGIN_INVALID("POST /login (invalid)"),
+		INDEX("GET /index"),
+		ADMIN("GET /admin"),
+		LOGOUT("GET /logout");
+
+		private final String label;
+
+		private Step(final String label) {
+			this.label = label;
+		}
+	}
+
+	/**
+	 * 操作ごとの集計.
+	 */
+	private static final class StepStats {
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final AtomicLong errors = new AtomicLong();
+
+		private void reset() {
+			latency.reset();
+			errors.set(0);
+		}
+	}
+
+	/**
+	 * レスポンス.
+	 */
+	private static final class Response {
+		private int status;
+		private String location;
+		private String body;
+	}
+
+	private final String baseUrl;
+	private final double invalidRatio;
+	private final long thinkMillis;
+	private final boolean[] admin = new boolean[CREDENTIALS.length];
+	private final Map<Step, StepStats> stats = new LinkedHashMap<Step, StepStats>();
+	private volatile boolean running = true;
+
+	/**
+	 * コンストラクタ.
+	 * @param baseUrl サーバのURL
+	 * @param invalidRatio 誤ったパスワードでログインする割合
+	 * @param thinkMillis 操作の間に待つ時間（ミリ秒）
+	 * @param mapper 管理者権限の有無を確認するためのORマッパー
+	 */
+	private SampleLoadTest(final String baseUrl, final double invalidRatio,
+			final long thinkMillis, final SampleUserMapper mapper) {
+		this.baseUrl = baseUrl;
+		this.invalidRatio = invalidRatio;
+		this.thinkMillis = thinkMillis;
+		for (int i = 0; i < CREDENTIALS.length; i++) {
+			final User user = mapper.selectOneByName(CREDENTIALS[i][0]);
+			if (user == null) {
+				throw new IllegalStateException(String.format("Dummy user \"%s\" not found", CREDENTIALS[i][0]));
+			}
+			admin[i] = user.isAdmin();
+		}
+		for (final Step step : Step.values()) {
+			stats.put(step, new StepStats());
+		}
+	}
+
+	public static void main(final String[] args) throws Exception {
+		final int users = Integer.getInteger("loadtest.users", 50);
+		final int warmupSeconds = Integer.getInteger("loadtest.warmupSeconds", 10);
+		final int durationSeconds = Integer.getInteger("loadtest.durationSeconds", 60);
+		final double invalidRatio = Double.parseDouble(System.getProperty("loadtest.invalidRatio", "0.1"));
+		final long thinkMillis = Long.getLong("loadtest.thinkMillis", 0L);
+		final long seed = Long.getLong("loadtest.seed", 1L);
+		final String result = System.getProperty("loadtest.result", "target/loadtest-result.json");
+		final boolean appWarmup = Boolean.parseBoolean(System.getProperty("loadtest.appWarmup", "true"));
+		final int population = Integer.getInteger("loadtest.population", 0);
+
+		final int port = freePort();
+		final long launch = System.nanoTime();
+		final ConfigurableApplicationContext context = new SpringApplicationBuilder(SampleApplication.class).properties(
+				"server.address=127.0.0.1",
+				"server.port=" + port,
+				"sample.warmup.enabled=" + appWarmup,
+				"sample.population.users=" + population,
+				"sample.population.seed=" + seed,
+				"sample.login.throttle.enabled=" + System.getProperty("loadtest.throttle", "false"),
+				"sample.session.maxPerUser=" + System.getProperty("loadtest.maxSessionsPerUser", "-1")).run();
+		try {
+			final SampleLoadTest test = new SampleLoadTest("http://127.0.0.1:" + port,
+					invalidRatio, thinkMillis, context.getBean(SampleUserMapper.class));
+			final Map<String, Object> startup = test.startup(launch);
+			final List<Thread> threads = new ArrayList<Thread>(users);
+			for (int i = 0; i < users; i++) {
+				final Random random = new Random(seed + i);
+				final Thread thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						test.simulate(random);
+					}
+				}, "loadtest-user-" + i);
+				thread.setDaemon(true);
+				threads.add(thread);
+				thread.start();
+			}
+
+			TimeUnit.SECONDS.sleep(warmupSeconds);
+			test.reset();
+			final long start = System.nanoTime();
+			TimeUnit.SECONDS.sleep(durationSeconds);
+			final Map<String, Object> report = test.report(System.nanoTime() - start);
+			test.running = false;
+			for (final Thread thread : threads) {
+				thread.join(TimeUnit.SECONDS.toMillis(10));
+			}
+
+			final Map<String, Object> config = new LinkedHashMap<String, Object>();
+			config.put("users", users);
+			config.put("warmupSeconds", warmupSeconds);
+			config.put("durationSeconds", durationSeconds);
+			config.put("invalidRatio", invalidRatio);
+			config.put("thinkMillis", thinkMillis);
+			config.put("seed", seed);
+			config.put("appWarmup", appWarmup);
+			config.put("population", population);
+			config.put("javaVersion", System.getProperty("java.version"));
+			config.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+			final Map<String, Object> output = new LinkedHashMap<String, Object>();
+			output.put("config", config);
+			output.put("startup", startup);
+			output.put("steps", report);
+			final File file = new File(result);
+			if (file.getParentFile() != null) {
+				file.getParentFile().mkdirs();
+			}
+			new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, output);
+			System.out.println(String.format("Results written to %s", file.getAbsolutePath()));
+		} finally {
+			context.close();
+		}
+	}
+
+	/**
+	 * アプリケーションの準備ができるまで待ち、起動にかかった時間を計測する.
+	 * <p>{@code /ready}が200を返すまでの時間と、その後に最初のログイン画面が返されるまでの時間を標準出力に表示する。</p>
+	 * @param launch アプリケーションの起動を開始した時刻（{@link System#nanoTime()}）
+	 * @return 計測結果のマップ
+	 * @throws IOException 通信に失敗した場合
+	 * @throws InterruptedException 待機中に割り込まれた場合
+	 */
+	private Map<String, Object> startup(final long launch) throws IOException, InterruptedException {
+		final long deadline = launch + TimeUnit.MINUTES.toNanos(5);
+		while (true) {
+			final HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + "/ready").openConnection();
+			connection.setUseCaches(false);
+			final int status = connection.getResponseCode();
+			read(status >= 400 ? connection.getErrorStream() : connection.getInputStream());
+			if (status == 200) {
+				break;
+			}
+			if (System.nanoTime() > deadline) {
+				throw new IllegalStateException(String.format("Application not ready: %d", status));
+			}
+			Thread.sleep(50);
+		}
+		final long ready = System.nanoTime();
+		final Response loginPage = execute(Step.LOGIN_PAGE, "GET", "/login", new String[1], null);
+		final long firstRequest = System.nanoTime();
+		if (loginPage.status != 200) {
+			throw new IllegalStateException(String.format("Unexpected response to first request: %d", loginPage.status));
+		}
+		final Map<String, Object> startup = new LinkedHashMap<String, Object>();
+		startup.put("timeToReadyMillis", TimeUnit.NANOSECONDS.toMillis(ready - launch));
+		startup.put("timeToFirstRequestMillis", TimeUnit.NANOSECONDS.toMillis(firstRequest - launch));
+		startup.put("firstRequestMicros", TimeUnit.NANOSECONDS.toMicros(firstRequest - ready));
+		System.out.println(String.format("ready: %d ms, first request: %d ms (%d us)",
+				startup.get("timeToReadyMillis"), startup.get("timeToFirstRequestMillis"), startup.get("firstRequestMicros")));
+		return startup;
+	}
+
+	/**
+	 * 1人の仮想ユーザとして操作を繰り返す.
+	 * @param random 乱数（仮想ユーザごとに固定のシードで生成する）
+	 */
+	private void simulate(final Random random) {
+		while (running) {
+			final int user = random.nextInt(CREDENTIALS.length);
+			final boolean invalid = random.nextDouble() < invalidRatio;
+			try {
+				// ログイン画面でセッションとCSRFトークンを得る
+				final String[] cookie = new String[1];
+				final Response loginPage = execute(Step.LOGIN_PAGE, "GET", "/login", cookie, null);
+				final Matcher csrf = CSRF.matcher(loginPage.body);
+				if (!check(Step.LOGIN_PAGE, loginPage.status == 200 && csrf.find())) {
+					continue;
+				}
+				final String form = "username=" + URLEncoder.encode(CREDENTIALS[user][0], "UTF-8")
+						+ "&password=" + URLEncoder.encode(invalid ? "wrong" : CREDENTIALS[user][1], "UTF-8")
+						+ "&_csrf=" + URLEncoder.encode(csrf.group(1), "UTF-8");
+				if (invalid) {
+					final Response login = execute(Step.LOGIN_INVALID, "POST", "/login", cookie, form);
+					check(Step.LOGIN_INVALID, login.status == 302 && login.location != null
+							&& login.location.contains("/login?error"));
+					continue;
+				}
+				final Response login = execute(Step.LOGIN_VALID, "POST", "/login", cookie, form);
+				if (!check(Step.LOGIN_VALID, login.status == 302 && login.location != null
+						&& login.location.endsWith("/index"))) {
+					continue;
+				}
+				check(Step.INDEX, execute(Step.INDEX, "GET", "/index", cookie, null).status == 200);
+				check(Step.ADMIN, execute(Step.ADMIN, "GET", "/admin", cookie, null).status == (admin[user] ? 200 : 403));
+				final Response logout = execute(Step.LOGOUT, "GET", "/logout", cookie, null);
+				check(Step.LOGOUT, logout.status == 302 && logout.location != null && logout.location.endsWith("/login"));
+			} catch (final IOException e) {
+				// 通信の失敗はexecuteで記録済み
+			} catch (final InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * リクエストを送り、レイテンシを記録する.
+	 * @param step 操作
+	 * @param method HTTPメソッド
+	 * @param path パス
+	 * @param cookie セッションIDのクッキー（レスポンスで変更された場合は書き換える）
+	 * @param form フォームのパラメータ（ない場合は{@code null}）
+	 * @return レスポンス
+	 * @throws IOException 通信に失敗した場合
+	 * @throws InterruptedException 待機中に割り込まれた場合
+	 */
+	private Response execute(final Step step, final String method, final String path,
+			final String[] cookie, final String form) throws IOException, InterruptedException {
+		if (thinkMillis > 0) {
+			Thread.sleep(thinkMillis);
+		}
+		final long start = System.nanoTime();
+		try {
+			final HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+			connection.setInstanceFollowRedirects(false);
+			connection.setUseCaches(false);
+			connection.setRequestMethod(method);
+			if (cookie[0] != null) {
+				connection.setRequestProperty("Cookie", cookie[0]);
+			}
+			if (form != null) {
+				final byte[] bytes = form.getBytes("UTF-8");
+				connection.setDoOutput(true);
+				connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+				connection.setFixedLengthStreamingMode(bytes.length);
+				final OutputStream out = connection.getOutputStream();
+				try {
+					out.write(bytes);
+				} finally {
+					out.close();
+				}
+			}
+			final Response response = new Response();
+			response.status = connection.getResponseCode();
+			response.location = connection.getHeaderField("Location");
+			response.body = read(response.status >= 400 ? connection.getErrorStream() : connection.getInputStream());
+			final List<String> setCookies = connection.getHeaderFields().get("Set-Cookie");
+			if (setCookies != null) {
+				for (final String setCookie : setCookies) {
+					final Matcher matcher = SESSION_COOKIE.matcher(setCookie);
+					if (matcher.find()) {
+						cookie[0] = matcher.group(1);
+					}
+				}
+			}
+			stats.get(step).latency.recordSince(start);
+			return response;
+		} catch (final IOException e) {
+			stats.get(step).latency.recordSince(start);
+			stats.get(step).errors.incrementAndGet();
+			throw e;
+		}
+	}
+
+	/**
+	 * レスポンスが想定どおりでなければエラーとして数える.
+	 * @param step 操作
+	 * @param ok 想定どおりの場合は{@code true}
+	 * @return {@code ok}
+	 */
+	private boolean check(final Step step, final boolean ok) {
+		if (!ok) {
+			stats.get(step).errors.incrementAndGet();
+		}
+		return ok;
+	}
+
+	/**
+	 * 集計を破棄する（準備期間の終了時に呼び出す）.
+	 */
+	private void reset() {
+		for (final StepStats s : stats.values()) {
+			s.reset();
+		}
+	}
+
+	/**
+	 * 集計結果を標準出力に表示し、JSONに書き出すためのマップとして返す.
+	 * @param elapsedNanos 計測期間（ナノ秒）
+	 * @return 操作をキーとする集計結果のマップ
+	 */
+	private Map<String, Object> report(final long elapsedNanos) {
+		final double seconds = elapsedNanos / 1e9;
+		final Map<String, Object> result = new LinkedHashMap<String, Object>();
+		System.out.println(String.format("%-24s %10s %10s %8s %10s %10s %10s %10s",
+				"step", "count", "req/s", "error%", "p50(us)", "p99(us)", "p999(us)", "max(us)"));
+		for (final Map.Entry<Step, StepStats> e : stats.entrySet()) {
+			final Map<String, Long> latency = e.getValue().latency.snapshot();
+			final long count = latency.get("count");
+			final long errors = e.getValue().errors.get();
+			final double throughput = count / seconds;
+			final double errorRate = count == 0 ? 0 : (double) errors / count;
+			System.out.println(String.format("%-24s %10d %10.1f %8.2f %10d %10d %10d %10d",
+					e.getKey().label, count, throughput, errorRate * 100, latency.get("p50Micros"),
+					latency.get("p99Micros"), latency.get("p999Micros"), latency.get("maxMicros")));
+			final Map<String, Object> step = new LinkedHashMap<String, Object>();
+			step.put("count", count);
+			step.put("errors", errors);
+			step.put("errorRate", errorRate);
+			step.put("throughputPerSecond", throughput);
+			step.putAll(latency);
+			result.put(e.getKey().label, step);
+		}
+		return result;
+	}
+
+	/**
+	 * ストリームを最後まで読み、文字列として返す.
+	 * @param in ストリーム（{@code null}の場合は空文字列を返す）
+	 * @return 文字列
+	 * @throws IOException 読み込みに失敗した場合
+	 */
+	private static String read(final InputStream in) throws IOException {
+		if (in == null) {
+			return "";
+		}
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			final byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		return out.toString("UTF-8");
+	}
+
+	private static int freePort() throws IOException {
+		final ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package org.unclazz.sample.mapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.unclazz.sample.entity.User;
+import org.unclazz.sample.store.SampleInMemoryUserStore;
+
+/**
+ * {@link SampleUserIdSequence}を多数のスレッドから同時に使用した場合に
+ * 採番されたIDが一意であることを確認するテスト.
+ */
+public class SampleUserIdSequenceTest {
+	private static final int THREADS = 16;
+	private static final int IDS_PER_THREAD = 20000;
+
+	@Test
+	public void nextValIsUniqueAcrossThreads() throws Exception {
+		final SampleUserIdSequence sequence = new SampleUserIdSequence(1, 64);
+		final List<int[]> results = runConcurrently(new IdSource() {
+			@Override
+			public int next(final int i) {
+				return sequence.nextVal();
+			}
+		});
+		assertUnique(results, 1);
+	}
+
+	@Test
+	public void nextValAndAllocateDoNotOverlap() throws Exception {
+		final SampleUserIdSequence sequence = new SampleUserIdSequence(1, 64);
+		final List<int[]> results = runConcurrently(new IdSource() {
+			private final ThreadLocal<int[]> block = new ThreadLocal<int[]>() {
+				@Override
+				protected int[] initialValue() {
+					return new int[2];
+				}
+			};
+
+			@Override
+			public int next(final int i) {
+				if (i % 2 == 0) {
+					return sequence.nextVal();
+				}
+				// 一括登録と同じく連続したIDをまとめて確保し、順に使う
+				final int[] b = block.get();
+				if (b[0] >= b[1]) {
+					b[0] = sequence.allocate(100);
+					b[1] = b[0] + 100;
+				}
+				return b[0]++;
+			}
+		});
+		assertUnique(results, 1);
+	}
+
+	@Test
+	public void mapperNeverReusesStoredIds() throws Exception {
+		final SampleInMemoryUserStore store = new SampleInMemoryUserStore();
+		final int stored = 5000;
+		for (int id = 1; id <= stored; id++) {
+			final User user = new User();
+			user.setId(id);
+			user.setName("stored" + id);
+			store.putIfAbsent(user);
+		}
+		final SampleUserMapper mapper = new SampleUserMapper(store);
+		final List<int[]> results = runConcurrently(new IdSource() {
+			@Override
+			public int next(final int i) {
+				return i % 10 == 0 ? mapper.selectNextVals(1) : mapper.selectNextVal();
+			}
+		});
+		assertUnique(results, stored + 1);
+	}
+
+	@Test
+	public void advancePastIsNeverUndone() throws Exception {
+		final SampleUserIdSequence sequence = new SampleUserIdSequence(1, 1);
+		final List<int[]> results = runConcurrently(new IdSource() {
+			@Override
+			public int next(final int i) {
+				// 小さい値への巻き戻しが起きないことを、同時に採番しながら確認する
+				sequence.advancePast(i);
+				return sequence.nextVal();
+			}
+		});
+		assertUnique(results, 1);
+		assertTrue(sequence.allocate(1) > IDS_PER_THREAD);
+	}
+
+	/**
+	 * スレッドの番号と何回目かを受け取ってIDを返す.
+	 */
+	private interface IdSource {
+		int next(int i);
+	}
+
+	/**
+	 * {@link #THREADS}個のスレッドで同時に{@link #IDS_PER_THREAD}回ずつ採番する.
+	 * @param source 採番の方法
+	 * @return スレッドごとの採番結果
+	 */
+	private static List<int[]> runConcurrently(final IdSource source) throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		final CountDownLatch start = new CountDownLatch(1);
+		try {
+			final List<Future<int[]>> futures = new ArrayList<Future<int[]>>(THREADS);
+			for (int t = 0; t < THREADS; t++) {
+				futures.add(executor.submit(new Callable<int[]>() {
+					@Override
+					public int[] call() throws Exception {
+						final int[] ids = new int[IDS_PER_THREAD];
+						start.await();
+						for (int i = 0; i < ids.length; i++) {
+							ids[i] = source.next(i);
+						}
+						return ids;
+					}
+				}));
+			}
+			start.countDown();
+			final List<int[]> results = new ArrayList<int[]>(THREADS);
+			for (final Future<int[]> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static void assertUnique(final List<int[]> results, final int min) {
+		final BitSet seen = new BitSet();
+		int count = 0;
+		for (final int[] ids : results) {
+			for (final int id : ids) {
+				assertTrue(String.format("id %d is below %d", id, min), id >= min);
+				assertTrue(String.format("id %d is duplicated", id), !seen.get(id));
+				seen.set(id);
+				count++;
+			}
+		}
+		assertEquals(THREADS * IDS_PER_THREAD, count);
+	}
+}
@@ -0,0 +1,99 @@
+package org.unclazz.sample.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.core.session.SessionInformation;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.unclazz.sample.metrics.SampleMetrics;
+
+/**
+ * {@link SampleSessionRegistry}で同じユーザのセッションの登録と削除を多数のスレッドから同時に行っても、
+ * 最後のセッションの削除に伴うユーザごとの集合の破棄によってセッションが失われないことを確認するテスト.
+ */
+public class SampleSessionRegistryTest {
+	private static final int THREADS = 8;
+	private static final int SESSIONS_PER_THREAD = 200000;
+	private static final int KEEP_EVERY = 1000;
+
+	private SampleSessionRegistry registry;
+
+	@Before
+	public void setUp() {
+		registry = new SampleSessionRegistry();
+		ReflectionTestUtils.setField(registry, "metrics", new SampleMetrics());
+		ReflectionTestUtils.setField(registry, "idleSeconds", 1800);
+		ReflectionTestUtils.setField(registry, "maxSessions", Integer.MAX_VALUE);
+		registry.initialize();
+	}
+
+	@After
+	public void tearDown() {
+		registry.shutdown();
+	}
+
+	@Test
+	public void concurrentRegisterAndRemoveKeepsEverySession() throws Exception {
+		final Set<String> kept = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		final CountDownLatch start = new CountDownLatch(1);
+		try {
+			final List<Future<Void>> futures = new ArrayList<Future<Void>>(THREADS);
+			for (int t = 0; t < THREADS; t++) {
+				final int thread = t;
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						start.await();
+						for (int i = 0; i < SESSIONS_PER_THREAD; i++) {
+							final String sessionId = thread + "-" + i;
+							registry.registerNewSession(sessionId, "alice");
+							// ほとんどのセッションはすぐに削除し、集合が空になって破棄される状況を繰り返し作る
+							if (i % KEEP_EVERY == 0) {
+								kept.add(sessionId);
+							} else {
+								registry.removeSessionInformation(sessionId);
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			start.countDown();
+			for (final Future<Void> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertEquals(THREADS * SESSIONS_PER_THREAD / KEEP_EVERY, kept.size());
+		final Set<String> visible = new HashSet<String>();
+		for (final SessionInformation info : registry.getAllSessions("alice", true)) {
+			visible.add(info.getSessionId());
+		}
+		assertEquals(kept, visible);
+		assertEquals(Collections.<Object>singletonList("alice"), registry.getAllPrincipals());
+
+		for (final String sessionId : kept) {
+			registry.removeSessionInformation(sessionId);
+		}
+		assertTrue(registry.getAllSessions("alice", true).isEmpty());
+		assertTrue(registry.getAllPrincipals().isEmpty());
+	}
+}
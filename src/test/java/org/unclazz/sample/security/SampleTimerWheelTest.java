@@ -0,0 +1,166 @@
+package org.unclazz.sample.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * {@link SampleTimerWheel}のカスケード、最大の範囲を超える期限、取り出し後の登録し直しを確認するテスト.
+ * <p>1刻みを1ミリ秒とし、時刻を1刻みずつ進めて要素が期限のちょうどその刻みで取り出されることを確認する。</p>
+ */
+public class SampleTimerWheelTest {
+	/**
+	 * 1段目・2段目の輪が一周する刻み数.
+	 */
+	private static final int LEVEL1 = 64;
+	private static final int LEVEL2 = 64 * 64;
+
+	/**
+	 * 登録できる期限の最大の刻み数（{@code SampleTimerWheel.MAX_DELTA}）.
+	 */
+	private static final long MAX_DELTA = (1L << 24) - 1;
+
+	@Test
+	public void expiresExactlyAtCascadeBoundaries() {
+		final long[] deltas = {0, 1, LEVEL1 - 1, LEVEL1, LEVEL1 + 1, 2 * LEVEL1,
+				LEVEL2 - 1, LEVEL2, LEVEL2 + 1, LEVEL2 + LEVEL1, 2 * LEVEL2, 2 * LEVEL2 + 1};
+		// 輪の境界に揃った時刻と揃っていない時刻の両方から始める
+		for (final long start : new long[] {0, 1, LEVEL1 - 1, LEVEL2 - 1, 12345}) {
+			final SampleTimerWheel<Long> wheel = new SampleTimerWheel<Long>(1, start);
+			for (final long delta : deltas) {
+				wheel.schedule(start + delta, start + delta);
+			}
+			final Map<Long, Long> expiredAt = runUntil(wheel, start, start + 2 * LEVEL2 + 1);
+			for (final long delta : deltas) {
+				assertEquals(String.format("start=%d, delta=%d", start, delta),
+						Long.valueOf(start + delta), expiredAt.get(start + delta));
+			}
+			assertEquals(0, wheel.size());
+		}
+	}
+
+	@Test
+	public void expiresAtEveryDeadlineAcrossSecondLevel() {
+		final SampleTimerWheel<Long> wheel = new SampleTimerWheel<Long>(1, 0);
+		final int count = 3 * LEVEL2;
+		for (long deadline = 0; deadline < count; deadline++) {
+			wheel.schedule(deadline, deadline);
+		}
+		assertEquals(count, wheel.size());
+		final Map<Long, Long> expiredAt = runUntil(wheel, 0, count);
+		assertEquals(count, expiredAt.size());
+		for (final Map.Entry<Long, Long> e : expiredAt.entrySet()) {
+			assertEquals(e.getKey(), e.getValue());
+		}
+	}
+
+	@Test
+	public void deadlineBeyondMaxDeltaIsClampedAndPlacedAgain() {
+		final SampleTimerWheel<String> wheel = new SampleTimerWheel<String>(1, 0);
+		final long deadline = MAX_DELTA + 1000;
+		wheel.schedule("far", deadline);
+		final List<String> expired = new ArrayList<String>();
+		// 最上段の最も遠いスロットに達して置き直されても、期限より前には取り出されない
+		wheel.advance(MAX_DELTA, expired);
+		assertTrue(expired.isEmpty());
+		wheel.advance(deadline - 1, expired);
+		assertTrue(expired.isEmpty());
+		assertEquals(1, wheel.size());
+		wheel.advance(deadline, expired);
+		assertEquals(Collections.singletonList("far"), expired);
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void pastDeadlineExpiresOnNextAdvance() {
+		final SampleTimerWheel<String> wheel = new SampleTimerWheel<String>(1, 1000);
+		wheel.schedule("past", 10);
+		final List<String> expired = new ArrayList<String>();
+		wheel.advance(1000, expired);
+		assertEquals(Collections.singletonList("past"), expired);
+	}
+
+	@Test
+	public void pollReturnsNearestLevelFirst() {
+		final SampleTimerWheel<String> wheel = new SampleTimerWheel<String>(1, 0);
+		wheel.schedule("level2", LEVEL2 + 5);
+		wheel.schedule("level1", LEVEL1 + 5);
+		wheel.schedule("level0", 5);
+		assertEquals("level0", wheel.poll());
+		assertEquals("level1", wheel.poll());
+		assertEquals("level2", wheel.poll());
+		assertNull(wheel.poll());
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void rescheduleAfterPoll() {
+		final SampleTimerWheel<String> wheel = new SampleTimerWheel<String>(1, 0);
+		final SampleTimerWheel.Timer<String> a = wheel.schedule("a", 10);
+		final SampleTimerWheel.Timer<String> b = wheel.schedule("b", 20);
+		assertEquals("a", wheel.poll());
+		assertFalse(a.isScheduled());
+		assertTrue(b.isScheduled());
+		assertEquals(1, wheel.size());
+
+		// 取り出したタイマーを上の段に当たる期限で登録し直す
+		wheel.reschedule(a, LEVEL1 + 10);
+		assertTrue(a.isScheduled());
+		assertEquals(LEVEL1 + 10, a.getDeadlineMillis());
+		assertEquals(2, wheel.size());
+
+		final Map<String, Long> expiredAt = runUntil(wheel, 0, LEVEL1 + 10);
+		assertEquals(Long.valueOf(20), expiredAt.get("b"));
+		assertEquals(Long.valueOf(LEVEL1 + 10), expiredAt.get("a"));
+		assertEquals(0, wheel.size());
+
+		// 期限切れで取り出されたタイマーも登録し直せる
+		wheel.reschedule(b, LEVEL2 + LEVEL1);
+		assertEquals(1, wheel.size());
+		assertEquals(Long.valueOf(LEVEL2 + LEVEL1), runUntil(wheel, LEVEL1 + 11, LEVEL2 + LEVEL1).get("b"));
+	}
+
+	@Test
+	public void cancelAndRescheduleWhileScheduled() {
+		final SampleTimerWheel<String> wheel = new SampleTimerWheel<String>(1, 0);
+		final SampleTimerWheel.Timer<String> a = wheel.schedule("a", LEVEL2);
+		wheel.reschedule(a, 30);
+		assertEquals(1, wheel.size());
+		final SampleTimerWheel.Timer<String> b = wheel.schedule("b", 40);
+		wheel.cancel(b);
+		wheel.cancel(b);
+		assertFalse(b.isScheduled());
+		assertEquals(1, wheel.size());
+		final Map<String, Long> expiredAt = runUntil(wheel, 0, LEVEL2);
+		assertEquals(Collections.singletonMap("a", 30L), expiredAt);
+	}
+
+	/**
+	 * 時刻を1刻みずつ進め、要素ごとに取り出された時刻を返す.
+	 * @param wheel ホイール
+	 * @param from 開始時刻
+	 * @param to 終了時刻（これを含む）
+	 * @return 要素をキー、取り出された時刻を値とするマップ
+	 */
+	private static <T> Map<T, Long> runUntil(final SampleTimerWheel<T> wheel, final long from, final long to) {
+		final Map<T, Long> expiredAt = new HashMap<T, Long>();
+		final List<T> expired = new ArrayList<T>();
+		for (long now = from; now <= to; now++) {
+			wheel.advance(now, expired);
+			for (final T item : expired) {
+				assertNull(String.format("%s expired twice", item), expiredAt.put(item, now));
+			}
+			expired.clear();
+		}
+		return expiredAt;
+	}
+}
@@ -0,0 +1,248 @@
+package org.unclazz.sample.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.unclazz.sample.entity.User;
+
+/**
+ * {@link SampleCompactUserStore}に格納したユーザ情報が、索引の作り直しや詰め直しを経ても
+ * 元のとおりに取り出せることを確認するテスト.
+ */
+public class SampleCompactUserStoreTest {
+	/**
+	 * アリーナのチャンクの長さ（{@code SampleCompactUserStore.CHUNK_SIZE}）.
+	 */
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	private static final String SHA256 = "{sha256}9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+	private static final String BCRYPT = "$2a$10$N9qo8uLOickgx2ZMRZoMyeIjZAgcfl7p92ldGxad68LJZdL17lhWy";
+
+	@Test
+	public void getReplaceAndValuesAfterAcrossRehash() {
+		final SampleCompactUserStore store = new SampleCompactUserStore();
+		final Object slots = slots(store);
+		// 初期の索引（64）の3/4を超えるまで登録して作り直させる
+		final int count = 1000;
+		for (int id = 1; id <= count; id++) {
+			assertTrue(store.putIfAbsent(user(id, "user" + id, SHA256, id % 10 == 0)));
+		}
+		assertNotSame(slots, slots(store));
+		assertFalse(store.putIfAbsent(user(count + 1, "user1", null, false)));
+		assertEquals(count, store.size());
+		assertEquals(count, store.maxId());
+
+		for (int id = 1; id <= count; id++) {
+			assertUser(user(id, "user" + id, SHA256, id % 10 == 0), store.get("user" + id));
+		}
+		assertNull(store.get("user0"));
+
+		final User current = store.get("user500");
+		assertTrue(store.replace(current, user(500, "user500", BCRYPT, true)));
+		assertFalse(store.replace(current, user(500, "user500", null, false)));
+		assertUser(user(500, "user500", BCRYPT, true), store.get("user500"));
+
+		final List<User> page = store.valuesAfter(498, 3);
+		assertEquals(3, page.size());
+		assertUser(user(499, "user499", SHA256, false), page.get(0));
+		assertUser(user(500, "user500", BCRYPT, true), page.get(1));
+		assertUser(user(501, "user501", SHA256, false), page.get(2));
+		assertEquals(count, store.values().size());
+		assertEquals(count, countValues(store));
+	}
+
+	@Test
+	public void getReplaceAndValuesAfterAcrossCompaction() {
+		final SampleCompactUserStore store = new SampleCompactUserStore();
+		final int count = 100;
+		for (int id = 1; id <= count; id++) {
+			assertTrue(store.putIfAbsent(user(id, "user" + id, SHA256, false)));
+		}
+		final Object table = ReflectionTestUtils.getField(store, "table");
+		// 不要になったレコードが有効なレコードの数と1ページ分の両方を超えるまで置き換える
+		final int rounds = 12;
+		for (int round = 0; round < rounds; round++) {
+			for (int id = 1; id <= count; id++) {
+				final User current = store.get("user" + id);
+				assertTrue(store.replace(current, user(id, "user" + id, password(round, id), round % 2 == 0)));
+			}
+		}
+		assertNotSame(table, ReflectionTestUtils.getField(store, "table"));
+		assertEquals(count, store.size());
+
+		for (int id = 1; id <= count; id++) {
+			assertUser(user(id, "user" + id, password(rounds - 1, id), false), store.get("user" + id));
+		}
+		final List<User> values = store.valuesAfter(0, Integer.MAX_VALUE);
+		assertEquals(count, values.size());
+		for (int i = 0; i < count; i++) {
+			assertEquals(i + 1, values.get(i).getId());
+		}
+
+		// 詰め直した後も置き換え・登録できる
+		assertTrue(store.replace(user(7, "user7", BCRYPT, true)));
+		assertUser(user(7, "user7", BCRYPT, true), store.get("user7"));
+		assertTrue(store.putIfAbsent(user(count + 1, "new", null, false)));
+		assertUser(user(count + 1, "new", null, false), store.valuesAfter(count, 1).get(0));
+	}
+
+	@Test
+	public void replaceWithDifferentIdMovesIdIndex() {
+		final SampleCompactUserStore store = new SampleCompactUserStore();
+		store.putIfAbsent(user(1, "alice", SHA256, false));
+		store.putIfAbsent(user(2, "bob", SHA256, false));
+		assertTrue(store.replace(user(5, "alice", SHA256, false)));
+		final List<User> values = store.valuesAfter(0, 10);
+		assertEquals(2, values.size());
+		assertEquals("bob", values.get(0).getName());
+		assertEquals("alice", values.get(1).getName());
+		assertEquals(5, values.get(1).getId());
+		assertFalse(store.replace(user(3, "carol", SHA256, false)));
+	}
+
+	@Test
+	public void passwordsRoundTrip() {
+		final List<String> passwords = Arrays.asList(
+				SHA256,
+				SHA256.toUpperCase(),
+				"{sha256}abc",
+				"9f86d081884c7d659a2feaa0c55ad015",
+				"{bcrypt}" + BCRYPT,
+				BCRYPT,
+				"",
+				"{}",
+				"{noop}パスワード",
+				null);
+		final SampleCompactUserStore store = new SampleCompactUserStore();
+		int id = 1;
+		for (final String password : passwords) {
+			assertTrue(store.putIfAbsent(user(id, "user" + id, password, false)));
+			id++;
+		}
+		id = 1;
+		for (final String password : passwords) {
+			assertEquals(password, store.get("user" + id).getPassword());
+			id++;
+		}
+	}
+
+	@Test
+	public void passwordsUpToChunkLimit() {
+		final SampleCompactUserStore store = new SampleCompactUserStore();
+		// 先に少し書き込んでおき、長い値が新しいチャンクに置かれるようにする
+		store.putIfAbsent(user(1, "first", SHA256, false));
+
+		final String raw = repeat('x', CHUNK_SIZE - 4);
+		assertTrue(store.putIfAbsent(user(2, "raw", raw, false)));
+		final String hex = "{x}" + repeat('a', (CHUNK_SIZE - 4 - 3) * 2);
+		assertTrue(store.putIfAbsent(user(3, "hex", hex, false)));
+		// 16進数として格納すると上限を超えるものは、そのまま格納しようとして長すぎると判断される
+		final String longHex = "{sha256}" + repeat('a', (CHUNK_SIZE - 4) * 2);
+		try {
+			store.putIfAbsent(user(4, "longHex", longHex, false));
+			fail();
+		} catch (final IllegalArgumentException e) {
+			// OK
+		}
+		try {
+			store.putIfAbsent(user(4, "tooLong", raw + "x", false));
+			fail();
+		} catch (final IllegalArgumentException e) {
+			// OK
+		}
+		store.putIfAbsent(user(4, "last", BCRYPT, false));
+
+		assertEquals(SHA256, store.get("first").getPassword());
+		assertEquals(raw, store.get("raw").getPassword());
+		assertEquals(hex, store.get("hex").getPassword());
+		assertNull(store.get("longHex"));
+		assertNull(store.get("tooLong"));
+		assertEquals(BCRYPT, store.get("last").getPassword());
+		assertEquals(4, store.size());
+	}
+
+	@Test
+	public void longNames() {
+		final List<String> names = Arrays.asList(
+				repeat('a', 127),
+				repeat('b', 128),
+				repeat('c', 129),
+				repeat('ユ', 43),
+				repeat('ー', 100),
+				repeat('d', 0x7fff));
+		final SampleCompactUserStore store = new SampleCompactUserStore();
+		int id = 1;
+		for (final String name : names) {
+			assertTrue(store.putIfAbsent(user(id, name, SHA256, false)));
+			id++;
+		}
+		id = 1;
+		for (final String name : names) {
+			assertUser(user(id, name, SHA256, false), store.get(name));
+			assertTrue(store.replace(user(id, name, BCRYPT, true)));
+			assertUser(user(id, name, BCRYPT, true), store.get(name));
+			id++;
+		}
+		assertNull(store.get(repeat('b', 127)));
+		assertNull(store.get(repeat('ユ', 42)));
+		final List<User> values = store.valuesAfter(0, names.size());
+		for (int i = 0; i < names.size(); i++) {
+			assertEquals(names.get(i), values.get(i).getName());
+		}
+		try {
+			store.putIfAbsent(user(id, repeat('e', 0x8000), SHA256, false));
+			fail();
+		} catch (final IllegalArgumentException e) {
+			// OK
+		}
+	}
+
+	private static User user(final int id, final String name, final String password, final boolean admin) {
+		final User user = new User();
+		user.setId(id);
+		user.setName(name);
+		user.setPassword(password);
+		user.setAdmin(admin);
+		return user;
+	}
+
+	private static void assertUser(final User expected, final User actual) {
+		assertEquals(expected.getId(), actual.getId());
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getPassword(), actual.getPassword());
+		assertEquals(expected.isAdmin(), actual.isAdmin());
+	}
+
+	private static String password(final int round, final int id) {
+		return round % 3 == 0 ? String.format("{sha256}%064x", round * 1000L + id)
+				: round % 3 == 1 ? BCRYPT + round : null;
+	}
+
+	private static int countValues(final SampleCompactUserStore store) {
+		final List<User> all = new ArrayList<User>();
+		for (final User user : store.values()) {
+			all.add(user);
+		}
+		return all.size();
+	}
+
+	private static Object slots(final SampleCompactUserStore store) {
+		return ReflectionTestUtils.getField(ReflectionTestUtils.getField(store, "table"), "slots");
+	}
+
+	private static String repeat(final char c, final int count) {
+		final char[] chars = new char[count];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+}